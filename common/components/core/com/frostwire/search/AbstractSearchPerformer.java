@@ -32,12 +32,14 @@ public abstract class AbstractSearchPerformer implements SearchPerformer {
     private static final Logger LOG = Logger.getLogger(AbstractSearchPerformer.class);
 
     private final long token;
+    private final PerformerStats stats;
 
     private SearchListener listener;
-    private boolean stopped;
+    private volatile boolean stopped;
 
     public AbstractSearchPerformer(long token) {
         this.token = token;
+        this.stats = new PerformerStats(getClass().getSimpleName());
     }
 
     @Override
@@ -60,6 +62,11 @@ public abstract class AbstractSearchPerformer implements SearchPerformer {
         return stopped;
     }
 
+    @Override
+    public PerformerStats getStats() {
+        return stats;
+    }
+
     protected void onResults(SearchPerformer performer, List<? extends SearchResult> results) {
         try {
             if (listener != null) {
@@ -0,0 +1,113 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.search;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timeouts that follow the latency observed per engine and kind of request.
+ * <p>
+ * The timeout is a multiple of a high percentile of the recent latencies, between a
+ * floor and the configured timeout of the request, which works as the ceiling. Failed
+ * and timed out requests are recorded too, so an engine that times out often keeps a
+ * timeout close to the ceiling. Until there are enough samples the ceiling is used.
+ * 
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class AdaptiveTimeouts {
+
+    public static final String PAGE = "page";
+    public static final String CRAWL = "crawl";
+    public static final String MAGNET = "magnet";
+
+    private static final long WINDOW_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final int NUM_SLOTS = 6;
+    private static final int MIN_SAMPLES = 10;
+
+    private final double percentile;
+    private final double multiplier;
+    private final int floor;
+
+    private final ConcurrentMap<String, RollingHistogram> latencies;
+
+    /**
+     * @param percentile the percentile of the latencies to use, between 0 and 100
+     * @param multiplier how many times the percentile to wait
+     * @param floor the minimum timeout in milliseconds
+     */
+    public AdaptiveTimeouts(double percentile, double multiplier, int floor) {
+        this.percentile = percentile;
+        this.multiplier = multiplier;
+        this.floor = floor;
+        this.latencies = new ConcurrentHashMap<String, RollingHistogram>();
+    }
+
+    public AdaptiveTimeouts() {
+        this(95, 2, 2000);
+    }
+
+    /**
+     * @param latency the milliseconds the request took, succeeded or not
+     */
+    public void record(String engine, String kind, long latency) {
+        getHistogram(engine, kind).record(latency);
+    }
+
+    /**
+     * @param ceiling the configured timeout in milliseconds
+     * @return the timeout to use in milliseconds
+     */
+    public int getTimeout(String engine, String kind, int ceiling) {
+        RollingHistogram histogram = latencies.get(key(engine, kind));
+        if (histogram == null) {
+            return ceiling;
+        }
+
+        RollingHistogram.Snapshot snapshot = histogram.snapshot();
+        if (snapshot.getCount() < MIN_SAMPLES) {
+            return ceiling;
+        }
+
+        long timeout = (long) (snapshot.getPercentile(percentile) * multiplier);
+
+        return (int) Math.max(Math.min(floor, ceiling), Math.min(timeout, ceiling));
+    }
+
+    private RollingHistogram getHistogram(String engine, String kind) {
+        String key = key(engine, kind);
+
+        RollingHistogram histogram = latencies.get(key);
+        if (histogram == null) {
+            histogram = new RollingHistogram(WINDOW_MILLIS, NUM_SLOTS);
+            RollingHistogram previous = latencies.putIfAbsent(key, histogram);
+            if (previous != null) {
+                histogram = previous;
+            }
+        }
+
+        return histogram;
+    }
+
+    private static String key(String engine, String kind) {
+        return engine + ":" + kind;
+    }
+}
@@ -18,6 +18,8 @@
 package com.frostwire.search;
 
 /**
+ * Implementations must be thread safe, the search performers use
+ * the cache concurrently without any external synchronization.
  * 
  * @author gubatron
  * @author aldenml
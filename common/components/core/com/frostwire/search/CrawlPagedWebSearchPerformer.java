@@ -59,7 +59,7 @@ public abstract class CrawlPagedWebSearchPerformer<T extends CrawlableSearchResu
     }
 
     @Override
-    public void crawl(CrawlableSearchResult sr) {
+    public boolean crawl(CrawlableSearchResult sr) {
         if (numCrawls > 0) {
             numCrawls--;
 
@@ -89,6 +89,7 @@ public abstract class CrawlPagedWebSearchPerformer<T extends CrawlableSearchResu
                             cachePut(url, data);
                         } else {
                             LOG.warn("Failed to download data: " + url);
+                            getStats().recordError();
                         }
                     }
 
@@ -98,9 +99,11 @@ public abstract class CrawlPagedWebSearchPerformer<T extends CrawlableSearchResu
                             if (results != null) {
                                 onResults(this, results);
                             }
+                            return true;
                         }
                     } catch (Throwable e) {
                         LOG.warn("Error creating crawled results from downloaded data: " + e.getMessage());
+                        getStats().recordError();
                         cacheRemove(url); // invalidating cache data
                     }
                 } else {
@@ -109,12 +112,16 @@ public abstract class CrawlPagedWebSearchPerformer<T extends CrawlableSearchResu
                         if (results != null) {
                             onResults(this, results);
                         }
+                        return true;
                     } catch (Throwable e) {
                         LOG.warn("Error creating crawled results from search result alone: " + obj.getDetailsUrl() + ", e=" + e.getMessage());
+                        getStats().recordError();
                     }
                 }
             }
         }
+
+        return false;
     }
 
     protected abstract String getCrawlUrl(T sr);
@@ -123,7 +130,14 @@ public abstract class CrawlPagedWebSearchPerformer<T extends CrawlableSearchResu
 
     protected byte[] fetchMagnet(String magnet) {
         if (magnetDownloader != null) {
-            return magnetDownloader.download(magnet, DEFAULT_MAGNET_DOWNLOAD_TIMEOUT);
+            long start = System.nanoTime();
+            byte[] data = null;
+            try {
+                data = magnetDownloader.download(magnet, getTimeout(AdaptiveTimeouts.MAGNET, DEFAULT_MAGNET_DOWNLOAD_TIMEOUT));
+            } finally {
+                recordFetch(AdaptiveTimeouts.MAGNET, start, data != null ? data.length : 0);
+            }
+            return data;
         } else {
             LOG.warn("Magnet downloader not set, download not supported: " + magnet);
             return null;
@@ -132,9 +146,13 @@ public abstract class CrawlPagedWebSearchPerformer<T extends CrawlableSearchResu
 
     private byte[] cacheGet(String key) {
         if (cache != null) {
-            synchronized (cache) {
-                return cache.get(key);
+            byte[] data = cache.get(key);
+            if (data != null) {
+                getStats().recordCacheHit();
+            } else {
+                getStats().recordCacheMiss();
             }
+            return data;
         } else {
             return null;
         }
@@ -142,17 +160,13 @@ public abstract class CrawlPagedWebSearchPerformer<T extends CrawlableSearchResu
 
     private void cachePut(String key, byte[] data) {
         if (cache != null) {
-            synchronized (cache) {
-                cache.put(key, data);
-            }
+            cache.put(key, data);
         }
     }
 
     private void cacheRemove(String key) {
         if (cache != null) {
-            synchronized (cache) {
-                cache.remove(key);
-            }
+            cache.remove(key);
         }
     }
 
@@ -169,18 +183,14 @@ public abstract class CrawlPagedWebSearchPerformer<T extends CrawlableSearchResu
 
     public static void clearCache() {
         if (cache != null) {
-            synchronized (cache) {
-                cache.clear();
-            }
+            cache.clear();
         }
     }
 
     public static long getCacheSize() {
         long result = 0;
         if (cache != null) {
-            synchronized (cache) {
-                result = cache.size();
-            }
+            result = cache.size();
         }
         return result;
     }
@@ -19,29 +19,79 @@
 package com.frostwire.search;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+import com.frostwire.concurrent.DefaultThreadFactory;
+import com.frostwire.logging.Logger;
 import com.frostwire.search.domainalias.DomainAliasManager;
 
 /**
+ * Web search performer that fetches a number of result pages.
+ * <p>
+ * When there is more than one page, the pages are fetched concurrently, with a limit
+ * of concurrent fetches per domain shared by all the searches. The results are sent
+ * in page order, or as the pages arrive if {@link #setOrderedResults(boolean)} is
+ * set to false. Results are always sent from the thread calling {@link #perform()}.
+ * 
  * @author gubatron
  * @author aldenml
  *
  */
 public abstract class PagedWebSearchPerformer extends WebSearchPerformer {
 
+    private static final Logger LOG = Logger.getLogger(PagedWebSearchPerformer.class);
+
+    private static final int MAX_PAGE_THREADS = 8;
+    private static final int MAX_CONCURRENT_PAGES_PER_DOMAIN = 3;
+
+    // if all the threads are busy, the page waits in the queue, so stopping the search can always cancel it
+    private static final ThreadPoolExecutor PAGE_EXECUTOR = newPageExecutor();
+
+    private static final ConcurrentMap<String, Semaphore> DOMAIN_PERMITS = new ConcurrentHashMap<String, Semaphore>();
+
     private final int pages;
 
+    private boolean orderedResults;
+
     public PagedWebSearchPerformer(DomainAliasManager domainAliasManager, long token, String keywords, int timeout, int pages) {
         super(domainAliasManager, token, keywords, timeout);
         this.pages = pages;
+        this.orderedResults = true;
+    }
+
+    public boolean isOrderedResults() {
+        return orderedResults;
+    }
+
+    /**
+     * @param orderedResults true to send the results in page order, false to send them
+     * as soon as each page is parsed
+     */
+    public void setOrderedResults(boolean orderedResults) {
+        this.orderedResults = orderedResults;
     }
 
     @Override
     public void perform() {
-        for (int i = 1; !isStopped() && i <= pages; i++) {
-            onResults(this, searchPage(i));
+        if (pages <= 1) {
+            for (int i = 1; !isStopped() && i <= pages; i++) {
+                onResults(this, searchPage(i));
+            }
+        } else {
+            performPages();
         }
     }
 
@@ -53,6 +103,7 @@ public abstract class PagedWebSearchPerformer extends WebSearchPerformer {
                 return searchPage(text);
             }
         } catch (Throwable e) {
+            getStats().recordError();
             checkAccesibleDomains();
         }
         return Collections.emptyList();
@@ -65,4 +116,77 @@ public abstract class PagedWebSearchPerformer extends WebSearchPerformer {
     protected abstract String getUrl(int page, String encodedKeywords);
 
     protected abstract List<? extends SearchResult> searchPage(String page);
-}
\ No newline at end of file
+
+    private void performPages() {
+        CompletionService<List<? extends SearchResult>> completion = new ExecutorCompletionService<List<? extends SearchResult>>(PAGE_EXECUTOR);
+        List<Future<List<? extends SearchResult>>> futures = new ArrayList<Future<List<? extends SearchResult>>>(pages);
+
+        try {
+            for (int i = 1; !isStopped() && i <= pages; i++) {
+                futures.add(completion.submit(new PageFetch(i)));
+            }
+
+            for (int i = 0; !isStopped() && i < futures.size(); i++) {
+                Future<List<? extends SearchResult>> future = orderedResults ? futures.get(i) : completion.take();
+                onResults(this, getPageResults(future));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            for (Future<List<? extends SearchResult>> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private List<? extends SearchResult> getPageResults(Future<List<? extends SearchResult>> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            LOG.warn("Error fetching search page: " + e.getMessage());
+            return Collections.emptyList();
+        }
+    }
+
+    private static ThreadPoolExecutor newPageExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_PAGE_THREADS, MAX_PAGE_THREADS, 30L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new DefaultThreadFactory("PagedWebSearchPerformer", true));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static Semaphore getDomainPermits(String domain) {
+        Semaphore permits = DOMAIN_PERMITS.get(domain);
+        if (permits == null) {
+            permits = new Semaphore(MAX_CONCURRENT_PAGES_PER_DOMAIN);
+            Semaphore previous = DOMAIN_PERMITS.putIfAbsent(domain, permits);
+            if (previous != null) {
+                permits = previous;
+            }
+        }
+        return permits;
+    }
+
+    private final class PageFetch implements Callable<List<? extends SearchResult>> {
+
+        private final int page;
+
+        public PageFetch(int page) {
+            this.page = page;
+        }
+
+        @Override
+        public List<? extends SearchResult> call() throws Exception {
+            Semaphore permits = getDomainPermits(getDomainNameToUse());
+
+            permits.acquire();
+            try {
+                if (isStopped()) {
+                    return Collections.emptyList();
+                }
+                return searchPage(page);
+            } finally {
+                permits.release();
+            }
+        }
+    }
+}
@@ -13,6 +13,8 @@ public final class PerformerResultListener implements SearchListener {
 
     @Override
     public void onResults(SearchPerformer performer, List<? extends SearchResult> results) {
+        performer.getStats().recordResults(results.size());
+
         List<SearchResult> list = new LinkedList<SearchResult>();
 
         for (SearchResult sr : results) {
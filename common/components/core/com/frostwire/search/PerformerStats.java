@@ -0,0 +1,192 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.search;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Numbers collected during the run of a single search performer, from the moment
+ * it's submitted to the search manager until its last task is done.
+ * <p>
+ * All the methods are thread safe, the performer records from the search threads
+ * and the UI records the results that survive its filter.
+ * 
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class PerformerStats {
+
+    private final String engine;
+    private volatile String domain;
+
+    private final AtomicLong startTime;
+    private final AtomicLong firstResultTime;
+    private volatile long endTime;
+
+    private final AtomicLong fetchTime;
+    private final AtomicLong fetchBytes;
+    private final AtomicLong numFetches;
+    private final AtomicLong numResults;
+    private final AtomicLong numFilteredResults;
+    private final AtomicLong cacheHits;
+    private final AtomicLong cacheMisses;
+    private final AtomicLong errors;
+
+    public PerformerStats(String engine) {
+        this.engine = engine;
+
+        this.startTime = new AtomicLong();
+        this.firstResultTime = new AtomicLong();
+
+        this.fetchTime = new AtomicLong();
+        this.fetchBytes = new AtomicLong();
+        this.numFetches = new AtomicLong();
+        this.numResults = new AtomicLong();
+        this.numFilteredResults = new AtomicLong();
+        this.cacheHits = new AtomicLong();
+        this.cacheMisses = new AtomicLong();
+        this.errors = new AtomicLong();
+    }
+
+    /**
+     * The performer class name.
+     */
+    public String getEngine() {
+        return engine;
+    }
+
+    /**
+     * The domain (or domain alias) last used by the performer, null if it's not a web search.
+     */
+    public String getDomain() {
+        return domain;
+    }
+
+    public void setDomain(String domain) {
+        this.domain = domain;
+    }
+
+    void start() {
+        startTime.compareAndSet(0, System.nanoTime());
+    }
+
+    void finish() {
+        endTime = System.nanoTime();
+    }
+
+    public boolean isFinished() {
+        return endTime != 0;
+    }
+
+    /**
+     * @param time the duration of the fetch, in nanoseconds
+     * @param bytes the size of the response, for text pages the number of characters
+     */
+    public void recordFetch(long time, long bytes) {
+        fetchTime.addAndGet(time);
+        fetchBytes.addAndGet(bytes);
+        numFetches.incrementAndGet();
+    }
+
+    public void recordResults(int n) {
+        if (n > 0) {
+            firstResultTime.compareAndSet(0, System.nanoTime());
+            numResults.addAndGet(n);
+        }
+    }
+
+    public void recordFilteredResults(int n) {
+        numFilteredResults.addAndGet(n);
+    }
+
+    public void recordCacheHit() {
+        cacheHits.incrementAndGet();
+    }
+
+    public void recordCacheMiss() {
+        cacheMisses.incrementAndGet();
+    }
+
+    public void recordError() {
+        errors.incrementAndGet();
+    }
+
+    /**
+     * @return milliseconds from the start to the first result, -1 if there are no results yet
+     */
+    public long getTimeToFirstResult() {
+        long start = startTime.get();
+        long first = firstResultTime.get();
+        return start != 0 && first != 0 ? TimeUnit.NANOSECONDS.toMillis(first - start) : -1;
+    }
+
+    /**
+     * @return milliseconds from the start to the end (or now, if still running), -1 if not started
+     */
+    public long getWallTime() {
+        long start = startTime.get();
+        if (start == 0) {
+            return -1;
+        }
+        long end = endTime;
+        return TimeUnit.NANOSECONDS.toMillis((end != 0 ? end : System.nanoTime()) - start);
+    }
+
+    /**
+     * @return the total milliseconds spent in HTTP fetches
+     */
+    public long getFetchTime() {
+        return TimeUnit.NANOSECONDS.toMillis(fetchTime.get());
+    }
+
+    public long getFetchBytes() {
+        return fetchBytes.get();
+    }
+
+    public long getNumFetches() {
+        return numFetches.get();
+    }
+
+    public long getNumResults() {
+        return numResults.get();
+    }
+
+    public long getNumFilteredResults() {
+        return numFilteredResults.get();
+    }
+
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    @Override
+    public String toString() {
+        return engine + "@" + domain + " [first=" + getTimeToFirstResult() + "ms, wall=" + getWallTime() + "ms, fetch=" + getFetchTime() + "ms/" + getNumFetches() + ", bytes=" + getFetchBytes() + ", results=" + getNumResults() + "/" + getNumFilteredResults()
+                + ", cache=" + getCacheHits() + "/" + getCacheMisses() + ", errors=" + getErrors() + "]";
+    }
+}
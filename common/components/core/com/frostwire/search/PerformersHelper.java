@@ -17,17 +17,15 @@
 
 package com.frostwire.search;
 
-import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.regex.Matcher;
 
 import com.frostwire.search.torrent.TorrentCrawlableSearchResult;
 import com.frostwire.search.torrent.TorrentCrawledSearchResult;
-import com.frostwire.torrent.TOTorrent;
 import com.frostwire.torrent.TOTorrentException;
-import com.frostwire.torrent.TOTorrentFile;
-import com.frostwire.torrent.TorrentUtils;
+import com.frostwire.torrent.TorrentInfoReader;
 
 /**
  * 
@@ -66,15 +64,13 @@ public final class PerformersHelper {
     public static List<? extends SearchResult> crawlTorrent(SearchPerformer performer, TorrentCrawlableSearchResult sr, byte[] data) throws TOTorrentException {
         List<TorrentCrawledSearchResult> list = new LinkedList<TorrentCrawledSearchResult>();
 
-        TOTorrent torrent = TorrentUtils.readFromBEncodedInputStream(new ByteArrayInputStream(data));
+        TorrentInfoReader torrent = TorrentInfoReader.read(ByteBuffer.wrap(data));
 
-        if (torrent != null) {
-            TOTorrentFile[] files = torrent.getFiles();
+        List<TorrentInfoReader.FileEntry> files = torrent.getFiles();
 
-            for (int i = 0; !performer.isStopped() && i < files.length; i++) {
-                TOTorrentFile file = files[i];
-                list.add(new TorrentCrawledSearchResult(sr, file));
-            }
+        for (int i = 0; !performer.isStopped() && i < files.size(); i++) {
+            TorrentInfoReader.FileEntry file = files.get(i);
+            list.add(new TorrentCrawledSearchResult(sr, file.getRelativePath(), file.getLength()));
         }
 
         return list;
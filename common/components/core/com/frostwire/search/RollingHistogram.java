@@ -0,0 +1,209 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.search;
+
+/**
+ * Histogram of the values recorded in the last time window.
+ * <p>
+ * The window is split in slots that are recycled as time passes, so old values
+ * expire a slot at a time. Values are counted in logarithmic buckets, four per power
+ * of two, which keeps the percentiles within 25% of the real value using a fixed
+ * amount of memory.
+ * 
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class RollingHistogram {
+
+    private static final int SUB_BUCKETS = 4;
+    private static final int MAX_POWER = 40;
+    private static final int NUM_BUCKETS = (MAX_POWER + 1) * SUB_BUCKETS;
+
+    private final long slotMillis;
+    private final int[][] counts;
+    private final long[] sums;
+    private final long[] maxs;
+    private final long[] slotStarts;
+
+    /**
+     * @param windowMillis the length of the window
+     * @param numSlots the number of slots the window is divided in
+     */
+    public RollingHistogram(long windowMillis, int numSlots) {
+        this.slotMillis = Math.max(1, windowMillis / numSlots);
+        this.counts = new int[numSlots][NUM_BUCKETS];
+        this.sums = new long[numSlots];
+        this.maxs = new long[numSlots];
+        this.slotStarts = new long[numSlots];
+    }
+
+    /**
+     * @param value non negative value, negative values are ignored
+     */
+    public synchronized void record(long value) {
+        if (value < 0) {
+            return;
+        }
+
+        int slot = currentSlot(System.currentTimeMillis());
+
+        counts[slot][bucket(value)]++;
+        sums[slot] += value;
+        if (value > maxs[slot]) {
+            maxs[slot] = value;
+        }
+    }
+
+    public synchronized Snapshot snapshot() {
+        long now = System.currentTimeMillis();
+        long windowStart = now - slotMillis * slotStarts.length;
+
+        int[] merged = new int[NUM_BUCKETS];
+        long count = 0;
+        long sum = 0;
+        long max = 0;
+
+        for (int slot = 0; slot < slotStarts.length; slot++) {
+            if (slotStarts[slot] > windowStart) {
+                for (int i = 0; i < NUM_BUCKETS; i++) {
+                    merged[i] += counts[slot][i];
+                    count += counts[slot][i];
+                }
+                sum += sums[slot];
+                max = Math.max(max, maxs[slot]);
+            }
+        }
+
+        return new Snapshot(merged, count, sum, max);
+    }
+
+    private int currentSlot(long now) {
+        long slotStart = now - now % slotMillis;
+        int slot = (int) ((now / slotMillis) % slotStarts.length);
+
+        if (slotStarts[slot] != slotStart) {
+            // recycle the expired slot
+            slotStarts[slot] = slotStart;
+            int[] c = counts[slot];
+            for (int i = 0; i < c.length; i++) {
+                c[i] = 0;
+            }
+            sums[slot] = 0;
+            maxs[slot] = 0;
+        }
+
+        return slot;
+    }
+
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        int power = 63 - Long.numberOfLeadingZeros(value);
+        if (power > MAX_POWER) {
+            return NUM_BUCKETS - 1;
+        }
+
+        int sub = (int) ((value >>> (power - 2)) & (SUB_BUCKETS - 1));
+
+        return power * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @return the lowest value counted in the bucket
+     */
+    static long bucketLowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        if (bucket < 2 * SUB_BUCKETS) {
+            // not used, the small values have one bucket each
+            return SUB_BUCKETS;
+        }
+
+        int power = bucket / SUB_BUCKETS;
+        int sub = bucket % SUB_BUCKETS;
+
+        return (1L << power) + ((long) sub << (power - 2));
+    }
+
+    public static final class Snapshot {
+
+        private final int[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        Snapshot(int[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return count > 0 ? (double) sum / count : 0;
+        }
+
+        /**
+         * @param percentile between 0 and 100
+         * @return the approximate value below which the given percent of the values fall,
+         * 0 if there are no values
+         */
+        public long getPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+
+            long rank = (long) Math.ceil(count * percentile / 100.0);
+            if (rank < 1) {
+                rank = 1;
+            }
+
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    long upper = i + 1 < NUM_BUCKETS ? bucketLowerBound(i + 1) - 1 : max;
+                    return Math.min(upper, max);
+                }
+            }
+
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return "[count=" + count + ", mean=" + (long) getMean() + ", p50=" + getPercentile(50) + ", p90=" + getPercentile(90) + ", p99=" + getPercentile(99) + ", max=" + max + "]";
+        }
+    }
+}
@@ -17,19 +17,38 @@
 
 package com.frostwire.search;
 
-import java.util.Collections;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.PriorityBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 import com.frostwire.concurrent.DefaultThreadFactory;
 import com.frostwire.logging.Logger;
 
 /**
+ * Runs the search and crawl tasks in a fixed number of threads.
+ * <p>
+ * Tasks are queued per search token and the tokens are served round robin, so a
+ * new search doesn't wait behind the crawls of older searches. Inside a token the
+ * tasks are queued per performer, also served round robin. The number of tasks
+ * running at the same time for the same engine (performer class) is capped, and the
+ * finish of a search is detected with a per token counter of outstanding tasks.
+ * Stopping a search drops its queued tasks right away, which also happens when the
+ * search reaches the limits set with {@link #setSearchLimits(long, TimeUnit, int)}.
+ * <p>
+ * A result found by several engines of the same search is crawled only once, see
+ * {@link SearchResultKeys}. A result is queued to crawl only if it's not already
+ * queued or running, and it's remembered as crawled only once a crawl succeeds, so
+ * another engine can still crawl it if the first crawl fails or is dropped.
  * 
  * @author gubatron
  * @author aldenml
@@ -41,14 +60,46 @@ public class SearchManagerImpl implements SearchManager {
 
     private static final int DEFAULT_NTHREADS = 4;
 
-    private final ExecutorService executor;
-    private final List<SearchTask> tasks;
+    private final Thread[] workers;
+    private final int maxTasksPerEngine;
+
+    // scheduling state, guarded by lock
+    private final Object lock;
+    private final Map<Long, TokenQueue> queues;
+    private final ArrayDeque<TokenQueue> rotation;
+    private final Map<Class<?>, Integer> runningPerEngine;
+    private boolean shutdown;
+
+    private final SearchMetrics metrics;
+
+    private final ScheduledExecutorService deadlines;
+    private volatile long searchDeadline;
+    private volatile int searchMaxResults;
 
     private SearchManagerListener listener;
 
+    public SearchManagerImpl(int nThreads, int maxTasksPerEngine) {
+        this.maxTasksPerEngine = maxTasksPerEngine;
+
+        this.lock = new Object();
+        this.queues = new HashMap<Long, TokenQueue>();
+        this.rotation = new ArrayDeque<TokenQueue>();
+        this.runningPerEngine = new HashMap<Class<?>, Integer>();
+
+        this.metrics = new SearchMetrics();
+
+        this.deadlines = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("SearchManager-Deadlines", true));
+
+        DefaultThreadFactory threadFactory = new DefaultThreadFactory("SearchManager", false);
+        this.workers = new Thread[nThreads];
+        for (int i = 0; i < nThreads; i++) {
+            workers[i] = threadFactory.newThread(new Worker());
+            workers[i].start();
+        }
+    }
+
     public SearchManagerImpl(int nThreads) {
-        this.executor = newFixedThreadPool(nThreads);
-        this.tasks = Collections.synchronizedList(new LinkedList<SearchTask>());
+        this(nThreads, Math.max(1, nThreads / 2));
     }
 
     public SearchManagerImpl() {
@@ -60,6 +111,17 @@ public class SearchManagerImpl implements SearchManager {
         this.listener = listener;
     }
 
+    /**
+     * Sets when a search is stopped before all its tasks are done.
+     * 
+     * @param deadline the time since the search starts, 0 for no deadline
+     * @param maxResults the number of results considered enough, 0 for no limit
+     */
+    public void setSearchLimits(long deadline, TimeUnit unit, int maxResults) {
+        this.searchDeadline = unit.toMillis(deadline);
+        this.searchMaxResults = maxResults;
+    }
+
     @Override
     public void perform(SearchPerformer performer) {
         if (performer != null) {
@@ -68,8 +130,9 @@ public class SearchManagerImpl implements SearchManager {
             }
 
             performer.registerListener(new PerformerResultListener(this));
+            performer.getStats().start();
 
-            SearchTask task = new PerformTask(this, performer, getOrder(performer.getToken()));
+            SearchTask task = new PerformTask(performer);
 
             submitSearchTask(task);
         } else {
@@ -78,8 +141,34 @@ public class SearchManagerImpl implements SearchManager {
     }
 
     public void submitSearchTask(SearchTask task) {
-        tasks.add(task);
-        executor.execute(task);
+        synchronized (lock) {
+            if (shutdown) {
+                LOG.warn("Search manager is shutdown, task discarded: " + task.performer);
+                return;
+            }
+
+            TokenQueue queue = queues.get(task.getToken());
+            if (queue == null) {
+                queue = new TokenQueue(task.getToken());
+                queues.put(task.getToken(), queue);
+                scheduleDeadline(queue);
+            }
+
+            queue.add(task);
+
+            if (!queue.scheduled) {
+                queue.scheduled = true;
+                rotation.addLast(queue);
+            }
+
+            // one more task, one worker is enough
+            lock.notify();
+        }
+    }
+
+    @Override
+    public SearchMetrics getMetrics() {
+        return metrics;
     }
 
     @Override
@@ -95,24 +184,37 @@ public class SearchManagerImpl implements SearchManager {
     @Override
     public boolean shutdown(long timeout, TimeUnit unit) {
         stop();
-        executor.shutdown();
+
+        synchronized (lock) {
+            shutdown = true;
+            lock.notifyAll();
+        }
+
+        deadlines.shutdownNow();
+
         try {
-            if (!executor.awaitTermination(timeout, unit)) {
-                executor.shutdownNow();
+            if (!awaitTermination(timeout, unit)) {
+                for (Thread worker : workers) {
+                    worker.interrupt();
+                }
                 // wait a while for tasks to respond to being cancelled
-                if (!executor.awaitTermination(timeout, unit)) {
+                if (!awaitTermination(timeout, unit)) {
                     LOG.error("Pool did not terminate");
                     return false;
                 }
             }
         } catch (InterruptedException ie) {
             // (re-)cancel if current thread also interrupted
-            executor.shutdownNow();
+            for (Thread worker : workers) {
+                worker.interrupt();
+            }
             // preserve interrupt status
             Thread.currentThread().interrupt();
         }
 
-        return tasks.isEmpty();
+        synchronized (lock) {
+            return queues.isEmpty();
+        }
     }
 
     protected void onResults(SearchPerformer performer, List<? extends SearchResult> results) {
@@ -123,6 +225,8 @@ public class SearchManagerImpl implements SearchManager {
         } catch (Throwable e) {
             LOG.warn("Error sending results back to receiver: " + e.getMessage());
         }
+
+        checkMaxResults(performer.getToken(), results.size());
     }
 
     protected void onFinished(long token) {
@@ -136,21 +240,50 @@ public class SearchManagerImpl implements SearchManager {
     }
 
     private void stopTasks(long token) {
-        synchronized (tasks) {
-            Iterator<SearchTask> it = tasks.iterator();
+        List<SearchPerformer> performers = new ArrayList<SearchPerformer>();
+        List<SearchPerformer> finishedPerformers = new ArrayList<SearchPerformer>();
+        List<Long> finished = new ArrayList<Long>();
+
+        synchronized (lock) {
+            Iterator<TokenQueue> it = queues.values().iterator();
             while (it.hasNext()) {
-                SearchTask task = it.next();
-                if (token == -1L || task.getToken() == token) {
-                    task.stop();
+                TokenQueue queue = it.next();
+                if (token == -1L || queue.token == token) {
+                    performers.addAll(queue.performers.keySet());
+                    queue.dropQueued(finishedPerformers);
+
+                    if (queue.outstanding == 0) {
+                        it.remove();
+                        queue.cancelDeadline();
+                        finished.add(queue.token);
+                    }
                 }
             }
         }
+
+        for (SearchPerformer performer : performers) {
+            performer.stop();
+        }
+
+        for (SearchPerformer performer : finishedPerformers) {
+            onPerformerFinished(performer);
+        }
+
+        for (Long t : finished) {
+            onFinished(t);
+        }
     }
 
     public void crawl(SearchPerformer performer, CrawlableSearchResult sr) {
         if (performer != null && !performer.isStopped()) {
             try {
-                SearchTask task = new CrawlTask(this, performer, sr, getOrder(performer.getToken()));
+                String key = SearchResultKeys.crawlKey(sr);
+                if (key != null && !startCrawl(performer.getToken(), key)) {
+                    LOG.debug("Search result already crawled or queued to crawl: " + key);
+                    return;
+                }
+
+                SearchTask task = new CrawlTask(performer, sr, key);
                 submitSearchTask(task);
             } catch (Throwable e) {
                 LOG.warn("Error scheduling crawling of search result: " + sr);
@@ -160,56 +293,349 @@ public class SearchManagerImpl implements SearchManager {
         }
     }
 
-    void checkIfFinished(SearchPerformer performer) {
-        SearchTask pendingTask = null;
+    /**
+     * @return false if the key was already crawled or queued to crawl in the search
+     */
+    private boolean startCrawl(long token, String key) {
+        synchronized (lock) {
+            TokenQueue queue = queues.get(token);
+            return queue == null || queue.startCrawl(key);
+        }
+    }
 
-        synchronized (tasks) {
-            Iterator<SearchTask> it = tasks.iterator();
-            while (it.hasNext() && pendingTask == null) {
-                SearchTask task = it.next();
-                if (task.getToken() == performer.getToken() && !task.isStopped()) {
-                    pendingTask = task;
-                }
+    /**
+     * Takes the next task to run, must be called holding the lock.
+     */
+    private SearchTask nextTask() {
+        int n = rotation.size();
+
+        for (int i = 0; i < n; i++) {
+            TokenQueue queue = rotation.pollFirst();
+
+            SearchTask task = queue.pollRunnable();
+
+            if (queue.queued == 0) {
+                queue.scheduled = false;
+            } else {
+                rotation.addLast(queue);
+            }
+
+            if (task != null) {
+                Class<?> engine = task.getEngine();
+                runningPerEngine.put(engine, getRunning(engine) + 1);
+                return task;
+            }
+        }
+
+        return null;
+    }
+
+    private void onTaskDone(SearchTask task) {
+        boolean performerFinished = false;
+        boolean finished = false;
+
+        synchronized (lock) {
+            Class<?> engine = task.getEngine();
+            int running = getRunning(engine) - 1;
+            if (running > 0) {
+                runningPerEngine.put(engine, running);
+            } else {
+                runningPerEngine.remove(engine);
+            }
 
-                if (task.isStopped()) {
-                    it.remove();
+            TokenQueue queue = queues.get(task.getToken());
+            if (queue != null) {
+                queue.finishCrawl(task);
+                performerFinished = queue.remove(task);
+                if (queue.outstanding == 0) {
+                    queues.remove(queue.token);
+                    queue.cancelDeadline();
+                    finished = true;
                 }
             }
+
+            // a slot of the engine is free, at most one task more can run
+            lock.notify();
         }
 
-        if (pendingTask == null) {
-            onFinished(performer.getToken());
+        if (performerFinished) {
+            onPerformerFinished(task.performer);
+        }
+
+        if (finished) {
+            onFinished(task.getToken());
         }
     }
 
-    private int getOrder(long token) {
-        int order = 0;
-        synchronized (tasks) {
-            Iterator<SearchTask> it = tasks.iterator();
-            while (it.hasNext()) {
-                SearchTask task = it.next();
-                if (task.getToken() == token) {
-                    order = order + 1;
+    private void onPerformerFinished(SearchPerformer performer) {
+        try {
+            PerformerStats stats = performer.getStats();
+            stats.finish();
+            metrics.record(stats);
+        } catch (Throwable e) {
+            LOG.warn("Error recording search metrics: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Must be called holding the lock.
+     */
+    private void scheduleDeadline(TokenQueue queue) {
+        long deadline = searchDeadline;
+        if (deadline > 0) {
+            final long token = queue.token;
+            try {
+                queue.deadline = deadlines.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        LOG.info("Search deadline reached, stopping token: " + token);
+                        stopTasks(token);
+                    }
+                }, deadline, TimeUnit.MILLISECONDS);
+            } catch (Throwable e) {
+                LOG.warn("Error scheduling search deadline: " + e.getMessage());
+            }
+        }
+    }
+
+    private void checkMaxResults(long token, int n) {
+        int maxResults = searchMaxResults;
+        if (maxResults <= 0 || n == 0) {
+            return;
+        }
+
+        boolean enough = false;
+
+        synchronized (lock) {
+            TokenQueue queue = queues.get(token);
+            if (queue != null && queue.numResults < maxResults) {
+                queue.numResults += n;
+                enough = queue.numResults >= maxResults;
+            }
+        }
+
+        if (enough) {
+            LOG.info("Search has enough results, stopping token: " + token);
+            stopTasks(token);
+        }
+    }
+
+    private int getRunning(Class<?> engine) {
+        Integer running = runningPerEngine.get(engine);
+        return running != null ? running : 0;
+    }
+
+    private boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+        for (Thread worker : workers) {
+            long millis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (millis > 0) {
+                worker.join(millis);
+            }
+            if (worker.isAlive()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private final class Worker implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    SearchTask task = null;
+
+                    synchronized (lock) {
+                        while (!shutdown && (task = nextTask()) == null) {
+                            lock.wait();
+                        }
+
+                        if (shutdown) {
+                            return;
+                        }
+                    }
+
+                    try {
+                        task.run();
+                    } finally {
+                        onTaskDone(task);
+                    }
                 }
+            } catch (InterruptedException e) {
+                // shutdown now
             }
         }
-        return order;
     }
 
-    private static ExecutorService newFixedThreadPool(int nThreads) {
-        return new ThreadPoolExecutor(nThreads, nThreads, 0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>(), new DefaultThreadFactory("SearchManager", false));
+    /**
+     * The queued tasks of a search token, in a sub-queue per performer.
+     */
+    private final class TokenQueue {
+
+        private final long token;
+        private final Map<SearchPerformer, PerformerQueue> performers;
+        // performers with queued tasks, served round robin
+        private final ArrayDeque<PerformerQueue> ready;
+        // keys of the results crawled
+        private final Set<String> crawled;
+        // keys of the results queued or running to crawl
+        private final Set<String> crawling;
+
+        // queued tasks
+        private int queued;
+        // queued plus running tasks
+        private int outstanding;
+        // true if it's in the rotation
+        private boolean scheduled;
+        // results sent to the listener
+        private int numResults;
+        private ScheduledFuture<?> deadline;
+
+        public TokenQueue(long token) {
+            this.token = token;
+            this.performers = new IdentityHashMap<SearchPerformer, PerformerQueue>();
+            this.ready = new ArrayDeque<PerformerQueue>();
+            this.crawled = new HashSet<String>();
+            this.crawling = new HashSet<String>();
+        }
+
+        public void add(SearchTask task) {
+            PerformerQueue pq = performers.get(task.performer);
+            if (pq == null) {
+                pq = new PerformerQueue(task.getEngine());
+                performers.put(task.performer, pq);
+            }
+
+            pq.tasks.addLast(task);
+            pq.outstanding++;
+            if (!pq.ready) {
+                pq.ready = true;
+                ready.addLast(pq);
+            }
+
+            queued++;
+            outstanding++;
+        }
+
+        /**
+         * Accounts a queued or running task as done.
+         * 
+         * @return true if it was the last task of its performer
+         */
+        public boolean remove(SearchTask task) {
+            outstanding--;
+
+            PerformerQueue pq = performers.get(task.performer);
+            if (pq == null || pq.outstanding <= 1) {
+                performers.remove(task.performer);
+                return true;
+            } else {
+                pq.outstanding--;
+                return false;
+            }
+        }
+
+        /**
+         * The next queued task of a performer whose engine is not running at full capacity,
+         * looks at each performer with queued tasks at most once.
+         */
+        public SearchTask pollRunnable() {
+            int n = ready.size();
+
+            for (int i = 0; i < n; i++) {
+                PerformerQueue pq = ready.pollFirst();
+
+                if (getRunning(pq.engine) < maxTasksPerEngine) {
+                    SearchTask task = pq.tasks.pollFirst();
+                    queued--;
+
+                    if (pq.tasks.isEmpty()) {
+                        pq.ready = false;
+                    } else {
+                        ready.addLast(pq);
+                    }
+
+                    return task;
+                }
+
+                ready.addLast(pq);
+            }
+
+            return null;
+        }
+
+        /**
+         * @return false if the key was already crawled or is queued or running to crawl
+         */
+        public boolean startCrawl(String key) {
+            return !crawled.contains(key) && crawling.add(key);
+        }
+
+        /**
+         * Releases the key of a crawl task that is done or dropped, the key is kept as
+         * crawled only if the crawl succeeded.
+         */
+        public void finishCrawl(SearchTask task) {
+            if (task instanceof CrawlTask) {
+                CrawlTask crawl = (CrawlTask) task;
+                if (crawl.key != null) {
+                    crawling.remove(crawl.key);
+                    if (crawl.crawled) {
+                        crawled.add(crawl.key);
+                    }
+                }
+            }
+        }
+
+        public void cancelDeadline() {
+            if (deadline != null) {
+                deadline.cancel(false);
+                deadline = null;
+            }
+        }
+
+        public void dropQueued(List<SearchPerformer> finishedPerformers) {
+            for (PerformerQueue pq : ready) {
+                for (SearchTask task : pq.tasks) {
+                    finishCrawl(task);
+                    if (remove(task)) {
+                        finishedPerformers.add(task.performer);
+                    }
+                }
+                pq.tasks.clear();
+                pq.ready = false;
+            }
+            ready.clear();
+            queued = 0;
+        }
     }
 
-    private static abstract class SearchTask implements Runnable, Comparable<SearchTask> {
+    private static final class PerformerQueue {
+
+        private final Class<?> engine;
+        private final ArrayDeque<SearchTask> tasks;
+
+        // queued plus running tasks
+        private int outstanding;
+        // true if it's in the ready queue of its token
+        private boolean ready;
+
+        public PerformerQueue(Class<?> engine) {
+            this.engine = engine;
+            this.tasks = new ArrayDeque<SearchTask>();
+        }
+    }
+
+    private static abstract class SearchTask implements Runnable {
 
-        protected final SearchManagerImpl manager;
         protected final SearchPerformer performer;
-        private final int order;
 
-        public SearchTask(SearchManagerImpl manager, SearchPerformer performer, int order) {
-            this.manager = manager;
+        public SearchTask(SearchPerformer performer) {
             this.performer = performer;
-            this.order = order;
         }
 
         public long getToken() {
@@ -220,20 +646,15 @@ public class SearchManagerImpl implements SearchManager {
             return performer.isStopped();
         }
 
-        public void stop() {
-            performer.stop();
-        }
-
-        @Override
-        public int compareTo(SearchTask o) {
-            return order - o.order;
+        public Class<?> getEngine() {
+            return performer.getClass();
         }
     }
 
     private static final class PerformTask extends SearchTask {
 
-        public PerformTask(SearchManagerImpl manager, SearchPerformer performer, int order) {
-            super(manager, performer, order);
+        public PerformTask(SearchPerformer performer) {
+            super(performer);
         }
 
         @Override
@@ -244,10 +665,7 @@ public class SearchManagerImpl implements SearchManager {
                 }
             } catch (Throwable e) {
                 LOG.warn("Error performing search: " + performer + ", e=" + e.getMessage());
-            } finally {
-                if (manager.tasks.remove(this)) {
-                    manager.checkIfFinished(performer);
-                }
+                performer.getStats().recordError();
             }
         }
     }
@@ -255,24 +673,26 @@ public class SearchManagerImpl implements SearchManager {
     private static final class CrawlTask extends SearchTask {
 
         private final CrawlableSearchResult sr;
+        private final String key;
 
-        public CrawlTask(SearchManagerImpl manager, SearchPerformer performer, CrawlableSearchResult sr, int order) {
-            super(manager, performer, order);
+        // set by the worker before the task is reported done
+        private boolean crawled;
+
+        public CrawlTask(SearchPerformer performer, CrawlableSearchResult sr, String key) {
+            super(performer);
             this.sr = sr;
+            this.key = key;
         }
 
         @Override
         public void run() {
             try {
                 if (!isStopped()) {
-                    performer.crawl(sr);
+                    crawled = performer.crawl(sr);
                 }
             } catch (Throwable e) {
                 LOG.warn("Error performing crawling of: " + sr + ", e=" + e.getMessage());
-            } finally {
-                if (manager.tasks.remove(this)) {
-                    manager.checkIfFinished(performer);
-                }
+                performer.getStats().recordError();
             }
         }
     }
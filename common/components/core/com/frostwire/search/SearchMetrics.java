@@ -0,0 +1,202 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.search;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import com.frostwire.logging.Logger;
+
+/**
+ * Aggregates the stats of the finished performers per engine and domain, in
+ * rolling histograms of the last hour.
+ * 
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class SearchMetrics {
+
+    private static final Logger LOG = Logger.getLogger(SearchMetrics.class);
+
+    private static final long WINDOW_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final int NUM_SLOTS = 6;
+
+    private final ConcurrentMap<String, EngineMetrics> engines;
+    private final List<SearchMetricsListener> listeners;
+
+    public SearchMetrics() {
+        this.engines = new ConcurrentHashMap<String, EngineMetrics>();
+        this.listeners = new CopyOnWriteArrayList<SearchMetricsListener>();
+    }
+
+    public void registerListener(SearchMetricsListener listener) {
+        listeners.add(listener);
+    }
+
+    public void unregisterListener(SearchMetricsListener listener) {
+        listeners.remove(listener);
+    }
+
+    public void record(PerformerStats stats) {
+        getEngineMetrics(stats.getEngine(), stats.getDomain()).record(stats);
+
+        for (SearchMetricsListener listener : listeners) {
+            try {
+                listener.onPerformerFinished(stats);
+            } catch (Throwable e) {
+                LOG.warn("Error notifying search metrics listener: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return the metrics of the given engine and domain, created empty if there are none yet
+     */
+    public EngineMetrics getEngineMetrics(String engine, String domain) {
+        String key = domain != null ? engine + "@" + domain : engine;
+
+        EngineMetrics metrics = engines.get(key);
+        if (metrics == null) {
+            metrics = new EngineMetrics(engine, domain);
+            EngineMetrics previous = engines.putIfAbsent(key, metrics);
+            if (previous != null) {
+                metrics = previous;
+            }
+        }
+
+        return metrics;
+    }
+
+    public List<EngineMetrics> getEngineMetrics() {
+        return new ArrayList<EngineMetrics>(engines.values());
+    }
+
+    public static final class EngineMetrics {
+
+        private final String engine;
+        private final String domain;
+
+        private final RollingHistogram timeToFirstResult;
+        private final RollingHistogram wallTime;
+        private final RollingHistogram fetchTime;
+        private final RollingHistogram fetchBytes;
+        private final RollingHistogram results;
+        private final RollingHistogram filteredResults;
+        private final RollingHistogram cacheHits;
+        private final RollingHistogram cacheMisses;
+        private final RollingHistogram errors;
+
+        EngineMetrics(String engine, String domain) {
+            this.engine = engine;
+            this.domain = domain;
+
+            this.timeToFirstResult = newHistogram();
+            this.wallTime = newHistogram();
+            this.fetchTime = newHistogram();
+            this.fetchBytes = newHistogram();
+            this.results = newHistogram();
+            this.filteredResults = newHistogram();
+            this.cacheHits = newHistogram();
+            this.cacheMisses = newHistogram();
+            this.errors = newHistogram();
+        }
+
+        public String getEngine() {
+            return engine;
+        }
+
+        public String getDomain() {
+            return domain;
+        }
+
+        /**
+         * Milliseconds to the first result, only of the runs with results.
+         */
+        public RollingHistogram.Snapshot getTimeToFirstResult() {
+            return timeToFirstResult.snapshot();
+        }
+
+        /**
+         * Milliseconds per run.
+         */
+        public RollingHistogram.Snapshot getWallTime() {
+            return wallTime.snapshot();
+        }
+
+        /**
+         * Milliseconds of HTTP fetches per run.
+         */
+        public RollingHistogram.Snapshot getFetchTime() {
+            return fetchTime.snapshot();
+        }
+
+        public RollingHistogram.Snapshot getFetchBytes() {
+            return fetchBytes.snapshot();
+        }
+
+        public RollingHistogram.Snapshot getResults() {
+            return results.snapshot();
+        }
+
+        public RollingHistogram.Snapshot getFilteredResults() {
+            return filteredResults.snapshot();
+        }
+
+        public RollingHistogram.Snapshot getErrors() {
+            return errors.snapshot();
+        }
+
+        /**
+         * @return the ratio of crawl cache hits in the window, -1 if there were no lookups
+         */
+        public double getCacheHitRatio() {
+            long hits = cacheHits.snapshot().getSum();
+            long lookups = hits + cacheMisses.snapshot().getSum();
+            return lookups > 0 ? (double) hits / lookups : -1;
+        }
+
+        void record(PerformerStats stats) {
+            if (stats.getTimeToFirstResult() >= 0) {
+                timeToFirstResult.record(stats.getTimeToFirstResult());
+            }
+            wallTime.record(stats.getWallTime());
+            fetchTime.record(stats.getFetchTime());
+            fetchBytes.record(stats.getFetchBytes());
+            results.record(stats.getNumResults());
+            filteredResults.record(stats.getNumFilteredResults());
+            cacheHits.record(stats.getCacheHits());
+            cacheMisses.record(stats.getCacheMisses());
+            errors.record(stats.getErrors());
+        }
+
+        @Override
+        public String toString() {
+            return (domain != null ? engine + "@" + domain : engine) + " [first=" + getTimeToFirstResult() + ", wall=" + getWallTime() + ", fetch=" + getFetchTime() + ", bytes=" + getFetchBytes() + ", results=" + getResults() + ", filtered="
+                    + getFilteredResults() + ", cacheHitRatio=" + getCacheHitRatio() + ", errors=" + getErrors() + "]";
+        }
+
+        private static RollingHistogram newHistogram() {
+            return new RollingHistogram(WINDOW_MILLIS, NUM_SLOTS);
+        }
+    }
+}
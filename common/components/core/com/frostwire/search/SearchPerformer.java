@@ -31,9 +31,15 @@ public interface SearchPerformer {
 
     public void perform();
 
-    public void crawl(CrawlableSearchResult sr);
+    /**
+     * @param sr
+     * @return true if the result was crawled, false if it was skipped or the crawl failed
+     */
+    public boolean crawl(CrawlableSearchResult sr);
 
     public void stop();
 
     public boolean isStopped();
+
+    public PerformerStats getStats();
 }
@@ -0,0 +1,208 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.search;
+
+import java.util.Locale;
+
+import com.frostwire.search.torrent.TorrentCrawledSearchResult;
+import com.frostwire.search.torrent.TorrentSearchResult;
+import com.frostwire.util.ByteUtils;
+
+/**
+ * Identity of the search results across engines, used to merge the same torrent
+ * or file found by different engines and to avoid crawling it more than once.
+ * <p>
+ * Torrents are identified by the info hash, in lower case hex even if the engine
+ * gives it in base32, the files inside them by the hash and the path. The other
+ * results are identified by their download or stream URL, normalized so the
+ * scheme, the case of the host, a leading "www.", the default port, the fragment
+ * and a trailing slash don't make a difference.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class SearchResultKeys {
+
+    private static final String BASE32_CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ234567";
+
+    private SearchResultKeys() {
+    }
+
+    /**
+     * @param sr
+     * @return the key of the result, or null if it has nothing to identify it with
+     */
+    public static String key(SearchResult sr) {
+        if (sr instanceof TorrentSearchResult) {
+            String key = torrentKey((TorrentSearchResult) sr);
+            if (key != null && sr instanceof TorrentCrawledSearchResult) {
+                key = key + "/" + ((TorrentCrawledSearchResult) sr).getRelativePath();
+            }
+            return key;
+        } else if (sr instanceof HttpSearchResult) {
+            return urlKey(((HttpSearchResult) sr).getDownloadUrl());
+        } else if (sr instanceof StreamableSearchResult) {
+            return urlKey(((StreamableSearchResult) sr).getStreamUrl());
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Like {@link #key(SearchResult)}, falling back to the details page for the
+     * results that are crawled from it.
+     */
+    public static String crawlKey(CrawlableSearchResult sr) {
+        String key = key(sr);
+        return key != null ? key : urlKey(sr.getDetailsUrl());
+    }
+
+    /**
+     * @param hash the info hash, in hex or base32
+     * @return the hash in lower case hex, or null if it's not a valid hash
+     */
+    public static String normalizeHash(String hash) {
+        if (hash == null) {
+            return null;
+        }
+
+        hash = hash.trim();
+
+        if (hash.length() == 40) {
+            for (int i = 0; i < 40; i++) {
+                if (Character.digit(hash.charAt(i), 16) == -1) {
+                    return null;
+                }
+            }
+            return hash.toLowerCase(Locale.US);
+        } else if (hash.length() == 32) {
+            return decodeBase32(hash.toUpperCase(Locale.US));
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * @param url
+     * @return the normalized url, or the url itself if it can't be parsed
+     */
+    public static String normalizeUrl(String url) {
+        if (url == null) {
+            return null;
+        }
+
+        url = url.trim();
+
+        int schemeEnd = url.indexOf("://");
+        if (schemeEnd == -1) {
+            return url;
+        }
+
+        String scheme = url.substring(0, schemeEnd).toLowerCase(Locale.US);
+        if (scheme.equals("https")) {
+            scheme = "http";
+        }
+
+        int hostStart = schemeEnd + 3;
+        int pathStart = hostStart;
+        while (pathStart < url.length() && "/?#".indexOf(url.charAt(pathStart)) == -1) {
+            pathStart++;
+        }
+
+        String host = url.substring(hostStart, pathStart).toLowerCase(Locale.US);
+        if (host.startsWith("www.")) {
+            host = host.substring(4);
+        }
+        if (host.endsWith(":80") || host.endsWith(":443")) {
+            host = host.substring(0, host.lastIndexOf(':'));
+        }
+
+        String rest = url.substring(pathStart);
+        int fragment = rest.indexOf('#');
+        if (fragment != -1) {
+            rest = rest.substring(0, fragment);
+        }
+        int query = rest.indexOf('?');
+        int pathEnd = query != -1 ? query : rest.length();
+        if (pathEnd > 0 && rest.charAt(pathEnd - 1) == '/') {
+            rest = rest.substring(0, pathEnd - 1) + rest.substring(pathEnd);
+        }
+
+        return scheme + "://" + host + rest;
+    }
+
+    private static String torrentKey(TorrentSearchResult sr) {
+        String hash = normalizeHash(sr.getHash());
+
+        if (hash == null) {
+            String url = sr.getTorrentUrl();
+            if (url == null) {
+                return null;
+            }
+            if (url.startsWith("magnet:")) {
+                hash = normalizeHash(magnetHash(url));
+            }
+            if (hash == null) {
+                return urlKey(url);
+            }
+        }
+
+        return "btih:" + hash;
+    }
+
+    private static String urlKey(String url) {
+        return url != null && url.length() > 0 ? "url:" + normalizeUrl(url) : null;
+    }
+
+    private static String magnetHash(String magnet) {
+        String prefix = "urn:btih:";
+        int start = magnet.indexOf(prefix);
+        if (start == -1) {
+            return null;
+        }
+        start += prefix.length();
+
+        int end = magnet.indexOf('&', start);
+        return end != -1 ? magnet.substring(start, end) : magnet.substring(start);
+    }
+
+    private static String decodeBase32(String s) {
+        byte[] bytes = new byte[20];
+        int buffer = 0;
+        int bits = 0;
+        int n = 0;
+
+        for (int i = 0; i < s.length(); i++) {
+            int digit = BASE32_CHARS.indexOf(s.charAt(i));
+            if (digit == -1) {
+                return null;
+            }
+
+            buffer = (buffer << 5) | digit;
+            bits += 5;
+
+            if (bits >= 8) {
+                bits -= 8;
+                bytes[n++] = (byte) (buffer >> bits);
+            }
+        }
+
+        return ByteUtils.encodeHex(bytes);
+    }
+}
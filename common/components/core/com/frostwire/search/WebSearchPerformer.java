@@ -19,6 +19,7 @@ package com.frostwire.search;
 
 import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.io.FilenameUtils;
 
@@ -41,6 +42,8 @@ public abstract class WebSearchPerformer extends AbstractSearchPerformer {
 
     private static final String DEFAULT_USER_AGENT = UserAgentGenerator.getUserAgent();
 
+    private static AdaptiveTimeouts adaptiveTimeouts = null;
+
     private static final String[] STREAMABLE_EXTENSIONS = new String[] { "mp3", "ogg", "wma", "wmv", "m4a", "aac", "flac", "mp4", "flv", "mov", "mpg", "mpeg", "3gp", "m4v", "webm" };
 
     private final String keywords;
@@ -64,6 +67,17 @@ public abstract class WebSearchPerformer extends AbstractSearchPerformer {
         this.client = HttpClientFactory.newInstance();
     }
 
+    public static AdaptiveTimeouts getAdaptiveTimeouts() {
+        return adaptiveTimeouts;
+    }
+
+    /**
+     * @param adaptiveTimeouts the timeouts to use, or null to always use the configured ones
+     */
+    public static void setAdaptiveTimeouts(AdaptiveTimeouts adaptiveTimeouts) {
+        WebSearchPerformer.adaptiveTimeouts = adaptiveTimeouts;
+    }
+
     public final String getKeywords() {
         return keywords;
     }
@@ -72,9 +86,19 @@ public abstract class WebSearchPerformer extends AbstractSearchPerformer {
         return encodedKeywords;
     }
 
+    /**
+     * Also cancels the HTTP transfer in progress, if any.
+     */
+    @Override
+    public void stop() {
+        super.stop();
+        client.cancel();
+    }
+
     @Override
-    public void crawl(CrawlableSearchResult sr) {
+    public boolean crawl(CrawlableSearchResult sr) {
         LOG.warn("Review your logic, calling deep search without implementation for: " + sr);
+        return false;
     }
 
     /**
@@ -88,11 +112,25 @@ public abstract class WebSearchPerformer extends AbstractSearchPerformer {
     }
 
     public String fetch(String url, String cookie, Map<String, String> customHeaders) throws IOException {
-        return client.get(url, timeout, DEFAULT_USER_AGENT, null, cookie, customHeaders);
+        long start = System.nanoTime();
+        String page = null;
+        try {
+            page = client.get(url, getTimeout(AdaptiveTimeouts.PAGE, timeout), DEFAULT_USER_AGENT, null, cookie, customHeaders);
+        } finally {
+            recordFetch(AdaptiveTimeouts.PAGE, start, page != null ? page.length() : 0);
+        }
+        return page;
     }
 
     public String post(String url, Map<String, String> formData) {
-        return client.post(url, timeout, DEFAULT_USER_AGENT, formData);
+        long start = System.nanoTime();
+        String page = null;
+        try {
+            page = client.post(url, getTimeout(AdaptiveTimeouts.PAGE, timeout), DEFAULT_USER_AGENT, formData);
+        } finally {
+            recordFetch(AdaptiveTimeouts.PAGE, start, page != null ? page.length() : 0);
+        }
+        return page;
     }
 
     /**
@@ -102,17 +140,54 @@ public abstract class WebSearchPerformer extends AbstractSearchPerformer {
      * @return the raw bytes from the http connection
      */
     public final byte[] fetchBytes(String url) {
-        return fetchBytes(url, null, timeout);
+        return fetchBytes(url, null, timeout, AdaptiveTimeouts.PAGE);
     }
 
+    /**
+     * Fetch of crawl data, the timeout adapts to the latency of the previous crawls.
+     */
     protected final byte[] fetchBytes(String url, String referrer, int timeout) {
+        return fetchBytes(url, referrer, timeout, AdaptiveTimeouts.CRAWL);
+    }
+
+    private byte[] fetchBytes(String url, String referrer, int timeout, String kind) {
         if (url.startsWith("htt")) { // http(s)
-            return client.getBytes(url, timeout, DEFAULT_USER_AGENT, referrer);
+            long start = System.nanoTime();
+            byte[] data = null;
+            try {
+                data = client.getBytes(url, getTimeout(kind, timeout), DEFAULT_USER_AGENT, referrer);
+            } finally {
+                recordFetch(kind, start, data != null ? data.length : 0);
+            }
+            return data;
         } else {
             return null;
         }
     }
 
+    /**
+     * @param kind one of the {@link AdaptiveTimeouts} kinds of request
+     * @param timeout the configured timeout
+     * @return the timeout to use for the next request of the given kind
+     */
+    protected final int getTimeout(String kind, int timeout) {
+        AdaptiveTimeouts timeouts = adaptiveTimeouts;
+        return timeouts != null ? timeouts.getTimeout(getStats().getEngine(), kind, timeout) : timeout;
+    }
+
+    protected final void recordFetch(String kind, long start, long size) {
+        long time = System.nanoTime() - start;
+
+        PerformerStats stats = getStats();
+        stats.setDomain(getDomainNameToUse());
+        stats.recordFetch(time, size);
+
+        AdaptiveTimeouts timeouts = adaptiveTimeouts;
+        if (timeouts != null && !isStopped()) {
+            timeouts.record(stats.getEngine(), kind, TimeUnit.NANOSECONDS.toMillis(time));
+        }
+    }
+
     protected final boolean isStreamable(String filename) {
         String ext = FilenameUtils.getExtension(filename);
         for (String s : STREAMABLE_EXTENSIONS) {
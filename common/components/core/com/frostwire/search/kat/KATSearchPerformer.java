@@ -32,13 +32,15 @@ import com.frostwire.util.JsonUtils;
  */
 public class KATSearchPerformer extends TorrentJsonSearchPerformer<KATItem, KATSearchResult> {
 
+    private static final int MAX_PAGES = 2;
+
     public KATSearchPerformer(DomainAliasManager domainAliasManager, long token, String keywords, int timeout) {
-        super(domainAliasManager, token, keywords, timeout, 1);
+        super(domainAliasManager, token, keywords, timeout, MAX_PAGES);
     }
 
     @Override
     protected String getUrl(int page, String encodedKeywords) {
-        return "http://"+getDomainNameToUse()+"/json.php?q=" + encodedKeywords;
+        return "http://"+getDomainNameToUse()+"/json.php?q=" + encodedKeywords + "&page=" + page;
     }
 
     @Override
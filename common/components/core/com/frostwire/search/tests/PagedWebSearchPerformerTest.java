@@ -0,0 +1,198 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.search.tests;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import com.frostwire.search.AbstractSearchResult;
+import com.frostwire.search.PagedWebSearchPerformer;
+import com.frostwire.search.SearchListener;
+import com.frostwire.search.SearchPerformer;
+import com.frostwire.search.SearchResult;
+import com.frostwire.search.domainalias.DomainAliasManager;
+
+/**
+ * Runs {@link PagedWebSearchPerformer} over pages that take a given time to
+ * arrive, without any network access.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public class PagedWebSearchPerformerTest extends TestCase {
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(PagedWebSearchPerformerTest.class);
+    }
+
+    public void testSinglePage() {
+        StubPerformer performer = new StubPerformer("single.example.com", 0);
+        List<Integer> pages = collect(performer);
+
+        performer.perform();
+
+        assertEquals(Collections.singletonList(1), pages);
+    }
+
+    public void testOrderedResults() {
+        StubPerformer performer = new StubPerformer("ordered.example.com", 300, 0, 100);
+        List<Integer> pages = collect(performer);
+
+        performer.perform();
+
+        assertEquals(list(1, 2, 3), pages);
+        assertTrue("pages not fetched concurrently", performer.maxConcurrent.get() > 1);
+    }
+
+    public void testUnorderedResults() {
+        StubPerformer performer = new StubPerformer("unordered.example.com", 400, 0, 200);
+        performer.setOrderedResults(false);
+        List<Integer> pages = collect(performer);
+
+        performer.perform();
+
+        assertEquals(list(2, 3, 1), pages);
+    }
+
+    public void testDomainLimit() {
+        StubPerformer performer = new StubPerformer("limit.example.com", 100, 100, 100, 100, 100, 100);
+        List<Integer> pages = collect(performer);
+
+        performer.perform();
+
+        assertEquals(list(1, 2, 3, 4, 5, 6), pages);
+        assertTrue("more than 3 concurrent pages: " + performer.maxConcurrent.get(), performer.maxConcurrent.get() <= 3);
+    }
+
+    public void testStop() {
+        final StubPerformer performer = new StubPerformer("stop.example.com", 0, 5000, 5000, 5000, 5000);
+        final List<Integer> pages = new ArrayList<Integer>();
+        performer.registerListener(new SearchListener() {
+            @Override
+            public void onResults(SearchPerformer p, List<? extends SearchResult> results) {
+                add(pages, results);
+                performer.stop();
+            }
+        });
+
+        long start = System.currentTimeMillis();
+        performer.perform();
+
+        // the pending pages are interrupted instead of waiting for them
+        assertTrue(System.currentTimeMillis() - start < 2000);
+        assertEquals(Collections.singletonList(1), pages);
+    }
+
+    private static List<Integer> collect(SearchPerformer performer) {
+        final List<Integer> pages = new ArrayList<Integer>();
+        performer.registerListener(new SearchListener() {
+            @Override
+            public void onResults(SearchPerformer p, List<? extends SearchResult> results) {
+                add(pages, results);
+            }
+        });
+        return pages;
+    }
+
+    private static void add(List<Integer> pages, List<? extends SearchResult> results) {
+        for (SearchResult sr : results) {
+            pages.add(((PageResult) sr).page);
+        }
+    }
+
+    private static List<Integer> list(Integer... values) {
+        List<Integer> list = new ArrayList<Integer>();
+        Collections.addAll(list, values);
+        return list;
+    }
+
+    /**
+     * Each page returns one result after waiting its delay.
+     */
+    private static final class StubPerformer extends PagedWebSearchPerformer {
+
+        private final long[] delays;
+
+        final AtomicInteger concurrent = new AtomicInteger();
+        final AtomicInteger maxConcurrent = new AtomicInteger();
+
+        public StubPerformer(String domain, long... delays) {
+            super(new DomainAliasManager(domain), 0, "test", 5000, delays.length);
+            this.delays = delays;
+        }
+
+        @Override
+        protected List<? extends SearchResult> searchPage(int page) {
+            int n = concurrent.incrementAndGet();
+            try {
+                int max = maxConcurrent.get();
+                while (n > max && !maxConcurrent.compareAndSet(max, n)) {
+                    max = maxConcurrent.get();
+                }
+
+                Thread.sleep(delays[page - 1]);
+
+                return Collections.singletonList(new PageResult(page));
+            } catch (InterruptedException e) {
+                return Collections.emptyList();
+            } finally {
+                concurrent.decrementAndGet();
+            }
+        }
+
+        @Override
+        protected String getUrl(int page, String encodedKeywords) {
+            return null;
+        }
+
+        @Override
+        protected List<? extends SearchResult> searchPage(String page) {
+            return Collections.emptyList();
+        }
+    }
+
+    private static final class PageResult extends AbstractSearchResult {
+
+        final int page;
+
+        public PageResult(int page) {
+            this.page = page;
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "page " + page;
+        }
+
+        @Override
+        public String getDetailsUrl() {
+            return "http://example.com/" + page;
+        }
+
+        @Override
+        public String getSource() {
+            return "test";
+        }
+    }
+}
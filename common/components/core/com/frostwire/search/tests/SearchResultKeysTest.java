@@ -0,0 +1,150 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.search.tests;
+
+import junit.framework.TestCase;
+
+import com.frostwire.search.SearchResultKeys;
+import com.frostwire.search.torrent.AbstractTorrentSearchResult;
+import com.frostwire.search.torrent.TorrentCrawledSearchResult;
+
+/**
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public class SearchResultKeysTest extends TestCase {
+
+    private static final String HEX_HASH = "c12fe1c06bba254a9dc9f519b335aa7c1367a88a";
+    private static final String BASE32_HASH = "YEX6DQDLXISUVHOJ6UM3GNNKPQJWPKEK";
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(SearchResultKeysTest.class);
+    }
+
+    public void testNormalizeHash() {
+        assertEquals(HEX_HASH, SearchResultKeys.normalizeHash(HEX_HASH));
+        assertEquals(HEX_HASH, SearchResultKeys.normalizeHash(" " + HEX_HASH.toUpperCase() + " "));
+        assertEquals(HEX_HASH, SearchResultKeys.normalizeHash(BASE32_HASH));
+        assertEquals(HEX_HASH, SearchResultKeys.normalizeHash(BASE32_HASH.toLowerCase()));
+
+        assertNull(SearchResultKeys.normalizeHash(null));
+        assertNull(SearchResultKeys.normalizeHash(""));
+        assertNull(SearchResultKeys.normalizeHash(HEX_HASH.substring(1)));
+        assertNull(SearchResultKeys.normalizeHash("g" + HEX_HASH.substring(1)));
+        assertNull(SearchResultKeys.normalizeHash("1" + BASE32_HASH.substring(1)));
+    }
+
+    public void testNormalizeUrl() {
+        String url = "http://example.com/path/file.mp3?a=1";
+
+        assertEquals(url, SearchResultKeys.normalizeUrl(url));
+        assertEquals(url, SearchResultKeys.normalizeUrl("https://example.com/path/file.mp3?a=1"));
+        assertEquals(url, SearchResultKeys.normalizeUrl("HTTP://WWW.Example.COM/path/file.mp3?a=1"));
+        assertEquals(url, SearchResultKeys.normalizeUrl("http://example.com:80/path/file.mp3?a=1"));
+        assertEquals(url, SearchResultKeys.normalizeUrl("https://example.com:443/path/file.mp3?a=1#top"));
+        assertEquals(url, SearchResultKeys.normalizeUrl(" http://example.com/path/file.mp3/?a=1 "));
+
+        assertEquals("http://example.com", SearchResultKeys.normalizeUrl("http://example.com/"));
+        assertEquals("http://example.com?q=x", SearchResultKeys.normalizeUrl("http://www.example.com/?q=x"));
+        assertEquals("http://example.com:8080/a", SearchResultKeys.normalizeUrl("http://example.com:8080/a"));
+
+        // the path and the query keep their case
+        assertFalse(SearchResultKeys.normalizeUrl("http://example.com/A").equals(SearchResultKeys.normalizeUrl("http://example.com/a")));
+        assertFalse(SearchResultKeys.normalizeUrl("http://example.com/a?q=A").equals(SearchResultKeys.normalizeUrl("http://example.com/a?q=a")));
+
+        assertNull(SearchResultKeys.normalizeUrl(null));
+        assertEquals("not a url", SearchResultKeys.normalizeUrl("not a url"));
+    }
+
+    public void testTorrentKey() {
+        String key = "btih:" + HEX_HASH;
+
+        assertEquals(key, SearchResultKeys.key(new TorrentResult(HEX_HASH.toUpperCase(), null)));
+        assertEquals(key, SearchResultKeys.key(new TorrentResult(BASE32_HASH, null)));
+        assertEquals(key, SearchResultKeys.key(new TorrentResult(null, "magnet:?xt=urn:btih:" + BASE32_HASH + "&dn=name")));
+        assertEquals(key, SearchResultKeys.key(new TorrentResult("", "magnet:?xt=urn:btih:" + HEX_HASH)));
+
+        assertEquals("url:http://example.com/a.torrent", SearchResultKeys.key(new TorrentResult(null, "https://www.example.com/a.torrent")));
+        assertNull(SearchResultKeys.key(new TorrentResult(null, null)));
+    }
+
+    public void testCrawledKey() {
+        TorrentResult sr = new TorrentResult(HEX_HASH, null);
+
+        assertEquals("btih:" + HEX_HASH + "/music/a.mp3", SearchResultKeys.key(new TorrentCrawledSearchResult(sr, "music/a.mp3", 100)));
+        assertFalse(SearchResultKeys.key(new TorrentCrawledSearchResult(sr, "a.mp3", 100)).equals(SearchResultKeys.key(sr)));
+    }
+
+    public void testCrawlKey() {
+        assertEquals("btih:" + HEX_HASH, SearchResultKeys.crawlKey(new TorrentResult(HEX_HASH, null)));
+        assertEquals("url:http://example.com/details/1", SearchResultKeys.crawlKey(new TorrentResult(null, null)));
+    }
+
+    private static final class TorrentResult extends AbstractTorrentSearchResult {
+
+        private final String hash;
+        private final String torrentUrl;
+
+        public TorrentResult(String hash, String torrentUrl) {
+            this.hash = hash;
+            this.torrentUrl = torrentUrl;
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "name";
+        }
+
+        @Override
+        public String getDetailsUrl() {
+            return "https://www.example.com/details/1/";
+        }
+
+        @Override
+        public String getSource() {
+            return "test";
+        }
+
+        @Override
+        public String getFilename() {
+            return "name.torrent";
+        }
+
+        @Override
+        public long getSize() {
+            return 100;
+        }
+
+        @Override
+        public String getTorrentUrl() {
+            return torrentUrl;
+        }
+
+        @Override
+        public int getSeeds() {
+            return 1;
+        }
+
+        @Override
+        public String getHash() {
+            return hash;
+        }
+    }
+}
@@ -32,17 +32,22 @@ import com.frostwire.search.torrent.TorrentRegexSearchPerformer;
 public class TorLockSearchPerformer extends TorrentRegexSearchPerformer<TorLockSearchResult> {
 
     private static final int MAX_RESULTS = 10;
+    private static final int MAX_PAGES = 2;
     private static final String REGEX = "(?is)<a href=/torrent/([0-9]*?/.*?\\.html)>";
     private static final String HTML_REGEX = "(?is).*?<td><b>Name:</b></td><td>(.*?).torrent</td>.*?<td><b>Size:</b></td><td>(.*?) in .*? file.*?</td>.*?<td><b>Added:</b></td><td>Uploaded on (.*?) by .*?</td>.*?<font color=#FF5400><b>(.*?)</b></font> seeders.*?<td align=center><a href=\"/tor/(.*?).torrent\"><img.*?";
 
     public TorLockSearchPerformer(DomainAliasManager domainAliasManager, long token, String keywords, int timeout) {
-        super(domainAliasManager, token, keywords, timeout, 1, 2 * MAX_RESULTS, MAX_RESULTS, REGEX, HTML_REGEX);
+        super(domainAliasManager, token, keywords, timeout, MAX_PAGES, MAX_PAGES * MAX_RESULTS, MAX_RESULTS, REGEX, HTML_REGEX);
     }
 
     @Override
     protected String getUrl(int page, String encodedKeywords) {
         String transformedKeywords = encodedKeywords.replace("0%20", "-");
-        return "http://" + getDomainNameToUse() + "/all/torrents/" + transformedKeywords + ".html";
+        if (page <= 1) {
+            return "http://" + getDomainNameToUse() + "/all/torrents/" + transformedKeywords + ".html";
+        } else {
+            return "http://" + getDomainNameToUse() + "/all/torrents/" + transformedKeywords + "/" + page + ".html";
+        }
     }
 
     @Override
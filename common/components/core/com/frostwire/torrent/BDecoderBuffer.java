@@ -0,0 +1,394 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.torrent;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bencoding decoder that works directly over a {@link ByteBuffer}, usually a wrapped
+ * array or a memory mapped file, without copying the byte strings.
+ * <p>
+ * {@link #decode()} builds the usual tree of maps, lists and longs, but the byte strings
+ * are read-only slices of the source buffer, so values like <code>pieces</code> are never
+ * materialized unless the caller reads them.
+ * <p>
+ * {@link #accept(Visitor)} streams the structure to a {@link Visitor} without building
+ * any tree, skipping the values of the dictionary keys the visitor is not interested in.
+ * <p>
+ * Instances are not thread safe, but the source buffer is never modified.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class BDecoderBuffer {
+
+    private final ByteBuffer buffer;
+    private final ByteBuffer view;
+
+    private int pos;
+
+    /**
+     * @param buffer the encoded data, from its position to its limit, the position is not changed
+     */
+    public BDecoderBuffer(ByteBuffer buffer) {
+        this.buffer = buffer.slice().asReadOnlyBuffer();
+        this.view = this.buffer.duplicate();
+    }
+
+    /**
+     * Memory maps the file in read only mode, the mapping stays valid after the file
+     * is closed.
+     */
+    public static ByteBuffer map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Decodes the top level dictionary.
+     * <p>
+     * Integers are represented as {@link Long}, byte strings as read-only {@link ByteBuffer}
+     * slices of the source, dictionaries as {@link Map} and lists as {@link List}.
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> decode() throws IOException {
+        pos = 0;
+
+        if (buffer.limit() == 0) {
+            throw new BEncodingException("BDecoder: zero length file");
+        }
+
+        if (peek() != 'd') {
+            throw new BEncodingException("BDecoder: top level isn't a Map");
+        }
+
+        return (Map<String, Object>) decodeValue();
+    }
+
+    /**
+     * Walks the top level dictionary, calling the visitor methods in document order.
+     */
+    public void accept(Visitor visitor) throws IOException {
+        pos = 0;
+
+        if (buffer.limit() == 0) {
+            throw new BEncodingException("BDecoder: zero length file");
+        }
+
+        if (peek() != 'd') {
+            throw new BEncodingException("BDecoder: top level isn't a Map");
+        }
+
+        visitValue(visitor);
+    }
+
+    /**
+     * Copies the remaining bytes of the buffer to a new array, without changing its position.
+     */
+    public static byte[] toByteArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Compares the remaining bytes of the buffer with the characters of an ASCII string,
+     * useful to match dictionary keys without decoding them.
+     */
+    public static boolean equals(ByteBuffer buffer, String ascii) {
+        int length = ascii.length();
+        if (buffer.remaining() != length) {
+            return false;
+        }
+
+        int offset = buffer.position();
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(offset + i) != (byte) ascii.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private Object decodeValue() throws IOException {
+        int b = read();
+
+        switch (b) {
+        case 'd':
+            Map<String, Object> map = new HashMap<String, Object>();
+            while (peek() != 'e') {
+                int length = readLength();
+                String key = new String(bytesAt(length), Constants.BYTE_CHARSET);
+                Object value = decodeValue();
+                if (map.put(key, value) != null) {
+                    Debug.out("BDecoder: key '" + key + "' already exists!");
+                }
+            }
+            pos++;
+            return map;
+
+        case 'l':
+            ArrayList<Object> list = new ArrayList<Object>();
+            while (peek() != 'e') {
+                list.add(decodeValue());
+            }
+            pos++;
+            list.trimToSize();
+            return list;
+
+        case 'i':
+            return Long.valueOf(readLong());
+
+        default:
+            if (b >= '0' && b <= '9') {
+                pos--;
+                int length = readLength();
+                ByteBuffer slice = viewAt(length).slice();
+                pos += length;
+                return slice;
+            }
+            throw new BEncodingException("BDecoder: unknown command '" + b + "' at offset " + (pos - 1));
+        }
+    }
+
+    private void visitValue(Visitor visitor) throws IOException {
+        int start = pos;
+        int b = read();
+
+        switch (b) {
+        case 'd':
+            visitor.beginDictionary(start);
+            while (peek() != 'e') {
+                int length = readLength();
+                boolean wanted = visitor.key(viewAt(length));
+                pos += length;
+                if (wanted) {
+                    visitValue(visitor);
+                } else {
+                    skipValue();
+                }
+            }
+            pos++;
+            visitor.endDictionary(start, pos);
+            break;
+
+        case 'l':
+            visitor.beginList();
+            while (peek() != 'e') {
+                visitValue(visitor);
+            }
+            pos++;
+            visitor.endList();
+            break;
+
+        case 'i':
+            visitor.value(readLong());
+            break;
+
+        default:
+            if (b >= '0' && b <= '9') {
+                pos--;
+                int length = readLength();
+                visitor.value(viewAt(length));
+                pos += length;
+                break;
+            }
+            throw new BEncodingException("BDecoder: unknown command '" + b + "' at offset " + start);
+        }
+    }
+
+    /**
+     * Skips a complete value, iteratively, so deeply nested data can't exhaust the stack.
+     */
+    private void skipValue() throws IOException {
+        int depth = 0;
+
+        do {
+            int b = read();
+
+            switch (b) {
+            case 'd':
+            case 'l':
+                depth++;
+                break;
+
+            case 'e':
+                if (depth == 0) {
+                    throw new BEncodingException("BDecoder: unexpected 'e' at offset " + (pos - 1));
+                }
+                depth--;
+                break;
+
+            case 'i':
+                while (read() != 'e') {
+                }
+                break;
+
+            default:
+                if (b >= '0' && b <= '9') {
+                    pos--;
+                    int length = readLength();
+                    checkAvailable(length);
+                    pos += length;
+                    break;
+                }
+                throw new BEncodingException("BDecoder: unknown command '" + b + "' at offset " + (pos - 1));
+            }
+        } while (depth > 0);
+    }
+
+    private int read() throws IOException {
+        if (pos >= buffer.limit()) {
+            throw new BEncodingException("BDecoder: invalid input data, unexpected end of data");
+        }
+        return buffer.get(pos++) & 0xFF;
+    }
+
+    private int peek() throws IOException {
+        if (pos >= buffer.limit()) {
+            throw new BEncodingException("BDecoder: invalid input data, 'e' missing at end of data");
+        }
+        return buffer.get(pos) & 0xFF;
+    }
+
+    private int readLength() throws IOException {
+        long value = 0;
+
+        int b = read();
+        while (b != ':') {
+            if (b < '0' || b > '9') {
+                throw new BEncodingException("BDecoder: invalid byte string length at offset " + (pos - 1));
+            }
+            value = value * 10 + (b - '0');
+            if (value > Integer.MAX_VALUE) {
+                throw new IOException("Byte array length too large (" + value + ")");
+            }
+            b = read();
+        }
+
+        checkAvailable((int) value);
+
+        return (int) value;
+    }
+
+    private long readLong() throws IOException {
+        int start = pos;
+
+        boolean negative = false;
+        if (peek() == '-') {
+            negative = true;
+            pos++;
+        }
+
+        long value = 0;
+        int digits = 0;
+
+        int b = read();
+        while (b != 'e') {
+            if (b < '0' || b > '9' || digits == 19) {
+                throw new NumberFormatException("Invalid number at offset " + start);
+            }
+            value = value * 10 + (b - '0');
+            digits++;
+            b = read();
+        }
+
+        return negative ? -value : value;
+    }
+
+    private void checkAvailable(int length) throws IOException {
+        if (length > buffer.limit() - pos) {
+            throw new IOException("BDecoder: truncated");
+        }
+    }
+
+    /**
+     * Reuses a single view of the source, only valid until the next call.
+     */
+    private ByteBuffer viewAt(int length) {
+        view.limit(pos + length);
+        view.position(pos);
+        return view;
+    }
+
+    private byte[] bytesAt(int length) {
+        byte[] bytes = new byte[length];
+        viewAt(length).get(bytes);
+        pos += length;
+        return bytes;
+    }
+
+    /**
+     * Receives the structure of the data in document order. All methods do nothing
+     * by default.
+     * <p>
+     * The buffers passed to {@link #key(ByteBuffer)} and {@link #value(ByteBuffer)} are
+     * views of the source reused by the decoder, they are only valid during the call. Use
+     * {@link ByteBuffer#slice()} to keep a zero copy reference to the bytes.
+     */
+    public static abstract class Visitor {
+
+        /**
+         * @param offset of the 'd' in the source
+         */
+        public void beginDictionary(int offset) {
+        }
+
+        /**
+         * @param offset of the 'd' in the source
+         * @param end the offset just after the closing 'e'
+         */
+        public void endDictionary(int offset, int end) {
+        }
+
+        /**
+         * @return false to skip the value of this key without visiting it
+         */
+        public boolean key(ByteBuffer key) {
+            return true;
+        }
+
+        public void beginList() {
+        }
+
+        public void endList() {
+        }
+
+        public void value(long value) {
+        }
+
+        public void value(ByteBuffer value) {
+        }
+    }
+}
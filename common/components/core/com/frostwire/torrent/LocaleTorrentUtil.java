@@ -49,8 +49,17 @@ final class LocaleTorrentUtil {
     static public LocaleUtilDecoder getTorrentEncodingIfAvailable(TOTorrent torrent)
 
     throws TOTorrentException, UnsupportedEncodingException {
-        String encoding = torrent.getAdditionalStringProperty("encoding");
+        return getEncodingIfAvailable(torrent.getAdditionalStringProperty("encoding"));
+    }
 
+    /**
+     * Get the decoder of the <code>encoding</code> value of a torrent, if it's
+     * one of the known decoders.
+     * 
+     * @param encoding the encoding value, may be null
+     * @return the decoder, or null if not available
+     */
+    static public LocaleUtilDecoder getEncodingIfAvailable(String encoding) {
         if (encoding == null) {
             return null;
         }
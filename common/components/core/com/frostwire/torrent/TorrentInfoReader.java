@@ -0,0 +1,419 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.torrent;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads the file list and the info-hash of a torrent without building a {@link TOTorrent}.
+ * <p>
+ * The data is streamed with a {@link BDecoderBuffer.Visitor} that only looks at the
+ * <code>encoding</code> and the <code>info</code> name, lengths and paths, everything else
+ * (announce lists, pieces, etc) is skipped. The path components are kept as slices of the
+ * source data and decoded when requested. The decoder is picked like {@link TOTorrentDeserialiseImpl}
+ * and {@link TOTorrentFileImpl#getRelativePath()} do: the <code>path.utf-8</code> values if all
+ * the files have them and <code>name.utf-8</code> is present, otherwise the decoder of the
+ * <code>encoding</code> key (UTF-8 if the utf-8 keys are present) or the system one.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class TorrentInfoReader {
+
+    private static final int K_OTHER = 0;
+    private static final int K_INFO = 1;
+    private static final int K_ENCODING = 2;
+    private static final int K_NAME = 3;
+    private static final int K_NAME_UTF8 = 4;
+    private static final int K_LENGTH = 5;
+    private static final int K_PIECE_LENGTH = 6;
+    private static final int K_PIECES = 7;
+    private static final int K_FILES = 8;
+    private static final int K_PATH = 9;
+    private static final int K_PATH_UTF8 = 10;
+
+    private final ByteBuffer data;
+    private final int infoOffset;
+    private final int infoEnd;
+    private final List<FileEntry> files;
+
+    private byte[] infoHash;
+
+    private TorrentInfoReader(ByteBuffer data, InfoVisitor v) throws TOTorrentException {
+        this.data = data;
+        this.infoOffset = v.infoOffset;
+        this.infoEnd = v.infoEnd;
+
+        ByteBuffer name = v.name;
+
+        if (infoEnd == -1) {
+            throw new TOTorrentException("Decode fails, 'info' element not found'", TOTorrentException.RT_DECODE_FAILS);
+        }
+
+        if (name == null) {
+            throw new TOTorrentException("Decode fails, 'name' element not found'", TOTorrentException.RT_DECODE_FAILS);
+        }
+
+        if (v.pieceLength <= 0) {
+            throw new TOTorrentException("Decode fails, piece-length is invalid", TOTorrentException.RT_DECODE_FAILS);
+        }
+
+        long totalLength = 0;
+
+        String encoding = v.encoding != null ? new String(BDecoderBuffer.toByteArray(v.encoding), Constants.DEFAULT_CHARSET) : null;
+        boolean hasUTF8Keys = v.nameUTF8 != null && (encoding == null || encoding.equals(TOTorrent.ENCODING_ACTUALLY_UTF8_KEYS));
+
+        if (v.simpleLength != -1) {
+            totalLength = v.simpleLength;
+
+            if (hasUTF8Keys) {
+                encoding = TOTorrent.ENCODING_ACTUALLY_UTF8_KEYS;
+            }
+
+            // as in TOTorrentDeserialiseImpl, the single file has no utf-8 path, the name is decoded with the torrent encoding
+            files = Collections.singletonList(new FileEntry(totalLength, new ByteBuffer[] { name }, null, encoding));
+        } else {
+            if (v.files == null) {
+                throw new TOTorrentException("Decode fails, 'files' element not found'", TOTorrentException.RT_DECODE_FAILS);
+            }
+
+            for (int i = 0; hasUTF8Keys && i < v.files.size(); i++) {
+                hasUTF8Keys = v.files.get(i).pathUTF8 != null;
+            }
+
+            if (hasUTF8Keys) {
+                encoding = TOTorrent.ENCODING_ACTUALLY_UTF8_KEYS;
+            }
+
+            files = new ArrayList<FileEntry>(v.files.size());
+            for (FileBuilder fb : v.files) {
+                if (fb.length < 0 || (fb.path == null && !hasUTF8Keys)) {
+                    throw new TOTorrentException("Decode fails, invalid file entry", TOTorrentException.RT_DECODE_FAILS);
+                }
+                ByteBuffer[] path = fb.path != null ? fb.path.toArray(new ByteBuffer[fb.path.size()]) : new ByteBuffer[0];
+                ByteBuffer[] pathUTF8 = hasUTF8Keys ? fb.pathUTF8.toArray(new ByteBuffer[fb.pathUTF8.size()]) : null;
+                files.add(new FileEntry(fb.length, path, pathUTF8, encoding));
+                totalLength += fb.length;
+            }
+        }
+
+        long piecesRequired = (totalLength + (v.pieceLength - 1)) / v.pieceLength;
+        if (v.piecesLength / 20 < piecesRequired) {
+            throw new TOTorrentException("Decode fails, insufficient pieces supplied", TOTorrentException.RT_DECODE_FAILS);
+        }
+    }
+
+    /**
+     * @param data the encoded torrent, from its position to its limit
+     */
+    public static TorrentInfoReader read(ByteBuffer data) throws TOTorrentException {
+        BDecoderBuffer decoder = new BDecoderBuffer(data);
+        InfoVisitor v = new InfoVisitor();
+
+        try {
+            decoder.accept(v);
+        } catch (Throwable e) {
+            throw new TOTorrentException("Error reading torrent: " + Debug.getNestedExceptionMessage(e), TOTorrentException.RT_DECODE_FAILS, e);
+        }
+
+        return new TorrentInfoReader(data.slice(), v);
+    }
+
+    /**
+     * Reads the torrent from a memory mapped view of the file.
+     */
+    public static TorrentInfoReader read(File file) throws TOTorrentException {
+        ByteBuffer data;
+
+        try {
+            data = BDecoderBuffer.map(file);
+        } catch (IOException e) {
+            throw new TOTorrentException("Error reading torrent: " + Debug.getNestedExceptionMessage(e), TOTorrentException.RT_READ_FAILS, e);
+        }
+
+        return read(data);
+    }
+
+    /**
+     * The SHA-1 of the raw <code>info</code> dictionary, calculated on the first call.
+     */
+    public byte[] getInfoHash() {
+        if (infoHash == null) {
+            ByteBuffer info = data.duplicate();
+            info.limit(infoEnd);
+            info.position(infoOffset);
+            infoHash = new SHA1Hasher().calculateHash(info);
+        }
+        return infoHash;
+    }
+
+    public List<FileEntry> getFiles() {
+        return files;
+    }
+
+    public static final class FileEntry {
+
+        private final long length;
+        private final ByteBuffer[] path;
+        private final ByteBuffer[] pathUTF8;
+        private final String encoding;
+
+        private FileEntry(long length, ByteBuffer[] path, ByteBuffer[] pathUTF8, String encoding) throws TOTorrentException {
+            this.length = length;
+            this.path = path;
+            this.pathUTF8 = pathUTF8;
+            this.encoding = encoding;
+
+            checkComponents(path);
+            if (pathUTF8 != null) {
+                checkComponents(pathUTF8);
+            }
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public String getRelativePath() {
+            StringBuilder sb = new StringBuilder();
+
+            if (pathUTF8 != null) {
+                for (int j = 0; j < pathUTF8.length; j++) {
+                    String comp = Constants.DEFAULT_CHARSET.decode(pathUTF8[j].duplicate()).toString();
+                    append(sb, j, TOTorrentFileImpl.convertOSSpecificChars(comp, j != pathUTF8.length - 1));
+                }
+                return sb.toString();
+            }
+
+            LocaleUtilDecoder decoder = null;
+            try {
+                decoder = LocaleTorrentUtil.getEncodingIfAvailable(encoding);
+                if (decoder == null) {
+                    decoder = LocaleUtil.getSingleton().getSystemDecoder();
+                }
+            } catch (Exception e) {
+                // Do Nothing
+            }
+
+            if (decoder != null) {
+                for (int j = 0; j < path.length; j++) {
+                    byte[] bytes = BDecoderBuffer.toByteArray(path[j]);
+                    String comp;
+                    try {
+                        comp = decoder.decodeString(bytes);
+                    } catch (UnsupportedEncodingException e) {
+                        comp = new String(bytes);
+                    }
+                    append(sb, j, TOTorrentFileImpl.convertOSSpecificChars(comp, j != path.length - 1));
+                }
+            }
+
+            return sb.toString();
+        }
+
+        private static void append(StringBuilder sb, int index, String comp) {
+            if (index > 0) {
+                sb.append(File.separator);
+            }
+            sb.append(comp);
+        }
+
+        private static void checkComponents(ByteBuffer[] components) throws TOTorrentException {
+            for (ByteBuffer comp : components) {
+                if (BDecoderBuffer.equals(comp, "..")) {
+                    throw new TOTorrentException("Torrent file contains illegal '..' component", TOTorrentException.RT_DECODE_FAILS);
+                }
+            }
+        }
+    }
+
+    private static final class FileBuilder {
+        long length = -1;
+        List<ByteBuffer> path;
+        List<ByteBuffer> pathUTF8;
+    }
+
+    /**
+     * Tracks the dictionary keys by nesting depth, root is 1, info is 2, the files list 3,
+     * each file 4 and the path lists 5.
+     */
+    private static final class InfoVisitor extends BDecoderBuffer.Visitor {
+
+        private static final int MAX_DEPTH = 6;
+
+        private final int[] keys = new int[MAX_DEPTH + 1];
+        private final boolean[] dictionaries = new boolean[MAX_DEPTH + 1];
+        private int depth;
+
+        int infoOffset = -1;
+        int infoEnd = -1;
+        ByteBuffer encoding;
+        ByteBuffer name;
+        ByteBuffer nameUTF8;
+        long simpleLength = -1;
+        long pieceLength;
+        long piecesLength;
+        List<FileBuilder> files;
+
+        @Override
+        public void beginDictionary(int offset) {
+            enter(true);
+            if (inInfo()) {
+                infoOffset = offset;
+            } else if (inFile()) {
+                files.add(new FileBuilder());
+            }
+        }
+
+        @Override
+        public void endDictionary(int offset, int end) {
+            if (inInfo()) {
+                infoEnd = end;
+            }
+            depth--;
+        }
+
+        @Override
+        public boolean key(ByteBuffer key) {
+            int k = K_OTHER;
+
+            if (depth == 1) {
+                if (BDecoderBuffer.equals(key, TOTorrentImpl.TK_INFO)) {
+                    k = K_INFO;
+                } else if (BDecoderBuffer.equals(key, "encoding")) {
+                    k = K_ENCODING;
+                }
+            } else if (inInfo()) {
+                if (BDecoderBuffer.equals(key, TOTorrentImpl.TK_NAME)) {
+                    k = K_NAME;
+                } else if (BDecoderBuffer.equals(key, TOTorrentImpl.TK_NAME_UTF8)) {
+                    k = K_NAME_UTF8;
+                } else if (BDecoderBuffer.equals(key, TOTorrentImpl.TK_LENGTH)) {
+                    k = K_LENGTH;
+                } else if (BDecoderBuffer.equals(key, TOTorrentImpl.TK_PIECE_LENGTH)) {
+                    k = K_PIECE_LENGTH;
+                } else if (BDecoderBuffer.equals(key, TOTorrentImpl.TK_PIECES)) {
+                    k = K_PIECES;
+                } else if (BDecoderBuffer.equals(key, TOTorrentImpl.TK_FILES)) {
+                    k = K_FILES;
+                }
+            } else if (inFile()) {
+                if (BDecoderBuffer.equals(key, TOTorrentImpl.TK_LENGTH)) {
+                    k = K_LENGTH;
+                } else if (BDecoderBuffer.equals(key, TOTorrentImpl.TK_PATH)) {
+                    k = K_PATH;
+                } else if (BDecoderBuffer.equals(key, TOTorrentImpl.TK_PATH_UTF8)) {
+                    k = K_PATH_UTF8;
+                }
+            }
+
+            if (depth <= MAX_DEPTH) {
+                keys[depth] = k;
+            }
+
+            return k != K_OTHER;
+        }
+
+        @Override
+        public void beginList() {
+            enter(false);
+            if (depth == 3 && dictionaries[2] && keys[1] == K_INFO && keys[2] == K_FILES && files == null) {
+                files = new ArrayList<FileBuilder>();
+            } else if (inPath()) {
+                FileBuilder fb = currentFile();
+                if (keys[4] == K_PATH) {
+                    fb.path = new ArrayList<ByteBuffer>();
+                } else {
+                    fb.pathUTF8 = new ArrayList<ByteBuffer>();
+                }
+            }
+        }
+
+        @Override
+        public void endList() {
+            depth--;
+        }
+
+        @Override
+        public void value(long value) {
+            if (inInfo()) {
+                if (keys[2] == K_LENGTH) {
+                    simpleLength = value;
+                } else if (keys[2] == K_PIECE_LENGTH) {
+                    pieceLength = value;
+                }
+            } else if (inFile() && keys[4] == K_LENGTH) {
+                currentFile().length = value;
+            }
+        }
+
+        @Override
+        public void value(ByteBuffer value) {
+            if (depth == 1 && keys[1] == K_ENCODING) {
+                encoding = value.slice();
+            } else if (inInfo()) {
+                if (keys[2] == K_NAME) {
+                    name = value.slice();
+                } else if (keys[2] == K_NAME_UTF8) {
+                    nameUTF8 = value.slice();
+                } else if (keys[2] == K_PIECES) {
+                    piecesLength = value.remaining();
+                }
+            } else if (inPath()) {
+                FileBuilder fb = currentFile();
+                if (keys[4] == K_PATH) {
+                    fb.path.add(value.slice());
+                } else {
+                    fb.pathUTF8.add(value.slice());
+                }
+            }
+        }
+
+        private void enter(boolean dictionary) {
+            depth++;
+            if (depth <= MAX_DEPTH) {
+                dictionaries[depth] = dictionary;
+                keys[depth] = K_OTHER;
+            }
+        }
+
+        private boolean inInfo() {
+            return depth == 2 && dictionaries[2] && keys[1] == K_INFO;
+        }
+
+        private boolean inFile() {
+            return depth == 4 && dictionaries[4] && keys[1] == K_INFO && dictionaries[2] && keys[2] == K_FILES && !dictionaries[3] && files != null;
+        }
+
+        private boolean inPath() {
+            return depth == 5 && !dictionaries[5] && dictionaries[4] && (keys[4] == K_PATH || keys[4] == K_PATH_UTF8) && keys[1] == K_INFO && keys[2] == K_FILES && !dictionaries[3] && files != null;
+        }
+
+        private FileBuilder currentFile() {
+            return files.get(files.size() - 1);
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.torrent.tests;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.frostwire.torrent.BDecoderBuffer;
+import com.frostwire.torrent.TOTorrent;
+import com.frostwire.torrent.TOTorrentFactory;
+import com.frostwire.torrent.TOTorrentFile;
+import com.frostwire.torrent.TorrentInfoReader;
+
+/**
+ * Reads the file list of a torrent with the old decoder and the two modes of
+ * {@link BDecoderBuffer}, and prints the time of each.
+ * <p>
+ * The old decoder is package private, it is timed through
+ * {@link TOTorrentFactory#deserialiseFromBEncodedByteArray(byte[])}, the path
+ * the crawled searches used before {@link TorrentInfoReader}. The "tree" mode is
+ * {@link BDecoderBuffer#decode()}, the "visitor" mode is {@link TorrentInfoReader}.
+ * <p>
+ * The relative paths are not read, their decoding and file system checks are
+ * the same in all the modes.
+ * <p>
+ * Run with the path of a .torrent file as the argument. Without it, a torrent
+ * of 2000 files is generated.
+ */
+public class BDecoderBenchmark {
+
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int ROUNDS = 50;
+
+    public static void main(String[] args) throws Exception {
+        byte[] data;
+        if (args.length > 0) {
+            data = readFile(new File(args[0]));
+        } else {
+            data = newTorrent(2000);
+        }
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            runOld(data);
+            runTree(data);
+            runVisitor(data);
+        }
+
+        long old = 0;
+        long tree = 0;
+        long visitor = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            old += runOld(data);
+            tree += runTree(data);
+            visitor += runVisitor(data);
+        }
+
+        System.out.println(data.length + " bytes, decode plus the lengths of all the files");
+        System.out.println("old:     " + (old / ROUNDS / 1000) + " us");
+        System.out.println("tree:    " + (tree / ROUNDS / 1000) + " us");
+        System.out.println("visitor: " + (visitor / ROUNDS / 1000) + " us");
+    }
+
+    private static long runOld(byte[] data) throws Exception {
+        long start = System.nanoTime();
+
+        TOTorrent torrent = TOTorrentFactory.deserialiseFromBEncodedByteArray(data);
+        long total = 0;
+        for (TOTorrentFile f : torrent.getFiles()) {
+            total += f.getLength();
+        }
+        check(total > 0);
+
+        return System.nanoTime() - start;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static long runTree(byte[] data) throws Exception {
+        long start = System.nanoTime();
+
+        Map<String, Object> map = new BDecoderBuffer(ByteBuffer.wrap(data)).decode();
+        Map<String, Object> info = (Map<String, Object>) map.get("info");
+        List<Object> files = (List<Object>) info.get("files");
+        long total = 0;
+        if (files != null) {
+            for (Object o : files) {
+                Map<String, Object> f = (Map<String, Object>) o;
+                total += ((Long) f.get("length")).longValue();
+            }
+        } else {
+            total += ((Long) info.get("length")).longValue();
+        }
+        check(total > 0);
+
+        return System.nanoTime() - start;
+    }
+
+    private static long runVisitor(byte[] data) throws Exception {
+        long start = System.nanoTime();
+
+        long total = 0;
+        for (TorrentInfoReader.FileEntry f : TorrentInfoReader.read(ByteBuffer.wrap(data)).getFiles()) {
+            total += f.getLength();
+        }
+        check(total > 0);
+
+        return System.nanoTime() - start;
+    }
+
+    private static byte[] readFile(File file) throws Exception {
+        ByteBuffer buffer = BDecoderBuffer.map(file);
+        return BDecoderBuffer.toByteArray(buffer);
+    }
+
+    private static byte[] newTorrent(int numFiles) throws Exception {
+        long pieceLength = 256 * 1024;
+        long fileLength = 3 * 1024 * 1024 + 12345;
+
+        List<Object> files = new ArrayList<Object>(numFiles);
+        for (int i = 0; i < numFiles; i++) {
+            List<Object> path = new ArrayList<Object>();
+            path.add(("disc " + (i / 100)).getBytes("UTF-8"));
+            path.add(("track " + i + " - some artist - some title.mp3").getBytes("UTF-8"));
+
+            Map<String, Object> file = new HashMap<String, Object>();
+            file.put("length", fileLength);
+            file.put("path", path);
+            files.add(file);
+        }
+
+        long pieces = (numFiles * fileLength + pieceLength - 1) / pieceLength;
+
+        Map<String, Object> info = new HashMap<String, Object>();
+        info.put("name", "collection".getBytes("UTF-8"));
+        info.put("piece length", pieceLength);
+        info.put("pieces", new byte[(int) (20 * pieces)]);
+        info.put("files", files);
+
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("announce", "http://tracker.example.com/announce".getBytes("UTF-8"));
+        map.put("info", info);
+
+        return encode(map);
+    }
+
+    /**
+     * Minimal bencoding of maps, lists, byte arrays and longs, as in {@link TorrentInfoReaderTest}.
+     */
+    @SuppressWarnings("unchecked")
+    private static byte[] encode(Object value) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        if (value instanceof Map) {
+            out.write('d');
+            for (Map.Entry<String, Object> e : new TreeMap<String, Object>((Map<String, Object>) value).entrySet()) {
+                out.write(encode(e.getKey().getBytes("UTF-8")));
+                out.write(encode(e.getValue()));
+            }
+            out.write('e');
+        } else if (value instanceof List) {
+            out.write('l');
+            for (Object v : (List<Object>) value) {
+                out.write(encode(v));
+            }
+            out.write('e');
+        } else if (value instanceof Long) {
+            out.write(("i" + value + "e").getBytes("UTF-8"));
+        } else {
+            byte[] bytes = (byte[]) value;
+            out.write((bytes.length + ":").getBytes("UTF-8"));
+            out.write(bytes);
+        }
+
+        return out.toByteArray();
+    }
+
+    private static void check(boolean condition) {
+        if (!condition) {
+            throw new IllegalStateException("Nothing read");
+        }
+    }
+}
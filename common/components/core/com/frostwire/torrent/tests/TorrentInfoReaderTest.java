@@ -0,0 +1,357 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.torrent.tests;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import com.frostwire.torrent.BDecoderBuffer;
+import com.frostwire.torrent.TOTorrent;
+import com.frostwire.torrent.TOTorrentException;
+import com.frostwire.torrent.TOTorrentFactory;
+import com.frostwire.torrent.TOTorrentFile;
+import com.frostwire.torrent.TorrentInfoReader;
+
+/**
+ * Checks the files and info-hash read by {@link TorrentInfoReader} against the
+ * ones of the full {@link TOTorrent} parser.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public class TorrentInfoReaderTest extends TestCase {
+
+    private static final long PIECE_LENGTH = 16384;
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(TorrentInfoReaderTest.class);
+    }
+
+    public void testSingleFile() throws Exception {
+        Map<String, Object> info = info("song.mp3", 40000);
+        info.put("length", 40000L);
+
+        List<TorrentInfoReader.FileEntry> files = assertSameFiles(torrent(info, null));
+        assertEquals(1, files.size());
+        assertEquals("song.mp3", files.get(0).getRelativePath());
+        assertEquals(40000, files.get(0).getLength());
+    }
+
+    public void testMultiFile() throws Exception {
+        Map<String, Object> info = info("album", 30000);
+        List<Object> files = new ArrayList<Object>();
+        files.add(file(10000, path("cd1", "track 1.mp3"), null));
+        files.add(file(20000, path("cover.jpg"), null));
+        info.put("files", files);
+
+        List<TorrentInfoReader.FileEntry> entries = assertSameFiles(torrent(info, null));
+        assertEquals("cd1" + File.separator + "track 1.mp3", entries.get(0).getRelativePath());
+        assertEquals("cover.jpg", entries.get(1).getRelativePath());
+    }
+
+    public void testEncodingKey() throws Exception {
+        Map<String, Object> info = info("music", 100);
+        List<Object> files = new ArrayList<Object>();
+        files.add(file(100, new Object[] { "\u041f\u0440\u0438".getBytes("windows-1251"), "\u0432\u0435\u0442.mp3".getBytes("windows-1251") }, null));
+        info.put("files", files);
+
+        List<TorrentInfoReader.FileEntry> entries = assertSameFiles(torrent(info, "windows-1251"));
+        assertPath("\u041f\u0440\u0438" + File.separator + "\u0432\u0435\u0442.mp3", entries.get(0).getRelativePath());
+    }
+
+    public void testUTF8Keys() throws Exception {
+        Map<String, Object> info = info("music", 300);
+        info.put("name.utf-8", "m\u00fasica".getBytes("UTF-8"));
+        List<Object> files = new ArrayList<Object>();
+        files.add(file(100, new Object[] { new byte[] { (byte) 0xE9 } }, path("\u00e9t\u00e9.mp3")));
+        files.add(file(200, path("b.mp3"), path("b.mp3")));
+        info.put("files", files);
+
+        List<TorrentInfoReader.FileEntry> entries = assertSameFiles(torrent(info, null));
+        assertPath("\u00e9t\u00e9.mp3", entries.get(0).getRelativePath());
+    }
+
+    public void testUTF8KeysMissingInOneFile() throws Exception {
+        Map<String, Object> info = info("music", 300);
+        info.put("name.utf-8", "music".getBytes("UTF-8"));
+        List<Object> files = new ArrayList<Object>();
+        files.add(file(100, path("a.mp3"), path("other.mp3")));
+        files.add(file(200, path("b.mp3"), null));
+        info.put("files", files);
+
+        // without path.utf-8 in all the files the plain paths are used
+        List<TorrentInfoReader.FileEntry> entries = assertSameFiles(torrent(info, null));
+        assertEquals("a.mp3", entries.get(0).getRelativePath());
+    }
+
+    public void testUTF8KeysIgnoredWithOtherEncoding() throws Exception {
+        Map<String, Object> info = info("music", 100);
+        info.put("name.utf-8", "music".getBytes("UTF-8"));
+        List<Object> files = new ArrayList<Object>();
+        files.add(file(100, new Object[] { "\u0432\u0435\u0442.mp3".getBytes("windows-1251") }, path("other.mp3")));
+        info.put("files", files);
+
+        List<TorrentInfoReader.FileEntry> entries = assertSameFiles(torrent(info, "windows-1251"));
+        assertPath("\u0432\u0435\u0442.mp3", entries.get(0).getRelativePath());
+    }
+
+    public void testSingleFileUTF8Name() throws Exception {
+        Map<String, Object> info = new HashMap<String, Object>();
+        info.put("name", "\u00e9t\u00e9.mp3".getBytes("UTF-8"));
+        info.put("name.utf-8", "\u00e9t\u00e9.mp3".getBytes("UTF-8"));
+        info.put("piece length", PIECE_LENGTH);
+        info.put("pieces", new byte[20]);
+        info.put("length", 100L);
+
+        List<TorrentInfoReader.FileEntry> entries = assertSameFiles(torrent(info, null));
+        assertPath("\u00e9t\u00e9.mp3", entries.get(0).getRelativePath());
+    }
+
+    public void testInfoHash() throws Exception {
+        Map<String, Object> info = info("album", 30000);
+        List<Object> files = new ArrayList<Object>();
+        files.add(file(10000, path("cd1", "track 1.mp3"), null));
+        files.add(file(20000, path("cover.jpg"), null));
+        info.put("files", files);
+        byte[] data = torrent(info, null);
+
+        byte[] expected = TOTorrentFactory.deserialiseFromBEncodedByteArray(data).getHash();
+        assertTrue(Arrays.equals(expected, TorrentInfoReader.read(ByteBuffer.wrap(data)).getInfoHash()));
+
+        // the offsets are relative to the position of the buffer
+        ByteBuffer buffer = ByteBuffer.allocate(data.length + 10);
+        buffer.position(10);
+        buffer.put(data);
+        buffer.position(10);
+        assertTrue(Arrays.equals(expected, TorrentInfoReader.read(buffer).getInfoHash()));
+    }
+
+    public void testReadFile() throws Exception {
+        Map<String, Object> info = info("song.mp3", 40000);
+        info.put("length", 40000L);
+        byte[] data = torrent(info, null);
+
+        File file = File.createTempFile("frostwire", ".torrent");
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                out.write(data);
+            } finally {
+                out.close();
+            }
+
+            TorrentInfoReader torrent = TorrentInfoReader.read(file);
+            assertEquals("song.mp3", torrent.getFiles().get(0).getRelativePath());
+            assertEquals(40000, torrent.getFiles().get(0).getLength());
+            assertTrue(Arrays.equals(TOTorrentFactory.deserialiseFromBEncodedByteArray(data).getHash(), torrent.getInfoHash()));
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testReadMissingFile() throws Exception {
+        try {
+            TorrentInfoReader.read(new File("does-not-exist.torrent"));
+            fail("missing file read");
+        } catch (TOTorrentException e) {
+            assertEquals(TOTorrentException.RT_READ_FAILS, e.getReason());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testDecodeTree() throws Exception {
+        Map<String, Object> info = info("album", 30000);
+        List<Object> files = new ArrayList<Object>();
+        files.add(file(10000, path("cd1", "track 1.mp3"), null));
+        files.add(file(20000, path("cover.jpg"), null));
+        info.put("files", files);
+        byte[] data = torrent(info, null);
+
+        Map<String, Object> map = new BDecoderBuffer(ByteBuffer.wrap(data)).decode();
+        Map<String, Object> decodedInfo = (Map<String, Object>) map.get("info");
+        assertTrue(BDecoderBuffer.equals((ByteBuffer) decodedInfo.get("name"), "album"));
+        assertEquals(Long.valueOf(PIECE_LENGTH), decodedInfo.get("piece length"));
+        assertEquals(40, ((ByteBuffer) decodedInfo.get("pieces")).remaining());
+
+        List<Object> decodedFiles = (List<Object>) decodedInfo.get("files");
+        assertEquals(2, decodedFiles.size());
+        Map<String, Object> first = (Map<String, Object>) decodedFiles.get(0);
+        assertEquals(Long.valueOf(10000), first.get("length"));
+        List<Object> firstPath = (List<Object>) first.get("path");
+        assertTrue(BDecoderBuffer.equals((ByteBuffer) firstPath.get(0), "cd1"));
+        assertTrue(BDecoderBuffer.equals((ByteBuffer) firstPath.get(1), "track 1.mp3"));
+
+        // the byte strings are read-only views of the source
+        assertTrue(((ByteBuffer) decodedInfo.get("pieces")).isReadOnly());
+    }
+
+    public void testParentComponentRejected() throws Exception {
+        Map<String, Object> info = info("album", 100);
+        List<Object> files = new ArrayList<Object>();
+        files.add(file(100, path("..", "evil.exe"), null));
+        info.put("files", files);
+
+        try {
+            TorrentInfoReader.read(ByteBuffer.wrap(torrent(info, null)));
+            fail("'..' accepted");
+        } catch (TOTorrentException expected) {
+        }
+    }
+
+    public void testInsufficientPieces() throws Exception {
+        Map<String, Object> info = info("song.mp3", 100);
+        info.put("length", 3 * PIECE_LENGTH);
+
+        try {
+            TorrentInfoReader.read(ByteBuffer.wrap(torrent(info, null)));
+            fail("missing pieces accepted");
+        } catch (TOTorrentException expected) {
+        }
+    }
+
+    public void testNoInfo() throws Exception {
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("announce", "http://tracker.example.com/announce".getBytes("UTF-8"));
+
+        try {
+            TorrentInfoReader.read(ByteBuffer.wrap(encode(map)));
+            fail("no info accepted");
+        } catch (TOTorrentException expected) {
+        }
+    }
+
+    private static List<TorrentInfoReader.FileEntry> assertSameFiles(byte[] data) throws Exception {
+        TOTorrent torrent = TOTorrentFactory.deserialiseFromBEncodedByteArray(data);
+        List<TorrentInfoReader.FileEntry> entries = TorrentInfoReader.read(ByteBuffer.wrap(data)).getFiles();
+
+        TOTorrentFile[] files = torrent.getFiles();
+        assertEquals(files.length, entries.size());
+        for (int i = 0; i < files.length; i++) {
+            assertEquals(files[i].getLength(), entries.get(i).getLength());
+            assertEquals(files[i].getRelativePath(), entries.get(i).getRelativePath());
+        }
+
+        return entries;
+    }
+
+    /**
+     * The path components go through the file system to get their canonical
+     * form, where the names the file system can't represent lose the
+     * characters it doesn't know. Those are only checked against the full
+     * parser.
+     */
+    private static void assertPath(String expected, String actual) {
+        String encoding = System.getProperty("sun.jnu.encoding");
+        Charset charset = encoding != null && Charset.isSupported(encoding) ? Charset.forName(encoding) : Charset.defaultCharset();
+        if (charset.newEncoder().canEncode(expected)) {
+            assertEquals(expected, actual);
+        }
+    }
+
+    /**
+     * @param totalLength used to supply enough pieces
+     */
+    private static Map<String, Object> info(String name, long totalLength) throws Exception {
+        Map<String, Object> info = new HashMap<String, Object>();
+        info.put("name", name.getBytes("UTF-8"));
+        info.put("piece length", PIECE_LENGTH);
+        info.put("pieces", new byte[(int) (20 * ((totalLength + PIECE_LENGTH - 1) / PIECE_LENGTH))]);
+        return info;
+    }
+
+    private static byte[] torrent(Map<String, Object> info, String encoding) throws Exception {
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("announce", "http://tracker.example.com/announce".getBytes("UTF-8"));
+        map.put("info", info);
+        if (encoding != null) {
+            map.put("encoding", encoding.getBytes("UTF-8"));
+        }
+        return encode(map);
+    }
+
+    private static Map<String, Object> file(long length, Object[] path, Object[] pathUTF8) {
+        Map<String, Object> file = new HashMap<String, Object>();
+        file.put("length", length);
+        file.put("path", list(path));
+        if (pathUTF8 != null) {
+            file.put("path.utf-8", list(pathUTF8));
+        }
+        return file;
+    }
+
+    private static Object[] path(String... components) throws Exception {
+        Object[] path = new Object[components.length];
+        for (int i = 0; i < components.length; i++) {
+            path[i] = components[i].getBytes("UTF-8");
+        }
+        return path;
+    }
+
+    private static List<Object> list(Object[] values) {
+        List<Object> list = new ArrayList<Object>();
+        for (Object v : values) {
+            list.add(v);
+        }
+        return list;
+    }
+
+    /**
+     * Minimal bencoding of maps, lists, byte arrays and longs, the keys are
+     * sorted as the specification requires.
+     */
+    @SuppressWarnings("unchecked")
+    private static byte[] encode(Object value) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        if (value instanceof Map) {
+            out.write('d');
+            for (Map.Entry<String, Object> e : new TreeMap<String, Object>((Map<String, Object>) value).entrySet()) {
+                out.write(encode(e.getKey().getBytes("UTF-8")));
+                out.write(encode(e.getValue()));
+            }
+            out.write('e');
+        } else if (value instanceof List) {
+            out.write('l');
+            for (Object v : (List<Object>) value) {
+                out.write(encode(v));
+            }
+            out.write('e');
+        } else if (value instanceof Long) {
+            out.write(("i" + value + "e").getBytes("UTF-8"));
+        } else {
+            byte[] bytes = (byte[]) value;
+            out.write((bytes.length + ":").getBytes("UTF-8"));
+            out.write(bytes);
+        }
+
+        return out.toByteArray();
+    }
+}
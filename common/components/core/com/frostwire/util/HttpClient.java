@@ -65,6 +65,9 @@ public interface HttpClient {
 
     public boolean isCanceled();
 
+    /** Clears a previous cancel, the cancel stays in effect for all the requests until this is called */
+    public void reset();
+
     public interface HttpClientListener {
 
         public void onError(HttpClient client, Exception e);
@@ -100,7 +103,7 @@ public interface HttpClient {
 
         private static final long serialVersionUID = -335661829606230147L;
 
-        public HttpRangeOutOfBoundsException(int rangeStart, long expectedFileSize) {
+        public HttpRangeOutOfBoundsException(long rangeStart, long expectedFileSize) {
             super("HttpRange Out of Bounds error: start=" + rangeStart + " expected file size=" + expectedFileSize);
         }
 
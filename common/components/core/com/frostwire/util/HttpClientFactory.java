@@ -17,6 +17,8 @@
 
 package com.frostwire.util;
 
+import java.util.concurrent.Executor;
+
 /**
  * 
  * @author gubatron
@@ -31,4 +33,12 @@ public class HttpClientFactory {
     public static HttpClient newInstance() {
         return new JdkHttpClient();
     }
+
+    /**
+     * Returns a client that saves big files with up to maxConnections parallel connections,
+     * run in the given executor.
+     */
+    public static HttpClient newSegmentedInstance(Executor executor, int maxConnections) {
+        return new SegmentedHttpClient(executor, maxConnections);
+    }
 }
@@ -54,7 +54,7 @@ final class JdkHttpClient implements HttpClient {
     private static final String DEFAULT_USER_AGENT = UserAgentGenerator.getUserAgent();
     private HttpClientListener listener;
 
-    private boolean canceled;
+    private volatile boolean canceled;
     
     @Override
     public int head(String url, int connectTimeoutInMillis) throws IOException {
@@ -142,12 +142,12 @@ final class JdkHttpClient implements HttpClient {
 
     public void save(String url, File file, boolean resume, int timeout, String userAgent, String referrer) throws IOException {
         FileOutputStream fos = null;
-        int rangeStart = 0;
+        long rangeStart = 0;
 
         try {
             if (resume && file.exists()) {
                 fos = new FileOutputStream(file, true);
-                rangeStart = (int) file.length();
+                rangeStart = file.length();
             } else {
                 fos = new FileOutputStream(file, false);
                 rangeStart = -1;
@@ -161,7 +161,6 @@ final class JdkHttpClient implements HttpClient {
 
     @Override
     public void post(String url, int timeout, String userAgent, String content, boolean gzip) throws IOException {
-        canceled = false;
         final URL u = new URL(url);
         final HttpURLConnection conn = (HttpURLConnection) u.openConnection();
         conn.setDoOutput(true);
@@ -244,17 +243,17 @@ final class JdkHttpClient implements HttpClient {
         return result;
     }
 
-    private String buildRange(int rangeStart, int rangeLength) {
+    private String buildRange(long rangeStart, long rangeLength) {
         String prefix = "bytes=" + rangeStart + "-";
-        return prefix + ((rangeLength > -1) ? (rangeStart + rangeLength) : "");
+        // the last byte position is inclusive
+        return prefix + ((rangeLength > -1) ? (rangeStart + rangeLength - 1) : "");
     }
 
-    private void get(String url, OutputStream out, int timeout, String userAgent, String referrer, String cookie, int rangeStart) throws IOException {
+    private void get(String url, OutputStream out, int timeout, String userAgent, String referrer, String cookie, long rangeStart) throws IOException {
         get(url, out, timeout, userAgent, referrer, cookie, rangeStart, -1, null);
     }
 
-    private void get(String url, OutputStream out, int timeout, String userAgent, String referrer, String cookie, int rangeStart, int rangeLength, final Map<String, String> customHeaders) throws IOException {
-        canceled = false;
+    private void get(String url, OutputStream out, int timeout, String userAgent, String referrer, String cookie, long rangeStart, long rangeLength, final Map<String, String> customHeaders) throws IOException {
         final URL u = new URL(url);
         final URLConnection conn = u.openConnection();
 
@@ -327,7 +326,6 @@ final class JdkHttpClient implements HttpClient {
     }
 
     private void post(String url, OutputStream out, int timeout, String userAgent, Map<String, String> formData) throws IOException {
-        canceled = false;
         final URL u = new URL(url);
         final HttpURLConnection conn = (HttpURLConnection) u.openConnection();
         conn.setDoOutput(true);
@@ -435,7 +433,7 @@ final class JdkHttpClient implements HttpClient {
         }
     }
 
-    private void checkRangeSupport(int rangeStart, URLConnection conn) throws HttpRangeOutOfBoundsException, RangeNotSupportedException {
+    private void checkRangeSupport(long rangeStart, URLConnection conn) throws HttpRangeOutOfBoundsException, RangeNotSupportedException {
 
         boolean hasContentRange = conn.getHeaderField("Content-Range") != null;
         boolean hasAcceptRanges = conn.getHeaderField("Accept-Ranges") != null && conn.getHeaderField("Accept-Ranges").equals("bytes");
@@ -536,4 +534,9 @@ final class JdkHttpClient implements HttpClient {
     public boolean isCanceled() {
         return canceled;
     }
+
+    @Override
+    public void reset() {
+        canceled = false;
+    }
 }
\ No newline at end of file
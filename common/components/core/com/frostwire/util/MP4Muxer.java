@@ -25,7 +25,6 @@ import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 
 import org.apache.commons.io.IOUtils;
 
@@ -37,7 +36,6 @@ import com.coremedia.iso.boxes.ContainerBox;
 import com.coremedia.iso.boxes.FileTypeBox;
 import com.coremedia.iso.boxes.HandlerBox;
 import com.coremedia.iso.boxes.MetaBox;
-import com.coremedia.iso.boxes.MovieBox;
 import com.coremedia.iso.boxes.TrackBox;
 import com.coremedia.iso.boxes.UserDataBox;
 import com.coremedia.iso.boxes.apple.AppleAlbumArtistBox;
@@ -51,7 +49,6 @@ import com.googlecode.mp4parser.AbstractBox;
 import com.googlecode.mp4parser.authoring.Movie;
 import com.googlecode.mp4parser.authoring.Mp4TrackImpl;
 import com.googlecode.mp4parser.authoring.Track;
-import com.googlecode.mp4parser.authoring.builder.DefaultMp4Builder;
 
 /**
  * 
@@ -64,67 +61,38 @@ public final class MP4Muxer {
     public void mux(String video, String audio, String output, final MP4Metadata mt) throws IOException {
 
         FileInputStream videoIn = new FileInputStream(video);
-        FileInputStream audioIn = new FileInputStream(audio);
+        FileInputStream audioIn = null;
+        FileOutputStream fos = null;
 
         try {
+            audioIn = new FileInputStream(audio);
+
             FileChannel videoChannel = videoIn.getChannel();
             Movie videoMovie = buildMovie(videoChannel);
 
             FileChannel audioChannel = audioIn.getChannel();
             Movie audioMovie = buildMovie(audioChannel);
 
-            Movie outMovie = new Movie();
+            List<String> minorBrands = new LinkedList<String>();
+            minorBrands.add("iso6");
+            minorBrands.add("avc1");
+            minorBrands.add("mp41");
+            minorBrands.add("\0\0\0\0");
+
+            MP4StreamBuilder builder = new MP4StreamBuilder(new FileTypeBox("MP4 ", 0, minorBrands), mt != null ? addUserDataBox(mt) : null);
 
             for (Track trk : videoMovie.getTracks()) {
-                outMovie.addTrack(trk);
+                builder.addTrack(trk, videoChannel);
             }
 
             for (Track trk : audioMovie.getTracks()) {
-                outMovie.addTrack(trk);
+                builder.addTrack(trk, audioChannel);
             }
 
-            IsoFile out = new DefaultMp4Builder() {
-                @Override
-                protected FileTypeBox createFileTypeBox(Movie movie) {
-                    List<String> minorBrands = new LinkedList<String>();
-                    minorBrands.add("iso6");
-                    minorBrands.add("avc1");
-                    minorBrands.add("mp41");
-                    minorBrands.add("\0\0\0\0");
-
-                    return new FileTypeBox("MP4 ", 0, minorBrands);
-                }
-
-                @Override
-                protected MovieBox createMovieBox(Movie movie, Map<Track, int[]> chunks) {
-                    MovieBox moov = super.createMovieBox(movie, chunks);
-                    moov.getMovieHeaderBox().setVersion(0);
-                    return moov;
-                }
-
-                @Override
-                protected TrackBox createTrackBox(Track track, Movie movie, Map<Track, int[]> chunks) {
-                    TrackBox trak = super.createTrackBox(track, movie, chunks);
-
-                    trak.getTrackHeaderBox().setVersion(0);
-                    trak.getTrackHeaderBox().setVolume(1.0f);
-
-                    return trak;
-                }
-
-                @Override
-                protected Box createUdta(Movie movie) {
-                    return mt != null ? addUserDataBox(mt) : null;
-                }
-            }.build(outMovie);
-
-            FileOutputStream fos = new FileOutputStream(output);
-            try {
-                out.getBox(fos.getChannel());
-            } finally {
-                IOUtils.closeQuietly(fos);
-            }
+            fos = new FileOutputStream(output);
+            builder.write(fos.getChannel());
         } finally {
+            IOUtils.closeQuietly(fos);
             IOUtils.closeQuietly(videoIn);
             IOUtils.closeQuietly(audioIn);
         }
@@ -133,6 +101,7 @@ public final class MP4Muxer {
     public void demuxAudio(String video, String output, final MP4Metadata mt) throws IOException {
 
         FileInputStream videoIn = new FileInputStream(video);
+        FileOutputStream fos = null;
 
         try {
             FileChannel videoChannel = videoIn.getChannel();
@@ -148,55 +117,22 @@ public final class MP4Muxer {
             }
 
             if (audioTrack == null) {
-                IOUtils.closeQuietly(videoIn);
                 return;
             }
 
-            Movie outMovie = new Movie();
-            outMovie.addTrack(audioTrack);
-
-            IsoFile out = new DefaultMp4Builder() {
-                @Override
-                protected FileTypeBox createFileTypeBox(Movie movie) {
-                    List<String> minorBrands = new LinkedList<String>();
-                    minorBrands.add("M4A ");
-                    minorBrands.add("mp42");
-                    minorBrands.add("isom");
-                    minorBrands.add("\0\0\0\0");
-
-                    return new FileTypeBox("M4A ", 0, minorBrands);
-                }
-
-                @Override
-                protected MovieBox createMovieBox(Movie movie, Map<Track, int[]> chunks) {
-                    MovieBox moov = super.createMovieBox(movie, chunks);
-                    moov.getMovieHeaderBox().setVersion(0);
-                    return moov;
-                }
-
-                @Override
-                protected TrackBox createTrackBox(Track track, Movie movie, Map<Track, int[]> chunks) {
-                    TrackBox trak = super.createTrackBox(track, movie, chunks);
-
-                    trak.getTrackHeaderBox().setVersion(0);
-                    trak.getTrackHeaderBox().setVolume(1.0f);
-
-                    return trak;
-                }
+            List<String> minorBrands = new LinkedList<String>();
+            minorBrands.add("M4A ");
+            minorBrands.add("mp42");
+            minorBrands.add("isom");
+            minorBrands.add("\0\0\0\0");
 
-                @Override
-                protected Box createUdta(Movie movie) {
-                    return mt != null ? addUserDataBox(mt) : null;
-                }
-            }.build(outMovie);
+            MP4StreamBuilder builder = new MP4StreamBuilder(new FileTypeBox("M4A ", 0, minorBrands), mt != null ? addUserDataBox(mt) : null);
+            builder.addTrack(audioTrack, videoChannel);
 
-            FileOutputStream fos = new FileOutputStream(output);
-            try {
-                out.getBox(fos.getChannel());
-            } finally {
-                IOUtils.closeQuietly(fos);
-            }
+            fos = new FileOutputStream(output);
+            builder.write(fos.getChannel());
         } finally {
+            IOUtils.closeQuietly(fos);
             IOUtils.closeQuietly(videoIn);
         }
     }
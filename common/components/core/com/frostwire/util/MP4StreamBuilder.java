@@ -0,0 +1,511 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+
+import com.coremedia.iso.IsoFile;
+import com.coremedia.iso.IsoTypeWriter;
+import com.coremedia.iso.boxes.Box;
+import com.coremedia.iso.boxes.ChunkOffsetBox;
+import com.coremedia.iso.boxes.CompositionTimeToSample;
+import com.coremedia.iso.boxes.DataEntryUrlBox;
+import com.coremedia.iso.boxes.DataInformationBox;
+import com.coremedia.iso.boxes.DataReferenceBox;
+import com.coremedia.iso.boxes.FileTypeBox;
+import com.coremedia.iso.boxes.HandlerBox;
+import com.coremedia.iso.boxes.MediaBox;
+import com.coremedia.iso.boxes.MediaHeaderBox;
+import com.coremedia.iso.boxes.MediaInformationBox;
+import com.coremedia.iso.boxes.MovieBox;
+import com.coremedia.iso.boxes.MovieHeaderBox;
+import com.coremedia.iso.boxes.SampleDependencyTypeBox;
+import com.coremedia.iso.boxes.SampleSizeBox;
+import com.coremedia.iso.boxes.SampleTableBox;
+import com.coremedia.iso.boxes.SampleToChunkBox;
+import com.coremedia.iso.boxes.StaticChunkOffsetBox;
+import com.coremedia.iso.boxes.SyncSampleBox;
+import com.coremedia.iso.boxes.TimeToSampleBox;
+import com.coremedia.iso.boxes.TrackBox;
+import com.coremedia.iso.boxes.TrackHeaderBox;
+import com.coremedia.iso.boxes.mdat.SampleList;
+import com.googlecode.mp4parser.authoring.DateHelper;
+import com.googlecode.mp4parser.authoring.Track;
+
+/**
+ * Writes a plain MP4 file with the tracks of other MP4 files without loading the
+ * samples in memory.
+ * <p>
+ * Only the sample tables of the tracks are kept. The moov box is built from them with
+ * the chunk offsets computed in advance and written before the mdat box, which is
+ * filled by transferring the ranges of adjacent samples straight from the source
+ * {@link FileChannel}s. Chunks of about one second are interleaved by decoding time.
+ * <p>
+ * The headers are written with version 0 and full volume, as the players of the
+ * muxed files expect.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+final class MP4StreamBuilder {
+
+    private static final long MAX_TRANSFER_SIZE = (64 * 1024 * 1024) - (32 * 1024);
+
+    private final FileTypeBox ftyp;
+    private final Box udta;
+    private final List<TrackSource> tracks;
+
+    public MP4StreamBuilder(FileTypeBox ftyp, Box udta) {
+        this.ftyp = ftyp;
+        this.udta = udta;
+        this.tracks = new ArrayList<TrackSource>();
+    }
+
+    /**
+     * Adds a track read from the given channel, the channel must stay open until the
+     * file is written.
+     */
+    public void addTrack(Track track, FileChannel channel) throws IOException {
+        if (!(track.getSamples() instanceof SampleList)) {
+            throw new IOException("Unsupported track " + track);
+        }
+
+        tracks.add(new TrackSource(track, channel));
+    }
+
+    public void write(FileChannel out) throws IOException {
+        if (tracks.isEmpty()) {
+            throw new IOException("No tracks to write");
+        }
+
+        List<Chunk> chunks = interleave();
+
+        long contentSize = 0;
+        for (TrackSource source : tracks) {
+            contentSize += source.contentSize;
+        }
+
+        boolean largeMdat = 8 + contentSize > 0xFFFFFFFFL;
+        long mdatHeaderSize = largeMdat ? 16 : 8;
+
+        MovieBox moov = createMovieBox(false);
+        long dataOffset = ftyp.getSize() + moov.getSize() + mdatHeaderSize;
+        if (dataOffset + contentSize > 0xFFFFFFFFL) {
+            moov = createMovieBox(true);
+            dataOffset = ftyp.getSize() + moov.getSize() + mdatHeaderSize;
+        }
+
+        for (TrackSource source : tracks) {
+            long[] offsets = source.chunkOffsetBox.getChunkOffsets();
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] += dataOffset;
+            }
+        }
+
+        ftyp.getBox(out);
+        moov.getBox(out);
+
+        ByteBuffer header = ByteBuffer.allocate((int) mdatHeaderSize);
+        if (largeMdat) {
+            IsoTypeWriter.writeUInt32(header, 1);
+            header.put(IsoFile.fourCCtoBytes("mdat"));
+            IsoTypeWriter.writeUInt64(header, 16 + contentSize);
+        } else {
+            IsoTypeWriter.writeUInt32(header, 8 + contentSize);
+            header.put(IsoFile.fourCCtoBytes("mdat"));
+        }
+        header.rewind();
+        while (header.hasRemaining()) {
+            out.write(header);
+        }
+
+        for (Chunk chunk : chunks) {
+            writeChunk(chunk, out);
+        }
+    }
+
+    /**
+     * Splits the tracks in chunks and sorts them by start time, computing the chunk
+     * offsets relative to the start of the mdat content.
+     */
+    private List<Chunk> interleave() {
+        for (TrackSource source : tracks) {
+            source.split();
+        }
+
+        List<Chunk> chunks = new ArrayList<Chunk>();
+        int[] next = new int[tracks.size()];
+        long offset = 0;
+
+        while (true) {
+            TrackSource earliest = null;
+            int earliestIndex = -1;
+
+            for (int i = 0; i < tracks.size(); i++) {
+                TrackSource source = tracks.get(i);
+                if (next[i] < source.chunks.size()) {
+                    if (earliest == null || source.chunks.get(next[i]).startTime < earliest.chunks.get(next[earliestIndex]).startTime) {
+                        earliest = source;
+                        earliestIndex = i;
+                    }
+                }
+            }
+
+            if (earliest == null) {
+                break;
+            }
+
+            Chunk chunk = earliest.chunks.get(next[earliestIndex]++);
+            chunk.offset = offset;
+            offset += chunk.size;
+            chunks.add(chunk);
+        }
+
+        return chunks;
+    }
+
+    private void writeChunk(Chunk chunk, FileChannel out) throws IOException {
+        TrackSource source = chunk.source;
+
+        int i = chunk.firstSample;
+        int end = chunk.firstSample + chunk.sampleCount;
+
+        while (i < end) {
+            long position = source.offsets[i];
+            long count = source.sizes[i];
+            i++;
+
+            // samples are usually stored one after the other
+            while (i < end && source.offsets[i] == position + count) {
+                count += source.sizes[i];
+                i++;
+            }
+
+            transfer(source.channel, position, count, out);
+        }
+    }
+
+    private static void transfer(FileChannel from, long position, long count, FileChannel to) throws IOException {
+        long offset = 0;
+        while (offset < count) {
+            long n = from.transferTo(position + offset, Math.min(MAX_TRANSFER_SIZE, count - offset), to);
+            if (n <= 0) {
+                throw new IOException("Unexpected end of the source file at " + (position + offset));
+            }
+            offset += n;
+        }
+    }
+
+    private MovieBox createMovieBox(boolean largeOffsets) {
+        MovieBox moov = new MovieBox();
+
+        long movieTimescale = getMovieTimescale();
+        long duration = 0;
+        long nextTrackId = 0;
+
+        for (TrackSource source : tracks) {
+            duration = Math.max(duration, source.duration * movieTimescale / source.timescale);
+            nextTrackId = Math.max(nextTrackId, source.track.getTrackMetaData().getTrackId());
+        }
+
+        MovieHeaderBox mvhd = new MovieHeaderBox();
+        mvhd.setVersion(0);
+        mvhd.setCreationTime(DateHelper.convert(new Date()));
+        mvhd.setModificationTime(DateHelper.convert(new Date()));
+        mvhd.setTimescale(movieTimescale);
+        mvhd.setDuration(duration);
+        mvhd.setNextTrackId(nextTrackId + 1);
+        moov.addBox(mvhd);
+
+        for (TrackSource source : tracks) {
+            moov.addBox(createTrackBox(source, movieTimescale, largeOffsets));
+        }
+
+        if (udta != null) {
+            moov.addBox(udta);
+        }
+
+        return moov;
+    }
+
+    private TrackBox createTrackBox(TrackSource source, long movieTimescale, boolean largeOffsets) {
+        Track track = source.track;
+
+        TrackBox trak = new TrackBox();
+
+        TrackHeaderBox tkhd = new TrackHeaderBox();
+        int flags = 0;
+        if (track.isEnabled()) {
+            flags += 1;
+        }
+        if (track.isInMovie()) {
+            flags += 2;
+        }
+        if (track.isInPreview()) {
+            flags += 4;
+        }
+        if (track.isInPoster()) {
+            flags += 8;
+        }
+        tkhd.setFlags(flags);
+        tkhd.setVersion(0);
+        tkhd.setAlternateGroup(track.getTrackMetaData().getGroup());
+        tkhd.setCreationTime(DateHelper.convert(track.getTrackMetaData().getCreationTime()));
+        tkhd.setModificationTime(DateHelper.convert(new Date()));
+        tkhd.setDuration(source.duration * movieTimescale / source.timescale);
+        tkhd.setHeight(track.getTrackMetaData().getHeight());
+        tkhd.setWidth(track.getTrackMetaData().getWidth());
+        tkhd.setLayer(track.getTrackMetaData().getLayer());
+        tkhd.setTrackId(track.getTrackMetaData().getTrackId());
+        tkhd.setVolume(1.0f);
+        trak.addBox(tkhd);
+
+        MediaBox mdia = new MediaBox();
+        trak.addBox(mdia);
+
+        MediaHeaderBox mdhd = new MediaHeaderBox();
+        mdhd.setCreationTime(DateHelper.convert(track.getTrackMetaData().getCreationTime()));
+        mdhd.setDuration(source.duration);
+        mdhd.setTimescale(source.timescale);
+        mdhd.setLanguage(track.getTrackMetaData().getLanguage());
+        mdia.addBox(mdhd);
+
+        HandlerBox hdlr = new HandlerBox();
+        hdlr.setHandlerType(track.getHandler());
+        mdia.addBox(hdlr);
+
+        MediaInformationBox minf = new MediaInformationBox();
+        minf.addBox(track.getMediaHeaderBox());
+
+        // the data is in this same file
+        DataInformationBox dinf = new DataInformationBox();
+        DataReferenceBox dref = new DataReferenceBox();
+        dinf.addBox(dref);
+        DataEntryUrlBox url = new DataEntryUrlBox();
+        url.setFlags(1);
+        dref.addBox(url);
+        minf.addBox(dinf);
+
+        SampleTableBox stbl = new SampleTableBox();
+
+        stbl.addBox(track.getSampleDescriptionBox());
+
+        if (track.getDecodingTimeEntries() != null && !track.getDecodingTimeEntries().isEmpty()) {
+            TimeToSampleBox stts = new TimeToSampleBox();
+            stts.setEntries(track.getDecodingTimeEntries());
+            stbl.addBox(stts);
+        }
+
+        if (track.getCompositionTimeEntries() != null && !track.getCompositionTimeEntries().isEmpty()) {
+            CompositionTimeToSample ctts = new CompositionTimeToSample();
+            ctts.setEntries(track.getCompositionTimeEntries());
+            stbl.addBox(ctts);
+        }
+
+        if (track.getSyncSamples() != null && track.getSyncSamples().length > 0) {
+            SyncSampleBox stss = new SyncSampleBox();
+            stss.setSampleNumber(track.getSyncSamples());
+            stbl.addBox(stss);
+        }
+
+        if (track.getSampleDependencies() != null && !track.getSampleDependencies().isEmpty()) {
+            SampleDependencyTypeBox sdtp = new SampleDependencyTypeBox();
+            sdtp.setEntries(track.getSampleDependencies());
+            stbl.addBox(sdtp);
+        }
+
+        SampleToChunkBox stsc = new SampleToChunkBox();
+        stsc.setEntries(new LinkedList<SampleToChunkBox.Entry>());
+        long lastSampleCount = -1;
+        for (int i = 0; i < source.chunks.size(); i++) {
+            int sampleCount = source.chunks.get(i).sampleCount;
+            if (sampleCount != lastSampleCount) {
+                stsc.getEntries().add(new SampleToChunkBox.Entry(i + 1, sampleCount, 1));
+                lastSampleCount = sampleCount;
+            }
+        }
+        stbl.addBox(stsc);
+
+        SampleSizeBox stsz = new SampleSizeBox();
+        stsz.setSampleSizes(source.sizes);
+        stbl.addBox(stsz);
+
+        long[] chunkOffsets = new long[source.chunks.size()];
+        for (int i = 0; i < chunkOffsets.length; i++) {
+            chunkOffsets[i] = source.chunks.get(i).offset;
+        }
+
+        if (largeOffsets) {
+            source.chunkOffsetBox = new ChunkOffset64Box(chunkOffsets);
+        } else {
+            StaticChunkOffsetBox stco = new StaticChunkOffsetBox();
+            stco.setChunkOffsets(chunkOffsets);
+            source.chunkOffsetBox = stco;
+        }
+        stbl.addBox(source.chunkOffsetBox);
+
+        minf.addBox(stbl);
+        mdia.addBox(minf);
+
+        return trak;
+    }
+
+    private long getMovieTimescale() {
+        long timescale = tracks.get(0).timescale;
+        for (TrackSource source : tracks) {
+            timescale = gcd(source.timescale, timescale);
+        }
+        return timescale;
+    }
+
+    private static long gcd(long a, long b) {
+        return b == 0 ? a : gcd(b, a % b);
+    }
+
+    private static final class TrackSource {
+
+        private final Track track;
+        private final FileChannel channel;
+
+        private final long timescale;
+        private final long[] offsets;
+        private final long[] sizes;
+
+        private long contentSize;
+        private long duration;
+
+        private final List<Chunk> chunks;
+        private ChunkOffsetBox chunkOffsetBox;
+
+        public TrackSource(Track track, FileChannel channel) {
+            this.track = track;
+            this.channel = channel;
+            this.timescale = track.getTrackMetaData().getTimescale();
+
+            SampleList samples = (SampleList) track.getSamples();
+            this.offsets = samples.getOffsetKeys();
+            this.sizes = new long[samples.size()];
+            for (int i = 0; i < sizes.length; i++) {
+                // the sample is a view of a mapped region, the data is not read here
+                sizes[i] = samples.get(i).remaining();
+                contentSize += sizes[i];
+            }
+
+            for (TimeToSampleBox.Entry entry : track.getDecodingTimeEntries()) {
+                duration += entry.getCount() * entry.getDelta();
+            }
+
+            this.chunks = new ArrayList<Chunk>();
+        }
+
+        /**
+         * Groups the samples in chunks of about one second of decoding time.
+         */
+        public void split() {
+            chunks.clear();
+
+            List<TimeToSampleBox.Entry> entries = track.getDecodingTimeEntries();
+            int entryIndex = 0;
+            long entryRemaining = entries.isEmpty() ? 0 : entries.get(0).getCount();
+
+            long time = 0;
+            Chunk chunk = null;
+
+            for (int i = 0; i < sizes.length; i++) {
+                if (chunk == null || time - chunk.time >= timescale) {
+                    chunk = new Chunk(this, i, time, (double) time / timescale);
+                    chunks.add(chunk);
+                }
+
+                chunk.sampleCount++;
+                chunk.size += sizes[i];
+
+                // samples beyond the time table keep the last time
+                while (entryRemaining == 0 && entryIndex + 1 < entries.size()) {
+                    entryRemaining = entries.get(++entryIndex).getCount();
+                }
+                if (entryRemaining > 0) {
+                    time += entries.get(entryIndex).getDelta();
+                    entryRemaining--;
+                }
+            }
+        }
+    }
+
+    private static final class Chunk {
+
+        private final TrackSource source;
+        private final int firstSample;
+        private final long time;
+        private final double startTime;
+
+        private int sampleCount;
+        private long size;
+        private long offset;
+
+        public Chunk(TrackSource source, int firstSample, long time, double startTime) {
+            this.source = source;
+            this.firstSample = firstSample;
+            this.time = time;
+            this.startTime = startTime;
+        }
+    }
+
+    /**
+     * A 'co64' box that can be created, mp4parser only supports parsing it.
+     */
+    private static final class ChunkOffset64Box extends ChunkOffsetBox {
+
+        private final long[] chunkOffsets;
+
+        public ChunkOffset64Box(long[] chunkOffsets) {
+            super("co64");
+            this.chunkOffsets = chunkOffsets;
+        }
+
+        @Override
+        public long[] getChunkOffsets() {
+            return chunkOffsets;
+        }
+
+        @Override
+        protected long getContentSize() {
+            return 8 + 8 * chunkOffsets.length;
+        }
+
+        @Override
+        protected void getContent(ByteBuffer byteBuffer) {
+            writeVersionAndFlags(byteBuffer);
+            IsoTypeWriter.writeUInt32(byteBuffer, chunkOffsets.length);
+            for (long chunkOffset : chunkOffsets) {
+                IsoTypeWriter.writeUInt64(byteBuffer, chunkOffset);
+            }
+        }
+
+        @Override
+        protected void _parseDetails(ByteBuffer content) {
+        }
+    }
+}
@@ -0,0 +1,877 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.util;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Executor;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSession;
+
+import com.frostwire.logging.Logger;
+
+/**
+ * A HTTP client that saves big files using several connections at the same time.
+ * <p>
+ * The server is probed with a one byte range request. If ranges are supported and the
+ * file is big enough, the file is split in segments fetched in parallel by tasks run in
+ * the given executor, and every segment is written at its offset with positional
+ * {@link FileChannel} writes. The progress of the segments is kept in a small sidecar
+ * file, so the download can be resumed after a pause or a crash. When a connection runs
+ * out of work it takes half of the biggest segment still in progress, that way a slow
+ * connection doesn't hold back the end of the download.
+ * <p>
+ * The calling thread takes part in the download, so it's safe to call {@link #save}
+ * from a task of the same executor. Everything else is delegated to a plain client.
+ * <p>
+ * The partial file of a segmented download has holes, if its progress can't be used the
+ * file is deleted and the download starts from the beginning. Listeners should take the
+ * bytes already saved with {@link #getSavedBytes} when they get the headers.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class SegmentedHttpClient implements HttpClient {
+
+    private static final Logger LOG = Logger.getLogger(SegmentedHttpClient.class);
+
+    private static final int DEFAULT_TIMEOUT = 10000;
+    private static final String DEFAULT_USER_AGENT = UserAgentGenerator.getUserAgent();
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Segments are never split below this size, it must be bigger than the buffer size.
+     */
+    private static final long MIN_SEGMENT_SIZE = 1024 * 1024;
+
+    private static final int MAX_SEGMENT_FAILURES = 3;
+    private static final long STATE_SAVE_INTERVAL_MILLIS = 1000;
+
+    private static final String STATE_FILE_SUFFIX = ".segments";
+    private static final int STATE_VERSION = 1;
+
+    private final Executor executor;
+    private final int maxConnections;
+    private final HttpClient delegate;
+
+    private HttpClientListener listener;
+
+    private volatile boolean canceled;
+    private volatile SegmentedDownload download;
+
+    SegmentedHttpClient(Executor executor, int maxConnections) {
+        this.executor = executor;
+        this.maxConnections = Math.max(1, maxConnections);
+        this.delegate = new JdkHttpClient();
+        this.delegate.setListener(new DelegateListener());
+    }
+
+    @Override
+    public int head(String url, int connectTimeoutInMillis) throws IOException {
+        return delegate.head(url, connectTimeoutInMillis);
+    }
+
+    @Override
+    public String get(String url) throws IOException {
+        return delegate.get(url);
+    }
+
+    @Override
+    public String get(String url, int timeout) throws IOException {
+        return delegate.get(url, timeout);
+    }
+
+    @Override
+    public String get(String url, int timeout, String userAgent) throws IOException {
+        return delegate.get(url, timeout, userAgent);
+    }
+
+    @Override
+    public String get(String url, int timeout, String userAgent, String referrer, String cookie) throws IOException {
+        return delegate.get(url, timeout, userAgent, referrer, cookie);
+    }
+
+    @Override
+    public String get(String url, int timeout, String userAgent, String referrer, String cookie, Map<String, String> customHeaders) throws IOException {
+        return delegate.get(url, timeout, userAgent, referrer, cookie, customHeaders);
+    }
+
+    @Override
+    public byte[] getBytes(String url, int timeout, String userAgent, String referrer) {
+        return delegate.getBytes(url, timeout, userAgent, referrer);
+    }
+
+    @Override
+    public byte[] getBytes(String url) {
+        return delegate.getBytes(url);
+    }
+
+    @Override
+    public void save(String url, File file) throws IOException {
+        save(url, file, false, DEFAULT_TIMEOUT, DEFAULT_USER_AGENT);
+    }
+
+    @Override
+    public void save(String url, File file, boolean resume) throws IOException {
+        save(url, file, resume, DEFAULT_TIMEOUT, DEFAULT_USER_AGENT);
+    }
+
+    @Override
+    public void save(String url, File file, boolean resume, int timeout, String userAgent) throws IOException {
+        Map<String, List<String>> headers = probe(url, timeout, userAgent);
+        long length = headers != null ? parseTotalLength(headers) : -1;
+
+        if (length < 2 * MIN_SEGMENT_SIZE || maxConnections == 1) {
+            // a segmented partial file has holes, it can't be resumed by a single connection
+            if (hasState(file)) {
+                discardPartialFile(file);
+                resume = false;
+            }
+            delegate.save(url, file, resume, timeout, userAgent);
+            return;
+        }
+
+        if (resume && hasState(file) && loadState(file, length) == null) {
+            discardPartialFile(file);
+            resume = false;
+        }
+
+        onHeaders(headers);
+
+        SegmentedDownload d = new SegmentedDownload(url, file, length, timeout, userAgent);
+        download = d;
+        try {
+            d.run(resume);
+        } finally {
+            download = null;
+        }
+    }
+
+    @Override
+    public void post(String url, int timeout, String userAgent, String content, boolean gzip) throws IOException {
+        delegate.post(url, timeout, userAgent, content, gzip);
+    }
+
+    @Override
+    public String post(String url, int timeout, String userAgent, Map<String, String> formData) {
+        return delegate.post(url, timeout, userAgent, formData);
+    }
+
+    @Override
+    public void setListener(HttpClientListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public HttpClientListener getListener() {
+        return listener;
+    }
+
+    @Override
+    public void cancel() {
+        canceled = true;
+        delegate.cancel();
+
+        SegmentedDownload d = download;
+        if (d != null) {
+            d.disconnect();
+        }
+    }
+
+    @Override
+    public boolean isCanceled() {
+        return canceled;
+    }
+
+    @Override
+    public void reset() {
+        canceled = false;
+        delegate.reset();
+    }
+
+    /**
+     * Returns the number of bytes already saved in the (partial) file, taking into account
+     * the segments of an interrupted segmented download.
+     */
+    public static long getSavedBytes(File file) {
+        List<Segment> segments = loadState(file, -1);
+        if (segments == null) {
+            return file.exists() ? file.length() : 0;
+        }
+
+        long saved = 0;
+        for (Segment segment : segments) {
+            saved += segment.position - segment.start;
+        }
+        return saved;
+    }
+
+    /**
+     * Deletes the progress information of an interrupted segmented download of the file.
+     */
+    public static void deleteState(File file) {
+        getStateFile(file).delete();
+        getTempStateFile(file).delete();
+    }
+
+    /**
+     * Returns the headers of the response to a one byte range request, null if the
+     * server doesn't support ranges.
+     */
+    private Map<String, List<String>> probe(String url, int timeout, String userAgent) throws IOException {
+        if (!url.startsWith("http")) {
+            return null;
+        }
+
+        HttpURLConnection conn = openConnection(url, timeout, userAgent, 0, 0);
+        try {
+            return conn.getResponseCode() == HttpURLConnection.HTTP_PARTIAL ? conn.getHeaderFields() : null;
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    private static HttpURLConnection openConnection(String url, int timeout, String userAgent, long first, long last) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+
+        conn.setConnectTimeout(timeout);
+        conn.setReadTimeout(timeout);
+        conn.setRequestProperty("User-Agent", userAgent);
+        conn.setRequestProperty("Accept-Encoding", "identity");
+        conn.setRequestProperty("Range", "bytes=" + first + "-" + last);
+        conn.setInstanceFollowRedirects(true);
+
+        if (conn instanceof HttpsURLConnection) {
+            ((HttpsURLConnection) conn).setHostnameVerifier(new HostnameVerifier() {
+                @Override
+                public boolean verify(String hostname, SSLSession session) {
+                    return true;
+                }
+            });
+        }
+
+        return conn;
+    }
+
+    /**
+     * Parses the total length of the "bytes first-last/total" content range.
+     */
+    private static long parseTotalLength(Map<String, List<String>> headers) {
+        String contentRange = null;
+        for (Entry<String, List<String>> e : headers.entrySet()) {
+            // header names are case insensitive
+            if ("Content-Range".equalsIgnoreCase(e.getKey()) && !e.getValue().isEmpty()) {
+                contentRange = e.getValue().get(0);
+            }
+        }
+        if (contentRange == null) {
+            return -1;
+        }
+
+        int index = contentRange.lastIndexOf('/');
+        if (index == -1) {
+            return -1;
+        }
+
+        try {
+            return Long.parseLong(contentRange.substring(index + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static File getStateFile(File file) {
+        return new File(file.getPath() + STATE_FILE_SUFFIX);
+    }
+
+    private static File getTempStateFile(File file) {
+        return new File(file.getPath() + STATE_FILE_SUFFIX + ".tmp");
+    }
+
+    private static boolean hasState(File file) {
+        return getStateFile(file).exists() || getTempStateFile(file).exists();
+    }
+
+    /**
+     * Deletes a partial file that can't be resumed and its state, so the saved bytes
+     * reported are zero.
+     */
+    private static void discardPartialFile(File file) {
+        deleteState(file);
+        if (file.exists() && !file.delete()) {
+            LOG.warn("Unable to delete partial file " + file);
+        }
+    }
+
+    /**
+     * Loads the segments of an interrupted download, returns null if there is no state
+     * or it's not for a file of the given length (any length if -1).
+     */
+    private static List<Segment> loadState(File file, long length) {
+        File stateFile = getStateFile(file);
+        if (!stateFile.exists()) {
+            // crashed between writing and renaming the new state
+            stateFile = getTempStateFile(file);
+        }
+        if (!stateFile.exists() || !file.exists()) {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(stateFile));
+
+            if (in.readInt() != STATE_VERSION) {
+                return null;
+            }
+            long savedLength = in.readLong();
+            if (length != -1 && savedLength != length) {
+                return null;
+            }
+
+            int count = in.readInt();
+            List<Segment> segments = new ArrayList<Segment>(count);
+            for (int i = 0; i < count; i++) {
+                Segment segment = new Segment(in.readLong(), in.readLong());
+                segment.position = in.readLong();
+                if (segment.start < 0 || segment.position < segment.start || segment.position > segment.end || segment.end > savedLength) {
+                    return null;
+                }
+                segments.add(segment);
+            }
+
+            return segments;
+        } catch (IOException e) {
+            LOG.warn("Error reading download state of " + file + ", starting from the beginning", e);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            if (closeable != null) {
+                closeable.close();
+            }
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    private void onHeaders(Map<String, List<String>> headerFields) {
+        HttpClientListener l = listener;
+        if (l != null) {
+            try {
+                l.onHeaders(this, headerFields);
+            } catch (Exception e) {
+                LOG.warn(e.getMessage(), e);
+            }
+        }
+    }
+
+    private void onData(byte[] b, int offset, int length) {
+        HttpClientListener l = listener;
+        if (l != null) {
+            try {
+                l.onData(this, b, offset, length);
+            } catch (Exception e) {
+                LOG.warn(e.getMessage(), e);
+            }
+        }
+    }
+
+    private void onError(Exception e) {
+        HttpClientListener l = listener;
+        if (l != null) {
+            try {
+                l.onError(this, e);
+            } catch (Exception e2) {
+                LOG.warn(e2.getMessage(), e2);
+            }
+        }
+    }
+
+    private void onComplete() {
+        HttpClientListener l = listener;
+        if (l != null) {
+            try {
+                l.onComplete(this);
+            } catch (Exception e) {
+                LOG.warn(e.getMessage(), e);
+            }
+        }
+    }
+
+    private void onCancel() {
+        HttpClientListener l = listener;
+        if (l != null) {
+            try {
+                l.onCancel(this);
+            } catch (Exception e) {
+                LOG.warn(e.getMessage(), e);
+            }
+        }
+    }
+
+    private static final class Segment {
+
+        private final long start;
+        private long end;
+        private long position;
+
+        private boolean active;
+        private int failures;
+
+        public Segment(long start, long end) {
+            this.start = start;
+            this.end = end;
+            this.position = start;
+        }
+
+        public long remaining() {
+            return end - position;
+        }
+    }
+
+    /**
+     * A copy of the segments taken under the download lock, to be written to the disk
+     * after releasing it.
+     */
+    private static final class StateSnapshot {
+
+        private final long sequence;
+        private final long[] segments;
+
+        public StateSnapshot(long sequence, long[] segments) {
+            this.sequence = sequence;
+            this.segments = segments;
+        }
+    }
+
+    /**
+     * The state of one segmented save, all the fields are guarded by the instance lock,
+     * that is also used to deliver the data events one at a time. The state file is
+     * written under its own lock, so the disk sync doesn't hold the data events.
+     */
+    private final class SegmentedDownload {
+
+        private final String url;
+        private final File file;
+        private final long length;
+        private final int timeout;
+        private final String userAgent;
+
+        private List<Segment> segments;
+        private FileChannel channel;
+        private final List<HttpURLConnection> connections;
+
+        private int workers;
+        private boolean done;
+        private Exception error;
+        private long lastStateSave;
+        private long stateSequence;
+
+        private final Object stateLock = new Object();
+        private long savedStateSequence;
+
+        public SegmentedDownload(String url, File file, long length, int timeout, String userAgent) {
+            this.url = url;
+            this.file = file;
+            this.length = length;
+            this.timeout = timeout;
+            this.userAgent = userAgent;
+            this.connections = new ArrayList<HttpURLConnection>(maxConnections);
+        }
+
+        public void run(boolean resume) throws IOException {
+            RandomAccessFile raf = null;
+
+            try {
+                StateSnapshot state;
+                synchronized (this) {
+                    segments = resume ? loadState(file, length) : null;
+
+                    boolean truncate = false;
+                    if (segments == null) {
+                        long start = 0;
+                        // a partial file saved by a single connection is the first segment
+                        if (resume && file.exists() && !getStateFile(file).exists() && file.length() <= length) {
+                            start = file.length();
+                        }
+                        segments = split(start, length, maxConnections);
+                        truncate = start == 0;
+                    }
+
+                    raf = new RandomAccessFile(file, "rw");
+                    if (truncate) {
+                        raf.setLength(0);
+                    }
+                    channel = raf.getChannel();
+
+                    state = snapshotState();
+
+                    workers = 1;
+                }
+                saveState(state);
+
+                for (int i = 1; i < maxConnections; i++) {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            synchronized (SegmentedDownload.this) {
+                                if (done) {
+                                    return;
+                                }
+                                workers++;
+                            }
+                            work();
+                        }
+                    });
+                }
+
+                work();
+
+                synchronized (this) {
+                    while (workers > 0) {
+                        wait();
+                    }
+                    done = true;
+
+                    state = snapshotState();
+                }
+                saveState(state);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                synchronized (this) {
+                    done = true;
+                    error = e;
+                }
+            } finally {
+                closeQuietly(raf);
+            }
+
+            if (canceled) {
+                onCancel();
+            } else if (error != null) {
+                onError(error);
+            } else if (isComplete()) {
+                deleteState(file);
+                onComplete();
+            } else {
+                onError(new IOException("Download of " + url + " stopped before completion"));
+            }
+        }
+
+        private void work() {
+            try {
+                Segment segment;
+                while ((segment = nextSegment()) != null) {
+                    try {
+                        fetch(segment);
+                    } catch (Exception e) {
+                        segmentFailed(segment, e);
+                    }
+                }
+            } finally {
+                synchronized (this) {
+                    workers--;
+                    notifyAll();
+                }
+            }
+        }
+
+        /**
+         * Returns a segment nobody is working on, or a new one made of the second half of
+         * the biggest segment in progress, null if there is nothing left to do.
+         */
+        private synchronized Segment nextSegment() {
+            if (done || canceled || error != null) {
+                return null;
+            }
+
+            Segment biggest = null;
+
+            for (Segment segment : segments) {
+                if (segment.remaining() > 0) {
+                    if (!segment.active) {
+                        segment.active = true;
+                        return segment;
+                    }
+                    if (biggest == null || segment.remaining() > biggest.remaining()) {
+                        biggest = segment;
+                    }
+                }
+            }
+
+            if (biggest != null && biggest.remaining() >= 2 * MIN_SEGMENT_SIZE) {
+                long middle = biggest.position + biggest.remaining() / 2;
+                Segment segment = new Segment(middle, biggest.end);
+                segment.active = true;
+                biggest.end = middle;
+                segments.add(segment);
+                return segment;
+            }
+
+            return null;
+        }
+
+        private synchronized void segmentFailed(Segment segment, Exception e) {
+            segment.active = false;
+
+            if (canceled) {
+                return;
+            }
+
+            segment.failures++;
+            LOG.info("Error fetching segment at " + segment.position + " of " + url + " (" + e.getMessage() + ")");
+
+            if (segment.failures >= MAX_SEGMENT_FAILURES && error == null) {
+                error = e;
+                disconnect();
+            }
+        }
+
+        /**
+         * Closes the open connections, to stop the segments blocked in a read right away.
+         */
+        public synchronized void disconnect() {
+            for (HttpURLConnection conn : connections) {
+                conn.disconnect();
+            }
+        }
+
+        private void fetch(Segment segment) throws IOException {
+            long position;
+            long end;
+            synchronized (this) {
+                position = segment.position;
+                end = segment.end;
+            }
+
+            HttpURLConnection conn = openConnection(url, timeout, userAgent, position, end - 1);
+            InputStream in = null;
+
+            synchronized (this) {
+                if (canceled || error != null) {
+                    segment.active = false;
+                    return;
+                }
+                connections.add(conn);
+            }
+
+            try {
+                in = conn.getInputStream();
+
+                String contentRange = conn.getHeaderField("Content-Range");
+                if (conn.getResponseCode() != HttpURLConnection.HTTP_PARTIAL || contentRange == null || !contentRange.startsWith("bytes " + position + "-")) {
+                    throw new IOException("Server does not honor the range of the segment");
+                }
+
+                byte[] b = new byte[BUFFER_SIZE];
+                int n;
+                while (!canceled && (n = in.read(b, 0, b.length)) != -1) {
+                    synchronized (this) {
+                        // the end moves back if the segment is split meanwhile
+                        n = (int) Math.min(n, segment.end - position);
+                    }
+
+                    write(b, n, position);
+                    position += n;
+
+                    StateSnapshot state = null;
+                    boolean finished;
+                    synchronized (this) {
+                        segment.position = position;
+
+                        onData(b, 0, n);
+
+                        if (System.currentTimeMillis() - lastStateSave > STATE_SAVE_INTERVAL_MILLIS) {
+                            state = snapshotState();
+                        }
+
+                        finished = segment.remaining() == 0;
+                        if (finished) {
+                            segment.active = false;
+                        }
+                    }
+
+                    if (state != null) {
+                        saveState(state);
+                    }
+                    if (finished) {
+                        return;
+                    }
+                }
+
+                if (!canceled) {
+                    throw new IOException("Connection closed before the end of the segment");
+                }
+            } finally {
+                closeQuietly(in);
+                conn.disconnect();
+                synchronized (this) {
+                    connections.remove(conn);
+                    segment.active = false;
+                }
+            }
+        }
+
+        private void write(byte[] b, int n, long position) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(b, 0, n);
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        }
+
+        private synchronized boolean isComplete() {
+            for (Segment segment : segments) {
+                if (segment.remaining() > 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Copies the segments, must be called holding the instance lock. The positions
+         * copied are already written to the channel.
+         */
+        private StateSnapshot snapshotState() {
+            lastStateSave = System.currentTimeMillis();
+
+            long[] copy = new long[segments.size() * 3];
+            int i = 0;
+            for (Segment segment : segments) {
+                copy[i++] = segment.start;
+                copy[i++] = segment.end;
+                copy[i++] = segment.position;
+            }
+
+            return new StateSnapshot(++stateSequence, copy);
+        }
+
+        /**
+         * Writes the segments to a temporary file that replaces the state, the data is
+         * forced to the disk first so only positions already on the disk are saved.
+         * Must be called without holding the instance lock, a snapshot older than the
+         * last one saved is ignored.
+         */
+        private void saveState(StateSnapshot state) {
+            synchronized (stateLock) {
+                if (state.sequence <= savedStateSequence) {
+                    return;
+                }
+
+                File stateFile = getStateFile(file);
+                File tempFile = getTempStateFile(file);
+
+                DataOutputStream out = null;
+                try {
+                    channel.force(false);
+
+                    out = new DataOutputStream(new FileOutputStream(tempFile));
+
+                    out.writeInt(STATE_VERSION);
+                    out.writeLong(length);
+                    out.writeInt(state.segments.length / 3);
+                    for (long value : state.segments) {
+                        out.writeLong(value);
+                    }
+                    out.close();
+                    out = null;
+
+                    stateFile.delete();
+                    if (!tempFile.renameTo(stateFile)) {
+                        LOG.warn("Unable to save download state of " + file);
+                    }
+
+                    savedStateSequence = state.sequence;
+                } catch (IOException e) {
+                    LOG.warn("Error saving download state of " + file, e);
+                } finally {
+                    closeQuietly(out);
+                }
+            }
+        }
+
+        private List<Segment> split(long start, long end, int count) {
+            List<Segment> list = new ArrayList<Segment>(count + 1);
+
+            if (start > 0) {
+                Segment saved = new Segment(0, start);
+                saved.position = start;
+                list.add(saved);
+            }
+
+            long size = Math.max(MIN_SEGMENT_SIZE, (end - start + count - 1) / count);
+            for (long first = start; first < end; first += size) {
+                list.add(new Segment(first, Math.min(end, first + size)));
+            }
+
+            return list;
+        }
+    }
+
+    private final class DelegateListener implements HttpClientListener {
+
+        @Override
+        public void onError(HttpClient client, Exception e) {
+            SegmentedHttpClient.this.onError(e);
+        }
+
+        @Override
+        public void onData(HttpClient client, byte[] buffer, int offset, int length) {
+            SegmentedHttpClient.this.onData(buffer, offset, length);
+        }
+
+        @Override
+        public void onComplete(HttpClient client) {
+            SegmentedHttpClient.this.onComplete();
+        }
+
+        @Override
+        public void onCancel(HttpClient client) {
+            SegmentedHttpClient.this.onCancel();
+        }
+
+        @Override
+        public void onHeaders(HttpClient httpClient, Map<String, List<String>> headerFields) {
+            SegmentedHttpClient.this.onHeaders(headerFields);
+        }
+    }
+}
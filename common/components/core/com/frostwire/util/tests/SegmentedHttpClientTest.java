@@ -0,0 +1,306 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.util.tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+
+import com.frostwire.util.HttpClient;
+import com.frostwire.util.HttpClient.HttpClientListener;
+import com.frostwire.util.HttpClientFactory;
+import com.frostwire.util.SegmentedHttpClient;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Saves a file served with range support by a local server, with and without
+ * interrupting and resuming the download.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public class SegmentedHttpClientTest extends TestCase {
+
+    private static final int LENGTH = 8 * 1024 * 1024;
+    private static final int CONNECTIONS = 4;
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    private volatile byte[] data;
+
+    private File file;
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(SegmentedHttpClientTest.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        data = newData(LENGTH, 1);
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/file", new RangeHandler());
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+
+        executor = Executors.newFixedThreadPool(CONNECTIONS);
+
+        file = File.createTempFile("segmented", ".bin");
+        file.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        server.stop(0);
+        executor.shutdownNow();
+
+        SegmentedHttpClient.deleteState(file);
+        file.delete();
+    }
+
+    public void testSave() throws Exception {
+        CountingListener listener = new CountingListener(-1);
+        HttpClient client = newClient(listener);
+
+        client.save(url(), file);
+
+        assertCompleted(listener);
+        assertEquals(LENGTH, listener.received);
+        assertFileData();
+        assertFalse(stateFile().exists());
+    }
+
+    public void testResume() throws Exception {
+        CountingListener listener = new CountingListener(LENGTH / 4);
+        HttpClient client = newClient(listener);
+
+        client.save(url(), file);
+
+        assertTrue(listener.canceled);
+        assertTrue(stateFile().exists());
+
+        long saved = SegmentedHttpClient.getSavedBytes(file);
+        assertTrue(saved >= LENGTH / 4);
+        assertTrue(saved < LENGTH);
+
+        listener = new CountingListener(-1);
+        client.setListener(listener);
+        client.reset();
+
+        client.save(url(), file, true);
+
+        assertCompleted(listener);
+        assertEquals(LENGTH - saved, listener.received);
+        assertFileData();
+        assertFalse(stateFile().exists());
+    }
+
+    public void testStateOfOtherLengthIgnored() throws Exception {
+        HttpClient client = newClient(new CountingListener(LENGTH / 4));
+        client.save(url(), file);
+        assertTrue(stateFile().exists());
+
+        data = newData(LENGTH + 1024 * 1024, 2);
+
+        CountingListener listener = new CountingListener(-1);
+        client.setListener(listener);
+        client.reset();
+
+        client.save(url(), file, true);
+
+        assertCompleted(listener);
+        assertEquals(data.length, listener.received);
+        assertFileData();
+    }
+
+    public void testPartialFileDiscardedBySingleConnection() throws Exception {
+        HttpClient client = newClient(new CountingListener(LENGTH / 4));
+        client.save(url(), file);
+        assertTrue(stateFile().exists());
+
+        data = newData(1024, 2);
+
+        final long[] savedOnHeaders = { -1 };
+        CountingListener listener = new CountingListener(-1) {
+            @Override
+            public void onHeaders(HttpClient httpClient, Map<String, List<String>> headerFields) {
+                savedOnHeaders[0] = SegmentedHttpClient.getSavedBytes(file);
+            }
+        };
+        client.setListener(listener);
+        client.reset();
+
+        client.save(url(), file, true);
+
+        assertCompleted(listener);
+        assertEquals(0, savedOnHeaders[0]);
+        assertEquals(data.length, listener.received);
+        assertFileData();
+        assertFalse(stateFile().exists());
+    }
+
+    public void testSmallFileSavedWithOneConnection() throws Exception {
+        data = newData(1024, 3);
+
+        CountingListener listener = new CountingListener(-1);
+        HttpClient client = newClient(listener);
+
+        client.save(url(), file);
+
+        assertCompleted(listener);
+        assertEquals(data.length, listener.received);
+        assertFileData();
+        assertEquals(data.length, SegmentedHttpClient.getSavedBytes(file));
+    }
+
+    private static void assertCompleted(CountingListener listener) {
+        assertNull(listener.error);
+        assertTrue(listener.completed);
+    }
+
+    private HttpClient newClient(HttpClientListener listener) {
+        HttpClient client = HttpClientFactory.newSegmentedInstance(executor, CONNECTIONS);
+        client.setListener(listener);
+        return client;
+    }
+
+    private String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/file";
+    }
+
+    private File stateFile() {
+        return new File(file.getPath() + ".segments");
+    }
+
+    private void assertFileData() throws IOException {
+        assertEquals(data.length, file.length());
+
+        byte[] saved = new byte[data.length];
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            raf.readFully(saved);
+        } finally {
+            raf.close();
+        }
+
+        assertTrue(Arrays.equals(data, saved));
+    }
+
+    private static byte[] newData(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private final class RangeHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            byte[] data = SegmentedHttpClientTest.this.data;
+
+            try {
+                String range = exchange.getRequestHeaders().getFirst("Range");
+                if (range == null || !range.startsWith("bytes=")) {
+                    exchange.sendResponseHeaders(200, data.length);
+                    write(exchange.getResponseBody(), data, 0, data.length);
+                    return;
+                }
+
+                String[] bounds = range.substring("bytes=".length()).split("-");
+                long first = Long.parseLong(bounds[0]);
+                long last = bounds.length > 1 ? Math.min(Long.parseLong(bounds[1]), data.length - 1) : data.length - 1;
+
+                exchange.getResponseHeaders().add("Content-Range", "bytes " + first + "-" + last + "/" + data.length);
+                exchange.sendResponseHeaders(206, last - first + 1);
+                write(exchange.getResponseBody(), data, (int) first, (int) (last - first + 1));
+            } catch (IOException e) {
+                // the client closed the connection
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private void write(OutputStream out, byte[] data, int offset, int length) throws IOException {
+            int end = offset + length;
+            while (offset < end) {
+                int n = Math.min(16 * 1024, end - offset);
+                out.write(data, offset, n);
+                offset += n;
+            }
+        }
+    }
+
+    /**
+     * Counts the bytes received, and cancels the client once it gets the given
+     * number of bytes (never if -1).
+     */
+    private static class CountingListener implements HttpClientListener {
+
+        private final long cancelAt;
+
+        private long received;
+        private boolean completed;
+        private boolean canceled;
+        private Exception error;
+
+        public CountingListener(long cancelAt) {
+            this.cancelAt = cancelAt;
+        }
+
+        @Override
+        public synchronized void onData(HttpClient client, byte[] buffer, int offset, int length) {
+            received += length;
+            if (cancelAt != -1 && received >= cancelAt && !client.isCanceled()) {
+                client.cancel();
+            }
+        }
+
+        @Override
+        public synchronized void onError(HttpClient client, Exception e) {
+            error = e;
+        }
+
+        @Override
+        public synchronized void onComplete(HttpClient client) {
+            completed = true;
+        }
+
+        @Override
+        public synchronized void onCancel(HttpClient client) {
+            canceled = true;
+        }
+
+        @Override
+        public void onHeaders(HttpClient httpClient, Map<String, List<String>> headerFields) {
+        }
+    }
+}
@@ -74,6 +74,24 @@ CacheFileManagerStats
 	public long
 	getFileWriteCount();
 	
+		// bytes of the cache held by entries that have been re-used, the rest is on probation
+	
+	public long
+	getProtectedSize();
+	
+		// current split of the used size between read-ahead and written (write-back) blocks
+	
+	public long
+	getReadAheadSize();
+	
+	public long
+	getWriteBackSize();
+	
+		// total bytes read ahead and evicted without ever being read
+	
+	public long
+	getReadAheadBytesUnused();
+	
 		// returns the number of bytes in the requested range that are in cache
 	
 	public boolean[] getBytesInCache(TOTorrent torrent, long[] absoluteOffsets, long[] lengths);
@@ -51,6 +51,19 @@ CacheEntry
 	protected int				entry_type;
 	protected int				usage_count;
 	
+		// highest offset read so far, reading below it again means the data is being re-used
+		// rather than just scanned
+	
+	protected int				read_limit;
+	
+		// set without the manager monitor on re-use, cleared by the manager's replacement policy
+	
+	protected volatile boolean	referenced;
+	
+		// which queue of the manager holds us, only accessed with the manager's policy monitor held
+	
+	protected boolean			in_protected_queue;
+	
 	/**
 	 * Constructs a dummy cache entry used to search in a Set 
 	 * @param offset
@@ -129,11 +142,36 @@ CacheEntry
 	}
 	
 	protected void
-	used()
+	used(
+		int		skip,
+		int		length )
 	{
 		last_used = SystemTime.getCurrentTime();
 		
 		usage_count++;
+		
+		if ( skip < read_limit ){
+			
+			referenced	= true;
+		}
+		
+		if ( skip + length > read_limit ){
+			
+			read_limit = skip + length;
+		}
+	}
+	
+	protected boolean
+	clearReferenced()
+	{
+		boolean	res = referenced;
+		
+		if ( res ){
+			
+			referenced	= false;
+		}
+		
+		return( res );
 	}
 	
 	protected long
@@ -29,6 +29,7 @@ package com.aelitis.azureus.core.diskmanager.cache.impl;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.gudy.azureus2.core3.config.COConfigurationManager;
 import org.gudy.azureus2.core3.logging.LogEvent;
@@ -54,6 +55,10 @@ CacheFileManagerImpl
 	
 	public static final int		STATS_UPDATE_FREQUENCY		= 1*1000;	// 1 sec
 	public static final long	DIRTY_CACHE_WRITE_MAX_AGE	= 120*1000;	// 2 mins
+	
+		// share of the cache kept for entries that haven't been re-used yet
+	
+	public static final int		PROBATION_PERCENT			= 25;
 		
 	static{
 		if ( DEBUG ){
@@ -125,27 +130,47 @@ CacheFileManagerImpl
 	protected WeakHashMap		cache_files			= new WeakHashMap();
 	protected WeakHashMap		updated_cache_files	= null;
 	
-		// access order
+		// replacement policy, a 2Q variant with CLOCK style second chances so that a single
+		// scan (recheck, sequential seeding) can't flush the blocks other files are re-using.
+		// new entries go to the probation queue in insertion order. a cache hit only flags the
+		// entry (see CacheEntry.used), so hits never take a manager monitor. when a flagged
+		// entry reaches the head of a queue it is moved to the tail of the protected queue
+		// instead of being evicted. victims come from probation while it holds more than its
+		// share of the cache
+	
+	protected LinkedHashMap		probation_entries	= new LinkedHashMap(1024, 0.75f, false );
+	protected LinkedHashMap		protected_entries	= new LinkedHashMap(1024, 0.75f, false );
 	
-	protected LinkedHashMap		cache_entries = new LinkedHashMap(1024, 0.75f, true );
+	protected long				probation_bytes;
+	protected long				protected_bytes;
+	
+	protected long				read_ahead_bytes;
+	protected long				write_back_bytes;
+	protected long				read_ahead_bytes_unused;
 	
 	protected CacheFileManagerStatsImpl	stats;
 	
 
 	protected Map	torrent_to_cache_file_map	= new LightHashMap();
 	
-	protected long				cache_bytes_written;
-	protected long				cache_bytes_read;
-	protected long				file_bytes_written;
-	protected long				file_bytes_read;
+	protected AtomicLong		cache_bytes_written	= new AtomicLong();
+	protected AtomicLong		cache_bytes_read	= new AtomicLong();
+	protected AtomicLong		file_bytes_written	= new AtomicLong();
+	protected AtomicLong		file_bytes_read		= new AtomicLong();
+	
+	protected AtomicLong		cache_read_count	= new AtomicLong();
+	protected AtomicLong		cache_write_count	= new AtomicLong();
+	protected AtomicLong		file_read_count		= new AtomicLong();
+	protected AtomicLong		file_write_count	= new AtomicLong();
 	
-	protected long				cache_read_count;
-	protected long				cache_write_count;
-	protected long				file_read_count;
-	protected long				file_write_count;
+		// guards the file bookkeeping
 	
 	protected AEMonitor			this_mon	= new AEMonitor( "CacheFileManager" );
 	
+		// guards the replacement queues and the space accounting
+	
+	protected AEMonitor			policy_mon	= new AEMonitor( "CacheFileManager:policy" );
+	
 	private long	cleaner_ticks	= CACHE_CLEANER_TICKS;
 	
 	
@@ -372,7 +397,7 @@ CacheFileManagerImpl
 			CacheEntry	oldest_entry	= null;
 			
 			try{
-				this_mon.enter();
+				policy_mon.enter();
 			
 				if ( length < cache_space_free || cache_space_free == cache_size ){
 				
@@ -380,11 +405,11 @@ CacheFileManagerImpl
 					
 				}else{
 					
-					oldest_entry = (CacheEntry)cache_entries.keySet().iterator().next();
+					oldest_entry = selectVictim();
 				}
 			}finally{
 				
-				this_mon.exit();
+				policy_mon.exit();
 			}
 			
 			if ( !ok ){
@@ -428,19 +453,19 @@ CacheFileManagerImpl
 				if ( flushed == 0 ){
 				
 					try{
-						this_mon.enter();
+						policy_mon.enter();
 						
-						if (	cache_entries.size() > 0 &&
-								(CacheEntry)cache_entries.keySet().iterator().next() == oldest_entry ){
+						if (	probation_entries.containsKey( oldest_entry ) ||
+								protected_entries.containsKey( oldest_entry )){
 							
 								// hmm, something wrong with cache as the flush should have got rid
-								// of at least the oldest entry
+								// of at least the victim entry
 							
 							throw( new CacheFileManagerException( null, "Cache inconsistent: 0 flushed"));
 						}
 					}finally{
 						
-						this_mon.exit();
+						policy_mon.exit();
 					}
 				}
 			}
@@ -454,12 +479,64 @@ CacheFileManagerImpl
 
 			Logger.log(new LogEvent(torrent, LOGID, "DiskCache: cr="
 					+ cache_bytes_read + ",cw=" + cache_bytes_written + ",fr="
-					+ file_bytes_read + ",fw=" + file_bytes_written));
+					+ file_bytes_read + ",fw=" + file_bytes_written + ",prot="
+					+ protected_bytes + ",prob=" + probation_bytes));
 		}
 			
 		return( entry );
 	}
 	
+		/**
+		 * picks the entry to flush to make space, must be called with the policy monitor held.
+		 * re-used entries found at the head of a queue get a second chance at the tail of the 
+		 * protected queue, the number of second chances is bounded by the number of entries so
+		 * that concurrent hits can't keep us looping
+		 * @return
+		 */
+	
+	protected CacheEntry
+	selectVictim()
+	{
+		long	probation_target	= cache_size * PROBATION_PERCENT / 100;
+		
+		int	chances = probation_entries.size() + protected_entries.size();
+		
+		while( true ){
+			
+			boolean	from_probation = 
+				probation_entries.size() > 0 &&
+				( probation_bytes > probation_target || protected_entries.isEmpty());
+			
+			LinkedHashMap	queue = from_probation?probation_entries:protected_entries;
+			
+			if ( queue.isEmpty()){
+				
+				return( null );
+			}
+			
+			CacheEntry	entry = (CacheEntry)queue.keySet().iterator().next();
+			
+			if ( chances-- > 0 && entry.clearReferenced()){
+				
+				queue.remove( entry );
+				
+				if ( from_probation ){
+					
+					probation_bytes	-= entry.getLength();
+					protected_bytes	+= entry.getLength();
+					
+					entry.in_protected_queue	= true;
+				}
+				
+				protected_entries.put( entry, entry );
+				
+			}else{
+				
+				return( entry );
+			}
+		}
+	}
+	
 	protected void
 	cacheStatsAndCleaner()
 	{		
@@ -501,9 +578,21 @@ CacheFileManagerImpl
 								updated_cache_files	= null;
 							}
 
-							if ( cache_entries.size() > 0 ){
+							// System.out.println( "cache file = " + cache_files.size() + ", torrent map = " + torrent_to_cache_file_map.size());
 
-								Iterator it = cache_entries.keySet().iterator();
+						}finally{
+
+							this_mon.exit();
+						}
+						
+						try{
+							policy_mon.enter();
+							
+							LinkedHashMap[]	queues = { probation_entries, protected_entries };
+							
+							for ( int i=0;i<queues.length;i++ ){
+								
+								Iterator it = queues[i].keySet().iterator();
 
 								while( it.hasNext()){
 
@@ -517,12 +606,9 @@ CacheFileManagerImpl
 									}
 								}
 							}
-
-							// System.out.println( "cache file = " + cache_files.size() + ", torrent map = " + torrent_to_cache_file_map.size());
-
 						}finally{
-
-							this_mon.exit();
+							
+							policy_mon.exit();
 						}
 
 						Iterator	it = dirty_files.iterator();
@@ -577,13 +663,26 @@ CacheFileManagerImpl
 		throws CacheFileManagerException
 	{
 		try{
-			this_mon.enter();
+			policy_mon.enter();
 			
-			cache_space_free	-= new_entry.getLength();
+			int	length = new_entry.getLength();
+			
+			cache_space_free	-= length;
 			
 				// 	System.out.println( "Total cache space = " + cache_space_free );
 		
-			cache_entries.put( new_entry, new_entry );
+			probation_entries.put( new_entry, new_entry );
+			
+			probation_bytes	+= length;
+			
+			if ( new_entry.getType() == CacheEntry.CT_READ_AHEAD ){
+				
+				read_ahead_bytes	+= length;
+				
+			}else{
+				
+				write_back_bytes	+= length;
+			}
 			
 			if ( DEBUG ){
 				
@@ -593,7 +692,11 @@ CacheFileManagerImpl
 				
 				int		my_count = 0;
 
-				Iterator it = cache_entries.keySet().iterator();
+				List	all_entries = new ArrayList( probation_entries.keySet());
+				
+				all_entries.addAll( protected_entries.keySet());
+				
+				Iterator it = all_entries.iterator();
 				
 				while( it.hasNext()){
 					
@@ -631,35 +734,40 @@ CacheFileManagerImpl
 			}
 		}finally{
 			
-			this_mon.exit();
+			policy_mon.exit();
 		}
 	}
 	
+		// called with the file's monitor held, which is enough for the entry's usage fields. the
+		// queues are only updated when an eviction is needed so there's no manager monitor here
+	
 	protected void
 	cacheEntryUsed(
-		CacheEntry		entry )
+		CacheEntry		entry,
+		int				skip,
+		int				length )
 	
 		throws CacheFileManagerException
 	{
-		try{
-			this_mon.enter();
-		
-				// note that the "get" operation update the MRU in cache_entries
+		if ( DEBUG ){
 			
-			if ( cache_entries.get( entry ) == null ){
-				
-				Debug.out( "Cache inconsistency: entry missing on usage" );
-				
-				throw( new CacheFileManagerException( null, "Cache inconsistency: entry missing on usage"));
+			try{
+				policy_mon.enter();
 				
-			}else{
+				if ( 	!probation_entries.containsKey( entry ) &&
+						!protected_entries.containsKey( entry )){
+					
+					Debug.out( "Cache inconsistency: entry missing on usage" );
+					
+					throw( new CacheFileManagerException( null, "Cache inconsistency: entry missing on usage"));
+				}
+			}finally{
 				
-				entry.used();
+				policy_mon.exit();
 			}
-		}finally{
-			
-			this_mon.exit();
 		}
+		
+		entry.used( skip, length );
 	}
 	
 	protected void
@@ -671,16 +779,41 @@ CacheFileManagerImpl
 		entry.getBuffer().returnToPool();
 		
 		try{
-			this_mon.enter();
+			policy_mon.enter();
 			
-			cache_space_free	+= entry.getLength();
+			int	length = entry.getLength();
 			
-			if ( cache_entries.remove( entry ) == null ){
+			LinkedHashMap	queue = entry.in_protected_queue?protected_entries:probation_entries;
+			
+			if ( queue.remove( entry ) == null ){
 				
 				Debug.out( "Cache inconsistency: entry missing on removal" );
 
 				throw( new CacheFileManagerException( null, "Cache inconsistency: entry missing on removal"));
 			}
+			
+			cache_space_free	+= length;
+
+			if ( entry.in_protected_queue ){
+				
+				protected_bytes	-= length;
+				
+			}else{
+				
+				probation_bytes	-= length;
+			}
+			
+			if ( entry.getType() == CacheEntry.CT_READ_AHEAD ){
+				
+				read_ahead_bytes	-= length;
+				
+					// the part of the entry nobody read
+				
+				read_ahead_bytes_unused	+= length - Math.min( length, entry.read_limit );
+			}else{
+				
+				write_back_bytes	-= length;
+			}
 
 			/*
 			if ( 	entry.getType() == CacheEntry.CT_READ_AHEAD ){
@@ -699,7 +832,7 @@ CacheFileManagerImpl
 			// System.out.println( "Total cache space = " + cache_space_free );
 		}finally{
 			
-			this_mon.exit();
+			policy_mon.exit();
 		}
 	}
 	
@@ -726,115 +859,108 @@ CacheFileManagerImpl
 	cacheBytesWritten(
 		long		num )
 	{
-		try{
-			this_mon.enter();
-			
-			cache_bytes_written	+= num;
-			
-			cache_write_count++;
-			
-		}finally{
-			
-			this_mon.exit();
-		}
+		cache_bytes_written.addAndGet( num );
+		
+		cache_write_count.incrementAndGet();
 	}
 	
 	protected void
 	cacheBytesRead(
 		int		num )
 	{
-		try{
-			this_mon.enter();
-			
-			cache_bytes_read	+= num;
-			
-			cache_read_count++;
-			
-		}finally{
-			
-			this_mon.exit();
-		}
+		cache_bytes_read.addAndGet( num );
+		
+		cache_read_count.incrementAndGet();
 	}
 	
 	protected void
 	fileBytesWritten(
 		long	num )
 	{
-		try{
-			this_mon.enter();
-			
-			file_bytes_written	+= num;
-			
-			file_write_count++;
-			
-		}finally{
-			
-			this_mon.exit();
-		}
+		file_bytes_written.addAndGet( num );
+		
+		file_write_count.incrementAndGet();
 	}
 	
 	protected void
 	fileBytesRead(
 		int		num )
 	{
-		try{
-			this_mon.enter();
-			
-			file_bytes_read	+= num;
-			
-			file_read_count++;
-		}finally{
-			
-			this_mon.exit();
-		}
+		file_bytes_read.addAndGet( num );
+		
+		file_read_count.incrementAndGet();
 	}
 	
 	protected long
 	getBytesWrittenToCache()
 	{
-		return( cache_bytes_written );
+		return( cache_bytes_written.get());
 	}
 	
 	protected long
 	getBytesWrittenToFile()
 	{
-		return( file_bytes_written );
+		return( file_bytes_written.get());
 	}
 	
 	protected long
 	getBytesReadFromCache()
 	{
-		return( cache_bytes_read );
+		return( cache_bytes_read.get());
 	}
 	
 	protected long
 	getBytesReadFromFile()
 	{
-		return( file_bytes_read );
+		return( file_bytes_read.get());
 	}
 	
 	public long
 	getCacheReadCount()
 	{
-		return( cache_read_count );
+		return( cache_read_count.get());
 	}
 	
 	public long
 	getCacheWriteCount()
 	{
-		return( cache_write_count );
+		return( cache_write_count.get());
 	}
 	
 	public long
 	getFileReadCount()
 	{
-		return( file_read_count );
+		return( file_read_count.get());
 	}
 	
 	public long
 	getFileWriteCount()
 	{
-		return( file_write_count );
+		return( file_write_count.get());
+	}
+	
+	protected long
+	getProtectedSize()
+	{
+		return( protected_bytes );
+	}
+	
+	protected long
+	getReadAheadSize()
+	{
+		return( read_ahead_bytes );
+	}
+	
+	protected long
+	getWriteBackSize()
+	{
+		return( write_back_bytes );
+	}
+	
+	protected long
+	getReadAheadBytesUnused()
+	{
+		return( read_ahead_bytes_unused );
 	}
 	
 	protected void
@@ -971,17 +1097,29 @@ CacheFileManagerImpl
 				// grab a copy to avoid potential deadlock as we never take the manager monitor
 				// and then the file's own monitor, always the other way around
 			
+			int	probation_count;
+			int	protected_count;
+			
 			try{
-				this_mon.enter();
+				policy_mon.enter();
 
-				it = new ArrayList( cache_entries.keySet()).iterator();
+				List	entries = new ArrayList( probation_entries.keySet());
+				
+				entries.addAll( protected_entries.keySet());
+				
+				it = entries.iterator();
+				
+				probation_count	= probation_entries.size();
+				protected_count	= protected_entries.size();
 
 			}finally{
 				
-				this_mon.exit();
+				policy_mon.exit();
 			}
 			
-			writer.println( "Entries = " + cache_entries.size());
+			writer.println( "Entries = " + ( probation_count + protected_count ) + " (probation " + probation_count + ", protected " + protected_count + ")" );
+			
+			writer.println( "Read ahead = " + read_ahead_bytes + ", write back = " + write_back_bytes + ", read ahead unused = " + read_ahead_bytes_unused );
 							
 			Set	files = new HashSet();
 			
@@ -195,6 +195,30 @@ CacheFileManagerStatsImpl
 		return( manager.getFileWriteCount());
 	}
 	
+	public long
+	getProtectedSize()
+	{
+		return( manager.getProtectedSize());
+	}
+	
+	public long
+	getReadAheadSize()
+	{
+		return( manager.getReadAheadSize());
+	}
+	
+	public long
+	getWriteBackSize()
+	{
+		return( manager.getWriteBackSize());
+	}
+	
+	public long
+	getReadAheadBytesUnused()
+	{
+		return( manager.getReadAheadBytesUnused());
+	}
+	
 	public boolean[] getBytesInCache(TOTorrent torrent, long[] absoluteOffsets, long[] lengths)
 	{
 		return manager.getBytesInCache( torrent, absoluteOffsets, lengths);
@@ -360,7 +360,7 @@ CacheFileWithCache
 								
 								file_buffer.put( SS_CACHE, entry_buffer );
 									
-								manager.cacheEntryUsed( entry );
+								manager.cacheEntryUsed( entry, skip, available );
 								
 							}finally{
 								
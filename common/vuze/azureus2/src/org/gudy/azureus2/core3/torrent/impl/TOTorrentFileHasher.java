@@ -25,21 +25,83 @@ package org.gudy.azureus2.core3.torrent.impl;
 
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.gudy.azureus2.core3.torrent.*;
 import org.gudy.azureus2.core3.util.*;
 
+/**
+ * Files are read sequentially with large FileChannel reads and every complete piece
+ * is hashed by a shared pool of threads, each one with its own digest. Piece hashes
+ * are collected back in piece order on the reading thread, which is also the one that
+ * updates the other (sequential) hashes and reports the progress.
+ */
+
 public class 
 TOTorrentFileHasher 
 {
+	private static final int	READ_BUFFER_SIZE	= 1024*1024;
+	
+		// upper bound of the memory used by the pieces waiting to be hashed
+	
+	private static final long	MAX_PENDING_BYTES	= 64*1024*1024;
+	
+	private static final int	HASH_THREADS		= Math.max( 1, Runtime.getRuntime().availableProcessors());
+	
+	private static final ThreadPoolExecutor	hash_pool;
+	
+	static{
+		hash_pool = 
+			new ThreadPoolExecutor(
+				HASH_THREADS, HASH_THREADS,
+				30, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory()
+				{
+					private final AtomicInteger	thread_count = new AtomicInteger();
+					
+					public Thread
+					newThread(
+						Runnable	r )
+					{
+						Thread t = new Thread( r, "TOTorrentFileHasher:" + thread_count.incrementAndGet());
+						
+						t.setDaemon( true );
+						
+						return( t );
+					}
+				});
+		
+		hash_pool.allowCoreThreadTimeOut( true );
+	}
+	
+	private static final ThreadLocal<SHA1Hasher>	thread_hasher = 
+		new ThreadLocal<SHA1Hasher>()
+		{
+			protected SHA1Hasher
+			initialValue()
+			{
+				return( new SHA1Hasher());
+			}
+		};
+		
 	protected boolean	do_other_per_file_hash;
 	protected int		piece_length;
 	
-	protected Vector	pieces = new Vector();
+	protected List<byte[]>	pieces = new ArrayList<byte[]>();
 	
 	protected byte[]	buffer;
 	protected int		buffer_pos;
+	
+	private final int					max_pending;
+	private final LinkedList<Piece>		pending			= new LinkedList<Piece>();
+	private final LinkedList<byte[]>	free_buffers	= new LinkedList<byte[]>();
+	
+	private ByteBuffer	read_buffer;
 	 
 	protected SHA1Hasher					overall_sha1_hash;
 	protected ED2KHasher					overall_ed2k_hash;
@@ -52,7 +114,7 @@ TOTorrentFileHasher
 	
 	protected TOTorrentFileHasherListener	listener;
 		
-	protected boolean						cancelled;
+	protected volatile boolean				cancelled;
 	
 	protected
 	TOTorrentFileHasher(
@@ -71,7 +133,7 @@ TOTorrentFileHasher
 		piece_length			= _piece_length;
 		listener				= _listener;
 		
-		buffer = new byte[piece_length];
+		max_pending = (int)Math.max( 2, Math.min( 2*HASH_THREADS, MAX_PENDING_BYTES / piece_length ));
 	}
 		
 	long
@@ -82,7 +144,7 @@ TOTorrentFileHasher
 	{
 		long		file_length = 0;
 		
-		InputStream is = null;
+		FileInputStream is = null;
 		
 		SHA1Hasher	sha1_hash		= null;
 		ED2KHasher	ed2k_hash		= null;
@@ -94,8 +156,17 @@ TOTorrentFileHasher
 				ed2k_hash		= new ED2KHasher();
 			}
 			
-			is = new BufferedInputStream(new FileInputStream( _file ), 65536);
+			is = new FileInputStream( _file );
+			
+			FileChannel	channel = is.getChannel();
 
+			if ( read_buffer == null ){
+				
+				read_buffer = ByteBuffer.allocate( READ_BUFFER_SIZE );
+			}
+			
+			byte[]	read_bytes = read_buffer.array();
+			
 			while(true){
 	
 				if ( cancelled ){
@@ -104,41 +175,42 @@ TOTorrentFileHasher
 													TOTorrentException.RT_CANCELLED ));
 				}
 				
-				int	len = is.read( buffer, buffer_pos, piece_length - buffer_pos );
+				read_buffer.clear();
+				
+				int	len = channel.read( read_buffer );
 				
 				if ( len > 0 ){
 					
 					if ( do_other_per_file_hash ){
 						
-						sha1_hash.update( buffer, buffer_pos, len );
-						ed2k_hash.update( buffer, buffer_pos, len );
+						sha1_hash.update( read_bytes, 0, len );
+						ed2k_hash.update( read_bytes, 0, len );
 					}
 					
-					
 					file_length += len;
 					
-					buffer_pos += len;
+						// pieces span files, the current one carries over to the next file
 					
-					if ( buffer_pos == piece_length ){
-						
-						// hash this piece
+					int	pos = 0;
+					
+					while( pos < len ){
 						
-						byte[] hash = new SHA1Hasher().calculateHash(buffer);
-
-						if ( overall_sha1_hash != null ){
+						if ( buffer == null ){
 							
-							overall_sha1_hash.update( buffer );
-							overall_ed2k_hash.update( buffer );
+							buffer = free_buffers.isEmpty()?new byte[piece_length]:free_buffers.removeFirst();
 						}
 						
-						pieces.add( hash );
+						int	chunk = Math.min( len - pos, piece_length - buffer_pos );
+						
+						System.arraycopy( read_bytes, pos, buffer, buffer_pos, chunk );
 						
-						if ( listener != null ){
+						pos			+= chunk;
+						buffer_pos	+= chunk;
+						
+						if ( buffer_pos == piece_length ){
 							
-							listener.pieceHashed( pieces.size() );
+							submitPiece();
 						}
-						
-						buffer_pos = 0;					
 					}
 				}else{
 					
@@ -154,10 +226,14 @@ TOTorrentFileHasher
 			
 		}catch( TOTorrentException e ){
 			
+			abandonPieces();
+			
 			throw( e );
 			
 		}catch( Throwable e ){
 			
+			abandonPieces();
+			
 			throw( new TOTorrentException( 	"TOTorrentFileHasher: file read fails '" + e.toString() + "'",
 											TOTorrentException.RT_READ_FAILS ));
 		}finally {
@@ -173,6 +249,87 @@ TOTorrentFileHasher
 		return( file_length );
 	}
 	
+	private void
+	submitPiece()
+	
+		throws Exception
+	{
+		final byte[]	data	= buffer;
+		final int		length	= buffer_pos;
+		
+		buffer		= null;
+		buffer_pos	= 0;
+		
+		if ( overall_sha1_hash != null ){
+			
+			overall_sha1_hash.update( data, 0, length );
+			overall_ed2k_hash.update( data, 0, length );
+		}
+		
+		Future<byte[]> hash = 
+			hash_pool.submit(
+				new Callable<byte[]>()
+				{
+					public byte[]
+					call()
+					{
+						return( thread_hasher.get().calculateHash( ByteBuffer.wrap( data, 0, length )));
+					}
+				});
+		
+		pending.addLast( new Piece( data, hash ));
+		
+			// leave room for the next piece, blocking on the oldest ones if needed
+		
+		collectPieces( max_pending - 1 );
+	}
+	
+		/**
+		 * Adds the hashes of the finished pieces at the head of the pending list, in order,
+		 * and waits for the oldest ones until at most max_remaining are still pending.
+		 */
+	
+	private void
+	collectPieces(
+		int		max_remaining )
+	
+		throws Exception
+	{
+		while( !pending.isEmpty()){
+			
+			Piece	piece = pending.getFirst();
+			
+			if ( pending.size() <= max_remaining && !piece.hash.isDone()){
+				
+				break;
+			}
+			
+			pending.removeFirst();
+			
+			pieces.add( piece.hash.get());
+			
+			free_buffers.addLast( piece.data );
+			
+			if ( listener != null ){
+				
+				listener.pieceHashed( pieces.size() );
+			}
+		}
+	}
+	
+	private void
+	abandonPieces()
+	{
+		for ( Piece piece: pending ){
+			
+			piece.hash.cancel( false );
+		}
+		
+		pending.clear();
+		
+		free_buffers.clear();
+	}
+	
 	protected byte[]
 	getPerFileSHA1Digest()
 	{
@@ -193,40 +350,29 @@ TOTorrentFileHasher
 		try{
 			if ( buffer_pos > 0 ){
 								
-				byte[] rem = new byte[buffer_pos];
-				
-				System.arraycopy( buffer, 0, rem, 0, buffer_pos );
-				
-				pieces.addElement(new SHA1Hasher().calculateHash(rem));
-				
-				if ( overall_sha1_hash != null ){
-					
-					overall_sha1_hash.update( rem );
-					overall_ed2k_hash.update( rem );
-				}
-				
-				if ( listener != null ){
-							
-					listener.pieceHashed( pieces.size() );
-				}
-				
-				buffer_pos = 0;
+				submitPiece();
 			}
 		
+			collectPieces( 0 );
+			
+				// nothing else is read until the next add, release the memory
+			
+			free_buffers.clear();
+			
+			read_buffer = null;
+			
 			if ( overall_sha1_hash != null && sha1_digest == null ){
 				
 				sha1_digest	= overall_sha1_hash.getDigest();
 				ed2k_digest	= overall_ed2k_hash.getDigest();
 			}
 			
-			byte[][] res = new byte[pieces.size()][];
-		
-			pieces.copyInto( res );
-		
-			return( res );
+			return( pieces.toArray( new byte[pieces.size()][] ));
 			
 		}catch( Throwable e ){
 			
+			abandonPieces();
+			
 			throw( new TOTorrentException( 	"TOTorrentFileHasher: file read fails '" + e.toString() + "'",
 											TOTorrentException.RT_READ_FAILS ));
 		}
@@ -263,4 +409,19 @@ TOTorrentFileHasher
 	{
 		cancelled	= true;
 	}
+	
+	private static class
+	Piece
+	{
+		final byte[]			data;
+		final Future<byte[]>	hash;
+		
+		Piece(
+			byte[]				_data,
+			Future<byte[]>		_hash )
+		{
+			data	= _data;
+			hash	= _hash;
+		}
+	}
 }
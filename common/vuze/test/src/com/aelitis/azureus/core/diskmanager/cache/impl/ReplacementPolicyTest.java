@@ -0,0 +1,296 @@
+/*
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package com.aelitis.azureus.core.diskmanager.cache.impl;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.gudy.azureus2.core3.util.DirectByteBuffer;
+
+import com.aelitis.azureus.core.diskmanager.cache.CacheFileManagerFactory;
+
+/**
+ * Checks the 2Q replacement policy of the cache manager: sequential reads don't count
+ * as re-use, re-used entries survive a scan of other entries, the protected entries are
+ * only flushed once probation is down to its share and the read ahead and write back
+ * accounting follows the entries in and out of the cache
+ *
+ * @author gubatron
+ *
+ */
+
+public class
+ReplacementPolicyTest
+{
+	private static final int	BLOCK_SIZE	= 16*1024;
+	private static final int	CACHE_BLOCKS	= 16;
+
+	private CacheFileManagerImpl	manager;
+
+	public static void
+	main(
+		String	[]args )
+	{
+		try{
+			CacheFileManagerImpl	manager = (CacheFileManagerImpl)CacheFileManagerFactory.getSingleton();
+
+			manager.initialise( true, true, true, CACHE_BLOCKS*BLOCK_SIZE, 0 );
+
+			ReplacementPolicyTest	test = new ReplacementPolicyTest( manager );
+
+			test.sequentialReadIsNotReuse();
+			test.reusedEntriesSurviveScan();
+			test.protectedEntriesEvictedWhenProbationSmall();
+			test.accounting();
+
+			System.out.println( "OK" );
+
+			System.exit( 0 );
+
+		}catch( Throwable e ){
+
+			e.printStackTrace();
+
+			System.exit( 1 );
+		}
+	}
+
+	protected
+	ReplacementPolicyTest(
+		CacheFileManagerImpl	_manager )
+	{
+		manager	= _manager;
+	}
+
+	protected void
+	sequentialReadIsNotReuse()
+	{
+		CacheEntry	entry = newEntry( CacheEntry.CT_READ_AHEAD, 0 );
+
+		entry.used( 0, 1024 );
+		entry.used( 1024, 1024 );
+		entry.used( 2048, BLOCK_SIZE - 2048 );
+
+		check( !entry.referenced, "sequential reads flagged as re-use" );
+
+		entry.used( 512, 16 );
+
+		check( entry.referenced, "read below the read limit not flagged as re-use" );
+
+		check( entry.clearReferenced(), "flag not returned" );
+		check( !entry.referenced, "flag not cleared" );
+	}
+
+	protected void
+	reusedEntriesSurviveScan()
+
+		throws Exception
+	{
+		List	hot = new ArrayList();
+
+		for ( int i=0;i<4;i++){
+
+			CacheEntry	entry = add( CacheEntry.CT_READ_AHEAD, i );
+
+			entry.used( 0, BLOCK_SIZE );
+			entry.used( 0, BLOCK_SIZE );
+
+			hot.add( entry );
+		}
+
+			// a scan many times the size of the cache, each block read once front to back
+
+		for ( int i=0;i<10*CACHE_BLOCKS;i++){
+
+			makeSpace();
+
+			CacheEntry	entry = add( CacheEntry.CT_READ_AHEAD, 100 + i );
+
+			entry.used( 0, BLOCK_SIZE/2 );
+			entry.used( BLOCK_SIZE/2, BLOCK_SIZE/2 );
+		}
+
+		for ( int i=0;i<hot.size();i++){
+
+			CacheEntry	entry = (CacheEntry)hot.get(i);
+
+			check( manager.protected_entries.containsKey( entry ), "re-used entry " + i + " flushed by the scan" );
+		}
+
+		check( manager.getProtectedSize() == hot.size()*BLOCK_SIZE, "protected size " + manager.getProtectedSize());
+
+		releaseAll();
+	}
+
+	protected void
+	protectedEntriesEvictedWhenProbationSmall()
+
+		throws Exception
+	{
+			// fill the cache with re-used entries, they move to the protected queue as they
+			// reach the head of probation
+
+		List	entries = new ArrayList();
+
+		for ( int i=0;i<CACHE_BLOCKS;i++){
+
+			CacheEntry	entry = add( CacheEntry.CT_READ_AHEAD, i );
+
+			entry.used( 0, BLOCK_SIZE );
+			entry.used( 0, BLOCK_SIZE );
+
+			entries.add( entry );
+		}
+
+			// once probation is down to its share the victims come from the protected queue,
+			// oldest first
+
+		CacheEntry	victim;
+
+		try{
+			manager.policy_mon.enter();
+
+			victim = manager.selectVictim();
+
+		}finally{
+
+			manager.policy_mon.exit();
+		}
+
+		check( manager.probation_bytes <= CACHE_BLOCKS*BLOCK_SIZE*CacheFileManagerImpl.PROBATION_PERCENT/100, "probation over its share " + manager.probation_bytes );
+
+		check( victim == entries.get(0) && victim.in_protected_queue, "victim not the oldest protected entry" );
+
+		releaseAll();
+	}
+
+	protected void
+	accounting()
+
+		throws Exception
+	{
+		CacheEntry	read_ahead 	= add( CacheEntry.CT_READ_AHEAD, 0 );
+		CacheEntry	write_back	= add( CacheEntry.CT_DATA_WRITE, 1 );
+
+		check( manager.getReadAheadSize() == BLOCK_SIZE, "read ahead size " + manager.getReadAheadSize());
+		check( manager.getWriteBackSize() == BLOCK_SIZE, "write back size " + manager.getWriteBackSize());
+
+		read_ahead.used( 0, 1000 );
+
+		long	unused_before = manager.getReadAheadBytesUnused();
+
+		manager.releaseCacheSpace( read_ahead );
+		manager.releaseCacheSpace( write_back );
+
+		check( manager.getReadAheadBytesUnused() - unused_before == BLOCK_SIZE - 1000, "unused read ahead " + manager.getReadAheadBytesUnused());
+		check( manager.getReadAheadSize() == 0, "read ahead size after release " + manager.getReadAheadSize());
+		check( manager.getWriteBackSize() == 0, "write back size after release " + manager.getWriteBackSize());
+		check( manager.getCacheUsed() == 0, "cache used after release " + manager.getCacheUsed());
+	}
+
+		/**
+		 * releases the policy's victim, as the flush of allocateCacheSpace does
+		 */
+
+	protected void
+	makeSpace()
+
+		throws Exception
+	{
+		while( manager.cache_space_free < BLOCK_SIZE ){
+
+			CacheEntry	victim;
+
+			try{
+				manager.policy_mon.enter();
+
+				victim = manager.selectVictim();
+
+			}finally{
+
+				manager.policy_mon.exit();
+			}
+
+			check( victim != null, "no victim" );
+
+			manager.releaseCacheSpace( victim );
+		}
+	}
+
+	protected CacheEntry
+	add(
+		int		type,
+		int		block )
+
+		throws Exception
+	{
+		CacheEntry	entry = newEntry( type, block );
+
+		manager.addCacheSpace( entry );
+
+		return( entry );
+	}
+
+	protected void
+	releaseAll()
+
+		throws Exception
+	{
+		List	entries = new ArrayList( manager.probation_entries.keySet());
+
+		entries.addAll( manager.protected_entries.keySet());
+
+		Iterator	it = entries.iterator();
+
+		while( it.hasNext()){
+
+			manager.releaseCacheSpace((CacheEntry)it.next());
+		}
+
+		check( manager.getCacheUsed() == 0, "cache used after release " + manager.getCacheUsed());
+	}
+
+	protected CacheEntry
+	newEntry(
+		int		type,
+		int		block )
+	{
+		CacheEntry	entry =
+			new CacheEntry(
+				type,
+				null,
+				new DirectByteBuffer( ByteBuffer.allocate( BLOCK_SIZE )),
+				(long)block*BLOCK_SIZE,
+				BLOCK_SIZE );
+
+		entry.setClean();
+
+		return( entry );
+	}
+
+	protected static void
+	check(
+		boolean		condition,
+		String		message )
+	{
+		if ( !condition ){
+
+			throw( new RuntimeException( message ));
+		}
+	}
+}
@@ -0,0 +1,182 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package org.gudy.azureus2.core3.torrent.impl;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.gudy.azureus2.core3.util.SHA1Hasher;
+
+/**
+ * Hashes the pieces of a set of files with {@link TOTorrentFileHasher} and with
+ * the sequential loop it replaced (64 KB buffered reads, one piece hashed at a
+ * time on the reading thread), and prints the time and throughput of each.
+ * <p>
+ * Run with a directory as the argument to hash its files. Without it, 4 files of
+ * about 48 MB each are generated in a temporary folder. The files are read once
+ * before timing so both loops find them in the OS cache.
+ */
+public class TOTorrentFileHasherBenchmark {
+
+	private static final int	PIECE_LENGTH	= 256*1024;
+
+	private static final int	WARMUP_ROUNDS	= 2;
+	private static final int	ROUNDS			= 5;
+
+	public static void main(String[] args) throws Exception {
+		File[] files;
+		File folder = null;
+
+		if (args.length > 0) {
+			files = new File(args[0]).listFiles();
+			Arrays.sort(files);
+		} else {
+			folder = File.createTempFile("hasher", "benchmark");
+			folder.delete();
+			folder.mkdirs();
+			files = newFiles(folder, 4, 48*1024*1024);
+		}
+
+		try {
+			long total = 0;
+			for (File f : files) {
+				total += f.length();
+			}
+
+			byte[][] expected = runOld(files);
+			byte[][] actual = runNew(files);
+			if (expected.length != actual.length) {
+				throw new IllegalStateException("Different number of pieces");
+			}
+			for (int i = 0; i < expected.length; i++) {
+				if (!Arrays.equals(expected[i], actual[i])) {
+					throw new IllegalStateException("Different hash of piece " + i);
+				}
+			}
+
+			for (int i = 0; i < WARMUP_ROUNDS; i++) {
+				runOld(files);
+				runNew(files);
+			}
+
+			long oldTime = 0;
+			long newTime = 0;
+			for (int i = 0; i < ROUNDS; i++) {
+				long start = System.nanoTime();
+				runOld(files);
+				oldTime += System.nanoTime() - start;
+
+				start = System.nanoTime();
+				runNew(files);
+				newTime += System.nanoTime() - start;
+			}
+
+			System.out.println(files.length + " files, " + total + " bytes, " + expected.length + " pieces of " + PIECE_LENGTH + " bytes, " + Runtime.getRuntime().availableProcessors() + " cores");
+			print("old", oldTime / ROUNDS, total);
+			print("new", newTime / ROUNDS, total);
+		} finally {
+			if (folder != null) {
+				for (File f : files) {
+					f.delete();
+				}
+				folder.delete();
+			}
+		}
+	}
+
+	private static byte[][] runNew(File[] files) throws Exception {
+		TOTorrentFileHasher hasher = new TOTorrentFileHasher(false, false, PIECE_LENGTH, null);
+		for (File f : files) {
+			hasher.add(f);
+		}
+		return hasher.getPieces();
+	}
+
+	/**
+	 * The loop of the previous TOTorrentFileHasher.
+	 */
+	private static byte[][] runOld(File[] files) throws Exception {
+		List<byte[]> pieces = new ArrayList<byte[]>();
+		byte[] buffer = new byte[PIECE_LENGTH];
+		int buffer_pos = 0;
+
+		for (File f : files) {
+			InputStream is = new BufferedInputStream(new FileInputStream(f), 65536);
+			try {
+				int len;
+				while ((len = is.read(buffer, buffer_pos, PIECE_LENGTH - buffer_pos)) > 0) {
+					buffer_pos += len;
+					if (buffer_pos == PIECE_LENGTH) {
+						pieces.add(new SHA1Hasher().calculateHash(buffer));
+						buffer_pos = 0;
+					}
+				}
+			} finally {
+				is.close();
+			}
+		}
+
+		if (buffer_pos > 0) {
+			byte[] rem = new byte[buffer_pos];
+			System.arraycopy(buffer, 0, rem, 0, buffer_pos);
+			pieces.add(new SHA1Hasher().calculateHash(rem));
+		}
+
+		return pieces.toArray(new byte[pieces.size()][]);
+	}
+
+	private static File[] newFiles(File folder, int numFiles, int fileLength) throws Exception {
+		Random random = new Random(numFiles);
+		byte[] data = new byte[1024*1024];
+
+		File[] files = new File[numFiles];
+		for (int i = 0; i < numFiles; i++) {
+			files[i] = new File(folder, "file" + i);
+
+			// odd lengths, so the files end in the middle of pieces
+			long length = fileLength + 12345L * (i + 1);
+
+			FileOutputStream out = new FileOutputStream(files[i]);
+			try {
+				while (length > 0) {
+					random.nextBytes(data);
+					int n = (int) Math.min(data.length, length);
+					out.write(data, 0, n);
+					length -= n;
+				}
+			} finally {
+				out.close();
+			}
+		}
+
+		return files;
+	}
+
+	private static void print(String name, long nanos, long bytes) {
+		long ms = nanos / 1000000;
+		long mbPerSecond = ms > 0 ? (bytes * 1000 / ms) / (1024*1024) : 0;
+		System.out.println(name + ": " + ms + " ms, " + mbPerSecond + " MB/s");
+	}
+}
@@ -0,0 +1,148 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package org.gudy.azureus2.core3.torrent.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.security.MessageDigest;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.minicastle.jce.provider.BouncyCastleProvider;
+
+/**
+ * Hashes multi-file layouts whose files start and end in the middle of pieces
+ * and compares the piece hashes with plain SHA-1 over the concatenated bytes.
+ */
+public class TOTorrentFileHasherTest extends TestCase {
+
+	private static final int	PIECE_LENGTH	= 16*1024;
+
+	private File	folder;
+
+	public static void main(String[] args) {
+		junit.textui.TestRunner.run(TOTorrentFileHasherTest.class);
+	}
+
+	protected void setUp() throws Exception {
+		super.setUp();
+
+			// the ED2K hashes need MD4, registered by SESecurityManagerBC in the client
+		
+		Security.addProvider(new BouncyCastleProvider());
+
+		folder = File.createTempFile("hasher", "test");
+		folder.delete();
+		folder.mkdirs();
+	}
+
+	protected void tearDown() throws Exception {
+		File[] files = folder.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				f.delete();
+			}
+		}
+		folder.delete();
+
+		super.tearDown();
+	}
+
+	public void testFilesCrossingPieces() throws Exception {
+		check(PIECE_LENGTH, 1, PIECE_LENGTH - 1, 0, PIECE_LENGTH + 1, 3*PIECE_LENGTH + 7, 5);
+	}
+
+	public void testFilesAlignedToPieces() throws Exception {
+		check(PIECE_LENGTH, PIECE_LENGTH, 2*PIECE_LENGTH, PIECE_LENGTH);
+	}
+
+	/**
+	 * Files larger than the 1 MB read buffer, with many pieces in flight.
+	 */
+	public void testLargeFiles() throws Exception {
+		check(PIECE_LENGTH, 1536*1024 + 3, 700*1024 + 11, 2*1024*1024);
+	}
+
+	public void testSinglePartialPiece() throws Exception {
+		check(4*1024*1024, 1000, 2000, 3000);
+	}
+
+	private void check(int pieceLength, int... sizes) throws Exception {
+		Random random = new Random(sizes.length);
+		ByteArrayOutputStream all = new ByteArrayOutputStream();
+
+		final List<Integer> hashed = new ArrayList<Integer>();
+
+		TOTorrentFileHasher hasher = new TOTorrentFileHasher(true, true, pieceLength, new TOTorrentFileHasherListener() {
+			public void pieceHashed(int piece_number) {
+				hashed.add(piece_number);
+			}
+		});
+
+		byte[] lastFile = null;
+		for (int i = 0; i < sizes.length; i++) {
+			byte[] data = new byte[sizes[i]];
+			random.nextBytes(data);
+			all.write(data);
+
+			File file = new File(folder, "file" + i);
+			FileOutputStream out = new FileOutputStream(file);
+			try {
+				out.write(data);
+			} finally {
+				out.close();
+			}
+
+			assertEquals(data.length, hasher.add(file));
+			lastFile = data;
+		}
+
+		byte[][] pieces = hasher.getPieces();
+		byte[] bytes = all.toByteArray();
+
+		int numPieces = (bytes.length + pieceLength - 1) / pieceLength;
+		assertEquals(numPieces, pieces.length);
+
+		for (int i = 0; i < numPieces; i++) {
+			int offset = i * pieceLength;
+			int length = Math.min(pieceLength, bytes.length - offset);
+			assertTrue("piece " + i, Arrays.equals(sha1(bytes, offset, length), pieces[i]));
+		}
+
+		// reported once per piece, in order
+		assertEquals(numPieces, hashed.size());
+		for (int i = 0; i < hashed.size(); i++) {
+			assertEquals(i + 1, hashed.get(i).intValue());
+		}
+
+		assertTrue(Arrays.equals(sha1(bytes, 0, bytes.length), hasher.getSHA1Digest()));
+		assertTrue(Arrays.equals(sha1(lastFile, 0, lastFile.length), hasher.getPerFileSHA1Digest()));
+	}
+
+	private static byte[] sha1(byte[] data, int offset, int length) throws Exception {
+		MessageDigest md = MessageDigest.getInstance("SHA-1");
+		md.update(data, offset, length);
+		return md.digest();
+	}
+}
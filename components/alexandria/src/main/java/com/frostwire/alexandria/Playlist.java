@@ -17,6 +17,7 @@
 
 package com.frostwire.alexandria;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
@@ -34,6 +35,11 @@ import com.frostwire.alexandria.db.PlaylistItemDB;
  */
 public class Playlist extends LibraryDatabaseEntity {
 
+    /**
+     * Number of items loaded from the database at once by {@link #refresh(PageListener)}.
+     */
+    public static final int REFRESH_PAGE_SIZE = 200;
+
     private int _id;
     private String _name;
     private String _description;
@@ -107,6 +113,71 @@ public class Playlist extends LibraryDatabaseEntity {
         }
     }
 
+    /**
+     * Saves the items in bulk, the new ones are inserted and the already saved ones
+     * updated, all in a single transaction.
+     */
+    public synchronized void saveItems(List<PlaylistItem> items) {
+        if (db != null) {
+            final LibraryDatabase database = db;
+            final List<PlaylistItem> toInsert = new ArrayList<PlaylistItem>(items.size());
+            final List<PlaylistItem> saved = new ArrayList<PlaylistItem>(items.size());
+            for (PlaylistItem item : items) {
+                if (item.getId() >= 0) {
+                    saved.add(item);
+                } else if (item.getId() == LibraryDatabase.OBJECT_NOT_SAVED_ID) {
+                    toInsert.add(item);
+                }
+            }
+
+            boolean committed = database.runInTransaction(new Runnable() {
+                public void run() {
+                    PlaylistItemDB.insert(database, toInsert);
+                    PlaylistItemDB.update(database, saved);
+                }
+            });
+
+            if (!committed) {
+                invalidate(toInsert);
+            }
+        }
+    }
+
+    /**
+     * Inserts the new items and saves the sort index of the items they displaced,
+     * all in a single transaction.
+     */
+    public synchronized void addItems(final List<PlaylistItem> added, final List<PlaylistItem> moved) {
+        if (db != null) {
+            final LibraryDatabase database = db;
+            boolean committed = database.runInTransaction(new Runnable() {
+                public void run() {
+                    PlaylistItemDB.insert(database, added);
+                    PlaylistItemDB.updateSortIndexes(database, moved);
+                }
+            });
+
+            if (!committed) {
+                invalidate(added);
+            }
+        }
+    }
+
+    /**
+     * Saves only the sort index of the items, in a single transaction.
+     */
+    public synchronized void saveSortIndexes(List<PlaylistItem> items) {
+        if (db != null) {
+            PlaylistItemDB.updateSortIndexes(db, items);
+        }
+    }
+
+    public synchronized void deleteItems(List<PlaylistItem> items) {
+        if (db != null) {
+            PlaylistItemDB.delete(db, items);
+        }
+    }
+
     public synchronized void refresh() {
         if (db != null) {
             _items.clear();
@@ -114,6 +185,28 @@ public class Playlist extends LibraryDatabaseEntity {
         }
     }
 
+    /**
+     * Reloads the items in pages of {@link #REFRESH_PAGE_SIZE}, in sort order,
+     * calling the listener with each page as soon as it's loaded.
+     */
+    public synchronized void refresh(PageListener listener) {
+        if (db != null) {
+            _items.clear();
+
+            int offset = 0;
+            List<PlaylistItem> page;
+            do {
+                page = PlaylistItemDB.getPlaylistItems(db, this, offset, REFRESH_PAGE_SIZE);
+                _items.addAll(page);
+                offset += page.size();
+
+                if (listener != null && !page.isEmpty()) {
+                    listener.onPage(page);
+                }
+            } while (page.size() == REFRESH_PAGE_SIZE);
+        }
+    }
+
     public PlaylistItem newItem(String filePath, String fileName, long fileSize, String fileExtension, String trackTitle, float trackDurationInSecs, String trackArtist, String trackAlbum, String coverArtPath, String trackBitrate, String trackComment, String trackGenre, String trackNumber,
             String trackYear, boolean starred) {
         return new PlaylistItem(this, LibraryDatabase.OBJECT_NOT_SAVED_ID, filePath, fileName, fileSize, fileExtension, trackTitle, trackDurationInSecs, trackArtist, trackAlbum, coverArtPath, trackBitrate, trackComment, trackGenre, trackNumber, trackYear, starred);
@@ -133,4 +226,19 @@ public class Playlist extends LibraryDatabaseEntity {
     public String toString() {
         return _name;
     }
+
+    private static void invalidate(List<PlaylistItem> items) {
+        // the ids given inside the rolled back transaction don't exist
+        for (PlaylistItem item : items) {
+            item.setId(LibraryDatabase.OBJECT_INVALID_ID);
+        }
+    }
+
+    /**
+     * Receives the items loaded by {@link Playlist#refresh(PageListener)}, one page at a time.
+     */
+    public interface PageListener {
+
+        void onPage(List<PlaylistItem> items);
+    }
 }
@@ -1,6 +1,7 @@
 package com.frostwire.alexandria.db;
 
-import java.util.ArrayList;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.List;
 
 import com.frostwire.alexandria.InternetRadioStation;
@@ -9,25 +10,42 @@ public class InternetRadioStationDB {
 
     private InternetRadioStationDB() {} // don't allow instantiation of this class
 
-    public static void fill(LibraryDatabase db, InternetRadioStation obj) {
-        List<List<Object>> result = db.query("SELECT internetRadioStationId, name, description, url, bitrate, type, website, genre, pls, bookmarked FROM InternetRadioStations WHERE internetRadioStationId = ?", obj.getId());
-        if (result.size() > 0) {
-            List<Object> row = result.get(0);
-            fill(row, obj);
-        }
+    public static void fill(LibraryDatabase db, final InternetRadioStation obj) {
+        db.query(new RowMapper<InternetRadioStation>() {
+            @Override
+            public InternetRadioStation map(ResultSet rs) throws SQLException {
+                fill(rs, obj);
+                return obj;
+            }
+        }, "SELECT internetRadioStationId, name, description, url, bitrate, type, website, genre, pls, bookmarked FROM InternetRadioStations WHERE internetRadioStationId = ?", obj.getId());
+    }
+
+    /**
+     * Creates a mapper of the columns internetRadioStationId, name, description, url, bitrate,
+     * type, website, genre, pls and bookmarked (in that order) of a query to new stations.
+     */
+    public static RowMapper<InternetRadioStation> rowMapper(final LibraryDatabase db) {
+        return new RowMapper<InternetRadioStation>() {
+            @Override
+            public InternetRadioStation map(ResultSet rs) throws SQLException {
+                InternetRadioStation station = new InternetRadioStation(db);
+                fill(rs, station);
+                return station;
+            }
+        };
     }
 
-    public static void fill(List<Object> row, InternetRadioStation obj) {
-        int id = (Integer) row.get(0);
-        String name = (String) row.get(1);
-        String description = (String) row.get(2);
-        String url = (String) row.get(3);
-        String bitrate = (String) row.get(4);
-        String type = (String) row.get(5);
-        String website = (String) row.get(6);
-        String genre = (String) row.get(7);
-        String pls = (String) row.get(8);
-        boolean bookmarked = (Boolean) row.get(9);
+    public static void fill(ResultSet rs, InternetRadioStation obj) throws SQLException {
+        int id = rs.getInt(1);
+        String name = rs.getString(2);
+        String description = rs.getString(3);
+        String url = rs.getString(4);
+        String bitrate = rs.getString(5);
+        String type = rs.getString(6);
+        String website = rs.getString(7);
+        String genre = rs.getString(8);
+        String pls = rs.getString(9);
+        boolean bookmarked = rs.getBoolean(10);
 
         obj.setId(id);
         obj.setName(name);
@@ -61,17 +79,7 @@ public class InternetRadioStationDB {
     }
     
     public static List<InternetRadioStation> getInternetRadioStations(LibraryDatabase db) {
-        List<List<Object>> result = db.query("SELECT internetRadioStationId, name, description, url, bitrate, type, website, genre, pls, bookmarked FROM InternetRadioStations");
-
-        List<InternetRadioStation> internetRadioStations = new ArrayList<InternetRadioStation>(result.size());
-
-        for (List<Object> row : result) {
-            InternetRadioStation internetRadioStation = new InternetRadioStation(db);
-            InternetRadioStationDB.fill(row, internetRadioStation);
-            internetRadioStations.add(internetRadioStation);
-        }
-
-        return internetRadioStations;
+        return db.query(rowMapper(db), "SELECT internetRadioStationId, name, description, url, bitrate, type, website, genre, pls, bookmarked FROM InternetRadioStations");
     }
 
     
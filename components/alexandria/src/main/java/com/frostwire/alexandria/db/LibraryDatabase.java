@@ -9,6 +9,7 @@ import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -31,6 +32,9 @@ public class LibraryDatabase {
 
     private boolean _closed;
 
+    // greater than 0 while running inside runInTransaction, guarded by this
+    private int _transactionDepth;
+
     static {
         try {
             Class.forName("org.h2.Driver");
@@ -68,6 +72,80 @@ public class LibraryDatabase {
         return query(_connection, statementSql, arguments);
     }
 
+    /**
+     * Runs the query mapping each row with the given mapper.
+     */
+    public <T> List<T> query(RowMapper<T> mapper, String statementSql, Object... arguments) {
+        final List<T> result = new ArrayList<T>();
+
+        query(mapper, new RowHandler<T>() {
+            @Override
+            public boolean onRow(T obj) {
+                result.add(obj);
+                return true;
+            }
+        }, statementSql, arguments);
+
+        return result;
+    }
+
+    /**
+     * Runs the query returning only the rows in the page, the SQL must not
+     * have LIMIT/OFFSET clauses already.
+     */
+    public <T> List<T> queryPage(RowMapper<T> mapper, int offset, int limit, String statementSql, Object... arguments) {
+        Object[] pageArguments = new Object[(arguments != null ? arguments.length : 0) + 2];
+        if (arguments != null) {
+            System.arraycopy(arguments, 0, pageArguments, 0, arguments.length);
+        }
+        pageArguments[pageArguments.length - 2] = limit;
+        pageArguments[pageArguments.length - 1] = offset;
+
+        return query(mapper, statementSql + " LIMIT ? OFFSET ?", pageArguments);
+    }
+
+    /**
+     * Runs the query streaming each mapped row to the handler, without
+     * holding the whole result in memory. The handler is called with the
+     * database lock held, so it shouldn't block or access the database
+     * from other threads.
+     */
+    public synchronized <T> void query(RowMapper<T> mapper, RowHandler<T> handler, String statementSql, Object... arguments) {
+        if (isClosed()) {
+            return;
+        }
+
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+
+        try {
+            statement = _connection.prepareStatement(statementSql);
+
+            if (arguments != null) {
+                for (int i = 0; i < arguments.length; i++) {
+                    statement.setObject(i + 1, arguments[i]);
+                }
+            }
+
+            resultSet = statement.executeQuery();
+
+            while (resultSet.next()) {
+                if (!handler.onRow(mapper.map(resultSet))) {
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            if (statement != null) {
+                try {
+                    statement.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+    }
+
     /**
      * This method is synchronized due to possible concurrent issues, specially
      * during recently generated id retrieval.
@@ -79,7 +157,54 @@ public class LibraryDatabase {
             return -1;
         }
 
-        return update(_connection, statementSql, arguments);
+        int result = update(_connection, statementSql, arguments);
+
+        if (result == -1 && _transactionDepth > 0) {
+            // the enclosing transaction must roll back
+            throw new IllegalStateException("Error in transaction statement: " + statementSql);
+        }
+
+        return result;
+    }
+
+    /**
+     * Runs the task in a single transaction. The updates and batches it runs join
+     * the transaction instead of committing on their own, and if any of them fails
+     * or the task throws, everything is rolled back. Nested calls join the outer
+     * transaction.
+     * 
+     * @return true if the transaction was committed
+     */
+    public synchronized boolean runInTransaction(Runnable task) {
+        if (isClosed()) {
+            return false;
+        }
+
+        if (_transactionDepth > 0) {
+            task.run();
+            return true;
+        }
+
+        try {
+            _connection.setAutoCommit(false);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+
+        _transactionDepth++;
+        try {
+            task.run();
+            _connection.commit();
+            return true;
+        } catch (Exception e) {
+            e.printStackTrace();
+            rollback();
+            return false;
+        } finally {
+            _transactionDepth--;
+            autoCommit();
+        }
     }
 
     /**
@@ -104,6 +229,121 @@ public class LibraryDatabase {
         return OBJECT_INVALID_ID;
     }
 
+    /**
+     * Runs the INSERT once per arguments row, reusing the statement, all in a
+     * single transaction, or in the current one inside {@link #runInTransaction(Runnable)}.
+     * <p>
+     * The rows are not sent as a JDBC batch because H2 only reports the last
+     * generated key of a batch.
+     * 
+     * @return the generated ids in the same order of the rows, or all
+     * {@link #OBJECT_INVALID_ID} if the transaction was rolled back
+     */
+    public synchronized int[] insertBatch(String statementSql, List<Object[]> argumentsList) {
+        int[] ids = new int[argumentsList.size()];
+        Arrays.fill(ids, OBJECT_INVALID_ID);
+
+        if (isClosed() || ids.length == 0) {
+            return ids;
+        }
+
+        boolean joined = _transactionDepth > 0;
+        PreparedStatement statement = null;
+
+        try {
+            if (!joined) {
+                _connection.setAutoCommit(false);
+            }
+
+            statement = _connection.prepareStatement(statementSql, Statement.RETURN_GENERATED_KEYS);
+
+            for (int n = 0; n < ids.length; n++) {
+                setArguments(statement, argumentsList.get(n));
+                statement.executeUpdate();
+
+                ResultSet keys = statement.getGeneratedKeys();
+                try {
+                    if (keys.next()) {
+                        ids[n] = keys.getInt(1);
+                    }
+                } finally {
+                    keys.close();
+                }
+            }
+
+            if (!joined) {
+                _connection.commit();
+            }
+        } catch (Exception e) {
+            if (joined) {
+                throw new IllegalStateException("Error in transaction batch: " + statementSql, e);
+            }
+            e.printStackTrace();
+            rollback();
+            Arrays.fill(ids, OBJECT_INVALID_ID);
+        } finally {
+            close(statement);
+            if (!joined) {
+                autoCommit();
+            }
+        }
+
+        return ids;
+    }
+
+    /**
+     * Runs the statement for all the arguments rows as a JDBC batch, in a single transaction,
+     * or in the current one inside {@link #runInTransaction(Runnable)}.
+     * 
+     * @return the update counts, or null if the transaction was rolled back
+     */
+    public synchronized int[] updateBatch(String statementSql, List<Object[]> argumentsList) {
+        if (isClosed()) {
+            return null;
+        }
+
+        if (argumentsList.isEmpty()) {
+            return new int[0];
+        }
+
+        boolean joined = _transactionDepth > 0;
+        PreparedStatement statement = null;
+
+        try {
+            if (!joined) {
+                _connection.setAutoCommit(false);
+            }
+
+            statement = _connection.prepareStatement(statementSql);
+
+            for (Object[] arguments : argumentsList) {
+                setArguments(statement, arguments);
+                statement.addBatch();
+            }
+
+            int[] counts = statement.executeBatch();
+
+            if (!joined) {
+                _connection.commit();
+            }
+
+            return counts;
+        } catch (Exception e) {
+            if (joined) {
+                throw new IllegalStateException("Error in transaction batch: " + statementSql, e);
+            }
+            e.printStackTrace();
+            rollback();
+        } finally {
+            close(statement);
+            if (!joined) {
+                autoCommit();
+            }
+        }
+
+        return null;
+    }
+
     public synchronized void close() {
         if (isClosed()) {
             return;
@@ -224,6 +464,41 @@ public class LibraryDatabase {
         return result;
     }
 
+    private void setArguments(PreparedStatement statement, Object[] arguments) throws SQLException {
+        statement.clearParameters();
+
+        if (arguments != null) {
+            for (int i = 0; i < arguments.length; i++) {
+                statement.setObject(i + 1, arguments[i]);
+            }
+        }
+    }
+
+    private void rollback() {
+        try {
+            _connection.rollback();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void autoCommit() {
+        try {
+            _connection.setAutoCommit(true);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void close(Statement statement) {
+        if (statement != null) {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+            }
+        }
+    }
+
     private int getIdentity() {
         if (isClosed()) {
             return OBJECT_INVALID_ID;
@@ -349,8 +624,9 @@ public class LibraryDatabase {
             for(int i=0; i < items.size(); i++) {
                 PlaylistItem item = items.get(i);
                 item.setSortIndex(i+1); // set initial sort index (1-based)
-                item.save();
             }
+
+            PlaylistItemDB.updateSortIndexes(this, items);
         }
     }
 }
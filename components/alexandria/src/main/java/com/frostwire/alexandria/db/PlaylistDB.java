@@ -1,5 +1,7 @@
 package com.frostwire.alexandria.db;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -12,30 +14,62 @@ public class PlaylistDB {
 
     private PlaylistDB() { } // don't allow explicit constructions
 
-    public static void fill(LibraryDatabase db, Playlist obj) {
-        List<List<Object>> result = db.query("SELECT playlistId, name, description FROM Playlists WHERE playlistId = ?", obj.getId());
+    public static void fill(LibraryDatabase db, final Playlist obj) {
+        List<Playlist> result = db.query(new RowMapper<Playlist>() {
+            @Override
+            public Playlist map(ResultSet rs) throws SQLException {
+                fill(rs, obj);
+                return obj;
+            }
+        }, "SELECT playlistId, name, description FROM Playlists WHERE playlistId = ?", obj.getId());
+
         if (result.size() > 0) {
-            List<Object> row = result.get(0);
-            fill(row, obj);
+            obj.refresh();
         }
     }
 
-    public static void fill(List<Object> row, Playlist p) {
-        int id = (Integer) row.get(0);
-        String name = (String) row.get(1);
-        String description = (String) row.get(2);
+    /**
+     * Fills the playlist fields only, the items are loaded by {@link Playlist#refresh()}
+     * once the result set is closed.
+     */
+    public static void fill(ResultSet rs, Playlist p) throws SQLException {
+        int id = rs.getInt(1);
+        String name = rs.getString(2);
+        String description = rs.getString(3);
 
         p.setId(id);
         p.setName(name);
         p.setDescription(description);
-        p.refresh();
     }
 
-    public static void save(LibraryDatabase db, Playlist obj) {
+    public static void save(final LibraryDatabase db, final Playlist obj) {
         if (obj.getId() == LibraryDatabase.OBJECT_INVALID_ID) {
             return;
         }
 
+        List<PlaylistItem> items = obj.getItems();
+        int[] ids = new int[items.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = items.get(i).getId();
+        }
+        int id = obj.getId();
+
+        // the items are deleted and inserted again, don't leave the playlist empty if that fails
+        boolean committed = db.runInTransaction(new Runnable() {
+            public void run() {
+                saveAndReplaceItems(db, obj);
+            }
+        });
+
+        if (!committed) {
+            obj.setId(id);
+            for (int i = 0; i < ids.length; i++) {
+                items.get(i).setId(ids[i]);
+            }
+        }
+    }
+
+    private static void saveAndReplaceItems(LibraryDatabase db, Playlist obj) {
         if (obj.getId() == LibraryDatabase.OBJECT_NOT_SAVED_ID) {
             int id = db.insert("INSERT INTO Playlists (name, description) VALUES (LEFT(?, 500), LEFT(?, 10000))", obj.getName(), obj.getDescription());
             obj.setId(id);
@@ -49,8 +83,9 @@ public class PlaylistDB {
 
         for (PlaylistItem item : items) {
             item.setId(LibraryDatabase.OBJECT_NOT_SAVED_ID);
-            item.save();
         }
+
+        PlaylistItemDB.insert(db, items);
     }
 
     public static void delete(LibraryDatabase db, Playlist obj) {
@@ -59,48 +94,43 @@ public class PlaylistDB {
     }
 
     public static List<Playlist> getPlaylists(LibraryDatabase db) {
-        List<List<Object>> result = db.query("SELECT playlistId, name, description FROM Playlists");
+        List<Playlist> playlists = db.query(rowMapper(db), "SELECT playlistId, name, description FROM Playlists");
 
-        List<Playlist> playlists = new ArrayList<Playlist>(result.size());
-
-        for (List<Object> row : result) {
-            Playlist playlist = new Playlist(db);
-            PlaylistDB.fill(row, playlist);
-            playlists.add(playlist);
+        for (Playlist playlist : playlists) {
+            playlist.refresh();
         }
 
         return playlists;
     }
 
     public static Playlist getPlaylist(LibraryDatabase db, String name) {
-        List<List<Object>> result = db.query("SELECT playlistId, name, description FROM Playlists WHERE name = ?", name);
+        List<Playlist> result = db.query(rowMapper(db), "SELECT playlistId, name, description FROM Playlists WHERE name = ?", name);
         Playlist playlist = null;
         if (result.size() > 0) {
-            List<Object> row = result.get(0);
-            playlist = new Playlist(db);
-            PlaylistDB.fill(row, playlist);
+            playlist = result.get(0);
+            playlist.refresh();
         }
         return playlist;
     }
     
     public static Playlist getStarredPlaylist(LibraryDatabase db) {
+        // no sortIndex, the starred items keep a 0 index
         String query = "SELECT playlistItemId, filePath, fileName, fileSize, fileExtension, trackTitle, trackDurationInSecs, trackArtist, trackAlbum, coverArtPath, trackBitrate, trackComment, trackGenre, trackNumber, trackYear, starred " + "FROM PlaylistItems WHERE starred = ?";
 
-        List<List<Object>> result = db.query(query, true);
-
         Playlist playlist = new Playlist(db, LibraryDatabase.STARRED_PLAYLIST_ID, "starred", "starred");
 
-        List<PlaylistItem> items = new ArrayList<PlaylistItem>(result.size());
-        Set<String> paths = new HashSet<String>();
+        final List<PlaylistItem> items = new ArrayList<PlaylistItem>();
+        final Set<String> paths = new HashSet<String>();
 
-        for (List<Object> row : result) {
-            PlaylistItem item = new PlaylistItem(playlist);
-            PlaylistItemDB.fill(row, item);
-            if (!paths.contains(item.getFilePath())) {
-                items.add(item);
-                paths.add(item.getFilePath());
+        db.query(PlaylistItemDB.rowMapper(playlist), new RowHandler<PlaylistItem>() {
+            @Override
+            public boolean onRow(PlaylistItem item) {
+                if (paths.add(item.getFilePath())) {
+                    items.add(item);
+                }
+                return true;
             }
-        }
+        }, query, true);
 
         playlist.getItems().addAll(items);
 
@@ -120,6 +150,17 @@ public class PlaylistDB {
         return new Object[] { sql, values };
     }
     
+    private static RowMapper<Playlist> rowMapper(final LibraryDatabase db) {
+        return new RowMapper<Playlist>() {
+            @Override
+            public Playlist map(ResultSet rs) throws SQLException {
+                Playlist playlist = new Playlist(db);
+                fill(rs, playlist);
+                return playlist;
+            }
+        };
+    }
+
     private static Object[] createPlaylistUpdateStatement(Playlist obj) {
         String sql = "UPDATE Playlists SET name = LEFT(?, 500), description = LEFT(?, 10000) WHERE playlistId = ?";
         Object[] values = new Object[] { obj.getName(), obj.getDescription(), obj.getId() };
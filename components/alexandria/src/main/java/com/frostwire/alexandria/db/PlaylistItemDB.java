@@ -1,44 +1,68 @@
 package com.frostwire.alexandria.db;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
 
 import com.frostwire.alexandria.Playlist;
 import com.frostwire.alexandria.PlaylistItem;
 
 public class PlaylistItemDB {
 
+    /**
+     * The columns read by {@link #rowMapper(Playlist)}, in order. The last one, sortIndex, is optional.
+     */
+    public static final String PLAYLIST_ITEM_COLUMNS = "playlistItemId, filePath, fileName, fileSize, fileExtension, trackTitle, trackDurationInSecs, trackArtist, trackAlbum, coverArtPath, trackBitrate, trackComment, trackGenre, trackNumber, trackYear, starred, sortIndex";
+
+    /**
+     * Maximum number of parameters in the IN (...) lookups of the bulk operations.
+     */
+    private static final int IN_CHUNK_SIZE = 500;
+
     private PlaylistItemDB() {} // don't construct this direclty
 
-    public static void fill(LibraryDatabase db, PlaylistItem obj) {
-        List<List<Object>> result = db
-                .query("SELECT playlistItemId, filePath, fileName, fileSize, fileExtension, trackTitle, trackDurationInSecs, trackArtist, trackAlbum, coverArtPath, trackBitrate, trackComment, trackGenre, trackNumber, trackYear, starred "
-                        + "FROM PlaylistItems WHERE playlistItemId = ?", obj.getId());
-        if (result.size() > 0) {
-            List<Object> row = result.get(0);
-            fill(row, obj);
-        }
-    }
-
-    public static void fill(List<Object> row, PlaylistItem obj) {
-        int id = (Integer) row.get(0);
-        String filePath = (String) row.get(1);
-        String fileName = (String) row.get(2);
-        long fileSize = (Long) row.get(3);
-        String fileExtension = (String) row.get(4);
-        String trackTitle = (String) row.get(5);
-        float trackDurationInSecs = (Float) row.get(6);
-        String trackArtist = (String) row.get(7);
-        String trackAlbum = (String) row.get(8);
-        String coverArtPath = (String) row.get(9);
-        String trackBitrate = (String) row.get(10);
-        String trackComment = (String) row.get(11);
-        String trackGenre = (String) row.get(12);
-        String trackNumber = (String) row.get(13);
-        String trackYear = (String) row.get(14);
-        boolean starred = (Boolean) row.get(15);
-        
-        int sortIndex = row.size() < 17 || (Integer) row.get(16) == null ? 0 : (Integer) row.get(16);
+    public static void fill(LibraryDatabase db, final PlaylistItem obj) {
+        db.query(new RowMapper<PlaylistItem>() {
+            @Override
+            public PlaylistItem map(ResultSet rs) throws SQLException {
+                fill(rs, rs.getMetaData().getColumnCount(), obj);
+                return obj;
+            }
+        }, "SELECT " + PLAYLIST_ITEM_COLUMNS + " FROM PlaylistItems WHERE playlistItemId = ?", obj.getId());
+    }
+
+    /**
+     * Creates a mapper of the {@link #PLAYLIST_ITEM_COLUMNS} of a query to new items of the playlist.
+     */
+    public static RowMapper<PlaylistItem> rowMapper(Playlist playlist) {
+        return new PlaylistItemRowMapper(playlist);
+    }
+
+    public static void fill(ResultSet rs, int numColumns, PlaylistItem obj) throws SQLException {
+        int id = rs.getInt(1);
+        String filePath = rs.getString(2);
+        String fileName = rs.getString(3);
+        long fileSize = rs.getLong(4);
+        String fileExtension = rs.getString(5);
+        String trackTitle = rs.getString(6);
+        float trackDurationInSecs = rs.getFloat(7);
+        String trackArtist = rs.getString(8);
+        String trackAlbum = rs.getString(9);
+        String coverArtPath = rs.getString(10);
+        String trackBitrate = rs.getString(11);
+        String trackComment = rs.getString(12);
+        String trackGenre = rs.getString(13);
+        String trackNumber = rs.getString(14);
+        String trackYear = rs.getString(15);
+        boolean starred = rs.getBoolean(16);
+
+        int sortIndex = numColumns < 17 ? 0 : rs.getInt(17); // 0 if null
 
         obj.setId(id);
         obj.setFilePath(filePath);
@@ -82,22 +106,144 @@ public class PlaylistItemDB {
     public static void delete(LibraryDatabase db, PlaylistItem obj) {
         db.update("DELETE FROM PlaylistItems WHERE playlistItemId = ?", obj.getId());
     }
+
+    /**
+     * Inserts all the not saved items in one transaction, with a single starred
+     * lookup and a single starred propagation for the whole set. If anything
+     * fails, nothing is written and the items are left with an invalid id.
+     */
+    public static void insert(final LibraryDatabase db, List<PlaylistItem> items) {
+        final List<PlaylistItem> toInsert = new ArrayList<PlaylistItem>(items.size());
+        for (PlaylistItem item : items) {
+            if (item.getId() == LibraryDatabase.OBJECT_NOT_SAVED_ID && item.getPlaylist() != null) {
+                toInsert.add(item);
+            }
+        }
+
+        if (toInsert.isEmpty()) {
+            return;
+        }
+
+        boolean committed = db.runInTransaction(new Runnable() {
+            public void run() {
+                insertAndStar(db, toInsert);
+            }
+        });
+
+        if (!committed) {
+            for (PlaylistItem item : toInsert) {
+                item.setId(LibraryDatabase.OBJECT_INVALID_ID);
+            }
+        }
+    }
+
+    private static void insertAndStar(LibraryDatabase db, List<PlaylistItem> toInsert) {
+        // a path is starred if it's starred already in the database or in any of the new items
+        Map<String, Boolean> starredPaths = new HashMap<String, Boolean>();
+        for (PlaylistItem item : toInsert) {
+            Boolean starred = starredPaths.get(item.getFilePath());
+            starredPaths.put(item.getFilePath(), (starred != null && starred) || item.isStarred());
+        }
+        for (String path : getStarredPaths(db, starredPaths.keySet())) {
+            starredPaths.put(path, true);
+        }
+
+        String sql = null;
+        List<Object[]> valuesList = new ArrayList<Object[]>(toInsert.size());
+        for (PlaylistItem item : toInsert) {
+            item.setStarred(starredPaths.get(item.getFilePath()));
+            Object[] sqlAndValues = createPlaylistItemInsert(item);
+            sql = (String) sqlAndValues[0];
+            valuesList.add((Object[]) sqlAndValues[1]);
+        }
+
+        int[] ids = db.insertBatch(sql, valuesList);
+        for (int i = 0; i < ids.length; i++) {
+            toInsert.get(i).setId(ids[i]);
+        }
+
+        updateStarred(db, starredPaths);
+    }
+
+    /**
+     * Updates all the already saved items in one transaction, same as calling
+     * {@link #save(LibraryDatabase, PlaylistItem)} for each one.
+     */
+    public static void update(final LibraryDatabase db, List<PlaylistItem> items) {
+        String sql = null;
+        final List<Object[]> valuesList = new ArrayList<Object[]>(items.size());
+        final Map<String, Boolean> starredPaths = new HashMap<String, Boolean>();
+
+        for (PlaylistItem item : items) {
+            if (item.getId() >= 0 && item.getPlaylist() != null) {
+                Object[] sqlAndValues = createPlaylistItemUpdate(item);
+                sql = (String) sqlAndValues[0];
+                valuesList.add((Object[]) sqlAndValues[1]);
+                starredPaths.put(item.getFilePath(), item.isStarred());
+            }
+        }
+
+        if (valuesList.isEmpty()) {
+            return;
+        }
+
+        final String updateSql = sql;
+        db.runInTransaction(new Runnable() {
+            public void run() {
+                db.updateBatch(updateSql, valuesList);
+                updateStarred(db, starredPaths);
+            }
+        });
+    }
+
+    /**
+     * Saves only the sort index of the items, in one transaction.
+     */
+    public static void updateSortIndexes(LibraryDatabase db, List<PlaylistItem> items) {
+        List<Object[]> valuesList = new ArrayList<Object[]>(items.size());
+        for (PlaylistItem item : items) {
+            if (item.getId() >= 0) {
+                valuesList.add(new Object[] { item.getSortIndex(), item.getId() });
+            }
+        }
+
+        db.updateBatch("UPDATE PlaylistItems SET sortIndex = ? WHERE playlistItemId = ?", valuesList);
+    }
+
+    public static void delete(LibraryDatabase db, List<PlaylistItem> items) {
+        List<Object[]> valuesList = new ArrayList<Object[]>(items.size());
+        for (PlaylistItem item : items) {
+            valuesList.add(new Object[] { item.getId() });
+        }
+
+        db.updateBatch("DELETE FROM PlaylistItems WHERE playlistItemId = ?", valuesList);
+    }
     
     public static List<PlaylistItem> getPlaylistItems(LibraryDatabase db, Playlist playlist) {
-        String query = "SELECT playlistItemId, filePath, fileName, fileSize, fileExtension, trackTitle, trackDurationInSecs, trackArtist, trackAlbum, coverArtPath, trackBitrate, trackComment, trackGenre, trackNumber, trackYear, starred, sortIndex "
-                + "FROM PlaylistItems WHERE playlistId = ? ORDER BY sortIndex ASC";
+        String query = "SELECT " + PLAYLIST_ITEM_COLUMNS + " FROM PlaylistItems WHERE playlistId = ? ORDER BY sortIndex ASC, playlistItemId ASC";
 
-        List<List<Object>> result = db.query(query, playlist.getId());
+        return db.query(rowMapper(playlist), query, playlist.getId());
+    }
 
-        List<PlaylistItem> items = new ArrayList<PlaylistItem>(result.size());
+    /**
+     * Loads only a page of the items of the playlist, in sort order, to allow lazy loading.
+     * The items with the same sort index are in id order, so the pages don't overlap.
+     */
+    public static List<PlaylistItem> getPlaylistItems(LibraryDatabase db, Playlist playlist, int offset, int limit) {
+        String query = "SELECT " + PLAYLIST_ITEM_COLUMNS + " FROM PlaylistItems WHERE playlistId = ? ORDER BY sortIndex ASC, playlistItemId ASC";
 
-        for (List<Object> row : result) {
-            PlaylistItem item = new PlaylistItem(playlist);
-            PlaylistItemDB.fill(row, item);
-            items.add(item);
-        }
+        return db.queryPage(rowMapper(playlist), offset, limit, query, playlist.getId());
+    }
 
-        return items;
+    public static int getNumPlaylistItems(LibraryDatabase db, Playlist playlist) {
+        List<Integer> result = db.query(new RowMapper<Integer>() {
+            @Override
+            public Integer map(ResultSet rs) throws SQLException {
+                return rs.getInt(1);
+            }
+        }, "SELECT COUNT(*) FROM PlaylistItems WHERE playlistId = ?", playlist.getId());
+
+        return result.size() > 0 ? result.get(0) : 0;
     }
     
     private static Object[] createPlaylistItemInsert(PlaylistItem item) {
@@ -129,6 +275,50 @@ public class PlaylistItemDB {
         return new Object[] { sql, values };
     }
     
+    private static void updateStarred(LibraryDatabase db, Map<String, Boolean> starredPaths) {
+        String sql = "UPDATE PlaylistItems SET starred = ? WHERE filePath = LEFT(?, 10000)";
+
+        List<Object[]> valuesList = new ArrayList<Object[]>(starredPaths.size());
+        for (Entry<String, Boolean> e : starredPaths.entrySet()) {
+            valuesList.add(new Object[] { e.getValue(), e.getKey() });
+        }
+
+        db.updateBatch(sql, valuesList);
+    }
+
+    private static Set<String> getStarredPaths(LibraryDatabase db, Set<String> paths) {
+        Set<String> starredPaths = new HashSet<String>();
+
+        List<String> chunk = new ArrayList<String>(IN_CHUNK_SIZE);
+        for (String path : paths) {
+            chunk.add(path);
+            if (chunk.size() == IN_CHUNK_SIZE) {
+                starredPaths.addAll(getStarredPathsChunk(db, chunk));
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            starredPaths.addAll(getStarredPathsChunk(db, chunk));
+        }
+
+        return starredPaths;
+    }
+
+    private static List<String> getStarredPathsChunk(LibraryDatabase db, List<String> paths) {
+        StringBuilder sb = new StringBuilder("SELECT DISTINCT filePath FROM PlaylistItems WHERE starred = TRUE AND filePath IN (");
+        for (int i = 0; i < paths.size(); i++) {
+            sb.append(i == 0 ? "?" : ", ?");
+        }
+        sb.append(")");
+
+        return db.query(new RowMapper<String>() {
+            @Override
+            public String map(ResultSet rs) throws SQLException {
+                return rs.getString(1);
+            }
+        }, sb.toString(), paths.toArray());
+    }
+
     private static boolean isStarred(LibraryDatabase db, PlaylistItem item) {
         List<List<Object>> result = db
                 .query("SELECT starred FROM PlaylistItems WHERE filePath = ? LIMIT 1", item.getFilePath());
@@ -138,4 +328,27 @@ public class PlaylistItemDB {
         
         return false;
     }
+
+    private static final class PlaylistItemRowMapper implements RowMapper<PlaylistItem> {
+
+        private final Playlist playlist;
+
+        private int numColumns;
+
+        public PlaylistItemRowMapper(Playlist playlist) {
+            this.playlist = playlist;
+            this.numColumns = -1;
+        }
+
+        @Override
+        public PlaylistItem map(ResultSet rs) throws SQLException {
+            if (numColumns == -1) {
+                numColumns = rs.getMetaData().getColumnCount();
+            }
+
+            PlaylistItem item = new PlaylistItem(playlist);
+            fill(rs, numColumns, item);
+            return item;
+        }
+    }
 }
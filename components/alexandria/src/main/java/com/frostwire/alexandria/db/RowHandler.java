@@ -0,0 +1,33 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.alexandria.db;
+
+/**
+ * Receives the mapped rows of a streaming query, one at a time.
+ * 
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public interface RowHandler<T> {
+
+    /**
+     * @return false to stop the query, true to keep reading rows
+     */
+    public boolean onRow(T obj);
+}
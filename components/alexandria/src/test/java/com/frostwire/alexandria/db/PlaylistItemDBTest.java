@@ -0,0 +1,145 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.alexandria.db;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.frostwire.alexandria.Library;
+import com.frostwire.alexandria.Playlist;
+import com.frostwire.alexandria.PlaylistItem;
+
+/**
+ * Checks the paged queries of the playlist items against the full query.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public class PlaylistItemDBTest extends TestCase {
+
+    private static final int NUM_ITEMS = 25;
+    private static final int PAGE_SIZE = 10;
+
+    private File folder;
+    private Library library;
+    private Playlist playlist;
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(PlaylistItemDBTest.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        folder = File.createTempFile("frostwire", "library");
+        folder.delete();
+        folder.mkdirs();
+
+        library = new Library(new File(folder, "library"));
+        playlist = library.newPlaylist("test", "test");
+        playlist.save();
+
+        // inserted in reverse sort order, every two items share the sort index
+        List<PlaylistItem> items = new ArrayList<PlaylistItem>();
+        for (int i = NUM_ITEMS - 1; i >= 0; i--) {
+            PlaylistItem item = playlist.newItem("/music/" + i + ".mp3", i + ".mp3", 1000 + i, "mp3", "title " + i, 60, "artist", "album", "", "128", "", "", "", "", false);
+            item.setSortIndex(i / 2);
+            items.add(item);
+        }
+        playlist.saveItems(items);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        library.close();
+        delete(folder);
+    }
+
+    public void testCount() {
+        assertEquals(NUM_ITEMS, PlaylistItemDB.getNumPlaylistItems(db(), playlist));
+    }
+
+    public void testPageBoundaries() {
+        assertEquals(PAGE_SIZE, PlaylistItemDB.getPlaylistItems(db(), playlist, 0, PAGE_SIZE).size());
+        assertEquals(PAGE_SIZE, PlaylistItemDB.getPlaylistItems(db(), playlist, PAGE_SIZE, PAGE_SIZE).size());
+        assertEquals(NUM_ITEMS - 2 * PAGE_SIZE, PlaylistItemDB.getPlaylistItems(db(), playlist, 2 * PAGE_SIZE, PAGE_SIZE).size());
+        assertEquals(0, PlaylistItemDB.getPlaylistItems(db(), playlist, NUM_ITEMS, PAGE_SIZE).size());
+        assertEquals(NUM_ITEMS, PlaylistItemDB.getPlaylistItems(db(), playlist, 0, NUM_ITEMS).size());
+    }
+
+    public void testPageOrder() {
+        List<PlaylistItem> all = PlaylistItemDB.getPlaylistItems(db(), playlist);
+        assertEquals(NUM_ITEMS, all.size());
+
+        List<PlaylistItem> paged = new ArrayList<PlaylistItem>();
+        for (int offset = 0; offset < NUM_ITEMS; offset += PAGE_SIZE) {
+            paged.addAll(PlaylistItemDB.getPlaylistItems(db(), playlist, offset, PAGE_SIZE));
+        }
+
+        assertEquals(ids(all), ids(paged));
+
+        // sort index order, the ties in insertion order
+        for (int i = 1; i < paged.size(); i++) {
+            PlaylistItem previous = paged.get(i - 1);
+            PlaylistItem item = paged.get(i);
+            assertTrue(previous.getSortIndex() <= item.getSortIndex());
+            if (previous.getSortIndex() == item.getSortIndex()) {
+                assertTrue(previous.getId() < item.getId());
+            }
+        }
+    }
+
+    public void testRefreshInPages() {
+        final List<Integer> pageSizes = new ArrayList<Integer>();
+        playlist.refresh(new Playlist.PageListener() {
+            @Override
+            public void onPage(List<PlaylistItem> items) {
+                pageSizes.add(items.size());
+            }
+        });
+
+        int expectedPages = (NUM_ITEMS + Playlist.REFRESH_PAGE_SIZE - 1) / Playlist.REFRESH_PAGE_SIZE;
+        assertEquals(expectedPages, pageSizes.size());
+        assertEquals(ids(PlaylistItemDB.getPlaylistItems(db(), playlist)), ids(playlist.getItems()));
+    }
+
+    private LibraryDatabase db() {
+        return playlist.getLibraryDatabase();
+    }
+
+    private static List<Integer> ids(List<PlaylistItem> items) {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (PlaylistItem item : items) {
+            ids.add(item.getId());
+        }
+        return ids;
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                delete(f);
+            }
+        }
+        file.delete();
+    }
+}
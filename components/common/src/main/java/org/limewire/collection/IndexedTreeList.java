@@ -0,0 +1,454 @@
+package org.limewire.collection;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+/**
+ * A <code>List</code> backed by a balanced tree where every node knows the size
+ * of its subtree, so the element at an index, the index of an element and
+ * insertions and removals anywhere in the list are all O(log n).
+ * <p>
+ * Unlike {@link TreeList}, the nodes also know their parent and are mapped from
+ * their elements, so {@link #indexOf(Object)} doesn't need to walk the list.
+ * For that reason the elements must be unique instances, adding an element that
+ * is already in the list throws an <code>IllegalArgumentException</code>.
+ * <p>
+ * When the list is kept sorted, {@link #insertionPoint(Object, Comparator)}
+ * finds where a new element goes in O(log n), instead of the O(log<sup>2</sup> n)
+ * of a binary search over the indexes.
+ * <p>
+ * The tree is a treap, balanced with random priorities. This class is not
+ * thread safe.
+ */
+public class IndexedTreeList<E> extends AbstractList<E> implements RandomAccess {
+
+    private final Map<E, Node<E>> nodes;
+
+    private Node<E> root;
+
+    private int seed;
+
+    /**
+     * Constructs a new empty list.
+     */
+    public IndexedTreeList() {
+        this.nodes = new IdentityHashMap<E, Node<E>>();
+        this.seed = (int) System.nanoTime() | 1;
+    }
+
+    @Override
+    public E get(int index) {
+        checkIndex(index, size() - 1);
+        return nodeAt(index).value;
+    }
+
+    @Override
+    public int size() {
+        return size(root);
+    }
+
+    @Override
+    public E set(int index, E obj) {
+        checkIndex(index, size() - 1);
+
+        Node<E> node = nodeAt(index);
+        if (node.value == obj) {
+            return obj;
+        }
+
+        checkNew(obj);
+
+        E old = node.value;
+        nodes.remove(old);
+        node.value = obj;
+        nodes.put(obj, node);
+
+        return old;
+    }
+
+    @Override
+    public void add(int index, E obj) {
+        checkIndex(index, size());
+        checkNew(obj);
+
+        Node<E> node = new Node<E>(obj, nextPriority());
+        nodes.put(obj, node);
+
+        if (root == null) {
+            root = node;
+        } else {
+            // attach as a leaf at the index
+            Node<E> parent = root;
+            int i = index;
+            while (true) {
+                parent.size++;
+                int leftSize = size(parent.left);
+                if (i <= leftSize) {
+                    if (parent.left == null) {
+                        parent.left = node;
+                        break;
+                    }
+                    parent = parent.left;
+                } else {
+                    i -= leftSize + 1;
+                    if (parent.right == null) {
+                        parent.right = node;
+                        break;
+                    }
+                    parent = parent.right;
+                }
+            }
+            node.parent = parent;
+
+            // restore the heap order of the priorities
+            while (node.parent != null && node.priority > node.parent.priority) {
+                if (node == node.parent.left) {
+                    rotateRight(node.parent);
+                } else {
+                    rotateLeft(node.parent);
+                }
+            }
+        }
+
+        modCount++;
+    }
+
+    @Override
+    public E remove(int index) {
+        checkIndex(index, size() - 1);
+
+        Node<E> node = nodeAt(index);
+        removeNode(node);
+
+        return node.value;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        Node<E> node = nodes.get(o);
+        if (node != null) {
+            removeNode(node);
+            return true;
+        }
+        return super.remove(o);
+    }
+
+    /**
+     * Finds the element itself in O(log n), if it's not in the list falls back
+     * to a linear search of an equal element.
+     */
+    @Override
+    public int indexOf(Object o) {
+        Node<E> node = nodes.get(o);
+        if (node != null) {
+            return indexOf(node);
+        }
+        return super.indexOf(o);
+    }
+
+    /**
+     * Like {@link #indexOf(Object)} without the linear search, returns -1 if the
+     * element itself is not in the list.
+     */
+    public int identityIndexOf(Object o) {
+        Node<E> node = nodes.get(o);
+        return node != null ? indexOf(node) : -1;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return indexOf(o) != -1;
+    }
+
+    @Override
+    public void clear() {
+        root = null;
+        nodes.clear();
+        modCount++;
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new Itr();
+    }
+
+    /**
+     * Sorts the list in O(n log n), reusing the nodes of the tree.
+     * <p>
+     * Use this instead of <code>Collections.sort</code>, which in older
+     * runtimes sorts by setting every element in place and would find them
+     * already in the list.
+     */
+    @SuppressWarnings("unchecked")
+    public void sort(Comparator<? super E> comparator) {
+        Object[] values = toArray();
+        Arrays.sort(values, (Comparator<Object>) comparator);
+
+        nodes.clear();
+
+        int i = 0;
+        for (Node<E> node = first(); node != null; node = successor(node)) {
+            node.value = (E) values[i++];
+            nodes.put(node.value, node);
+        }
+
+        modCount++;
+    }
+
+    /**
+     * Returns the index of the first element greater than the given one, so
+     * inserting there keeps a sorted list sorted and equal elements in
+     * insertion order.
+     *
+     * @param obj the element to look for, it doesn't need to be in the list
+     * @param comparator the order of the list
+     */
+    public int insertionPoint(E obj, Comparator<? super E> comparator) {
+        int index = 0;
+        Node<E> node = root;
+        while (node != null) {
+            if (comparator.compare(obj, node.value) < 0) {
+                node = node.left;
+            } else {
+                index += size(node.left) + 1;
+                node = node.right;
+            }
+        }
+        return index;
+    }
+
+    private Node<E> nodeAt(int index) {
+        Node<E> node = root;
+        while (true) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index == leftSize) {
+                return node;
+            } else {
+                index -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    private Node<E> first() {
+        Node<E> node = root;
+        if (node != null) {
+            while (node.left != null) {
+                node = node.left;
+            }
+        }
+        return node;
+    }
+
+    private int indexOf(Node<E> node) {
+        int index = size(node.left);
+        while (node.parent != null) {
+            if (node == node.parent.right) {
+                index += size(node.parent.left) + 1;
+            }
+            node = node.parent;
+        }
+        return index;
+    }
+
+    private void removeNode(Node<E> node) {
+        // rotate down until it's a leaf, keeping the heap order of the children
+        while (node.left != null && node.right != null) {
+            if (node.left.priority > node.right.priority) {
+                rotateRight(node);
+            } else {
+                rotateLeft(node);
+            }
+        }
+
+        Node<E> child = node.left != null ? node.left : node.right;
+        Node<E> parent = node.parent;
+
+        if (child != null) {
+            child.parent = parent;
+        }
+
+        if (parent == null) {
+            root = child;
+        } else if (node == parent.left) {
+            parent.left = child;
+        } else {
+            parent.right = child;
+        }
+
+        for (Node<E> n = parent; n != null; n = n.parent) {
+            n.size--;
+        }
+
+        node.parent = node.left = node.right = null;
+        nodes.remove(node.value);
+        modCount++;
+    }
+
+    /**
+     * Moves the left child of the node to its place.
+     */
+    private void rotateRight(Node<E> node) {
+        Node<E> pivot = node.left;
+
+        node.left = pivot.right;
+        if (pivot.right != null) {
+            pivot.right.parent = node;
+        }
+
+        replaceChild(node, pivot);
+
+        pivot.right = node;
+        node.parent = pivot;
+
+        pivot.size = node.size;
+        node.size = size(node.left) + size(node.right) + 1;
+    }
+
+    /**
+     * Moves the right child of the node to its place.
+     */
+    private void rotateLeft(Node<E> node) {
+        Node<E> pivot = node.right;
+
+        node.right = pivot.left;
+        if (pivot.left != null) {
+            pivot.left.parent = node;
+        }
+
+        replaceChild(node, pivot);
+
+        pivot.left = node;
+        node.parent = pivot;
+
+        pivot.size = node.size;
+        node.size = size(node.left) + size(node.right) + 1;
+    }
+
+    private void replaceChild(Node<E> node, Node<E> replacement) {
+        Node<E> parent = node.parent;
+        replacement.parent = parent;
+
+        if (parent == null) {
+            root = replacement;
+        } else if (node == parent.left) {
+            parent.left = replacement;
+        } else {
+            parent.right = replacement;
+        }
+    }
+
+    private void checkNew(E obj) {
+        if (nodes.containsKey(obj)) {
+            throw new IllegalArgumentException("Element already in the list");
+        }
+    }
+
+    private void checkIndex(int index, int last) {
+        if (index < 0 || index > last) {
+            throw new IndexOutOfBoundsException("Invalid index:" + index + ", size=" + size());
+        }
+    }
+
+    /**
+     * xorshift, random enough to balance the tree.
+     */
+    private int nextPriority() {
+        seed ^= seed << 13;
+        seed ^= seed >>> 17;
+        seed ^= seed << 5;
+        return seed;
+    }
+
+    private static int size(Node<?> node) {
+        return node != null ? node.size : 0;
+    }
+
+    private static <E> Node<E> successor(Node<E> node) {
+        if (node.right != null) {
+            node = node.right;
+            while (node.left != null) {
+                node = node.left;
+            }
+            return node;
+        }
+
+        while (node.parent != null && node == node.parent.right) {
+            node = node.parent;
+        }
+        return node.parent;
+    }
+
+    private static final class Node<E> {
+
+        E value;
+        final int priority;
+
+        Node<E> parent;
+        Node<E> left;
+        Node<E> right;
+
+        int size;
+
+        Node(E value, int priority) {
+            this.value = value;
+            this.priority = priority;
+            this.size = 1;
+        }
+    }
+
+    /**
+     * Walks the tree in order, in O(1) amortized time per element.
+     */
+    private final class Itr implements Iterator<E> {
+
+        private Node<E> next;
+        private Node<E> lastReturned;
+        private int expectedModCount;
+
+        Itr() {
+            next = first();
+            expectedModCount = modCount;
+        }
+
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        public E next() {
+            checkModCount();
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            lastReturned = next;
+            next = successor(next);
+            return lastReturned.value;
+        }
+
+        public void remove() {
+            checkModCount();
+            if (lastReturned == null) {
+                throw new IllegalStateException();
+            }
+            // rotations don't change the order, next is still the successor
+            removeNode(lastReturned);
+            lastReturned = null;
+            expectedModCount = modCount;
+        }
+
+        private void checkModCount() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+    }
+}
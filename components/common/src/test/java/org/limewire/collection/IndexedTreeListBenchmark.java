@@ -0,0 +1,119 @@
+package org.limewire.collection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Feeds sorted search result rows to the two ways of keeping the rows of the
+ * search result table, and prints the time of each.
+ * <p>
+ * The "list" model is what the result table did before {@link IndexedTreeList}:
+ * an <code>ArrayList</code> with a binary search for the sorted insert, and a
+ * map from the hash of each row to its index, remapped for the rows after the
+ * insertion point. The "tree" model inserts at
+ * {@link IndexedTreeList#insertionPoint(Object, Comparator)} and asks the list
+ * for the row of a result.
+ * <p>
+ * The rows stand in for the gui <code>UISearchResult</code>s, which this
+ * component can't see. Run with the number of rows as the argument, 20000 by
+ * default.
+ */
+public class IndexedTreeListBenchmark {
+
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 10;
+
+    private static final Comparator<Row> BY_SEEDS = new Comparator<Row>() {
+        public int compare(Row a, Row b) {
+            return a.seeds < b.seeds ? 1 : (a.seeds == b.seeds ? 0 : -1);
+        }
+    };
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+
+        List<Row> rows = newRows(n, new Random(7));
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            runList(rows);
+            runTree(rows);
+        }
+
+        long list = 0;
+        long tree = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            list += runList(rows);
+            tree += runTree(rows);
+        }
+
+        System.out.println(n + " rows, sorted insert plus a row lookup per insert");
+        System.out.println("list: " + (list / ROUNDS / 1000000) + " ms");
+        System.out.println("tree: " + (tree / ROUNDS / 1000000) + " ms");
+    }
+
+    private static long runList(List<Row> rows) {
+        long start = System.nanoTime();
+
+        List<Row> list = new ArrayList<Row>();
+        Map<String, Integer> indexes = new HashMap<String, Integer>();
+
+        for (Row row : rows) {
+            int index = Collections.binarySearch(list, row, BY_SEEDS);
+            if (index < 0) {
+                index = -(index + 1);
+            }
+            list.add(index, row);
+            for (int i = index; i < list.size(); i++) {
+                indexes.put(list.get(i).hash, i);
+            }
+
+            check(list.get(indexes.get(row.hash)) == row);
+        }
+
+        return System.nanoTime() - start;
+    }
+
+    private static long runTree(List<Row> rows) {
+        long start = System.nanoTime();
+
+        IndexedTreeList<Row> list = new IndexedTreeList<Row>();
+
+        for (Row row : rows) {
+            list.add(list.insertionPoint(row, BY_SEEDS), row);
+
+            check(list.get(list.identityIndexOf(row)) == row);
+        }
+
+        return System.nanoTime() - start;
+    }
+
+    private static List<Row> newRows(int n, Random random) {
+        List<Row> rows = new ArrayList<Row>(n);
+        for (int i = 0; i < n; i++) {
+            rows.add(new Row(Integer.toHexString(i) + "-" + Long.toHexString(random.nextLong()), random.nextInt(5000)));
+        }
+        return rows;
+    }
+
+    private static void check(boolean condition) {
+        if (!condition) {
+            throw new IllegalStateException("Wrong row index");
+        }
+    }
+
+    private static final class Row {
+
+        private final String hash;
+        private final int seeds;
+
+        public Row(String hash, int seeds) {
+            this.hash = hash;
+            this.seeds = seeds;
+        }
+    }
+}
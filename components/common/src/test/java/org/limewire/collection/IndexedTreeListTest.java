@@ -0,0 +1,287 @@
+package org.limewire.collection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import junit.framework.Test;
+
+import org.limewire.util.BaseTestCase;
+
+/**
+ * Runs random operations on an {@link IndexedTreeList} and on an
+ * <code>ArrayList</code> and checks both lists stay the same.
+ */
+public class IndexedTreeListTest extends BaseTestCase {
+
+    private static final Comparator<Item> ORDER = new Comparator<Item>() {
+        public int compare(Item a, Item b) {
+            return a.value < b.value ? -1 : (a.value == b.value ? 0 : 1);
+        }
+    };
+
+    public IndexedTreeListTest(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return buildTestSuite(IndexedTreeListTest.class);
+    }
+
+    public void testEmpty() {
+        IndexedTreeList<Item> list = new IndexedTreeList<Item>();
+        assertEquals(0, list.size());
+        assertTrue(list.isEmpty());
+        assertFalse(list.iterator().hasNext());
+        assertEquals(-1, list.indexOf(new Item(1)));
+        assertEquals(0, list.insertionPoint(new Item(1), ORDER));
+
+        try {
+            list.get(0);
+            fail("empty list");
+        } catch (IndexOutOfBoundsException expected) {
+        }
+
+        try {
+            list.iterator().next();
+            fail("empty list");
+        } catch (NoSuchElementException expected) {
+        }
+    }
+
+    public void testAddSameInstance() {
+        IndexedTreeList<Item> list = new IndexedTreeList<Item>();
+        Item item = new Item(1);
+        list.add(item);
+
+        try {
+            list.add(item);
+            fail("same instance added twice");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        list.add(new Item(2));
+        try {
+            list.set(1, item);
+            fail("same instance set twice");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        assertEquals(2, list.size());
+        assertSame(item, list.set(0, item));
+    }
+
+    public void testIndexOfEqualElement() {
+        IndexedTreeList<String> list = new IndexedTreeList<String>();
+        list.add(new String("a"));
+        list.add(new String("b"));
+
+        String b = new String("b");
+        assertEquals(1, list.indexOf(b));
+        assertEquals(-1, list.identityIndexOf(b));
+        assertTrue(list.contains(b));
+        assertTrue(list.remove(b));
+        assertEquals(1, list.size());
+    }
+
+    public void testInsertionPointKeepsInsertionOrder() {
+        IndexedTreeList<Item> list = new IndexedTreeList<Item>();
+        Item first = new Item(5);
+        Item second = new Item(5);
+        list.add(new Item(1));
+        list.add(first);
+        list.add(new Item(9));
+
+        int index = list.insertionPoint(second, ORDER);
+        assertEquals(2, index);
+        list.add(index, second);
+        assertSame(first, list.get(1));
+        assertSame(second, list.get(2));
+    }
+
+    public void testIteratorFailsFast() {
+        IndexedTreeList<Item> list = new IndexedTreeList<Item>();
+        list.add(new Item(1));
+        list.add(new Item(2));
+
+        Iterator<Item> it = list.iterator();
+        it.next();
+        list.add(new Item(3));
+
+        try {
+            it.next();
+            fail("list modified");
+        } catch (ConcurrentModificationException expected) {
+        }
+    }
+
+    public void testRandomOperations() {
+        for (long seed = 1; seed <= 20; seed++) {
+            runRandomOperations(new Random(seed), 3000);
+        }
+    }
+
+    public void testRandomSortedInserts() {
+        Random random = new Random(42);
+        IndexedTreeList<Item> list = new IndexedTreeList<Item>();
+        List<Item> expected = new ArrayList<Item>();
+
+        for (int i = 0; i < 5000; i++) {
+            Item item = new Item(random.nextInt(1000));
+
+            int index = list.insertionPoint(item, ORDER);
+            assertEquals(upperBound(expected, item), index);
+
+            list.add(index, item);
+            expected.add(index, item);
+        }
+
+        assertSameElements(expected, list);
+
+        for (int i = 0; i < 200; i++) {
+            Item item = expected.get(random.nextInt(expected.size()));
+            assertEquals(expected.indexOf(item), list.indexOf(item));
+        }
+    }
+
+    private void runRandomOperations(Random random, int operations) {
+        IndexedTreeList<Item> list = new IndexedTreeList<Item>();
+        List<Item> expected = new ArrayList<Item>();
+
+        for (int op = 0; op < operations; op++) {
+            int size = expected.size();
+
+            switch (random.nextInt(10)) {
+            case 0:
+            case 1:
+            case 2: {
+                Item item = new Item(random.nextInt(100));
+                int index = random.nextInt(size + 1);
+                list.add(index, item);
+                expected.add(index, item);
+                break;
+            }
+            case 3: {
+                Item item = new Item(random.nextInt(100));
+                list.add(item);
+                expected.add(item);
+                break;
+            }
+            case 4:
+                if (size > 0) {
+                    int index = random.nextInt(size);
+                    assertSame(expected.remove(index), list.remove(index));
+                }
+                break;
+            case 5:
+                if (size > 0) {
+                    Item item = expected.get(random.nextInt(size));
+                    assertEquals(expected.remove(item), list.remove(item));
+                }
+                break;
+            case 6:
+                if (size > 0) {
+                    int index = random.nextInt(size);
+                    Item item = new Item(random.nextInt(100));
+                    assertSame(expected.set(index, item), list.set(index, item));
+                }
+                break;
+            case 7:
+                if (size > 0) {
+                    Item item = expected.get(random.nextInt(size));
+                    assertEquals(expected.indexOf(item), list.indexOf(item));
+                    assertEquals(expected.indexOf(item), list.identityIndexOf(item));
+                    assertTrue(list.contains(item));
+                }
+                assertEquals(-1, list.indexOf(new Item(0)));
+                break;
+            case 8:
+                if (random.nextInt(10) == 0) {
+                    list.sort(ORDER);
+                    Collections.sort(expected, ORDER);
+
+                    Item item = new Item(random.nextInt(100));
+                    assertEquals(upperBound(expected, item), list.insertionPoint(item, ORDER));
+                }
+                break;
+            case 9:
+                if (random.nextInt(10) == 0) {
+                    iterateAndRemove(random, list, expected);
+                }
+                break;
+            }
+
+            if (!expected.isEmpty() && random.nextBoolean()) {
+                int index = random.nextInt(expected.size());
+                assertSame(expected.get(index), list.get(index));
+            }
+
+            if (op % 100 == 0) {
+                assertSameElements(expected, list);
+            }
+        }
+
+        assertSameElements(expected, list);
+
+        list.clear();
+        assertEquals(0, list.size());
+    }
+
+    private static void iterateAndRemove(Random random, List<Item> list, List<Item> expected) {
+        Iterator<Item> it = list.iterator();
+        Iterator<Item> expectedIt = expected.iterator();
+
+        while (expectedIt.hasNext()) {
+            assertTrue(it.hasNext());
+            assertSame(expectedIt.next(), it.next());
+
+            if (random.nextInt(4) == 0) {
+                it.remove();
+                expectedIt.remove();
+            }
+        }
+
+        assertFalse(it.hasNext());
+    }
+
+    private static void assertSameElements(List<Item> expected, List<Item> list) {
+        assertEquals(expected.size(), list.size());
+
+        Iterator<Item> it = list.iterator();
+        for (int i = 0; i < expected.size(); i++) {
+            assertSame(expected.get(i), list.get(i));
+            assertSame(expected.get(i), it.next());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    private static int upperBound(List<Item> sorted, Item item) {
+        int index = 0;
+        while (index < sorted.size() && ORDER.compare(sorted.get(index), item) <= 0) {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * Equal only to itself, like the search results the list is made for.
+     */
+    private static final class Item {
+
+        private final int value;
+
+        public Item(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(value);
+        }
+    }
+}
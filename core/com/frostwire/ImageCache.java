@@ -19,22 +19,48 @@
 package com.frostwire;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.limewire.concurrent.ExecutorsHelper;
 import org.limewire.util.OSUtils;
 
 import com.limegroup.gnutella.settings.SharingSettings;
 import com.limegroup.gnutella.util.FrostWireUtils;
 
 /**
+ * Loads images from urls, keeping them in two tiers: the decoded images in memory,
+ * bounded by the bytes of their pixels, and the downloaded files on disk, bounded by
+ * their total size. Both tiers evict the least recently used first.
+ * <p>
+ * The loads run in a small pool of threads, and concurrent requests of the same
+ * image share a single load. Requests of the same url in different sizes share the
+ * download and the disk write, each one decodes the bytes at its own size. The images
+ * are shared too, they must not be modified.
+ *
  * @author gubatron
  * @author aldenml
  *
@@ -43,6 +69,10 @@ public class ImageCache {
 
     private static final Log LOG = LogFactory.getLog(ImageCache.class);
 
+    private static final long MAX_MEMORY_BYTES = 32 * 1024 * 1024;
+    private static final long MAX_DISK_BYTES = 64 * 1024 * 1024;
+    private static final int NUM_LOADERS = 2;
+
     private static ImageCache instance;
 
     public synchronized static ImageCache instance() {
@@ -52,18 +82,82 @@ public class ImageCache {
         return instance;
     }
 
+    // decoded images in access order, guarded by itself
+    private final LinkedHashMap<String, BufferedImage> memory;
+    private long memoryBytes;
+
+    // loads in progress, guarded by itself
+    private final Map<String, Load> loads;
+    private final ExecutorService loader;
+
+    // downloads in progress by url, guarded by itself
+    private final Map<String, Download> downloads;
+
+    // cached files in access order, guarded by itself
+    private final LinkedHashMap<File, Long> disk;
+    private long diskBytes;
+    private boolean diskScanned;
+
     private ImageCache() {
+        this.memory = new LinkedHashMap<String, BufferedImage>(16, 0.75f, true);
+        this.loads = new HashMap<String, Load>();
+        this.loader = ExecutorsHelper.newFixedSizeThreadPool(NUM_LOADERS, "ImageCache");
+        this.downloads = new HashMap<String, Download>();
+        this.disk = new LinkedHashMap<File, Long>(16, 0.75f, true);
     }
 
     public BufferedImage getImage(URL url, OnLoadedListener listener) {
-        if (isCached(url)) {
-            return loadFromCache(url, listener);
-        } else if (!url.getProtocol().equals("http")) {
-            return loadFromResource(url, listener);
-        } else {
-            loadFromUrl(url, listener);
-            return null;
+        return getImage(url, 0, 0, listener);
+    }
+
+    /**
+     * If the image is in memory the listener is called and the image returned right away,
+     * otherwise it's loaded in the background, from the disk cache or the url, and the
+     * listener is called from the loading thread.
+     *
+     * @param url
+     * @param maxWidth
+     * @param maxHeight if both are greater than 0 the image is decoded downsampled, close
+     *            to the size that fits the box but never smaller, for thumbnails
+     * @param listener can be null
+     * @return the image if it was in memory, null otherwise
+     */
+    public BufferedImage getImage(URL url, int maxWidth, int maxHeight, OnLoadedListener listener) {
+        String key = key(url, maxWidth, maxHeight);
+
+        BufferedImage image = memoryGet(key);
+
+        if (image == null) {
+            synchronized (loads) {
+                // checked again, a load puts the image in memory before it's removed
+                image = memoryGet(key);
+
+                if (image == null) {
+                    Load load = loads.get(key);
+                    if (load == null) {
+                        load = new Load(key, url, maxWidth, maxHeight);
+                        loads.put(key, load);
+                        loader.execute(load);
+                    }
+                    load.listeners.add(listener);
+                    return null;
+                }
+            }
         }
+
+        if (listener != null) {
+            listener.onLoaded(url, image, true, false);
+        }
+
+        return image;
+    }
+
+    private static String key(URL url, int maxWidth, int maxHeight) {
+        String key = url.toString();
+        if (maxWidth > 0 && maxHeight > 0) {
+            key = key + "@" + maxWidth + "x" + maxHeight;
+        }
+        return key;
     }
 
     private File getCacheFile(URL url) {
@@ -79,7 +173,7 @@ public class ImageCache {
 
     /**
      * Given the remote URL if the image has been cached this will return the local URL of the cached image on disk.
-     * 
+     *
      * @param remoteURL
      * @return The URL of the cached file. null if it's not been cached yet.
      */
@@ -96,91 +190,343 @@ public class ImageCache {
 
     private boolean isCached(URL url) {
         File file = getCacheFile(url);
-        return file.exists();
+        return file.isFile();
     }
 
-    private BufferedImage loadFromCache(URL url, OnLoadedListener listener) {
+    private void load(Load load) {
+        BufferedImage image = null;
+        boolean fromCache = false;
+
         try {
-            File file = getCacheFile(url);
-            BufferedImage image = ImageIO.read(file);
-            listener.onLoaded(url, image, true, false);
-            return image;
+            File file = getCacheFile(load.url);
+
+            if (diskGet(file)) {
+                try {
+                    image = decode(ImageIO.createImageInputStream(file), load.maxWidth, load.maxHeight);
+                } catch (Throwable e) {
+                    LOG.error("Failed to load image from cache: " + load.url, e);
+                }
+                if (image != null) {
+                    fromCache = true;
+                } else {
+                    diskRemove(file);
+                }
+            }
+
+            if (image == null) {
+                image = download(load, file);
+            }
+
+            if (image != null) {
+                memoryPut(load.key, image);
+            }
         } catch (Throwable e) {
-            LOG.error("Failed to load image from cache: " + url, e);
+            LOG.error("Failed to load image from: " + load.url, e);
             if (e instanceof OutOfMemoryError) {
                 e.printStackTrace(); // this is a special condition
             }
-            listener.onLoaded(url, null, false, true);
-            return null;
+            image = null;
+        }
+
+        List<OnLoadedListener> listeners;
+        synchronized (loads) {
+            loads.remove(load.key);
+            listeners = load.listeners;
+        }
+
+        for (OnLoadedListener listener : listeners) {
+            if (listener != null) {
+                try {
+                    listener.onLoaded(load.url, image, fromCache, image == null);
+                } catch (Throwable e) {
+                    LOG.error("Error notifying loaded image: " + load.url, e);
+                }
+            }
         }
     }
 
-    private BufferedImage loadFromResource(URL url, OnLoadedListener listener) {
+    /**
+     * Downloads the url and decodes it at the size of the load, saving the bytes in the
+     * disk cache if they are an image. A load of the same url started meanwhile waits
+     * for the download in progress and decodes the same bytes at its own size.
+     */
+    private BufferedImage download(Load load, File file) throws Exception {
+        String url = load.url.toString();
+
+        Download download;
+        boolean owner = false;
+        synchronized (downloads) {
+            download = downloads.get(url);
+            if (download == null) {
+                download = new Download();
+                downloads.put(url, download);
+                owner = true;
+            }
+        }
+
+        if (!owner) {
+            byte[] data = download.await();
+            return data != null ? decode(ImageIO.createImageInputStream(new ByteArrayInputStream(data)), load.maxWidth, load.maxHeight) : null;
+        }
+
         try {
-            BufferedImage image = ImageIO.read(url);
-            saveToCache(url, image, 0);
-            listener.onLoaded(url, image, false, false);
+            byte[] data = null;
+            try {
+                data = load.url.getProtocol().equals("http") ? fetch(load.url) : IOUtils.toByteArray(load.url);
+            } finally {
+                download.finish(data);
+            }
+
+            BufferedImage image = decode(ImageIO.createImageInputStream(new ByteArrayInputStream(data)), load.maxWidth, load.maxHeight);
+            if (image != null) {
+                diskPut(file, data);
+            }
+
             return image;
-        } catch (Throwable e) {
-            LOG.error("Failed to load image from resource: " + url, e);
-            listener.onLoaded(url, null, false, true);
-            return null;
+        } finally {
+            // removed after the disk write, the loads started later find the file
+            synchronized (downloads) {
+                downloads.remove(url);
+            }
         }
     }
 
-    private void loadFromUrl(final URL url, final OnLoadedListener listener) {
-        // TODO: may be I must use BackgroundExecutorService
-        new Thread(new Runnable() {
-            public void run() {
-                try {
-                    BufferedImage image = null;
+    private byte[] fetch(URL url) throws Exception {
+        String userAgent = "FrostWire/" + OSUtils.getOS() + "/" + FrostWireUtils.getFrostWireVersion();
+        HttpFetcher fetcher = new HttpFetcher(url.toURI(), userAgent);
+        Object[] result = fetcher.fetch(false);
 
-                    String userAgent = "FrostWire/" + OSUtils.getOS() + "/" + FrostWireUtils.getFrostWireVersion();
-                    HttpFetcher fetcher = new HttpFetcher(url.toURI(), userAgent);
-                    Object[] result = fetcher.fetch(false);
+        if (result == null || result[0] == null) {
+            throw new IOException("HttpFetcher.fetch() got nothing at " + url.toString());
+        }
 
-                    if (result == null) {
-                        throw new IOException("HttpFetcher.fetch() got nothing at " + url.toString());
-                    }
+        return (byte[]) result[0];
+    }
 
-                    byte[] data = (byte[]) result[0];
-                    long date = (Long) result[1];
-                    if (data != null) {
-                        image = ImageIO.read(new ByteArrayInputStream(data));
-                        saveToCache(url, image, date);
-                    }
-                    if (listener != null && image != null) {
-                        listener.onLoaded(url, image, false, false);
+    /**
+     * Decodes the first image of the stream, subsampled by the biggest integer factor
+     * that doesn't make it smaller than the size that fits the box, so big images are
+     * never decoded in full for a thumbnail.
+     */
+    private static BufferedImage decode(ImageInputStream in, int maxWidth, int maxHeight) throws IOException {
+        if (in == null) {
+            return null;
+        }
+
+        try {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                return null;
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+
+                if (maxWidth > 0 && maxHeight > 0) {
+                    int factor = Math.max(reader.getWidth(0) / maxWidth, reader.getHeight(0) / maxHeight);
+                    if (factor > 1) {
+                        param.setSourceSubsampling(factor, factor, 0, 0);
                     }
-                } catch (Throwable e) {
-                    LOG.error("Failed to load image from: " + url, e);
-                    listener.onLoaded(url, null, false, true);
                 }
+
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
             }
-        }).start();
+        } finally {
+            in.close();
+        }
     }
 
-    private void saveToCache(URL url, BufferedImage image, long date) {
-        try {
-            File file = getCacheFile(url);
+    private BufferedImage memoryGet(String key) {
+        synchronized (memory) {
+            return memory.get(key);
+        }
+    }
 
-            if (file.exists()) {
-                file.delete();
+    private void memoryPut(String key, BufferedImage image) {
+        long bytes = sizeOf(image);
+        if (bytes > MAX_MEMORY_BYTES) {
+            return;
+        }
+
+        synchronized (memory) {
+            BufferedImage old = memory.put(key, image);
+            if (old != null) {
+                memoryBytes -= sizeOf(old);
             }
+            memoryBytes += bytes;
 
-            String filename = file.getName();
-            int dotIndex = filename.lastIndexOf('.');
-            String ext = filename.substring(dotIndex + 1);
+            Iterator<BufferedImage> it = memory.values().iterator();
+            while (memoryBytes > MAX_MEMORY_BYTES && it.hasNext()) {
+                memoryBytes -= sizeOf(it.next());
+                it.remove();
+            }
+        }
+    }
 
-            String formatName = ImageIO.getImageReadersBySuffix(ext).next().getFormatName();
+    /**
+     * The bytes of the pixels, what the image really takes in memory.
+     */
+    private static long sizeOf(BufferedImage image) {
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
 
-            if (!file.getParentFile().exists()) {
-                file.mkdirs();
+    /**
+     * @return true if the file is cached, it becomes the most recently used
+     */
+    private boolean diskGet(File file) {
+        synchronized (disk) {
+            scanDisk();
+            if (disk.get(file) == null) {
+                return false;
             }
-            ImageIO.write(image, formatName, file);
-            file.setLastModified(date);
+        }
+
+        // keeps the order for the next scan
+        file.setLastModified(System.currentTimeMillis());
+        return true;
+    }
+
+    private void diskPut(File file, byte[] data) {
+        try {
+            if (file.isDirectory()) { // left by older versions
+                FileUtils.deleteQuietly(file);
+            }
+            FileUtils.writeByteArrayToFile(file, data);
         } catch (Throwable e) {
-            LOG.error("Failed to save image to cache: " + url, e);
+            LOG.error("Failed to save image to cache: " + file, e);
+            return;
+        }
+
+        synchronized (disk) {
+            scanDisk();
+
+            Long old = disk.put(file, (long) data.length);
+            if (old != null) {
+                diskBytes -= old;
+            }
+            diskBytes += data.length;
+
+            Iterator<Map.Entry<File, Long>> it = disk.entrySet().iterator();
+            while (diskBytes > MAX_DISK_BYTES && it.hasNext()) {
+                Map.Entry<File, Long> e = it.next();
+                if (e.getKey().equals(file)) {
+                    break;
+                }
+                e.getKey().delete();
+                diskBytes -= e.getValue();
+                it.remove();
+            }
+        }
+    }
+
+    private void diskRemove(File file) {
+        synchronized (disk) {
+            Long old = disk.remove(file);
+            if (old != null) {
+                diskBytes -= old;
+            }
+            file.delete();
+        }
+    }
+
+    /**
+     * Indexes the files cached by previous runs, oldest first, must be called holding
+     * the disk lock.
+     */
+    private void scanDisk() {
+        if (diskScanned) {
+            return;
+        }
+        diskScanned = true;
+
+        List<File> files = new ArrayList<File>();
+        listFiles(SharingSettings.getImageCacheDirectory(), files);
+
+        File[] sorted = files.toArray(new File[files.size()]);
+        // read once, the comparator would hit the file system on every compare
+        final Map<File, Long> times = new HashMap<File, Long>();
+        for (File f : sorted) {
+            times.put(f, f.lastModified());
+        }
+        Arrays.sort(sorted, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                long t1 = times.get(f1);
+                long t2 = times.get(f2);
+                return t1 < t2 ? -1 : (t1 > t2 ? 1 : 0);
+            }
+        });
+
+        for (File f : sorted) {
+            long length = f.length();
+            disk.put(f, length);
+            diskBytes += length;
+        }
+    }
+
+    private static void listFiles(File dir, List<File> files) {
+        File[] children = dir.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                if (child.isDirectory()) {
+                    listFiles(child, files);
+                } else {
+                    files.add(child);
+                }
+            }
+        }
+    }
+
+    private final class Load implements Runnable {
+
+        private final String key;
+        private final URL url;
+        private final int maxWidth;
+        private final int maxHeight;
+        private final List<OnLoadedListener> listeners;
+
+        public Load(String key, URL url, int maxWidth, int maxHeight) {
+            this.key = key;
+            this.url = url;
+            this.maxWidth = maxWidth;
+            this.maxHeight = maxHeight;
+            this.listeners = new ArrayList<OnLoadedListener>(1);
+        }
+
+        @Override
+        public void run() {
+            load(this);
+        }
+    }
+
+    /**
+     * The bytes of a download in progress, for the loads waiting for it.
+     */
+    private static final class Download {
+
+        private final CountDownLatch done;
+        private byte[] data;
+
+        public Download() {
+            this.done = new CountDownLatch(1);
+        }
+
+        /**
+         * @param data null if the download failed
+         */
+        public void finish(byte[] data) {
+            this.data = data;
+            done.countDown();
+        }
+
+        public byte[] await() throws InterruptedException {
+            done.await();
+            return data;
         }
     }
 
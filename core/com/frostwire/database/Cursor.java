@@ -147,10 +147,12 @@ public class Cursor {
         } catch (SQLException e) {
             LOG.log(Level.WARNING, "Error closing cursor result set", e);
         }
-        try {
-            statement.close();
-        } catch (SQLException e) {
-            LOG.log(Level.WARNING, "Error closing cursor inner statement", e);
+        if (statement != null) {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                LOG.log(Level.WARNING, "Error closing cursor inner statement", e);
+            }
         }
     }
 
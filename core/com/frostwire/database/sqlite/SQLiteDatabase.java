@@ -18,10 +18,24 @@
 
 package com.frostwire.database.sqlite;
 
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -32,6 +46,15 @@ import com.frostwire.database.SQLException;
 import com.frostwire.text.TextUtils;
 
 /**
+ * All writes go through a single connection, one at a time. Queries are
+ * served by a pool of reader connections, if any, and every connection
+ * keeps a LRU cache of its prepared statements keyed by the SQL text. The
+ * SQL of the inserts is also cached, by table and columns.
+ * <p>
+ * A reader goes back to the pool when its cursor is closed. The readers of the
+ * cursors garbage collected without being closed are reclaimed, with a warning,
+ * the next time a query waits for a reader.
+ *
  * @author gubatron
  * @author aldenml
  *
@@ -40,8 +63,25 @@ public class SQLiteDatabase {
 
     private static final Logger LOG = Logger.getLogger(SQLiteDatabase.class.getName());
 
+    private static final int STATEMENT_CACHE_SIZE = 32;
+
+    private static final int INSERT_SQL_CACHE_SIZE = 32;
+
+    private static final long READER_WAIT_TIMEOUT = 10; // seconds
+
+    private static final long READER_RECLAIM_INTERVAL = 1; // seconds
+
     private String path;
-    private Connection connection;
+    private final PooledConnection writer;
+    private final List<PooledConnection> readers;
+    private final BlockingQueue<PooledConnection> idleReaders;
+
+    // the readers in use, enqueued when their cursor is unreachable
+    private final Set<ReaderLease> leases;
+    private final ReferenceQueue<PooledCursor> unreachableCursors;
+
+    // the INSERT statements by table and columns, guarded by writer
+    private final Map<InsertKey, String> insertSqls;
 
     private final AtomicBoolean open = new AtomicBoolean(false);
 
@@ -54,8 +94,36 @@ public class SQLiteDatabase {
     }
 
     public SQLiteDatabase(String path, Connection connection) {
+        this(path, connection, Collections.<Connection> emptyList());
+    }
+
+    /**
+     * @param path the path to the database file
+     * @param writer the connection used for all the writes
+     * @param readers the connections used for the queries, if empty the queries use the writer
+     */
+    public SQLiteDatabase(String path, Connection writer, List<Connection> readers) {
         this.path = path;
-        this.connection = connection;
+        this.writer = new PooledConnection(writer);
+        this.readers = new ArrayList<PooledConnection>(readers.size());
+        this.idleReaders = new ArrayBlockingQueue<PooledConnection>(Math.max(1, readers.size()));
+        this.leases = Collections.newSetFromMap(new ConcurrentHashMap<ReaderLease, Boolean>());
+        this.unreachableCursors = new ReferenceQueue<PooledCursor>();
+        this.insertSqls = new LinkedHashMap<InsertKey, String>(INSERT_SQL_CACHE_SIZE, 0.75f, true) {
+
+            private static final long serialVersionUID = -1546350402312316441L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<InsertKey, String> eldest) {
+                return size() > INSERT_SQL_CACHE_SIZE;
+            }
+        };
+
+        for (Connection reader : readers) {
+            PooledConnection pooled = new PooledConnection(reader);
+            this.readers.add(pooled);
+            this.idleReaders.add(pooled);
+        }
 
         open.set(true);
     }
@@ -86,19 +154,40 @@ public class SQLiteDatabase {
 
         Cursor cursor = null;
 
-        PreparedStatement statement = null;
-        ResultSet resultSet = null;
+        if (readers.isEmpty()) {
+            // no pool, the statement is owned by the cursor
+            try {
+                synchronized (writer) {
+                    PreparedStatement statement = writer.connection.prepareStatement(sql, ResultSet.TYPE_SCROLL_SENSITIVE, ResultSet.CONCUR_READ_ONLY);
+                    bindArgs(statement, (Object[]) selectionArgs);
 
-        try {
-            synchronized (connection) {
-                statement = prepareStatement(connection, sql, (Object[]) selectionArgs);
+                    return new Cursor(statement, statement.executeQuery());
+                }
+            } catch (Throwable e) {
+                LOG.log(Level.WARNING, "Error performing SQL statement: " + sql, e);
+            }
 
-                resultSet = statement.executeQuery();
+            return cursor;
+        }
+
+        PooledConnection reader = null;
 
-                return new Cursor(statement, resultSet);
+        try {
+            reader = acquireReader();
+            if (reader == null) {
+                throw new SQLException("No reader connection available, check for cursors not closed");
             }
+
+            PreparedStatement statement = reader.prepare(sql);
+            bindArgs(statement, (Object[]) selectionArgs);
+
+            cursor = new PooledCursor(reader, statement.executeQuery());
         } catch (Throwable e) {
             LOG.log(Level.WARNING, "Error performing SQL statement: " + sql, e);
+            if (reader != null) {
+                reader.invalidate(sql);
+                idleReaders.offer(reader);
+            }
         }
 
         return cursor;
@@ -196,25 +285,49 @@ public class SQLiteDatabase {
     public long insert(String table, String nullColumnHack, ContentValues values) {
         verifyDbIsOpen();
 
-        StringBuilder sql = new StringBuilder();
-        sql.append("INSERT");
-        sql.append(" INTO ");
-        sql.append(table);
-        sql.append(" (");
-
         Object[] bindArgs = null;
+        String[] columns;
         int size = (values != null && values.size() > 0) ? values.size() : 0;
         if (size > 0) {
             bindArgs = new Object[size];
+            columns = new String[size];
             int i = 0;
             for (String colName : values.keySet()) {
-                sql.append((i > 0) ? "," : "");
-                sql.append(colName);
+                columns[i] = colName;
                 bindArgs[i++] = values.get(colName);
             }
+        } else {
+            columns = new String[0];
+        }
+
+        InsertKey key = new InsertKey(table, columns, nullColumnHack);
+
+        synchronized (writer) {
+            String sql = insertSqls.get(key);
+            if (sql == null) {
+                sql = buildInsertSql(table, nullColumnHack, columns);
+                insertSqls.put(key, sql);
+            }
+
+            return executeSql(sql, bindArgs);
+        }
+    }
+
+    private static String buildInsertSql(String table, String nullColumnHack, String[] columns) {
+        StringBuilder sql = new StringBuilder();
+        sql.append("INSERT");
+        sql.append(" INTO ");
+        sql.append(table);
+        sql.append(" (");
+
+        if (columns.length > 0) {
+            for (int i = 0; i < columns.length; i++) {
+                sql.append((i > 0) ? "," : "");
+                sql.append(columns[i]);
+            }
             sql.append(')');
             sql.append(" VALUES (");
-            for (i = 0; i < size; i++) {
+            for (int i = 0; i < columns.length; i++) {
                 sql.append((i > 0) ? ",?" : "?");
             }
         } else {
@@ -222,7 +335,7 @@ public class SQLiteDatabase {
         }
         sql.append(')');
 
-        return executeSql(sql.toString(), bindArgs);
+        return sql.toString();
     }
 
     /**
@@ -297,33 +410,65 @@ public class SQLiteDatabase {
 
     public void close() {
         if (open.compareAndSet(true, false)) {
+            for (PooledConnection reader : readers) {
+                reader.close();
+            }
+            synchronized (writer) {
+                try {
+                    Statement statement = writer.connection.createStatement();
+                    statement.execute("SHUTDOWN");
+                } catch (Throwable e) {
+                    LOG.log(Level.WARNING, "Error closing the smart search database", e);
+                }
+                writer.close();
+            }
+        }
+    }
+
+    /**
+     * Takes an idle reader, waiting up to {@link #READER_WAIT_TIMEOUT} seconds for one.
+     * While waiting, the readers of the cursors that were not closed are reclaimed.
+     */
+    private PooledConnection acquireReader() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(READER_WAIT_TIMEOUT);
+
+        PooledConnection reader = null;
+        long remaining;
+
+        while (reader == null && (remaining = deadline - System.nanoTime()) > 0) {
+            reclaimReaders();
+            reader = idleReaders.poll(Math.min(remaining, TimeUnit.SECONDS.toNanos(READER_RECLAIM_INTERVAL)), TimeUnit.NANOSECONDS);
+        }
+
+        return reader;
+    }
+
+    private void reclaimReaders() {
+        Reference<? extends PooledCursor> ref;
+
+        while ((ref = unreachableCursors.poll()) != null) {
+            ReaderLease lease = (ReaderLease) ref;
             try {
-                Statement statement = connection.createStatement();
-                statement.execute("SHUTDOWN");
-                connection.close();
+                lease.rs.close();
             } catch (Throwable e) {
-                LOG.log(Level.WARNING, "Error closing the smart search database", e);
+            }
+            if (lease.release()) {
+                LOG.warning("Cursor garbage collected without being closed, reader connection reclaimed");
             }
         }
     }
 
     private int executeSql(String sql, Object[] bindArgs) throws SQLException {
-        PreparedStatement statement = null;
-        try {
-            synchronized (connection) {
-                statement = prepareStatement(connection, sql.toString(), bindArgs);
+        synchronized (writer) {
+            try {
+                PreparedStatement statement = writer.prepare(sql);
+                bindArgs(statement, bindArgs);
 
                 return statement.executeUpdate();
-            }
-        } catch (Throwable e) {
-            LOG.log(Level.WARNING, "Error performing SQL statement: " + sql, e);
-            return -1;
-        } finally {
-            if (statement != null) {
-                try {
-                    statement.close();
-                } catch (Throwable e) {
-                }
+            } catch (Throwable e) {
+                LOG.log(Level.WARNING, "Error performing SQL statement: " + sql, e);
+                writer.invalidate(sql);
+                return -1;
             }
         }
     }
@@ -357,16 +502,171 @@ public class SQLiteDatabase {
         }
     }
 
-    private PreparedStatement prepareStatement(Connection connection, String sql, Object... arguments) throws Exception {
-
-        PreparedStatement statement = connection.prepareStatement(sql, ResultSet.TYPE_SCROLL_SENSITIVE, ResultSet.CONCUR_READ_ONLY);
+    private static void bindArgs(PreparedStatement statement, Object[] arguments) throws java.sql.SQLException {
+        statement.clearParameters();
 
         if (arguments != null) {
             for (int i = 0; i < arguments.length; i++) {
                 statement.setObject(i + 1, arguments[i]);
             }
         }
-        return statement;
+    }
+
+    /**
+     * A connection with its own cache of prepared statements. Must be used
+     * by one thread at a time.
+     */
+    private static final class PooledConnection {
+
+        private final Connection connection;
+        private final Map<String, PreparedStatement> statements;
+
+        public PooledConnection(Connection connection) {
+            this.connection = connection;
+            this.statements = new LinkedHashMap<String, PreparedStatement>(STATEMENT_CACHE_SIZE, 0.75f, true) {
+
+                private static final long serialVersionUID = 3539254378016245306L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                    if (size() > STATEMENT_CACHE_SIZE) {
+                        closeQuietly(eldest.getValue());
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        public PreparedStatement prepare(String sql) throws java.sql.SQLException {
+            PreparedStatement statement = statements.get(sql);
+
+            if (statement == null) {
+                statement = connection.prepareStatement(sql, ResultSet.TYPE_SCROLL_SENSITIVE, ResultSet.CONCUR_READ_ONLY);
+                statements.put(sql, statement);
+            }
+
+            return statement;
+        }
+
+        /**
+         * Discards the cached statement, in case it was left in a bad state by an error.
+         */
+        public void invalidate(String sql) {
+            closeQuietly(statements.remove(sql));
+        }
+
+        public void close() {
+            for (PreparedStatement statement : statements.values()) {
+                closeQuietly(statement);
+            }
+            statements.clear();
+
+            try {
+                connection.close();
+            } catch (Throwable e) {
+                LOG.log(Level.WARNING, "Error closing database connection", e);
+            }
+        }
+
+        private static void closeQuietly(Statement statement) {
+            if (statement != null) {
+                try {
+                    statement.close();
+                } catch (Throwable e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Cursor over a cached statement of a reader, the reader goes back to the pool on close.
+     */
+    private final class PooledCursor extends Cursor {
+
+        private final ReaderLease lease;
+        private final AtomicBoolean closed;
+
+        public PooledCursor(PooledConnection reader, ResultSet rs) {
+            super(null, rs);
+            this.lease = new ReaderLease(this, reader, rs);
+            this.closed = new AtomicBoolean(false);
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                super.close();
+                lease.release();
+            }
+        }
+    }
+
+    /**
+     * The reader of a cursor, it must not reference the cursor so it can be
+     * reclaimed once the cursor is unreachable.
+     */
+    private final class ReaderLease extends PhantomReference<PooledCursor> {
+
+        private final PooledConnection reader;
+        private final ResultSet rs;
+        private final AtomicBoolean released;
+
+        public ReaderLease(PooledCursor cursor, PooledConnection reader, ResultSet rs) {
+            super(cursor, unreachableCursors);
+            this.reader = reader;
+            this.rs = rs;
+            this.released = new AtomicBoolean(false);
+
+            leases.add(this);
+        }
+
+        /**
+         * @return true if the reader was returned to the pool by this call
+         */
+        public boolean release() {
+            if (!released.compareAndSet(false, true)) {
+                return false;
+            }
+
+            leases.remove(this);
+            clear();
+            idleReaders.offer(reader);
+
+            return true;
+        }
+    }
+
+    /**
+     * The table and the columns, in order, of an INSERT statement.
+     */
+    private static final class InsertKey {
+
+        private final String table;
+        private final String[] columns;
+        private final String nullColumnHack;
+        private final int hash;
+
+        public InsertKey(String table, String[] columns, String nullColumnHack) {
+            this.table = table;
+            this.columns = columns;
+            this.nullColumnHack = columns.length == 0 ? nullColumnHack : null;
+            this.hash = 31 * (31 * table.hashCode() + Arrays.hashCode(columns)) + (this.nullColumnHack != null ? this.nullColumnHack.hashCode() : 0);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof InsertKey)) {
+                return false;
+            }
+            InsertKey other = (InsertKey) obj;
+            return hash == other.hash && table.equals(other.table) && Arrays.equals(columns, other.columns) && (nullColumnHack == null ? other.nullColumnHack == null : nullColumnHack.equals(other.nullColumnHack));
+        }
     }
 
     /**
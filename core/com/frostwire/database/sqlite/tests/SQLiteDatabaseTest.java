@@ -0,0 +1,189 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.database.sqlite.tests;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import com.frostwire.content.ContentValues;
+import com.frostwire.content.Context;
+import com.frostwire.database.Cursor;
+import com.frostwire.database.sqlite.SQLiteDatabase;
+import com.frostwire.database.sqlite.SQLiteOpenHelper;
+
+/**
+ * Opens a database with {@link SQLiteOpenHelper} in a temporary folder and
+ * checks the inserts and the reader pool.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public class SQLiteDatabaseTest extends TestCase {
+
+    private static final int NUM_QUERIES = 3;
+    private static final long QUERY_DELAY = 500;
+
+    private static final AtomicInteger running = new AtomicInteger();
+    private static final AtomicInteger maxRunning = new AtomicInteger();
+
+    private File folder;
+    private TestHelper helper;
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(SQLiteDatabaseTest.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        // the application loads the driver before opening any database
+        Class.forName("org.h2.Driver");
+
+        folder = File.createTempFile("frostwire", "db");
+        folder.delete();
+        folder.mkdirs();
+        helper = new TestHelper(folder);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        helper.getWritableDatabase().close();
+        delete(folder);
+    }
+
+    public void testInsert() {
+        SQLiteDatabase db = helper.getWritableDatabase();
+
+        for (int i = 0; i < 10; i++) {
+            ContentValues values = new ContentValues();
+            values.put("id", i);
+            values.put("name", "row " + i);
+            assertEquals(1, db.insert("items", null, values));
+        }
+
+        // same table, other columns
+        ContentValues values = new ContentValues();
+        values.put("id", 10);
+        assertEquals(1, db.insert("items", null, values));
+
+        Cursor c = db.rawQueryWithFactory(null, "SELECT COUNT(*), COUNT(name) FROM items", null, null);
+        try {
+            assertTrue(c.moveToNext());
+            assertEquals(11, c.getInt(1));
+            assertEquals(10, c.getInt(2));
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Every query calls a function that waits, the queries overlap only if the
+     * readers run in parallel.
+     */
+    public void testConcurrentReads() throws Exception {
+        final SQLiteDatabase db = helper.getWritableDatabase();
+        db.execSQL("CREATE ALIAS WAIT_AND_COUNT FOR \"" + SQLiteDatabaseTest.class.getName() + ".waitAndCount\"");
+
+        running.set(0);
+        maxRunning.set(0);
+
+        final AtomicInteger results = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+
+        for (int i = 0; i < NUM_QUERIES; i++) {
+            Thread t = new Thread(new Runnable() {
+                public void run() {
+                    Cursor c = db.rawQueryWithFactory(null, "SELECT WAIT_AND_COUNT()", null, null);
+                    if (c != null) {
+                        try {
+                            if (c.moveToNext() && c.getInt(1) == 1) {
+                                results.incrementAndGet();
+                            }
+                        } finally {
+                            c.close();
+                        }
+                    }
+                }
+            });
+            threads.add(t);
+        }
+
+        long start = System.currentTimeMillis();
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        long time = System.currentTimeMillis() - start;
+
+        assertEquals(NUM_QUERIES, results.get());
+        assertEquals(NUM_QUERIES, maxRunning.get());
+        assertTrue("queries took " + time + " ms", time < NUM_QUERIES * QUERY_DELAY);
+    }
+
+    public static int waitAndCount() throws InterruptedException {
+        int n = running.incrementAndGet();
+        try {
+            int max = maxRunning.get();
+            while (n > max && !maxRunning.compareAndSet(max, n)) {
+                max = maxRunning.get();
+            }
+            Thread.sleep(QUERY_DELAY);
+            return 1;
+        } finally {
+            running.decrementAndGet();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                delete(f);
+            }
+        }
+        file.delete();
+    }
+
+    private static final class TestHelper extends SQLiteOpenHelper {
+
+        public TestHelper(final File folder) {
+            super(new Context() {
+                @Override
+                public File getDatabasePath(String name) {
+                    return new File(folder, name);
+                }
+            }, "test", null, 1);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE items (id INTEGER PRIMARY KEY, name VARCHAR)");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        }
+    }
+}
@@ -18,7 +18,9 @@
 
 package com.frostwire.search;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
@@ -52,14 +54,20 @@ public final class CrawlCacheDB {
 
     private static final String DATABASE_NAME = "crawldb";
 
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 3;
 
     private static final String TABLE_NAME = "CacheData";
 
+    private static final String STATS_TABLE_NAME = "CacheStats";
+
     public static final String DEFAULT_SORT_ORDER = Columns.DATE_ADDED + " DESC";
 
     private final DatabaseHelper databaseHelper;
 
+    // live counters of the CacheData table, persisted in CacheStats by flushStats
+    private final AtomicLong numEntries;
+    private final AtomicLong numBytes;
+
     private final static CrawlCacheDB instance = new CrawlCacheDB();
 
     public static CrawlCacheDB instance() {
@@ -68,6 +76,25 @@ public final class CrawlCacheDB {
 
     private CrawlCacheDB() {
         databaseHelper = new DatabaseHelper(new Context());
+
+        numEntries = new AtomicLong();
+        numBytes = new AtomicLong();
+
+        loadStats();
+    }
+
+    /**
+     * @return the number of rows in the cache, without touching the database
+     */
+    public long count() {
+        return numEntries.get();
+    }
+
+    /**
+     * @return the total size of the cached data, without touching the database
+     */
+    public long bytes() {
+        return numBytes.get();
     }
 
     public Cursor query(String[] projection, String selection, String[] selectionArgs, String sortOrder) {
@@ -92,7 +119,7 @@ public final class CrawlCacheDB {
         return c;
     }
 
-    public long insert(ContentValues initialValues) {
+    public synchronized long insert(ContentValues initialValues) {
         ContentValues values;
 
         if (initialValues != null) {
@@ -109,17 +136,158 @@ public final class CrawlCacheDB {
 
         SQLiteDatabase db = databaseHelper.getWritableDatabase();
 
-        return db.insert(TABLE_NAME, "", values);
+        long r = db.insert(TABLE_NAME, "", values);
+
+        if (r > 0) {
+            Long dataSize = values.getAsLong(Columns.DATA_SIZE);
+            numEntries.incrementAndGet();
+            numBytes.addAndGet(dataSize != null ? dataSize.longValue() : 0);
+        }
+
+        return r;
     }
 
-    public int delete(String where, String[] whereArgs) {
+    public synchronized int delete(String where, String[] whereArgs) {
         SQLiteDatabase db = databaseHelper.getWritableDatabase();
 
+        long bytes = TextUtils.isEmpty(where) ? numBytes.get() : sum(Columns.DATA_SIZE, where, whereArgs);
+
         int count = db.delete(TABLE_NAME, where, whereArgs);
 
+        if (count > 0) {
+            if (TextUtils.isEmpty(where)) {
+                numEntries.set(0);
+                numBytes.set(0);
+            } else {
+                numEntries.addAndGet(-count);
+                numBytes.addAndGet(-bytes);
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Deletes up to <code>limit</code> of the oldest rows matching the selection,
+     * in a single statement.
+     *
+     * @return the number of rows deleted
+     */
+    public synchronized int deleteBatch(String where, String[] whereArgs, int limit) {
+        SQLiteDatabase db = databaseHelper.getReadableDatabase();
+
+        long maxId = -1;
+        long bytes = 0;
+
+        String sql = "SELECT " + Columns.ID + ", " + Columns.DATA_SIZE + " FROM " + TABLE_NAME + (!TextUtils.isEmpty(where) ? " WHERE " + where : "") + " ORDER BY " + Columns.ID + " ASC LIMIT " + limit;
+
+        Cursor c = null;
+
+        try {
+            c = db.rawQueryWithFactory(null, sql, whereArgs, TABLE_NAME);
+
+            while (c != null && c.moveToNext()) {
+                maxId = c.getLong(1);
+                bytes += c.getLong(2);
+            }
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+
+        if (maxId < 0) {
+            return 0;
+        }
+
+        // ids grow with insertion, the batch is exactly the matching rows up to maxId
+        String batchWhere = (!TextUtils.isEmpty(where) ? "(" + where + ") AND " : "") + Columns.ID + " <= " + maxId;
+
+        int count = databaseHelper.getWritableDatabase().delete(TABLE_NAME, batchWhere, whereArgs);
+
+        if (count > 0) {
+            numEntries.addAndGet(-count);
+            numBytes.addAndGet(-bytes);
+        }
+
         return count;
     }
 
+    /**
+     * Recomputes the counters from the table, to fix any drift after an unclean shutdown.
+     */
+    public synchronized void reconcileStats() {
+        numEntries.set(aggregate("COUNT(*)", null, null));
+        numBytes.set(sum(Columns.DATA_SIZE, null, null));
+    }
+
+    /**
+     * Saves the current counters in the database.
+     */
+    public synchronized void flushStats() {
+        ContentValues values = new ContentValues();
+
+        values.put(StatsColumns.NUM_ENTRIES, Long.valueOf(numEntries.get()));
+        values.put(StatsColumns.NUM_BYTES, Long.valueOf(numBytes.get()));
+
+        databaseHelper.getWritableDatabase().update(STATS_TABLE_NAME, values, null, null);
+    }
+
+    private void loadStats() {
+        SQLiteDatabase db = databaseHelper.getReadableDatabase();
+
+        Cursor c = null;
+
+        try {
+            c = db.rawQueryWithFactory(null, "SELECT " + StatsColumns.NUM_ENTRIES + ", " + StatsColumns.NUM_BYTES + " FROM " + STATS_TABLE_NAME, null, STATS_TABLE_NAME);
+
+            if (c != null && c.moveToNext()) {
+                numEntries.set(c.getLong(1));
+                numBytes.set(c.getLong(2));
+            } else {
+                reconcileStats();
+            }
+        } catch (Throwable e) {
+            LOG.warn("Unable to load crawl cache stats", e);
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the sum of the given numeric column over the rows matching the selection,
+     * or 0 if there are no matching rows.
+     */
+    public long sum(String column, String selection, String[] selectionArgs) {
+        return aggregate("SUM(" + column + ")", selection, selectionArgs);
+    }
+
+    private long aggregate(String expression, String selection, String[] selectionArgs) {
+        long value = 0;
+
+        SQLiteDatabase db = databaseHelper.getReadableDatabase();
+
+        String sql = "SELECT " + expression + " FROM " + TABLE_NAME + (!TextUtils.isEmpty(selection) ? " WHERE " + selection : "");
+
+        Cursor c = null;
+
+        try {
+            c = db.rawQueryWithFactory(null, sql, selectionArgs, TABLE_NAME);
+
+            if (c != null && c.moveToNext()) {
+                value = c.getLong(1);
+            }
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+
+        return value;
+    }
+
     public int update(ContentValues values, String where, String[] whereArgs) {
 
         SQLiteDatabase db = databaseHelper.getWritableDatabase();
@@ -138,6 +306,16 @@ public final class CrawlCacheDB {
         public static final String KEY = "key";
         public static final String DATA = "data";
         public static final String DATE_ADDED = "dateAdded";
+        public static final String DATA_SIZE = "dataSize";
+    }
+
+    private static final class StatsColumns {
+
+        private StatsColumns() {
+        }
+
+        public static final String NUM_ENTRIES = "numEntries";
+        public static final String NUM_BYTES = "numBytes";
     }
 
     /**
@@ -160,18 +338,35 @@ public final class CrawlCacheDB {
                 }
             }
 
+            // previous versions live in their own folder, nothing to migrate from a cache
+            for (int version = 1; version < DATABASE_VERSION; version++) {
+                File oldFolder = new File(new Context().getDatabasePath(DATABASE_NAME).getAbsolutePath() + "." + version);
+                if (oldFolder.exists()) {
+                    try {
+                        FileUtils.deleteDirectory(oldFolder);
+                    } catch (IOException e) {
+                        LOG.warn("Unable to delete old crawl cache database: " + oldFolder);
+                    }
+                }
+            }
+
             db.execSQL("SET IGNORECASE TRUE");
 
-            db.execSQL("CREATE TABLE " + TABLE_NAME + " (" + Columns.ID + " INTEGER IDENTITY," + Columns.KEY + " VARCHAR," + Columns.DATA + " BINARY," + Columns.DATE_ADDED + " BIGINT" + ");");
+            db.execSQL("CREATE TABLE " + TABLE_NAME + " (" + Columns.ID + " INTEGER IDENTITY," + Columns.KEY + " VARCHAR," + Columns.DATA + " BINARY," + Columns.DATE_ADDED + " BIGINT," + Columns.DATA_SIZE + " BIGINT" + ");");
 
             db.execSQL("CREATE INDEX idx_" + TABLE_NAME + "_" + Columns.ID + " ON " + TABLE_NAME + " (" + Columns.ID + ")");
             db.execSQL("CREATE INDEX idx_" + TABLE_NAME + "_" + Columns.KEY + " ON " + TABLE_NAME + " (" + Columns.KEY + ")");
+            db.execSQL("CREATE INDEX idx_" + TABLE_NAME + "_" + Columns.DATE_ADDED + " ON " + TABLE_NAME + " (" + Columns.DATE_ADDED + ")");
+
+            db.execSQL("CREATE TABLE " + STATS_TABLE_NAME + " (" + StatsColumns.NUM_ENTRIES + " BIGINT," + StatsColumns.NUM_BYTES + " BIGINT" + ");");
+            db.execSQL("INSERT INTO " + STATS_TABLE_NAME + " (" + StatsColumns.NUM_ENTRIES + "," + StatsColumns.NUM_BYTES + ") VALUES (0, 0)");
         }
 
         @Override
         public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
             LOG.warn("Upgrading documents database from version " + oldVersion + " to " + newVersion + ", which will destroy all old data");
             db.execSQL("DROP TABLE IF EXISTS " + TABLE_NAME);
+            db.execSQL("DROP TABLE IF EXISTS " + STATS_TABLE_NAME);
             onCreate(db);
         }
     }
@@ -17,6 +17,12 @@
 
 package com.frostwire.search;
 
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.limewire.concurrent.ExecutorsHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -35,10 +41,54 @@ public class DatabaseCrawlCache implements CrawlCache {
 
     private static final Logger LOG = LoggerFactory.getLogger(DatabaseCrawlCache.class);
 
-    private CrawlCacheDB db;
+    /**
+     * Minutes between two compactions of the database.
+     */
+    private static final long COMPACTION_INTERVAL = 10;
+
+    /**
+     * Maximum number of rows removed by a single DELETE statement.
+     */
+    private static final int COMPACTION_BATCH_SIZE = 500;
+
+    private final CrawlCacheDB db;
+
+    private final long maxBytes;
+    private final long maxAge;
 
+    private final ScheduledExecutorService compactor;
+    private final AtomicBoolean compactionPending;
+    private final AtomicBoolean reconciled;
+
+    /**
+     * Creates an unbounded database cache.
+     */
     public DatabaseCrawlCache() {
-        db = CrawlCacheDB.instance();
+        this(0, 0);
+    }
+
+    /**
+     * @param maxBytes the maximum total size of the cached data, 0 means unbounded
+     * @param maxAge the maximum age in seconds of the cached data, 0 means no expiration
+     */
+    public DatabaseCrawlCache(long maxBytes, long maxAge) {
+        this.db = CrawlCacheDB.instance();
+        this.maxBytes = maxBytes;
+        this.maxAge = maxAge;
+        this.compactionPending = new AtomicBoolean();
+        this.reconciled = new AtomicBoolean();
+
+        if (maxBytes > 0 || maxAge > 0) {
+            compactor = Executors.newSingleThreadScheduledExecutor(ExecutorsHelper.daemonThreadFactory("CrawlCacheCompactor"));
+            compactor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    compact();
+                }
+            }, 1, COMPACTION_INTERVAL, TimeUnit.MINUTES);
+        } else {
+            compactor = null;
+        }
     }
 
     @Override
@@ -77,8 +127,13 @@ public class DatabaseCrawlCache implements CrawlCache {
 
                 values.put(Columns.KEY, key);
                 values.put(Columns.DATA, data);
+                values.put(Columns.DATA_SIZE, Long.valueOf(data.length));
 
                 db.insert(values);
+
+                if (maxBytes > 0 && db.bytes() > maxBytes) {
+                    scheduleCompaction();
+                }
             } catch (Throwable e) {
                 LOG.warn("Error putting value to crawl cache: " + e.getMessage());
             }
@@ -101,6 +156,7 @@ public class DatabaseCrawlCache implements CrawlCache {
     public synchronized void clear() {
         try {
             db.delete("", new String[] {});
+            db.flushStats();
         } catch (Throwable e) {
             LOG.warn("Error deleting crawl cache: " + e.getMessage());
         }
@@ -108,28 +164,79 @@ public class DatabaseCrawlCache implements CrawlCache {
 
     @Override
     public long size() {
-        long size = 0;
+        return db.count();
+    }
 
-        Cursor c = null;
+    /**
+     * @return the total size in bytes of the cached data
+     */
+    public long bytes() {
+        return db.bytes();
+    }
+
+    /**
+     * Stops the compactions and saves the counters, so the next run starts
+     * from the current size instead of the one saved by the last compaction.
+     */
+    public void close() {
+        if (compactor != null) {
+            compactor.shutdownNow();
+        }
+
+        try {
+            db.flushStats();
+        } catch (Throwable e) {
+            LOG.warn("Error saving crawl cache stats: " + e.getMessage());
+        }
+    }
 
+    /**
+     * Removes the expired entries and, if the data is still over the
+     * size limit, the oldest entries until it fits. Rows are removed in batches
+     * to avoid holding the database for too long.
+     */
+    public void compact() {
         try {
+            if (reconciled.compareAndSet(false, true)) {
+                db.reconcileStats();
+            }
 
-            String[] columns = new String[] { Columns.ID };
-            String where = "";
-            String[] whereArgs = new String[] {};
+            if (maxAge > 0) {
+                String where = Columns.DATE_ADDED + " < ?";
+                String[] whereArgs = new String[] { String.valueOf(System.currentTimeMillis() / 1000 - maxAge) };
 
-            c = db.query(columns, where, whereArgs, null);
+                int deleted;
+                do {
+                    deleted = db.deleteBatch(where, whereArgs, COMPACTION_BATCH_SIZE);
+                } while (deleted == COMPACTION_BATCH_SIZE);
+            }
 
-            size = c.getCount();
+            if (maxBytes > 0) {
+                // leave some room to avoid compacting again right away
+                long lowWatermark = maxBytes - maxBytes / 10;
 
-        } catch (Exception e) {
-            LOG.warn("Failed to get num of shared files", e);
-        } finally {
-            if (c != null) {
-                c.close();
+                int deleted = 1;
+                while (deleted > 0 && db.bytes() > lowWatermark) {
+                    deleted = db.deleteBatch(null, null, COMPACTION_BATCH_SIZE);
+                }
             }
+
+            db.flushStats();
+        } catch (Throwable e) {
+            LOG.warn("Error compacting crawl cache: " + e.getMessage());
+        } finally {
+            compactionPending.set(false);
         }
+    }
 
-        return size;
+    private void scheduleCompaction() {
+        if (compactor != null && compactionPending.compareAndSet(false, true)) {
+            compactor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    compact();
+                }
+            });
+        }
     }
 }
@@ -0,0 +1,247 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.search;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+
+import com.limegroup.gnutella.settings.SearchSettings;
+
+/**
+ * Crawl cache with an in-memory tier in front of a (usually database backed) second tier.
+ * <p>
+ * The memory tier is split in segments by key hash, each one with its own lock and
+ * byte budget. Every segment follows a simplified "Two Queue" (2Q) policy: new entries
+ * enter a FIFO probation queue and are promoted to the LRU protected queue on the
+ * second hit, so a burst of one-time crawls doesn't flush the frequently used entries.
+ * <p>
+ * Writes go to both tiers, and are ignored when smart search is disabled. Reads from
+ * the second tier are promoted to memory.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class TieredCrawlCache implements CrawlCache {
+
+    private static final int NUM_SEGMENTS = 16;
+
+    /**
+     * Rough per entry overhead of the map nodes and key object.
+     */
+    private static final int ENTRY_OVERHEAD = 64;
+
+    private final Segment[] segments;
+    private final CrawlCache secondTier;
+
+    /**
+     * @param secondTier the slower cache to front, can be null for a memory only cache
+     * @param maxMemoryBytes the total budget in bytes of the memory tier
+     */
+    public TieredCrawlCache(CrawlCache secondTier, long maxMemoryBytes) {
+        this.secondTier = secondTier;
+        this.segments = new Segment[NUM_SEGMENTS];
+
+        long segmentBytes = Math.max(1, maxMemoryBytes / NUM_SEGMENTS);
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment(segmentBytes);
+        }
+    }
+
+    @Override
+    public byte[] get(String key) {
+        Segment segment = segmentFor(key);
+
+        byte[] data = segment.get(key);
+
+        if (data == null && secondTier != null) {
+            data = secondTier.get(key);
+            if (data != null) {
+                segment.put(key, data);
+            }
+        }
+
+        return data;
+    }
+
+    @Override
+    public void put(String key, byte[] data) {
+        if (!SearchSettings.SMART_SEARCH_ENABLED.getValue()) {
+            return;
+        }
+
+        segmentFor(key).put(key, data);
+
+        if (secondTier != null) {
+            secondTier.put(key, data);
+        }
+    }
+
+    @Override
+    public void remove(String key) {
+        segmentFor(key).remove(key);
+
+        if (secondTier != null) {
+            secondTier.remove(key);
+        }
+    }
+
+    @Override
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+
+        if (secondTier != null) {
+            secondTier.clear();
+        }
+    }
+
+    @Override
+    public long size() {
+        if (secondTier != null) {
+            return secondTier.size();
+        }
+
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.count();
+        }
+        return size;
+    }
+
+    /**
+     * @return the number of bytes currently used by the memory tier
+     */
+    public long memoryBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            bytes += segment.bytes();
+        }
+        return bytes;
+    }
+
+    private Segment segmentFor(String key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & (NUM_SEGMENTS - 1)];
+    }
+
+    private static long weight(String key, byte[] data) {
+        return data.length + 2 * key.length() + ENTRY_OVERHEAD;
+    }
+
+    private static final class Segment {
+
+        private final long maxBytes;
+        private final long maxProbationBytes;
+
+        // insertion ordered, entries seen only once
+        private final LinkedHashMap<String, byte[]> probation;
+        // access ordered, entries seen at least twice
+        private final LinkedHashMap<String, byte[]> protectedEntries;
+
+        private long probationBytes;
+        private long protectedBytes;
+
+        public Segment(long maxBytes) {
+            this.maxBytes = maxBytes;
+            this.maxProbationBytes = maxBytes / 4;
+            this.probation = new LinkedHashMap<String, byte[]>(16, 0.75f, false);
+            this.protectedEntries = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+        }
+
+        public synchronized byte[] get(String key) {
+            byte[] data = protectedEntries.get(key);
+
+            if (data == null) {
+                data = probation.remove(key);
+                if (data != null) {
+                    long w = weight(key, data);
+                    probationBytes -= w;
+                    protectedEntries.put(key, data);
+                    protectedBytes += w;
+                    evict();
+                }
+            }
+
+            return data;
+        }
+
+        public synchronized void put(String key, byte[] data) {
+            removeInternal(key);
+
+            long w = weight(key, data);
+            if (w > maxBytes) {
+                return;
+            }
+
+            probation.put(key, data);
+            probationBytes += w;
+            evict();
+        }
+
+        public synchronized void remove(String key) {
+            removeInternal(key);
+        }
+
+        public synchronized void clear() {
+            probation.clear();
+            protectedEntries.clear();
+            probationBytes = 0;
+            protectedBytes = 0;
+        }
+
+        public synchronized int count() {
+            return probation.size() + protectedEntries.size();
+        }
+
+        public synchronized long bytes() {
+            return probationBytes + protectedBytes;
+        }
+
+        private void removeInternal(String key) {
+            byte[] data = probation.remove(key);
+            if (data != null) {
+                probationBytes -= weight(key, data);
+            }
+            data = protectedEntries.remove(key);
+            if (data != null) {
+                protectedBytes -= weight(key, data);
+            }
+        }
+
+        private void evict() {
+            while (probationBytes + protectedBytes > maxBytes) {
+                if (probationBytes > maxProbationBytes || protectedEntries.isEmpty()) {
+                    probationBytes -= evictEldest(probation);
+                } else {
+                    protectedBytes -= evictEldest(protectedEntries);
+                }
+            }
+        }
+
+        private static long evictEldest(LinkedHashMap<String, byte[]> map) {
+            Iterator<Entry<String, byte[]>> it = map.entrySet().iterator();
+            Entry<String, byte[]> eldest = it.next();
+            it.remove();
+            return weight(eldest.getKey(), eldest.getValue());
+        }
+    }
+}
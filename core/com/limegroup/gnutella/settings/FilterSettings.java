@@ -38,4 +38,11 @@ public class FilterSettings extends LimeProps {
 	 */
     public static final StringArraySetting BANNED_WORDS =
         FACTORY.createStringArraySetting("BANNED_WORDS", new String[0]);
+
+    /**
+	 * Sets whether the banned words only match whole words of the search
+	 * results, instead of any part of them.
+	 */
+    public static final BooleanSetting BANNED_WORDS_WHOLE_WORDS =
+        FACTORY.createBooleanSetting("BANNED_WORDS_WHOLE_WORDS", false);
 }
@@ -22,20 +22,21 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.frostwire.concurrent.DefaultThreadFactory;
 import com.frostwire.core.ConfigurationManager;
 import com.frostwire.core.Constants;
 import com.frostwire.core.FileDescriptor;
 import com.frostwire.core.providers.ShareFilesDB;
 import com.frostwire.core.providers.ShareFilesDB.Columns;
-import com.frostwire.database.Cursor;
 import com.frostwire.gui.bittorrent.TorrentUtil;
 import com.frostwire.gui.library.LibraryMediator;
 import com.frostwire.localpeer.Finger;
@@ -53,9 +54,14 @@ public final class Librarian {
     public static final int FILE_STATE_SHARING = 1;
     public static final int FILE_STATE_SHARED = 2;
 
+    private static final int VALIDATION_BATCH_SIZE = 200;
+    private static final long VALIDATION_INTERVAL_SECONDS = 10;
+
     //private final Set<String> pathSharedSet;
     private final Set<String> pathSharingSet;
     private final ExecutorService shareFileExec;
+    private final SharedFilesIndex index;
+    private final ScheduledExecutorService validationExec;
 
     private static final Librarian instance = new Librarian();
 
@@ -67,6 +73,15 @@ public final class Librarian {
         //this.pathSharedSet = Collections.synchronizedSet(new HashSet<String>());
         this.pathSharingSet = Collections.synchronizedSet(new HashSet<String>());
         this.shareFileExec = Executors.newSingleThreadExecutor();
+        this.index = new SharedFilesIndex();
+        this.validationExec = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("Librarian-Validator", true));
+
+        validationExec.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                validateSharedFiles();
+            }
+        }, VALIDATION_INTERVAL_SECONDS, VALIDATION_INTERVAL_SECONDS, TimeUnit.SECONDS);
     }
 
     public Finger finger() {
@@ -107,137 +122,87 @@ public final class Librarian {
     }
 
     /**
+     * Served from the in memory index, files removed from disk are dropped by the
+     * background validation.
      * 
      * @param fileType
-     * @param onlyShared - If false, forces getting all files, shared or unshared. 
      * @return
      */
     public int getNumSharedFiles(byte fileType) {
-        Cursor c = null;
-
-        int numFiles = 0;
-
         try {
-            ShareFilesDB db = ShareFilesDB.intance();
-
-            String[] columns = new String[] { Columns.ID, Columns.FILE_PATH, Columns.SHARED };
-            String where = Columns.FILE_TYPE + " = ? AND " + Columns.SHARED + " = ?";
-            String[] whereArgs = new String[] { String.valueOf(fileType), String.valueOf(true) };
-
-            c = db.query(columns, where, whereArgs, null);
-
-            List<FileDescriptor> fds = filteredOutBadRows(c);
-
-            numFiles = fds.size();
-
+            return index.getCount(fileType);
         } catch (Exception e) {
             LOG.log(Level.WARNING, "Failed to get num of shared files", e);
-        } finally {
-            if (c != null) {
-                c.close();
-            }
+            return 0;
         }
-
-        return numFiles;
     }
 
     public boolean isFileShared(String filePath) {
-        Cursor c = null;
-
-        boolean isShared = false;
-
         try {
-            ShareFilesDB db = ShareFilesDB.intance();
-
-            String[] columns = new String[] { Columns.ID, Columns.FILE_PATH, Columns.SHARED };
-            String where = Columns.FILE_PATH + " = ?";
-            String[] whereArgs = new String[] { filePath };
-
-            c = db.query(columns, where, whereArgs, null);
-
-            List<FileDescriptor> fds = filteredOutBadRows(c);
-
-            isShared = fds.size() == 1;
-
+            return index.contains(filePath) && new File(filePath).exists();
         } catch (Exception e) {
             LOG.log(Level.WARNING, "Failed to get num of shared files", e);
-        } finally {
-            if (c != null) {
-                c.close();
-            }
+            return false;
         }
-
-        return isShared;
     }
 
-    private List<FileDescriptor> filteredOutBadRows(Cursor c) {
-        int filePathCol = c.getColumnIndex(Columns.FILE_PATH);
+    public List<FileDescriptor> getSharedFiles(byte fileType) {
+        return getSharedFiles(fileType, 0, Integer.MAX_VALUE);
+    }
 
-        if (filePathCol == -1) {
-            throw new IllegalArgumentException("Can't perform filtering without file path column in cursor");
+    /**
+     * @param fileType
+     * @param offset index of the first file, newest first
+     * @param pageSize max number of files to return
+     * @return
+     */
+    public List<FileDescriptor> getSharedFiles(byte fileType, int offset, int pageSize) {
+        try {
+            return index.getFiles(fileType, offset, pageSize);
+        } catch (Throwable e) {
+            LOG.log(Level.WARNING, "General failure getting files", e);
+            return new ArrayList<FileDescriptor>();
         }
+    }
 
-        List<FileDescriptor> fds = new LinkedList<FileDescriptor>();
-
-        final Set<String> toRemove = new HashSet<String>();
-
-        while (c.moveToNext()) {
-            String filePath = c.getString(filePathCol);
-
-            if (!(new File(filePath)).exists()) {
-                //pathSharedSet.remove(filePath);
-                toRemove.add(filePath);
-                continue;
-            }
-
-            FileDescriptor fd = cursorToFileDescriptor(c);
-
-            fds.add(fd);
+    /**
+     * @param fileType
+     * @return the version of the last change to the shared files of the type, -1 on errors
+     */
+    public long getSharedFilesVersion(byte fileType) {
+        try {
+            return index.getVersion(fileType);
+        } catch (Throwable e) {
+            LOG.log(Level.WARNING, "General failure getting files version", e);
+            return -1;
         }
-
-        shareFileExec.execute(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    for (String filePath : toRemove) {
-                        deleteFromShareTable(filePath);
-                    }
-                } catch (Throwable e) {
-                    LOG.log(Level.WARNING, "Error deleting no existent files", e);
-                }
-            }
-        });
-
-        return fds;
     }
 
-    public List<FileDescriptor> getSharedFiles(byte fileType) {
-        List<FileDescriptor> result = new ArrayList<FileDescriptor>();
-
-        Cursor c = null;
-
+    /**
+     * Like {@link #getSharedFiles(byte, int, int)}, with the version the page belongs to.
+     */
+    public SharedFiles getSharedFilesPage(byte fileType, int offset, int pageSize) {
         try {
-            ShareFilesDB db = ShareFilesDB.intance();
-
-            String[] columns = new String[] { Columns.ID, Columns.FILE_TYPE, Columns.FILE_PATH, Columns.FILE_SIZE, Columns.MIME, Columns.DATE_ADDED, Columns.DATE_MODIFIED, Columns.SHARED, Columns.TITLE, Columns.ARTIST, Columns.ALBUM, Columns.YEAR };
-            String where = Columns.FILE_TYPE + " = ? AND " + Columns.SHARED + " = ?";
-            String[] whereArgs = new String[] { String.valueOf(fileType), String.valueOf(true) };
-
-            c = db.query(columns, where, whereArgs, null);
-
-            List<FileDescriptor> fds = filteredOutBadRows(c);
-
-            return fds;
-
+            return index.getSharedFiles(fileType, offset, pageSize);
         } catch (Throwable e) {
             LOG.log(Level.WARNING, "General failure getting files", e);
-        } finally {
-            if (c != null) {
-                c.close();
-            }
+            return null;
         }
+    }
 
-        return result;
+    /**
+     * @param fileType
+     * @param since a version returned by a previous call
+     * @return the changes after the version, or null if they are no longer known and the
+     *         whole list is needed
+     */
+    public SharedFiles getSharedFilesChanges(byte fileType, long since) {
+        try {
+            return index.getChanges(fileType, since);
+        } catch (Throwable e) {
+            LOG.log(Level.WARNING, "General failure getting files changes", e);
+            return null;
+        }
     }
 
     public void scan(File file) {
@@ -268,7 +233,9 @@ public final class Librarian {
                 }
             }
         } else if (file.isFile()) {
-            new UniversalScanner().scan(file.getAbsolutePath());
+            String filePath = file.getAbsolutePath();
+            new UniversalScanner().scan(filePath);
+            index.reload(filePath);
         }
     }
 
@@ -291,6 +258,7 @@ public final class Librarian {
                 if (share) {
                     new UniversalScanner().scan(filePath);
                     //pathSharedSet.add(filePath);
+                    index.reload(filePath);
                 }
 
                 pathSharingSet.remove(filePath);
@@ -311,6 +279,8 @@ public final class Librarian {
         ShareFilesDB db = ShareFilesDB.intance();
 
         db.delete(where, whereArgs);
+
+        index.remove(filePath);
     }
 
     public void deleteFolderFilesFromShareTable(String folderPath) {
@@ -321,105 +291,60 @@ public final class Librarian {
 
         try {
             db.delete(where, whereArgs);
+            index.removeFolder(folderPath);
         } catch (Exception e) {
 
         }
     }
 
-    private FileDescriptor cursorToFileDescriptor(Cursor c) {
-        FileDescriptor fd = new FileDescriptor();
-
-        int col = -1;
-
-        col = c.getColumnIndex(Columns.ID);
-        if (col != -1) {
-            fd.id = c.getInt(col);
-        }
-
-        col = c.getColumnIndex(Columns.FILE_TYPE);
-        if (col != -1) {
-            fd.fileType = c.getByte(col);
-        }
-
-        col = c.getColumnIndex(Columns.FILE_PATH);
-        if (col != -1) {
-            fd.filePath = c.getString(col);
-        }
-
-        col = c.getColumnIndex(Columns.FILE_SIZE);
-        if (col != -1) {
-            fd.fileSize = c.getLong(col);
-        }
-
-        col = c.getColumnIndex(Columns.MIME);
-        if (col != -1) {
-            fd.mime = c.getString(col);
-        }
-
-        col = c.getColumnIndex(Columns.DATE_ADDED);
-        if (col != -1) {
-            fd.dateAdded = c.getLong(col);
-        }
-
-        col = c.getColumnIndex(Columns.DATE_MODIFIED);
-        if (col != -1) {
-            fd.dateModified = c.getLong(col);
-        }
-
-        col = c.getColumnIndex(Columns.SHARED);
-        if (col != -1) {
-            fd.shared = c.getBoolean(col);
-        }
-
-        col = c.getColumnIndex(Columns.TITLE);
-        if (col != -1) {
-            fd.title = c.getString(col);
-        }
+    public FileDescriptor getSharedFileDescriptor(byte fileType, int fileId) {
+        try {
+            final FileDescriptor fd = index.getFile(fileType, fileId);
 
-        col = c.getColumnIndex(Columns.ARTIST);
-        if (col != -1) {
-            fd.artist = c.getString(col);
-        }
+            if (fd != null && !SharedFilesIndex.exists(fd)) {
+                removeMissingFile(fd.filePath);
+                return null;
+            }
 
-        col = c.getColumnIndex(Columns.ALBUM);
-        if (col != -1) {
-            fd.album = c.getString(col);
-        }
+            return fd;
 
-        col = c.getColumnIndex(Columns.YEAR);
-        if (col != -1) {
-            fd.year = c.getString(col);
+        } catch (Throwable e) {
+            LOG.log(Level.WARNING, "General failure getting files", e);
         }
 
-        return fd;
+        return null;
     }
 
-    public FileDescriptor getSharedFileDescriptor(byte fileType, int fileId) {
-        FileDescriptor result = null;
+    private void removeMissingFile(final String filePath) {
+        index.remove(filePath);
 
-        Cursor c = null;
+        shareFileExec.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    deleteFromShareTable(filePath);
+                } catch (Throwable e) {
+                    LOG.log(Level.WARNING, "Error deleting no existent files", e);
+                }
+            }
+        });
+    }
 
+    /**
+     * Checks a batch of indexed files for existence, the missing ones are removed from
+     * the index and the database.
+     */
+    private void validateSharedFiles() {
         try {
-            ShareFilesDB db = ShareFilesDB.intance();
-
-            String[] columns = new String[] { Columns.ID, Columns.FILE_TYPE, Columns.FILE_PATH, Columns.FILE_SIZE, Columns.MIME, Columns.DATE_ADDED, Columns.DATE_MODIFIED, Columns.SHARED, Columns.TITLE, Columns.ARTIST, Columns.ALBUM, Columns.YEAR };
-            String where = Columns.FILE_TYPE + " = ? AND " + Columns.ID + " = ? AND " + Columns.SHARED + " = ?";
-            String[] whereArgs = new String[] { String.valueOf(fileType), String.valueOf(fileId), String.valueOf(true) };
-
-            c = db.query(columns, where, whereArgs, null);
-
-            List<FileDescriptor> fds = filteredOutBadRows(c);
+            List<String> batch = index.nextValidationBatch(VALIDATION_BATCH_SIZE);
 
-            return fds.size() > 0 ? fds.get(0) : null;
-
-        } catch (Throwable e) {
-            LOG.log(Level.WARNING, "General failure getting files", e);
-        } finally {
-            if (c != null) {
-                c.close();
+            for (String filePath : batch) {
+                if (!new File(filePath).exists()) {
+                    removeMissingFile(filePath);
+                }
             }
+        } catch (Throwable e) {
+            LOG.log(Level.WARNING, "Error validating shared files", e);
         }
-
-        return result;
     }
 }
@@ -0,0 +1,54 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.gui;
+
+import java.util.List;
+
+import com.frostwire.core.FileDescriptor;
+
+/**
+ * The shared files of a type as of a given version of the library, either a page of the
+ * whole list or the changes since a previous version.
+ * 
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class SharedFiles {
+
+    public final long version;
+    public final int total;
+    public final List<FileDescriptor> files;
+
+    /**
+     * Ids of the removed files, null if this is not a list of changes.
+     */
+    public final List<Integer> removed;
+
+    SharedFiles(long version, int total, List<FileDescriptor> files, List<Integer> removed) {
+        this.version = version;
+        this.total = total;
+        this.files = files;
+        this.removed = removed;
+    }
+
+    public boolean isChanges() {
+        return removed != null;
+    }
+}
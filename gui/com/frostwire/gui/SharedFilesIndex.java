@@ -0,0 +1,488 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.gui;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import com.frostwire.core.Constants;
+import com.frostwire.core.FileDescriptor;
+import com.frostwire.core.providers.ShareFilesDB;
+import com.frostwire.core.providers.ShareFilesDB.Columns;
+import com.frostwire.database.Cursor;
+
+/**
+ * In memory copy of the shared rows of {@link ShareFilesDB}, with the per type lists in the
+ * database default order (newest first) so counts are O(1) and pages don't need a query.
+ * The descriptors are also indexed by id, ids are unique across types, and by path.
+ * <p>
+ * The index is loaded with a single query on first use. After that, every change to the
+ * table has to be reported with {@link #reload(String)}, {@link #remove(String)} or
+ * {@link #removeFolder(String)}. Paths are compared ignoring case, like the database does.
+ * <p>
+ * Files deleted from disk are not checked on every read, {@link #nextValidationBatch(int)}
+ * hands out the indexed paths in round robin order so a background task can check them
+ * in small batches.
+ * <p>
+ * Every change bumps a version, kept per type, and the last changes of each type are
+ * logged so remote peers can ask only for what changed since the version they have.
+ * Versions start from the load time, a version from a previous run is never valid.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+final class SharedFilesIndex {
+
+    private static final int NUM_FILE_TYPES = Constants.FILE_TYPE_TORRENTS + 1;
+
+    private static final String[] COLUMNS = new String[] { Columns.ID, Columns.FILE_TYPE, Columns.FILE_PATH, Columns.FILE_SIZE, Columns.MIME, Columns.DATE_ADDED, Columns.DATE_MODIFIED, Columns.SHARED, Columns.TITLE, Columns.ARTIST, Columns.ALBUM, Columns.YEAR };
+
+    private static final int MAX_LOGGED_CHANGES = 4096;
+
+    private final List<List<FileDescriptor>> byType;
+    private final Map<Integer, FileDescriptor> byId;
+    private final Map<String, List<FileDescriptor>> byPath;
+    private final long[] versions;
+    private final List<ArrayDeque<Change>> changes;
+    private final long[] oldestVersions;
+
+    private boolean loaded;
+    private long version;
+    private int validationType;
+    private int validationIndex;
+
+    public SharedFilesIndex() {
+        this.byType = new ArrayList<List<FileDescriptor>>(NUM_FILE_TYPES);
+        for (int i = 0; i < NUM_FILE_TYPES; i++) {
+            byType.add(new ArrayList<FileDescriptor>());
+        }
+        this.byId = new HashMap<Integer, FileDescriptor>();
+        this.byPath = new HashMap<String, List<FileDescriptor>>();
+        this.versions = new long[NUM_FILE_TYPES];
+        this.changes = new ArrayList<ArrayDeque<Change>>(NUM_FILE_TYPES);
+        for (int i = 0; i < NUM_FILE_TYPES; i++) {
+            changes.add(new ArrayDeque<Change>());
+        }
+        this.oldestVersions = new long[NUM_FILE_TYPES];
+    }
+
+    /**
+     * @return the version of the last change of the type, -1 for invalid types
+     */
+    public synchronized long getVersion(byte fileType) {
+        ensureLoaded();
+
+        return isValidType(fileType) ? versions[fileType] : -1;
+    }
+
+    /**
+     * Same as {@link #getFiles(byte, int, int)}, along with the version of the type.
+     */
+    public synchronized SharedFiles getSharedFiles(byte fileType, int offset, int pageSize) {
+        ensureLoaded();
+
+        if (!isValidType(fileType)) {
+            return new SharedFiles(-1, 0, new ArrayList<FileDescriptor>(), null);
+        }
+
+        return new SharedFiles(versions[fileType], byType.get(fileType).size(), getFiles(fileType, offset, pageSize), null);
+    }
+
+    /**
+     * @return the files added and the ids removed after the version, or null if the
+     *         version is unknown or too old to be answered from the log
+     */
+    public synchronized SharedFiles getChanges(byte fileType, long since) {
+        ensureLoaded();
+
+        if (!isValidType(fileType) || since < oldestVersions[fileType] || since > versions[fileType]) {
+            return null;
+        }
+
+        Map<Integer, FileDescriptor> added = new LinkedHashMap<Integer, FileDescriptor>();
+        Set<Integer> removed = new LinkedHashSet<Integer>();
+
+        for (Change change : changes.get(fileType)) {
+            if (change.version <= since) {
+                continue;
+            }
+
+            if (change.fd != null) {
+                added.put(change.fd.id, change.fd);
+            } else if (added.remove(change.id) == null) {
+                // only the files the peer could have seen
+                removed.add(change.id);
+            }
+        }
+
+        List<FileDescriptor> files = new ArrayList<FileDescriptor>(added.size());
+        for (FileDescriptor fd : added.values()) {
+            files.add(fd.clone());
+        }
+
+        return new SharedFiles(versions[fileType], byType.get(fileType).size(), files, new ArrayList<Integer>(removed));
+    }
+
+    public synchronized int getCount(byte fileType) {
+        ensureLoaded();
+
+        return isValidType(fileType) ? byType.get(fileType).size() : 0;
+    }
+
+    /**
+     * @return copies of the descriptors in the range, newest first
+     */
+    public synchronized List<FileDescriptor> getFiles(byte fileType, int offset, int pageSize) {
+        ensureLoaded();
+
+        List<FileDescriptor> result = new ArrayList<FileDescriptor>();
+
+        if (isValidType(fileType) && offset >= 0) {
+            List<FileDescriptor> list = byType.get(fileType);
+            int end = (int) Math.min((long) offset + pageSize, list.size());
+            for (int i = offset; i < end; i++) {
+                result.add(list.get(i).clone());
+            }
+        }
+
+        return result;
+    }
+
+    public synchronized FileDescriptor getFile(byte fileType, int id) {
+        ensureLoaded();
+
+        FileDescriptor fd = byId.get(id);
+
+        return fd != null && fd.fileType == fileType ? fd.clone() : null;
+    }
+
+    public synchronized boolean contains(String filePath) {
+        ensureLoaded();
+
+        return byPath.containsKey(key(filePath));
+    }
+
+    /**
+     * Replaces the entries of the path with the shared rows currently in the database.
+     */
+    public synchronized void reload(String filePath) {
+        if (!loaded) {
+            return;
+        }
+
+        removeInternal(filePath);
+
+        Cursor c = null;
+
+        try {
+            String where = Columns.FILE_PATH + " = ? AND " + Columns.SHARED + " = ?";
+            String[] whereArgs = new String[] { filePath, String.valueOf(true) };
+
+            c = ShareFilesDB.intance().query(COLUMNS, where, whereArgs, null);
+
+            List<FileDescriptor> fds = new ArrayList<FileDescriptor>();
+            while (c.moveToNext()) {
+                fds.add(cursorToFileDescriptor(c));
+            }
+
+            // rows come newest first, insert them at the front keeping that order
+            for (int i = fds.size() - 1; i >= 0; i--) {
+                addInternal(fds.get(i), true);
+            }
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+    }
+
+    public synchronized void remove(String filePath) {
+        if (loaded) {
+            removeInternal(filePath);
+        }
+    }
+
+    public synchronized void removeFolder(String folderPath) {
+        if (!loaded) {
+            return;
+        }
+
+        String prefix = key(folderPath);
+
+        Iterator<Map.Entry<String, List<FileDescriptor>>> it = byPath.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, List<FileDescriptor>> e = it.next();
+            if (e.getKey().startsWith(prefix)) {
+                it.remove();
+                removeAll(e.getValue());
+            }
+        }
+    }
+
+    /**
+     * @return the next paths to check for existence, wrapping around at the end of the index
+     */
+    public synchronized List<String> nextValidationBatch(int size) {
+        ensureLoaded();
+
+        int total = 0;
+        for (List<FileDescriptor> list : byType) {
+            total += list.size();
+        }
+
+        size = Math.min(size, total);
+
+        List<String> batch = new ArrayList<String>(size);
+
+        while (batch.size() < size) {
+            List<FileDescriptor> list = byType.get(validationType);
+
+            if (validationIndex < list.size()) {
+                batch.add(list.get(validationIndex++).filePath);
+            } else {
+                validationType = (validationType + 1) % NUM_FILE_TYPES;
+                validationIndex = 0;
+            }
+        }
+
+        return batch;
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+
+        Cursor c = null;
+
+        try {
+            String where = Columns.SHARED + " = ?";
+            String[] whereArgs = new String[] { String.valueOf(true) };
+
+            c = ShareFilesDB.intance().query(COLUMNS, where, whereArgs, null);
+
+            while (c.moveToNext()) {
+                addInternal(cursorToFileDescriptor(c), false);
+            }
+
+            version = System.currentTimeMillis() * 1000;
+            for (int i = 0; i < NUM_FILE_TYPES; i++) {
+                versions[i] = version;
+                oldestVersions[i] = version;
+            }
+
+            loaded = true;
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+            if (!loaded) {
+                // start from scratch on the next try
+                for (List<FileDescriptor> list : byType) {
+                    list.clear();
+                }
+                byId.clear();
+                byPath.clear();
+            }
+        }
+    }
+
+    private void addInternal(FileDescriptor fd, boolean first) {
+        if (!isValidType(fd.fileType) || fd.filePath == null) {
+            return;
+        }
+
+        List<FileDescriptor> list = byType.get(fd.fileType);
+        if (first) {
+            list.add(0, fd);
+            if (fd.fileType == validationType) {
+                validationIndex++;
+            }
+        } else {
+            list.add(fd);
+        }
+        byId.put(fd.id, fd);
+
+        String k = key(fd.filePath);
+        List<FileDescriptor> fds = byPath.get(k);
+        if (fds == null) {
+            fds = new ArrayList<FileDescriptor>(1);
+            byPath.put(k, fds);
+        }
+        fds.add(fd);
+
+        if (loaded) {
+            logChange(fd, true);
+        }
+    }
+
+    private void removeInternal(String filePath) {
+        List<FileDescriptor> fds = byPath.remove(key(filePath));
+
+        if (fds != null) {
+            removeAll(fds);
+        }
+    }
+
+    /**
+     * Removes the descriptors, already taken out of the path index, from the type lists.
+     */
+    private void removeAll(List<FileDescriptor> fds) {
+        for (FileDescriptor fd : fds) {
+            List<FileDescriptor> list = byType.get(fd.fileType);
+            // reference comparison, the reloaded entries are usually at the front
+            for (int i = 0; i < list.size(); i++) {
+                if (list.get(i) == fd) {
+                    removeAt(fd.fileType, i);
+                    break;
+                }
+            }
+        }
+    }
+
+    private void removeAt(int fileType, int index) {
+        FileDescriptor fd = byType.get(fileType).remove(index);
+        byId.remove(fd.id);
+
+        if (fileType == validationType && index < validationIndex) {
+            validationIndex--;
+        }
+
+        logChange(fd, false);
+    }
+
+    private void logChange(FileDescriptor fd, boolean added) {
+        version++;
+        versions[fd.fileType] = version;
+
+        ArrayDeque<Change> log = changes.get(fd.fileType);
+        log.addLast(new Change(version, fd.id, added ? fd : null));
+
+        if (log.size() > MAX_LOGGED_CHANGES) {
+            oldestVersions[fd.fileType] = log.removeFirst().version;
+        }
+    }
+
+    private static boolean isValidType(byte fileType) {
+        return fileType >= 0 && fileType < NUM_FILE_TYPES;
+    }
+
+    private static String key(String filePath) {
+        return filePath.toLowerCase(Locale.US);
+    }
+
+    /**
+     * Used to check a single file before handing it out, the index itself is validated in
+     * the background.
+     */
+    static boolean exists(FileDescriptor fd) {
+        return fd != null && new File(fd.filePath).exists();
+    }
+
+    private static final class Change {
+
+        public final long version;
+        public final int id;
+        public final FileDescriptor fd;
+
+        public Change(long version, int id, FileDescriptor fd) {
+            this.version = version;
+            this.id = id;
+            this.fd = fd;
+        }
+    }
+
+    static FileDescriptor cursorToFileDescriptor(Cursor c) {
+        FileDescriptor fd = new FileDescriptor();
+
+        int col = -1;
+
+        col = c.getColumnIndex(Columns.ID);
+        if (col != -1) {
+            fd.id = c.getInt(col);
+        }
+
+        col = c.getColumnIndex(Columns.FILE_TYPE);
+        if (col != -1) {
+            fd.fileType = c.getByte(col);
+        }
+
+        col = c.getColumnIndex(Columns.FILE_PATH);
+        if (col != -1) {
+            fd.filePath = c.getString(col);
+        }
+
+        col = c.getColumnIndex(Columns.FILE_SIZE);
+        if (col != -1) {
+            fd.fileSize = c.getLong(col);
+        }
+
+        col = c.getColumnIndex(Columns.MIME);
+        if (col != -1) {
+            fd.mime = c.getString(col);
+        }
+
+        col = c.getColumnIndex(Columns.DATE_ADDED);
+        if (col != -1) {
+            fd.dateAdded = c.getLong(col);
+        }
+
+        col = c.getColumnIndex(Columns.DATE_MODIFIED);
+        if (col != -1) {
+            fd.dateModified = c.getLong(col);
+        }
+
+        col = c.getColumnIndex(Columns.SHARED);
+        if (col != -1) {
+            fd.shared = c.getBoolean(col);
+        }
+
+        col = c.getColumnIndex(Columns.TITLE);
+        if (col != -1) {
+            fd.title = c.getString(col);
+        }
+
+        col = c.getColumnIndex(Columns.ARTIST);
+        if (col != -1) {
+            fd.artist = c.getString(col);
+        }
+
+        col = c.getColumnIndex(Columns.ALBUM);
+        if (col != -1) {
+            fd.album = c.getString(col);
+        }
+
+        col = c.getColumnIndex(Columns.YEAR);
+        if (col != -1) {
+            fd.year = c.getString(col);
+        }
+
+        return fd;
+    }
+}
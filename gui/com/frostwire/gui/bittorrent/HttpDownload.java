@@ -38,6 +38,7 @@ import com.frostwire.util.HttpClient;
 import com.frostwire.util.HttpClient.HttpClientListener;
 import com.frostwire.util.HttpClient.RangeNotSupportedException;
 import com.frostwire.util.HttpClientFactory;
+import com.frostwire.util.SegmentedHttpClient;
 import com.limegroup.gnutella.gui.I18n;
 import com.limegroup.gnutella.settings.SharingSettings;
 
@@ -51,6 +52,8 @@ public class HttpDownload implements BTDownload {
     /** TODO: Make this configurable */
     private static final Executor HTTP_THREAD_POOL = Executors.newFixedThreadPool(6);
 
+    private static final int MAX_CONNECTIONS_PER_DOWNLOAD = 4;
+
     private static final String STATE_DOWNLOADING = I18n.tr("Downloading");
     private static final String STATE_ERROR = I18n.tr("Error");
     private static final String STATE_ERROR_MD5 = I18n.tr("Error - corrupted file");
@@ -93,6 +96,7 @@ public class HttpDownload implements BTDownload {
     private int md5CheckingProgress;
 
     private boolean isResumable;
+    private volatile boolean resuming;
 
     public HttpDownload(String theURL, String theTitle, String saveFileAs, long fileSize, String md5hash, boolean shouldResume, boolean deleteFileWhenTransferCancelled) {
         url = theURL;
@@ -111,7 +115,7 @@ public class HttpDownload implements BTDownload {
 
         httpClientListener = new HttpDownloadListenerImpl();
 
-        httpClient = HttpClientFactory.newInstance();
+        httpClient = HttpClientFactory.newSegmentedInstance(HTTP_THREAD_POOL, MAX_CONNECTIONS_PER_DOWNLOAD);
         httpClient.setListener(httpClientListener);
 
         isResumable = shouldResume;
@@ -297,6 +301,8 @@ public class HttpDownload implements BTDownload {
 
     private void start(final boolean resume) {
         state = STATE_WAITING;
+        resuming = resume;
+        httpClient.reset();
 
         saveFile = completeFile;
 
@@ -315,12 +321,6 @@ public class HttpDownload implements BTDownload {
                         return;
                     }
 
-                    if (resume) {
-                        if (incompleteFile.exists()) {
-                            bytesReceived = incompleteFile.length();
-                        }
-                    }
-
                     httpClient.save(url, incompleteFile, resume);
                 } catch (IOException e) {
                     e.printStackTrace();
@@ -341,6 +341,7 @@ public class HttpDownload implements BTDownload {
 
     private void cleanupIncomplete() {
         cleanupFile(incompleteFile);
+        SegmentedHttpClient.deleteState(incompleteFile);
     }
 
     private void cleanupComplete() {
@@ -470,6 +471,9 @@ public class HttpDownload implements BTDownload {
 
         @Override
         public void onHeaders(HttpClient httpClient, Map<String, List<String>> headerFields) {
+            // the client may have discarded a partial file it could not resume
+            bytesReceived = resuming ? SegmentedHttpClient.getSavedBytes(incompleteFile) : 0;
+
             if (headerFields.containsKey("Accept-Ranges")) {
                 isResumable = headerFields.get("Accept-Ranges").contains("bytes");
             } else if (headerFields.containsKey("Content-Range")) {
@@ -488,6 +492,13 @@ public class HttpDownload implements BTDownload {
                             size = Long.valueOf(headerFields.get("Content-Length").get(0));
                         } catch (Exception e) {}
                     }
+                } else if (responseCodeStr.contains(String.valueOf(HttpURLConnection.HTTP_PARTIAL))) {
+                    if (headerFields.containsKey("Content-Range")) {
+                        try {
+                            String contentRange = headerFields.get("Content-Range").get(0);
+                            size = Long.valueOf(contentRange.substring(contentRange.lastIndexOf('/') + 1).trim());
+                        } catch (Exception e) {}
+                    }
                 } 
             } 
         }
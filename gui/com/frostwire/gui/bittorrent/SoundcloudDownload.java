@@ -280,6 +280,7 @@ public class SoundcloudDownload implements BTDownload {
 
     private void start(final File temp) {
         state = STATE_WAITING;
+        httpClient.reset();
 
         SOUNDCLOUD_THREAD_POOL.execute(new Runnable() {
             @Override
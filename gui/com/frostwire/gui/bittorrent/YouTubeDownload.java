@@ -70,6 +70,7 @@ public class YouTubeDownload implements BTDownload {
     private final File tempAudio;
 
     private final HttpClient httpClient;
+    private final HttpClient audioHttpClient; // only for DASH, the audio is fetched at the same time
     private final HttpClientListener httpClientListener;
     private final Date dateCreated;
 
@@ -82,6 +83,12 @@ public class YouTubeDownload implements BTDownload {
     private long speedMarkTimestamp;
     private long totalReceivedSinceLastSpeedStamp;
 
+    private boolean videoComplete;
+    private boolean audioComplete;
+
+    // sticky until the next start, the clients could still be queued in the pool when canceled
+    private volatile boolean canceled;
+
     public YouTubeDownload(YouTubeCrawledSearchResult sr) {
         this.sr = sr;
         this.downloadType = buildDownloadType(sr);
@@ -101,6 +108,13 @@ public class YouTubeDownload implements BTDownload {
         httpClient = HttpClientFactory.newInstance();
         httpClient.setListener(httpClientListener);
 
+        if (downloadType == DownloadType.DASH) {
+            audioHttpClient = HttpClientFactory.newInstance();
+            audioHttpClient.setListener(httpClientListener);
+        } else {
+            audioHttpClient = null;
+        }
+
         start();
     }
 
@@ -163,7 +177,7 @@ public class YouTubeDownload implements BTDownload {
     public void remove() {
         if (state != STATE_FINISHED) {
             state = STATE_CANCELING;
-            httpClient.cancel();
+            cancelHttpClients();
         }
     }
 
@@ -175,7 +189,15 @@ public class YouTubeDownload implements BTDownload {
     @Override
     public void pause() {
         state = STATE_CANCELING;
+        cancelHttpClients();
+    }
+
+    private void cancelHttpClients() {
+        canceled = true;
         httpClient.cancel();
+        if (audioHttpClient != null) {
+            audioHttpClient.cancel();
+        }
     }
 
     @Override
@@ -299,29 +321,58 @@ public class YouTubeDownload implements BTDownload {
     }
 
     private void start() {
+        state = STATE_WAITING;
+        canceled = false;
+        httpClient.reset();
+        if (audioHttpClient != null) {
+            audioHttpClient.reset();
+        }
+
+        synchronized (this) {
+            videoComplete = false;
+            audioComplete = false;
+        }
+
         if (downloadType == DownloadType.DEMUX) {
-            start(sr.getAudio(), tempAudio);
+            start(sr.getAudio(), tempAudio, httpClient);
+        } else if (downloadType == DownloadType.DASH) {
+            start(sr.getVideo(), tempVideo, httpClient);
+            start(sr.getAudio(), tempAudio, audioHttpClient);
         } else {
-            start(sr.getVideo(), tempVideo);
+            start(sr.getVideo(), tempVideo, httpClient);
         }
     }
 
-    private void start(final LinkInfo inf, final File temp) {
-        state = STATE_WAITING;
-
+    private void start(final LinkInfo inf, final File temp, final HttpClient client) {
         YOUTUBE_THREAD_POOL.execute(new Runnable() {
             @Override
             public void run() {
+                if (canceled) {
+                    httpClientListener.onCancel(client);
+                    return;
+                }
                 try {
-                    httpClient.save(inf.link, temp, false);
+                    client.save(inf.link, temp, false);
                 } catch (IOException e) {
                     e.printStackTrace();
-                    httpClientListener.onError(httpClient, e);
+                    httpClientListener.onError(client, e);
                 }
             }
         });
     }
 
+    /**
+     * Records the completion of one of the DASH streams, returns true when both are done.
+     */
+    private synchronized boolean dashStreamComplete(HttpClient client) {
+        if (client == audioHttpClient) {
+            audioComplete = true;
+        } else {
+            videoComplete = true;
+        }
+        return videoComplete && audioComplete;
+    }
+
     private void cleanupFile(File f) {
         if (f.exists()) {
             boolean delete = f.delete();
@@ -392,14 +443,18 @@ public class YouTubeDownload implements BTDownload {
         @Override
         public void onError(HttpClient client, Exception e) {
             state = STATE_ERROR;
+            // the other stream is useless now
+            cancelHttpClients();
             cleanup();
         }
 
         @Override
         public void onData(HttpClient client, byte[] buffer, int offset, int length) {
-            if (!state.equals(STATE_PAUSING) && !state.equals(STATE_CANCELING)) {
-                bytesReceived += length;
-                updateAverageDownloadSpeed();
+            if (!state.equals(STATE_PAUSING) && !state.equals(STATE_CANCELING) && !state.equals(STATE_ERROR)) {
+                synchronized (YouTubeDownload.this) {
+                    bytesReceived += length;
+                    updateAverageDownloadSpeed();
+                }
                 state = STATE_DOWNLOADING;
             }
         }
@@ -431,9 +486,12 @@ public class YouTubeDownload implements BTDownload {
                     cleanupIncomplete();
                 }
             } else if (downloadType == DownloadType.DASH) {
-                if (tempVideo.exists() && !tempAudio.exists()) {
-                    start(sr.getAudio(), tempAudio);
-                } else if (tempVideo.exists() && tempAudio.exists()) {
+                // the streams are fetched at the same time, mux when both are done
+                if (!dashStreamComplete(client)) {
+                    return;
+                }
+
+                if (tempVideo.exists() && tempAudio.exists()) {
                     try {
                         new MP4Muxer().mux(tempVideo.getAbsolutePath(), tempAudio.getAbsolutePath(), completeFile.getAbsolutePath(), buildMetadata());
 
@@ -461,6 +519,9 @@ public class YouTubeDownload implements BTDownload {
 
         @Override
         public void onCancel(HttpClient client) {
+            if (state.equals(STATE_ERROR)) {
+                return;
+            }
             if (state.equals(STATE_CANCELING)) {
                 cleanup();
                 state = STATE_CANCELED;
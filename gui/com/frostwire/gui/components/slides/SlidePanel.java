@@ -109,6 +109,9 @@ class SlidePanel extends JPanel {
         try {
             ImageCache.instance().getImage(new URL(controller.getSlide().imageSrc), new OnLoadedListener() {
                 public void onLoaded(URL url, final BufferedImage image, boolean fromCache, boolean fail) {
+                    if (image == null) {
+                        return;
+                    }
                     GUIMediator.safeInvokeLater(new Runnable() {
 
                         @Override
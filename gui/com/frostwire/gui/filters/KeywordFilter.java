@@ -28,6 +28,9 @@ import com.limegroup.gnutella.gui.search.UISearchResult;
  * A spam filter that removes certain "bad" keywords. 
  * If <i>any</i> words in a query are in the banned set, the
  * query is disallowed.
+ * <p>
+ * The banned phrases are compiled into a {@link KeywordMatcher} on the first
+ * match after they change, so a name is checked against all of them at once.
  * 
  * @author gubatron
  * @author aldenml
@@ -38,6 +41,22 @@ public class KeywordFilter implements SearchFilter {
     /** INVARIANT: strings in ban contain only lowercase */
     private List<String> ban = new ArrayList<String>();
 
+    private final boolean wholeWords;
+
+    /** compiled ban, null when it needs to be rebuilt */
+    private volatile KeywordMatcher matcher;
+
+    public KeywordFilter() {
+        this(false);
+    }
+
+    /**
+     * @param wholeWords if true, a phrase only matches whole words of the names
+     */
+    public KeywordFilter(boolean wholeWords) {
+        this.wholeWords = wholeWords;
+    }
+
     /** 
      * @modifies this
      * @effects bans the given phrase.  Capitalization does not matter.
@@ -46,6 +65,7 @@ public class KeywordFilter implements SearchFilter {
         String canonical = phrase.toLowerCase(Locale.US);
         if (!ban.contains(canonical)) {
             ban.add(canonical);
+            matcher = null;
         }
     }
 
@@ -122,12 +142,11 @@ public class KeywordFilter implements SearchFilter {
      * Returns true if phrase matches any of the entries in ban.
      */
     protected boolean matches(String phrase) {
-        String canonical = phrase.toLowerCase(Locale.US);
-        for (int i = 0; i < ban.size(); i++) {
-            String badWord = ban.get(i);
-            if (canonical.indexOf(badWord) != -1)
-                return true;
+        KeywordMatcher m = matcher;
+        if (m == null) {
+            m = new KeywordMatcher(ban, wholeWords);
+            matcher = m;
         }
-        return false;
+        return m.matchesAny(phrase);
     }
 }
@@ -0,0 +1,273 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.gui.filters;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds several keywords in a text in a single pass, with an Aho-Corasick automaton,
+ * so the cost depends on the length of the text and not on the number of keywords.
+ * <p>
+ * The comparison ignores case. In whole words mode, a keyword only matches when it's
+ * not preceded or followed by a letter or digit.
+ * <p>
+ * Instances are immutable and can be shared by several threads, build a new one when
+ * the keywords change.
+ * 
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class KeywordMatcher {
+
+    private static final int ROOT = 0;
+
+    private final boolean wholeWords;
+
+    /** number of distinct non empty keywords */
+    private final int numKeywords;
+
+    /** true if an empty keyword was given, it's in every text */
+    private final boolean hasEmpty;
+
+    // the goto function, the transitions of a state sorted by char
+    private final char[][] chars;
+    private final int[][] targets;
+
+    private final int[] fail;
+
+    /** keyword ending in the state, -1 if none */
+    private final int[] keyword;
+
+    /** nearest state in the fail chain where a keyword ends, -1 if none */
+    private final int[] output;
+
+    private final int[] lengths;
+
+    public KeywordMatcher(Collection<String> keywords, boolean wholeWords) {
+        this.wholeWords = wholeWords;
+
+        List<Map<Character, Integer>> trie = new ArrayList<Map<Character, Integer>>();
+        List<Integer> keywordOf = new ArrayList<Integer>();
+        List<Integer> keywordLengths = new ArrayList<Integer>();
+
+        trie.add(new HashMap<Character, Integer>());
+        keywordOf.add(-1);
+
+        boolean empty = false;
+
+        for (String k : keywords) {
+            if (k.length() == 0) {
+                empty = true;
+                continue;
+            }
+
+            int state = ROOT;
+            for (int i = 0; i < k.length(); i++) {
+                Character c = Character.toLowerCase(k.charAt(i));
+                Integer next = trie.get(state).get(c);
+                if (next == null) {
+                    next = trie.size();
+                    trie.add(new HashMap<Character, Integer>());
+                    keywordOf.add(-1);
+                    trie.get(state).put(c, next);
+                }
+                state = next;
+            }
+
+            if (keywordOf.get(state) == -1) {
+                keywordOf.set(state, keywordLengths.size());
+                keywordLengths.add(k.length());
+            }
+        }
+
+        int numStates = trie.size();
+
+        this.hasEmpty = empty;
+        this.numKeywords = keywordLengths.size();
+        this.chars = new char[numStates][];
+        this.targets = new int[numStates][];
+        this.fail = new int[numStates];
+        this.keyword = new int[numStates];
+        this.output = new int[numStates];
+        this.lengths = new int[numKeywords];
+
+        for (int i = 0; i < numKeywords; i++) {
+            lengths[i] = keywordLengths.get(i);
+        }
+
+        for (int s = 0; s < numStates; s++) {
+            Map<Character, Integer> transitions = trie.get(s);
+
+            char[] cs = new char[transitions.size()];
+            int n = 0;
+            for (Character c : transitions.keySet()) {
+                cs[n++] = c;
+            }
+            Arrays.sort(cs);
+
+            int[] ts = new int[cs.length];
+            for (int i = 0; i < cs.length; i++) {
+                ts[i] = transitions.get(cs[i]);
+            }
+
+            chars[s] = cs;
+            targets[s] = ts;
+            keyword[s] = keywordOf.get(s);
+        }
+
+        // breadth first, so the fail state of a state is always computed before
+        int[] queue = new int[numStates];
+        int head = 0;
+        int tail = 0;
+
+        fail[ROOT] = ROOT;
+        output[ROOT] = -1;
+        for (int t : targets[ROOT]) {
+            fail[t] = ROOT;
+            output[t] = -1;
+            queue[tail++] = t;
+        }
+
+        while (head < tail) {
+            int s = queue[head++];
+
+            for (int i = 0; i < chars[s].length; i++) {
+                char c = chars[s][i];
+                int t = targets[s][i];
+
+                int f = fail[s];
+                while (f != ROOT && next(f, c) == -1) {
+                    f = fail[f];
+                }
+                int nf = next(f, c);
+                fail[t] = nf != -1 ? nf : ROOT;
+
+                output[t] = keyword[fail[t]] != -1 ? fail[t] : output[fail[t]];
+
+                queue[tail++] = t;
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return numKeywords == 0 && !hasEmpty;
+    }
+
+    /**
+     * Returns true if any of the keywords is in the text.
+     */
+    public boolean matchesAny(CharSequence text) {
+        if (hasEmpty) {
+            return true;
+        }
+
+        if (numKeywords == 0) {
+            return false;
+        }
+
+        int length = text.length();
+        int state = ROOT;
+
+        for (int i = 0; i < length; i++) {
+            state = step(state, Character.toLowerCase(text.charAt(i)));
+
+            for (int s = keyword[state] != -1 ? state : output[state]; s != -1; s = output[s]) {
+                if (!wholeWords || isWord(text, i, lengths[keyword[s]])) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns true if all the keywords are in the text.
+     */
+    public boolean matchesAll(CharSequence text) {
+        if (numKeywords == 0) {
+            return true;
+        }
+
+        boolean[] found = new boolean[numKeywords];
+        int missing = numKeywords;
+
+        int length = text.length();
+        int state = ROOT;
+
+        for (int i = 0; i < length; i++) {
+            state = step(state, Character.toLowerCase(text.charAt(i)));
+
+            for (int s = keyword[state] != -1 ? state : output[state]; s != -1; s = output[s]) {
+                int k = keyword[s];
+                if (!found[k] && (!wholeWords || isWord(text, i, lengths[k]))) {
+                    found[k] = true;
+                    if (--missing == 0) {
+                        return true;
+                    }
+                }
+            }
+        }
+
+        return false;
+    }
+
+    private int step(int state, char c) {
+        while (true) {
+            int t = next(state, c);
+            if (t != -1) {
+                return t;
+            }
+            if (state == ROOT) {
+                return ROOT;
+            }
+            state = fail[state];
+        }
+    }
+
+    private int next(int state, char c) {
+        int i = Arrays.binarySearch(chars[state], c);
+        return i >= 0 ? targets[state][i] : -1;
+    }
+
+    /**
+     * @param end index of the last char of the match
+     */
+    private static boolean isWord(CharSequence text, int end, int length) {
+        int start = end - length + 1;
+        if (start > 0 && Character.isLetterOrDigit(text.charAt(start - 1))) {
+            return false;
+        }
+        if (end + 1 < text.length() && Character.isLetterOrDigit(text.charAt(end + 1))) {
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "KeywordMatcher(keywords=" + numKeywords + ", states=" + chars.length + ", wholeWords=" + wholeWords + ")";
+    }
+}
@@ -18,6 +18,7 @@
 
 package com.frostwire.gui.filters;
 
+import java.util.Arrays;
 import java.util.Vector;
 
 import com.limegroup.gnutella.settings.FilterSettings;
@@ -30,28 +31,61 @@ import com.limegroup.gnutella.settings.FilterSettings;
  */
 public class SearchFilterFactoryImpl implements SearchFilterFactory {
 
+    // the last filter created, the filters don't keep state and can be shared
+    private String[] lastBadWords;
+    private boolean lastFilterAdult;
+    private boolean lastWholeWords;
+    private SearchFilter lastFilter;
+
     public SearchFilterFactoryImpl() {
     }
 
-    public SearchFilter createFilter() {
-
-        Vector<SearchFilter> buf = new Vector<SearchFilter>();
+    /**
+     * Builds the filter only when the settings change, otherwise returns the same one.
+     */
+    public synchronized SearchFilter createFilter() {
 
         String[] badWords = FilterSettings.BANNED_WORDS.getValue();
 
         boolean filterAdult = FilterSettings.FILTER_ADULT.getValue();
 
-        if (badWords.length != 0 || filterAdult) {
-            KeywordFilter kf = new KeywordFilter();
+        boolean wholeWords = FilterSettings.BANNED_WORDS_WHOLE_WORDS.getValue();
+
+        if (lastFilter != null && Arrays.equals(badWords, lastBadWords) && filterAdult == lastFilterAdult && wholeWords == lastWholeWords) {
+            return lastFilter;
+        }
+
+        Vector<SearchFilter> buf = new Vector<SearchFilter>();
+
+        KeywordFilter words = null;
+
+        if (badWords.length != 0) {
+            words = new KeywordFilter(wholeWords);
             for (int i = 0; i < badWords.length; i++)
-                kf.disallow(badWords[i]);
-            if (filterAdult)
-                kf.disallowAdult();
+                words.disallow(badWords[i]);
 
-            buf.add(kf);
+            buf.add(words);
         }
 
-        return compose(buf);
+        if (filterAdult) {
+            if (words != null && !wholeWords) {
+                // same kind of match, a single pass for all of them
+                words.disallowAdult();
+            } else {
+                // the adult words are stems, they must match anywhere
+                KeywordFilter adult = new KeywordFilter();
+                adult.disallowAdult();
+
+                buf.add(adult);
+            }
+        }
+
+        lastBadWords = badWords.clone();
+        lastFilterAdult = filterAdult;
+        lastWholeWords = wholeWords;
+        lastFilter = compose(buf);
+
+        return lastFilter;
     }
 
     /**
@@ -0,0 +1,160 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.gui.filters.tests;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import com.frostwire.gui.filters.KeywordMatcher;
+
+/**
+ * Checks {@link KeywordMatcher} against a plain search of each keyword with
+ * <code>indexOf</code>.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public class KeywordMatcherTest {
+
+    public static void testSimpleCases() {
+        KeywordMatcher m = new KeywordMatcher(Arrays.asList("he", "she", "his", "hers"), false);
+        check(m.matchesAny("ushers"), "any in 'ushers'");
+        check(!m.matchesAll("ushers"), "all in 'ushers'");
+        check(m.matchesAll("ushers his"), "all in 'ushers his'");
+        check(!m.matchesAny("xyz"), "any in 'xyz'");
+
+        check(new KeywordMatcher(Arrays.asList("Live"), false).matchesAny("ALIVE.mp3"), "case ignored");
+
+        KeywordMatcher words = new KeywordMatcher(Arrays.asList("live"), true);
+        check(!words.matchesAny("alive.mp3"), "whole word inside a word");
+        check(words.matchesAny("song (live).mp3"), "whole word between symbols");
+        check(words.matchesAny("live"), "whole word is the text");
+
+        // a keyword that is part of another one, found through the fail links
+        KeywordMatcher nested = new KeywordMatcher(Arrays.asList("abcd", "bc"), true);
+        check(nested.matchesAny("x bc y"), "nested keyword as a word");
+        check(!nested.matchesAny("abcx"), "nested keyword inside a word");
+    }
+
+    public static void testEmptyKeywords() {
+        KeywordMatcher none = new KeywordMatcher(Collections.<String> emptyList(), false);
+        check(none.isEmpty(), "no keywords is empty");
+        check(!none.matchesAny("text"), "any of no keywords");
+        check(none.matchesAll("text"), "all of no keywords");
+
+        KeywordMatcher empty = new KeywordMatcher(Arrays.asList(""), false);
+        check(!empty.isEmpty(), "empty keyword is not empty");
+        check(empty.matchesAny(""), "empty keyword in empty text");
+        check(empty.matchesAll("text"), "all with empty keyword");
+
+        KeywordMatcher duplicates = new KeywordMatcher(Arrays.asList("ab", "AB", "ab"), false);
+        check(duplicates.matchesAll("xaby"), "duplicate keywords");
+    }
+
+    public static void testRandom() {
+        Random random = new Random(7);
+        String alphabet = "abcAB .1";
+
+        for (int round = 0; round < 20000; round++) {
+            List<String> keywords = new ArrayList<String>();
+            int n = random.nextInt(5);
+            for (int i = 0; i < n; i++) {
+                keywords.add(randomString(random, alphabet, 1 + random.nextInt(3)));
+            }
+            String text = randomString(random, alphabet, random.nextInt(12));
+
+            for (boolean wholeWords : new boolean[] { false, true }) {
+                KeywordMatcher m = new KeywordMatcher(keywords, wholeWords);
+
+                String description = keywords + " in '" + text + "', whole words: " + wholeWords;
+                check(m.matchesAny(text) == naiveAny(keywords, text, wholeWords), "any of " + description);
+                check(m.matchesAll(text) == naiveAll(keywords, text, wholeWords), "all of " + description);
+            }
+        }
+    }
+
+    private static boolean naiveAny(List<String> keywords, String text, boolean wholeWords) {
+        for (String k : keywords) {
+            if (naiveContains(text, k, wholeWords)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean naiveAll(List<String> keywords, String text, boolean wholeWords) {
+        for (String k : keywords) {
+            if (!naiveContains(text, k, wholeWords)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean naiveContains(String text, String keyword, boolean wholeWords) {
+        if (keyword.length() == 0) {
+            return true;
+        }
+
+        String t = lowerCase(text);
+        String k = lowerCase(keyword);
+
+        for (int i = t.indexOf(k); i != -1; i = t.indexOf(k, i + 1)) {
+            int end = i + k.length();
+            if (!wholeWords || ((i == 0 || !Character.isLetterOrDigit(t.charAt(i - 1))) && (end == t.length() || !Character.isLetterOrDigit(t.charAt(end))))) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static String lowerCase(String s) {
+        char[] chars = s.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(chars[i]);
+        }
+        return new String(chars);
+    }
+
+    private static String randomString(Random random, String alphabet, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return sb.toString();
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError("Failed: " + message);
+        }
+    }
+
+    public static void main(String[] args) {
+        testSimpleCases();
+        testEmptyKeywords();
+        testRandom();
+        System.out.println("KeywordMatcherTest OK");
+    }
+}
@@ -18,8 +18,12 @@
 
 package com.frostwire.gui.httpserver;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Logger;
 import java.util.zip.GZIPOutputStream;
 
@@ -28,10 +32,21 @@ import org.apache.http.client.utils.URLEncodedUtils;
 
 import com.frostwire.core.FileDescriptor;
 import com.frostwire.gui.Librarian;
+import com.frostwire.gui.SharedFiles;
 import com.frostwire.util.JsonUtils;
 import com.sun.net.httpserver.HttpExchange;
 
 /**
+ * Lists the shared files of a type as gzipped JSON.
+ * <p>
+ * Besides the whole list, a peer can ask for a page with <code>offset</code> and
+ * <code>limit</code>, or for the changes after a version it already has with
+ * <code>since</code>. The changes come with the ids of the <code>removed</code> files, if
+ * that list is missing the answer is the whole list and must replace the old one.
+ * <p>
+ * The whole list is serialized and compressed once per version of the library, and every
+ * answer has an ETag so unchanged lists cost a 304.
+ * 
  * @author gubatron
  * @author aldenml
  *
@@ -40,22 +55,48 @@ class BrowseHandler extends AbstractHandler {
 
     private static final Logger LOG = Logger.getLogger(BrowseHandler.class.getName());
 
+    private static final int MAX_PAGE_SIZE = 1000;
+
+    private final ConcurrentMap<Byte, Response> snapshots;
+    private final ConcurrentMap<Byte, Object> snapshotLocks;
+
+    public BrowseHandler() {
+        this.snapshots = new ConcurrentHashMap<Byte, Response>();
+        this.snapshotLocks = new ConcurrentHashMap<Byte, Object>();
+    }
+
     @Override
     public void handle(HttpExchange exchange) throws IOException {
         assertUPnPActive();
 
-        GZIPOutputStream os = null;
+        OutputStream os = null;
 
         byte type = -1;
+        int offset = -1;
+        int limit = -1;
+        long since = -1;
 
         try {
 
             List<NameValuePair> query = URLEncodedUtils.parse(exchange.getRequestURI(), "UTF-8");
 
-            for (NameValuePair item : query) {
-                if (item.getName().equals("type")) {
-                    type = Byte.parseByte(item.getValue());
+            try {
+                for (NameValuePair item : query) {
+                    if (item.getName().equals("type")) {
+                        type = Byte.parseByte(item.getValue());
+                    }
+                    if (item.getName().equals("offset")) {
+                        offset = Integer.parseInt(item.getValue());
+                    }
+                    if (item.getName().equals("limit")) {
+                        limit = Integer.parseInt(item.getValue());
+                    }
+                    if (item.getName().equals("since")) {
+                        since = Long.parseLong(item.getValue());
+                    }
                 }
+            } catch (NumberFormatException e) {
+                type = -1;
             }
 
             if (type == -1) {
@@ -63,16 +104,40 @@ class BrowseHandler extends AbstractHandler {
                 return;
             }
 
-            String response = getResponse(exchange, type);
+            boolean paged = offset != -1 || limit != -1;
+            offset = Math.max(offset, 0);
+            limit = limit < 0 ? MAX_PAGE_SIZE : Math.min(limit, MAX_PAGE_SIZE);
+
+            String tag;
+            if (since != -1) {
+                tag = "since" + since;
+            } else if (paged) {
+                tag = offset + "-" + limit;
+            } else {
+                tag = "all";
+            }
+
+            // cheap check before building anything, the version can only grow
+            if (sendNotModified(exchange, etag(type, Librarian.instance().getSharedFilesVersion(type), tag))) {
+                return;
+            }
+
+            Response response;
+            if (since != -1) {
+                response = getChanges(type, since, tag);
+            } else if (paged) {
+                response = getPage(type, offset, limit, tag);
+            } else {
+                response = getSnapshot(type);
+            }
 
             exchange.getResponseHeaders().set("Content-Encoding", "gzip");
             exchange.getResponseHeaders().set("Content-Type", "text/json; charset=UTF-8");
-            exchange.sendResponseHeaders(Code.HTTP_OK, 0);
-
-            os = new GZIPOutputStream(exchange.getResponseBody());
+            exchange.getResponseHeaders().set("ETag", response.etag);
+            exchange.sendResponseHeaders(Code.HTTP_OK, response.data.length);
 
-            os.write(response.getBytes("UTF-8"));
-            os.finish();
+            os = exchange.getResponseBody();
+            os.write(response.data);
 
         } catch (IOException e) {
             LOG.warning("Error browsing files type=" + type);
@@ -85,16 +150,113 @@ class BrowseHandler extends AbstractHandler {
         }
     }
 
-    private String getResponse(HttpExchange exchange, byte fileType) {
-        List<FileDescriptor> fileDescriptors = Librarian.instance().getSharedFiles(fileType);
+    /**
+     * Concurrent requests for the same type wait for a single build of the snapshot.
+     */
+    private Response getSnapshot(byte fileType) throws IOException {
+        Object lock = snapshotLocks.get(fileType);
+        if (lock == null) {
+            Object newLock = new Object();
+            lock = snapshotLocks.putIfAbsent(fileType, newLock);
+            if (lock == null) {
+                lock = newLock;
+            }
+        }
+
+        synchronized (lock) {
+            Response snapshot = snapshots.get(fileType);
+            if (snapshot != null && snapshot.version == Librarian.instance().getSharedFilesVersion(fileType)) {
+                return snapshot;
+            }
+
+            SharedFiles sharedFiles = Librarian.instance().getSharedFilesPage(fileType, 0, Integer.MAX_VALUE);
+            if (sharedFiles == null) {
+                throw new IOException("Unable to get the shared files");
+            }
+
+            snapshot = createResponse(fileType, sharedFiles, "all");
+            snapshots.put(fileType, snapshot);
+
+            return snapshot;
+        }
+    }
+
+    private Response getPage(byte fileType, int offset, int limit, String tag) throws IOException {
+        SharedFiles sharedFiles = Librarian.instance().getSharedFilesPage(fileType, offset, limit);
+        if (sharedFiles == null) {
+            throw new IOException("Unable to get the shared files");
+        }
+
+        return createResponse(fileType, sharedFiles, tag);
+    }
+
+    private Response getChanges(byte fileType, long since, String tag) throws IOException {
+        SharedFiles sharedFiles = Librarian.instance().getSharedFilesChanges(fileType, since);
+        if (sharedFiles == null) {
+            // too old, the peer has to start over
+            return getSnapshot(fileType);
+        }
+
+        return createResponse(fileType, sharedFiles, tag);
+    }
 
+    private Response createResponse(byte fileType, SharedFiles sharedFiles, String tag) throws IOException {
         FileDescriptorList list = new FileDescriptorList();
-        list.files = fileDescriptors;
+        list.files = sharedFiles.files;
+        list.version = sharedFiles.version;
+        list.total = sharedFiles.total;
+        list.removed = sharedFiles.removed;
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        GZIPOutputStream os = new GZIPOutputStream(data);
+        try {
+            os.write(JsonUtils.toJson(list).getBytes("UTF-8"));
+            os.finish();
+        } finally {
+            os.close();
+        }
 
-        return JsonUtils.toJson(list);
+        return new Response(sharedFiles.version, etag(fileType, sharedFiles.version, tag), data.toByteArray());
+    }
+
+    /**
+     * Answers 304 with the ETag, as a 200 would have, if the peer already has the version.
+     *
+     * @return true if the response was sent
+     */
+    static boolean sendNotModified(HttpExchange exchange, String etag) throws IOException {
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        if (ifNoneMatch == null || !ifNoneMatch.contains(etag)) {
+            return false;
+        }
+
+        exchange.getResponseHeaders().set("ETag", etag);
+        exchange.sendResponseHeaders(Code.HTTP_NOT_MODIFIED, -1);
+
+        return true;
+    }
+
+    private static String etag(byte fileType, long version, String tag) {
+        return "\"" + fileType + "-" + version + "-" + tag + "\"";
+    }
+
+    private static final class Response {
+
+        public final long version;
+        public final String etag;
+        public final byte[] data;
+
+        public Response(long version, String etag, byte[] data) {
+            this.version = version;
+            this.etag = etag;
+            this.data = data;
+        }
     }
 
     static final class FileDescriptorList {
         public List<FileDescriptor> files;
+        public long version;
+        public int total;
+        public List<Integer> removed;
     }
 }
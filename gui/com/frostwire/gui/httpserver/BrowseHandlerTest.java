@@ -0,0 +1,178 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.gui.httpserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+
+import junit.framework.TestCase;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+
+/**
+ * Checks the conditional requests of {@link BrowseHandler}. It's in the same package
+ * because the handler is package private.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public class BrowseHandlerTest extends TestCase {
+
+    private static final String ETAG = "\"0-1234-all\"";
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(BrowseHandlerTest.class);
+    }
+
+    public void testNotModified() throws Exception {
+        StubExchange exchange = new StubExchange(ETAG);
+
+        assertTrue(BrowseHandler.sendNotModified(exchange, ETAG));
+        assertEquals(Code.HTTP_NOT_MODIFIED, exchange.code);
+        assertEquals(ETAG, exchange.getResponseHeaders().getFirst("ETag"));
+    }
+
+    public void testNotModifiedAmongOtherTags() throws Exception {
+        StubExchange exchange = new StubExchange("\"0-1000-all\", " + ETAG);
+
+        assertTrue(BrowseHandler.sendNotModified(exchange, ETAG));
+        assertEquals(Code.HTTP_NOT_MODIFIED, exchange.code);
+        assertEquals(ETAG, exchange.getResponseHeaders().getFirst("ETag"));
+    }
+
+    public void testModified() throws Exception {
+        StubExchange exchange = new StubExchange("\"0-1000-all\"");
+
+        assertFalse(BrowseHandler.sendNotModified(exchange, ETAG));
+        assertEquals(-1, exchange.code);
+    }
+
+    public void testUnconditional() throws Exception {
+        StubExchange exchange = new StubExchange(null);
+
+        assertFalse(BrowseHandler.sendNotModified(exchange, ETAG));
+        assertEquals(-1, exchange.code);
+    }
+
+    private static final class StubExchange extends HttpExchange {
+
+        private final Headers requestHeaders;
+        private final Headers responseHeaders;
+
+        int code = -1;
+
+        public StubExchange(String ifNoneMatch) {
+            this.requestHeaders = new Headers();
+            this.responseHeaders = new Headers();
+            if (ifNoneMatch != null) {
+                requestHeaders.set("If-None-Match", ifNoneMatch);
+            }
+        }
+
+        @Override
+        public Headers getRequestHeaders() {
+            return requestHeaders;
+        }
+
+        @Override
+        public Headers getResponseHeaders() {
+            return responseHeaders;
+        }
+
+        @Override
+        public URI getRequestURI() {
+            return URI.create("/browse?type=0");
+        }
+
+        @Override
+        public String getRequestMethod() {
+            return "GET";
+        }
+
+        @Override
+        public HttpContext getHttpContext() {
+            return null;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public InputStream getRequestBody() {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        @Override
+        public OutputStream getResponseBody() {
+            return new ByteArrayOutputStream();
+        }
+
+        @Override
+        public void sendResponseHeaders(int rCode, long responseLength) {
+            code = rCode;
+        }
+
+        @Override
+        public InetSocketAddress getRemoteAddress() {
+            return null;
+        }
+
+        @Override
+        public int getResponseCode() {
+            return code;
+        }
+
+        @Override
+        public InetSocketAddress getLocalAddress() {
+            return null;
+        }
+
+        @Override
+        public String getProtocol() {
+            return "HTTP/1.1";
+        }
+
+        @Override
+        public Object getAttribute(String name) {
+            return null;
+        }
+
+        @Override
+        public void setAttribute(String name, Object value) {
+        }
+
+        @Override
+        public void setStreams(InputStream i, OutputStream o) {
+        }
+
+        @Override
+        public HttpPrincipal getPrincipal() {
+            return null;
+        }
+    }
+}
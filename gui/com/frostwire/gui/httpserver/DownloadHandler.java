@@ -23,20 +23,41 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.http.NameValuePair;
 import org.apache.http.client.utils.URLEncodedUtils;
+import org.limewire.concurrent.ExecutorsHelper;
 
 import com.frostwire.core.FileDescriptor;
 import com.frostwire.gui.Librarian;
 import com.frostwire.gui.bittorrent.BTDownloadMediator;
 import com.frostwire.gui.transfers.PeerHttpUpload;
+import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
 
 /**
+ * Serves the shared files, with support for HEAD, conditional requests and single or
+ * multiple byte ranges, so peers can resume transfers and seek in streams.
+ * <p>
+ * Requests are served from a small pool, when it's full the peer is asked to retry later.
+ * 
  * @author gubatron
  * @author aldenml
  *
@@ -45,20 +66,51 @@ class DownloadHandler extends AbstractHandler {
 
     private static final Logger LOG = Logger.getLogger(DownloadHandler.class.getName());
 
+    private static final int MAX_ACTIVE_UPLOADS = 4;
+    private static final int MAX_QUEUED_UPLOADS = 16;
+
+    /**
+     * Bytes moved in each transfer, between the checks for cancellation.
+     */
+    private static final long TRANSFER_CHUNK_SIZE = 256 * 1024;
+
+    /**
+     * More ranges than this are ignored and the whole file is sent.
+     */
+    private static final int MAX_RANGES = 16;
+
+    private static final String MULTIPART_BOUNDARY = "FROSTWIRE_BYTERANGES_BOUNDARY";
+
+    private final ExecutorService executor;
+
+    public DownloadHandler() {
+        ThreadPoolExecutor tpe = new ThreadPoolExecutor(MAX_ACTIVE_UPLOADS, MAX_ACTIVE_UPLOADS, 5L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(MAX_QUEUED_UPLOADS), ExecutorsHelper.daemonThreadFactory("DownloadHandler"));
+        tpe.allowCoreThreadTimeOut(true);
+        this.executor = tpe;
+    }
+
     @Override
     public void handle(final HttpExchange exchange) throws IOException {
-        new Thread(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    internalHandler(exchange);
-                } catch (IOException e) {
-                    LOG.log(Level.WARNING, "DownloadHandler async handle error", e);
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        internalHandler(exchange);
+                    } catch (IOException e) {
+                        LOG.log(Level.WARNING, "DownloadHandler async handle error", e);
+                    }
                 }
+            });
+        } catch (RejectedExecutionException e) {
+            try {
+                sendBusyResponse(exchange);
+            } finally {
+                exchange.close();
             }
-        }).start();
+        }
     }
-    
+
     public void internalHandler(HttpExchange exchange) throws IOException {
         assertUPnPActive();
 
@@ -88,6 +140,12 @@ class DownloadHandler extends AbstractHandler {
                 return;
             }
 
+            boolean head = "HEAD".equalsIgnoreCase(exchange.getRequestMethod());
+            if (!head && !"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(Code.HTTP_BAD_METHOD, -1);
+                return;
+            }
+
             //if (TransferManager.instance().getActiveUploads() >= ConfigurationManager.instance().maxConcurrentUploads()) {
             //    sendBusyResponse(exchange);
             //    return;
@@ -98,40 +156,97 @@ class DownloadHandler extends AbstractHandler {
                 throw new IOException("There is no such file shared");
             }
 
+            File file = new File(fd.filePath);
+            long length = file.length();
+            long lastModified = file.lastModified();
+            String etag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+
+            Headers requestHeaders = exchange.getRequestHeaders();
+            Headers responseHeaders = exchange.getResponseHeaders();
+
+            responseHeaders.add("Content-Type", fd.mime);
+            responseHeaders.add("Accept-Ranges", "bytes");
+            responseHeaders.add("ETag", etag);
+            responseHeaders.add("Last-Modified", formatDate(lastModified));
+
+            if (isNotModified(requestHeaders, etag, lastModified)) {
+                exchange.sendResponseHeaders(Code.HTTP_NOT_MODIFIED, -1);
+                return;
+            }
+
+            List<long[]> ranges = null;
+
+            String range = requestHeaders.getFirst("Range");
+            if (range != null && isRangeCurrent(requestHeaders.getFirst("If-Range"), etag, lastModified)) {
+                ranges = parseRanges(range, length);
+
+                if (ranges != null && ranges.isEmpty()) {
+                    responseHeaders.set("Content-Range", "bytes */" + length);
+                    exchange.sendResponseHeaders(Code.HTTP_RANGE_NOT_SATISFIABLE, -1);
+                    return;
+                }
+            }
+
+            int code;
+            long contentLength;
+            List<byte[]> partHeaders = null;
+            byte[] closingBoundary = null;
+
+            if (ranges == null) {
+                code = Code.HTTP_OK;
+                contentLength = length;
+                ranges = new ArrayList<long[]>();
+                ranges.add(new long[] { 0, length - 1 });
+            } else if (ranges.size() == 1) {
+                long[] r = ranges.get(0);
+                code = Code.HTTP_PARTIAL;
+                contentLength = r[1] - r[0] + 1;
+                responseHeaders.set("Content-Range", "bytes " + r[0] + "-" + r[1] + "/" + length);
+            } else {
+                code = Code.HTTP_PARTIAL;
+                contentLength = 0;
+                partHeaders = new ArrayList<byte[]>(ranges.size());
+                for (long[] r : ranges) {
+                    byte[] h = ("\r\n--" + MULTIPART_BOUNDARY + "\r\nContent-Type: " + fd.mime + "\r\nContent-Range: bytes " + r[0] + "-" + r[1] + "/" + length + "\r\n\r\n").getBytes("US-ASCII");
+                    partHeaders.add(h);
+                    contentLength += h.length + r[1] - r[0] + 1;
+                }
+                closingBoundary = ("\r\n--" + MULTIPART_BOUNDARY + "--\r\n").getBytes("US-ASCII");
+                contentLength += closingBoundary.length;
+                responseHeaders.set("Content-Type", "multipart/byteranges; boundary=" + MULTIPART_BOUNDARY);
+            }
+
+            if (head) {
+                responseHeaders.set("Content-Length", String.valueOf(contentLength));
+                exchange.sendResponseHeaders(code, -1);
+                return;
+            }
+
             //upload = TransferManager.instance().upload(fd);
             upload = BTDownloadMediator.instance().upload(fd);
 
-            exchange.getResponseHeaders().add("Content-Type", fd.mime);
-            
-            File file = new File(fd.filePath);
-            
-            exchange.sendResponseHeaders(Code.HTTP_OK, file.length());
+            // a zero content length means chunked encoding for the http server
+            exchange.sendResponseHeaders(code, contentLength > 0 ? contentLength : -1);
 
             os = exchange.getResponseBody();
 
             fis = new FileInputStream(file);
 
-            byte[] buffer = new byte[4 * 1024];
-            int n;
-            int count = 0;
+            FileChannel channel = fis.getChannel();
+            WritableByteChannel target = Channels.newChannel(os);
 
-            while ((n = fis.read(buffer, 0, buffer.length)) != -1) {
-                os.write(buffer, 0, n);
-                upload.addBytesSent(n);
-                
-                if (upload.isCanceled()) {
-                    try {
-                        throw new IOException("Upload cancelled");
-                    } finally {
-                        os.close();
-                    }
-                }
-                
-                count += n;
-                if (count > 4096) {
-                    count = 0;
-                    Thread.yield();
+            for (int i = 0; i < ranges.size(); i++) {
+                long[] r = ranges.get(i);
+
+                if (partHeaders != null) {
+                    os.write(partHeaders.get(i));
                 }
+
+                transfer(channel, r[0], r[1] - r[0] + 1, target, upload);
+            }
+
+            if (closingBoundary != null) {
+                os.write(closingBoundary);
             }
 
         } catch (IOException e) {
@@ -153,6 +268,141 @@ class DownloadHandler extends AbstractHandler {
         }
     }
 
+    /**
+     * The data goes through the stream of the exchange, but the file is never copied to a
+     * heap buffer.
+     */
+    private void transfer(FileChannel channel, long position, long count, WritableByteChannel target, PeerHttpUpload upload) throws IOException {
+        while (count > 0) {
+            long n = channel.transferTo(position, Math.min(count, TRANSFER_CHUNK_SIZE), target);
+            if (n <= 0) {
+                throw new IOException("Unexpected end of file");
+            }
+
+            position += n;
+            count -= n;
+
+            upload.addBytesSent((int) n);
+
+            if (upload.isCanceled()) {
+                throw new IOException("Upload cancelled");
+            }
+        }
+    }
+
+    private boolean isNotModified(Headers requestHeaders, String etag, long lastModified) {
+        String ifNoneMatch = requestHeaders.getFirst("If-None-Match");
+        if (ifNoneMatch != null) {
+            return ifNoneMatch.trim().equals("*") || ifNoneMatch.contains(etag);
+        }
+
+        long ifModifiedSince = parseDate(requestHeaders.getFirst("If-Modified-Since"));
+        return ifModifiedSince != -1 && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+
+    /**
+     * The ranges are only honored if the If-Range validator, if any, is still current.
+     */
+    private boolean isRangeCurrent(String ifRange, String etag, long lastModified) {
+        if (ifRange == null) {
+            return true;
+        }
+
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"")) {
+            return ifRange.equals(etag);
+        }
+
+        long date = parseDate(ifRange);
+        return date != -1 && lastModified / 1000 == date / 1000;
+    }
+
+    /**
+     * @return the satisfiable ranges as inclusive {first, last} pairs, empty if none is
+     *         satisfiable or null if the header is invalid and must be ignored
+     */
+    private List<long[]> parseRanges(String header, long length) {
+        header = header.trim();
+        if (!header.startsWith("bytes=")) {
+            return null;
+        }
+
+        String[] specs = header.substring("bytes=".length()).split(",");
+        if (specs.length > MAX_RANGES) {
+            return null;
+        }
+
+        List<long[]> ranges = new ArrayList<long[]>(specs.length);
+
+        try {
+            for (String spec : specs) {
+                spec = spec.trim();
+
+                int dash = spec.indexOf('-');
+                if (dash == -1) {
+                    return null;
+                }
+
+                String first = spec.substring(0, dash).trim();
+                String last = spec.substring(dash + 1).trim();
+
+                long start;
+                long end;
+
+                if (first.length() == 0) {
+                    // suffix range, the last bytes of the file
+                    long suffix = Long.parseLong(last);
+                    if (suffix < 0) {
+                        return null;
+                    }
+                    if (suffix == 0 || length == 0) {
+                        continue;
+                    }
+                    start = Math.max(0, length - suffix);
+                    end = length - 1;
+                } else {
+                    start = Long.parseLong(first);
+                    end = last.length() == 0 ? length - 1 : Long.parseLong(last);
+                    if (start < 0 || end < start) {
+                        return null;
+                    }
+                    if (start >= length) {
+                        continue;
+                    }
+                    end = Math.min(end, length - 1);
+                }
+
+                ranges.add(new long[] { start, end });
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+
+        return ranges;
+    }
+
+    private static String formatDate(long time) {
+        return createDateFormat().format(new Date(time));
+    }
+
+    private static long parseDate(String date) {
+        if (date == null) {
+            return -1;
+        }
+
+        try {
+            return createDateFormat().parse(date.trim()).getTime();
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+
+    private static SimpleDateFormat createDateFormat() {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format;
+    }
+
     private void close(Closeable c) {
         if (c != null) {
             try {
@@ -163,8 +413,8 @@ class DownloadHandler extends AbstractHandler {
         }
     }
 
-    //    private void sendBusyResponse(HttpExchange exchange) throws IOException {
-    //        exchange.getResponseHeaders().add("Retry-After", "10"); // retry in 10 seconds
-    //        exchange.sendResponseHeaders(Code.HTTP_UNAVAILABLE, 0);
-    //    }
+    private void sendBusyResponse(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().add("Retry-After", "10"); // retry in 10 seconds
+        exchange.sendResponseHeaders(Code.HTTP_UNAVAILABLE, -1);
+    }
 }
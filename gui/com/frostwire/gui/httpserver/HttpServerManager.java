@@ -22,6 +22,8 @@ import java.net.InetSocketAddress;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.limewire.concurrent.ExecutorsHelper;
+
 import com.sun.net.httpserver.HttpServer;
 
 /**
@@ -52,6 +54,9 @@ public class HttpServerManager {
             httpServer.createContext("/browse", new BrowseHandler());
             httpServer.createContext("/download", new DownloadHandler());
 
+            // keep the dispatcher thread free while the handlers work
+            httpServer.setExecutor(ExecutorsHelper.newFixedSizeThreadPool(4, "HttpServer"));
+
             httpServer.start();
 
         } catch (Throwable e) {
@@ -395,6 +395,18 @@ public class LibraryExplorer extends AbstractLibraryListPanel {
                     }
                 });
 
+                final List<File> indexed = LibraryFileIndex.instance().search("", _mtsfdh);
+                if (indexed != null) {
+                    GUIMediator.safeInvokeLater(new Runnable() {
+                        public void run() {
+                            LibraryMediator.instance().addFilesToLibraryTable(indexed);
+                        }
+                    });
+
+                    LibraryExplorer.this.executePendingRunnables();
+                    return;
+                }
+
                 final List<File> cache = new ArrayList<File>(_mtsfdh.getCache());
                 if (cache.size() == 0) {
 
@@ -0,0 +1,902 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.gui.library;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.Normalizer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import org.limewire.util.CommonUtils;
+
+import com.frostwire.concurrent.DefaultThreadFactory;
+import com.frostwire.gui.bittorrent.TorrentUtil;
+import com.limegroup.gnutella.MediaType;
+import com.limegroup.gnutella.settings.LibrarySettings;
+
+/**
+ * Catalog of the files under {@link LibrarySettings#DIRECTORIES_TO_INCLUDE}, so library
+ * searches don't have to walk the disk.
+ * <p>
+ * The catalog is saved in the settings directory and loaded on start. It is kept current
+ * with a {@link WatchService} on every indexed directory, plus a periodic reconcile that
+ * only lists the directories whose modification time changed. Where the JDK has no native
+ * watch service (like Mac OS X) only the reconcile is used, the polling fallback would list
+ * every indexed directory every few seconds. Queries are matched against
+ * the normalized tokens of the file names and of the directory paths.
+ * <p>
+ * All the changes happen in a single background thread, queries can be made from any
+ * thread.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class LibraryFileIndex {
+
+    private static final Logger LOG = Logger.getLogger(LibraryFileIndex.class.getName());
+
+    private static final int VERSION = 1;
+
+    private static final String DATA_FILE_NAME = "library_files.dat";
+
+    private static final long RECONCILE_INTERVAL_MINUTES = 15;
+
+    /**
+     * Time to wait after a watch event before listing the directory, so a burst of events
+     * (like a file being written) causes a single listing.
+     */
+    private static final long RESCAN_DELAY_MILLISECONDS = 1000;
+
+    private static final Pattern TOKEN_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private static final Pattern COMBINING_DIACRITICAL_MARKS = Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
+
+    private static LibraryFileIndex INSTANCE;
+
+    public synchronized static LibraryFileIndex instance() {
+        if (INSTANCE == null) {
+            INSTANCE = new LibraryFileIndex(new File(CommonUtils.getUserSettingsDir(), DATA_FILE_NAME));
+        }
+        return INSTANCE;
+    }
+
+    private final File dataFile;
+
+    private final Map<File, Dir> dirs;
+    private final List<Entry> entries;
+    private final Map<String, IntList> tokens;
+    private final Map<WatchKey, Dir> watchKeys;
+    private final Set<File> pendingRescans;
+
+    private int deadEntries;
+    private boolean ready;
+    private boolean dirty;
+    private boolean reconcilePending;
+
+    private ScheduledExecutorService exec;
+    private WatchService watcher;
+    private boolean watchLimitReached;
+
+    private LibraryFileIndex(File dataFile) {
+        this.dataFile = dataFile;
+
+        this.dirs = new HashMap<File, Dir>();
+        this.entries = new ArrayList<Entry>();
+        this.tokens = new HashMap<String, IntList>();
+        this.watchKeys = new HashMap<WatchKey, Dir>();
+        this.pendingRescans = new HashSet<File>();
+    }
+
+    public synchronized void start() {
+        if (exec != null) {
+            return;
+        }
+
+        exec = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("LibraryFileIndex", true));
+
+        exec.execute(new Runnable() {
+            public void run() {
+                load();
+            }
+        });
+
+        exec.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                reconcile();
+            }
+        }, 0, RECONCILE_INTERVAL_MINUTES, TimeUnit.MINUTES);
+
+        try {
+            WatchService w = FileSystems.getDefault().newWatchService();
+
+            if (isPolling(w)) {
+                w.close();
+                LOG.info("No native watch service, using the periodic reconcile only");
+                return;
+            }
+
+            watcher = w;
+
+            Thread t = new Thread(new Runnable() {
+                public void run() {
+                    watch();
+                }
+            }, "LibraryFileIndex-Watcher");
+            t.setDaemon(true);
+            t.start();
+        } catch (Throwable e) {
+            LOG.log(Level.INFO, "Unable to watch the library folders, using the periodic reconcile only", e);
+        }
+    }
+
+    public void stop() {
+        ScheduledExecutorService e;
+        WatchService w;
+
+        synchronized (this) {
+            e = exec;
+            w = watcher;
+            exec = null;
+            watcher = null;
+        }
+
+        if (e == null) {
+            return;
+        }
+
+        e.shutdownNow();
+
+        if (w != null) {
+            try {
+                w.close();
+            } catch (IOException ex) {
+                // ignore
+            }
+        }
+
+        save();
+    }
+
+    /**
+     * Schedules a reconcile of all the library folders, call it when the folders to include
+     * or exclude change.
+     */
+    public synchronized void refresh() {
+        if (exec == null || reconcilePending) {
+            return;
+        }
+
+        reconcilePending = true;
+
+        exec.execute(new Runnable() {
+            public void run() {
+                reconcile();
+            }
+        });
+    }
+
+    /**
+     * Finds the files of the directory holder matching all the tokens of the query.
+     *
+     * @return the matching files, or null if the index can't answer for this holder yet and
+     *         the caller should walk the disk
+     */
+    public List<File> search(String query, DirectoryHolder holder) {
+        File root = null;
+        boolean filter = true;
+        File skip = null;
+
+        if (holder instanceof SavedFilesDirectoryHolder) {
+            root = holder.getDirectory();
+            filter = false;
+        } else if (holder instanceof MediaTypeSavedFilesDirectoryHolder) {
+            if (!((MediaTypeSavedFilesDirectoryHolder) holder).getMediaType().equals(MediaType.getAudioMediaType())) {
+                skip = LibrarySettings.USER_MUSIC_FOLDER.getValue();
+            }
+        } else {
+            root = holder.getDirectory();
+        }
+
+        Set<File> ignore = TorrentUtil.getIgnorableFiles();
+
+        synchronized (this) {
+            if (!ready) {
+                return null;
+            }
+
+            Set<Dir> scope = null;
+            if (root != null) {
+                Dir d = dirs.get(root);
+                if (d == null) {
+                    return null;
+                }
+                scope = subtree(d);
+            }
+
+            Set<Dir> skipped = null;
+            if (skip != null) {
+                Dir d = dirs.get(skip);
+                if (d != null) {
+                    skipped = subtree(d);
+                }
+            }
+
+            BitSet matches = match(tokenize(query));
+
+            List<File> results = new ArrayList<File>();
+
+            for (int id = matches.nextSetBit(0); id >= 0; id = matches.nextSetBit(id + 1)) {
+                Entry e = entries.get(id);
+                if (e == null || (scope != null && !scope.contains(e.dir)) || (skipped != null && skipped.contains(e.dir))) {
+                    continue;
+                }
+
+                File file = new File(e.dir.file, e.name);
+                if (ignore.contains(file) || (filter && !holder.accept(file))) {
+                    continue;
+                }
+
+                results.add(file);
+            }
+
+            return results;
+        }
+    }
+
+    static String normalize(String s) {
+        String norm = Normalizer.normalize(s, Normalizer.Form.NFKD);
+        norm = COMBINING_DIACRITICAL_MARKS.matcher(norm).replaceAll("");
+        return norm.toLowerCase(Locale.US);
+    }
+
+    static List<String> tokenize(String s) {
+        List<String> list = new ArrayList<String>();
+        for (String token : TOKEN_SEPARATOR.split(normalize(s))) {
+            if (token.length() > 0) {
+                list.add(token);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * A file matches a query token if the token is part of a token of its name or of its
+     * directory path.
+     */
+    private BitSet match(List<String> queryTokens) {
+        BitSet result = null;
+
+        for (String qt : queryTokens) {
+            BitSet bits = new BitSet(entries.size());
+
+            for (Map.Entry<String, IntList> t : tokens.entrySet()) {
+                if (t.getKey().contains(qt)) {
+                    t.getValue().setAll(bits);
+                }
+            }
+
+            for (Dir d : dirs.values()) {
+                if (d.path.contains(qt)) {
+                    for (Integer id : d.files.values()) {
+                        bits.set(id);
+                    }
+                }
+            }
+
+            if (result == null) {
+                result = bits;
+            } else {
+                result.and(bits);
+            }
+        }
+
+        if (result == null) {
+            result = new BitSet(entries.size());
+            result.set(0, entries.size());
+        }
+
+        return result;
+    }
+
+    private Set<Dir> subtree(Dir root) {
+        Set<Dir> set = new HashSet<Dir>();
+        Deque<Dir> pending = new ArrayDeque<Dir>();
+        pending.push(root);
+
+        while (!pending.isEmpty()) {
+            Dir d = pending.pop();
+            if (set.add(d)) {
+                for (String name : d.subdirs) {
+                    Dir sub = dirs.get(new File(d.file, name));
+                    if (sub != null) {
+                        pending.push(sub);
+                    }
+                }
+            }
+        }
+
+        return set;
+    }
+
+    /**
+     * Visits all the library folders, listing only the new ones and the ones modified since
+     * the last visit, and drops the folders no longer in the library.
+     */
+    private void reconcile() {
+        synchronized (this) {
+            reconcilePending = false;
+        }
+
+        try {
+            Set<File> excluded = new HashSet<File>(LibrarySettings.DIRECTORIES_NOT_TO_INCLUDE.getValue());
+            Set<File> roots = new HashSet<File>(LibrarySettings.DIRECTORIES_TO_INCLUDE.getValue());
+            roots.removeAll(excluded);
+
+            Set<File> visited = new HashSet<File>();
+
+            for (File root : roots) {
+                if (root != null) {
+                    scan(root, excluded, visited, true);
+                }
+            }
+
+            synchronized (this) {
+                for (Dir d : new ArrayList<Dir>(dirs.values())) {
+                    if (!visited.contains(d.file)) {
+                        removeDir(d);
+                    }
+                }
+
+                if (deadEntries > 10000 && deadEntries > entries.size() / 2) {
+                    compact();
+                }
+
+                ready = true;
+            }
+
+            save();
+        } catch (Throwable e) {
+            LOG.log(Level.WARNING, "Error reconciling the library file index", e);
+        }
+    }
+
+    /**
+     * Lists the directory and its new subdirectories, or all its subdirectories if deep.
+     */
+    private void scan(File start, Set<File> excluded, Set<File> visited, boolean deep) {
+        Set<Object> fileKeys = new HashSet<Object>();
+        Deque<File> pending = new ArrayDeque<File>();
+        pending.push(start);
+
+        while (!pending.isEmpty()) {
+            File dir = pending.pop();
+
+            if (!visited.add(dir)) {
+                continue;
+            }
+
+            BasicFileAttributes attrs = readAttributes(dir.toPath());
+            if (attrs == null || !attrs.isDirectory()) {
+                synchronized (this) {
+                    Dir d = dirs.get(dir);
+                    if (d != null) {
+                        removeDir(d);
+                    }
+                }
+                continue;
+            }
+
+            // symbolic links can make cycles
+            if (attrs.fileKey() != null && !fileKeys.add(attrs.fileKey())) {
+                continue;
+            }
+
+            long mtime = attrs.lastModifiedTime().toMillis();
+
+            Dir d;
+            List<File> subdirs = new ArrayList<File>();
+
+            synchronized (this) {
+                d = dirs.get(dir);
+            }
+
+            // a watch event can be about a file modified in place, that doesn't change the directory
+            boolean force = !deep && dir == start;
+
+            if (d != null && d.mtime == mtime && !force) {
+                synchronized (this) {
+                    if (deep) {
+                        for (String name : d.subdirs) {
+                            subdirs.add(new File(dir, name));
+                        }
+                    }
+                }
+            } else {
+                Map<String, long[]> files = new HashMap<String, long[]>();
+                Set<String> names = new HashSet<String>();
+
+                list(dir, excluded, files, names);
+
+                synchronized (this) {
+                    Set<String> known = d != null ? d.subdirs : new HashSet<String>();
+                    for (String name : names) {
+                        if (deep || !known.contains(name)) {
+                            subdirs.add(new File(dir, name));
+                        }
+                    }
+
+                    d = update(dir, mtime, files, names);
+                }
+            }
+
+            register(d);
+
+            for (File sub : subdirs) {
+                pending.push(sub);
+            }
+        }
+    }
+
+    private void list(File dir, Set<File> excluded, Map<String, long[]> files, Set<String> subdirs) {
+        DirectoryStream<Path> stream = null;
+
+        try {
+            stream = Files.newDirectoryStream(dir.toPath());
+
+            for (Path child : stream) {
+                if (Files.isHidden(child)) {
+                    continue;
+                }
+
+                BasicFileAttributes attrs = readAttributes(child);
+                if (attrs == null) {
+                    continue;
+                }
+
+                String name = child.getFileName().toString();
+
+                if (attrs.isDirectory()) {
+                    if (!excluded.contains(new File(dir, name))) {
+                        subdirs.add(name);
+                    }
+                } else if (attrs.isRegularFile()) {
+                    files.put(name, new long[] { attrs.size(), attrs.lastModifiedTime().toMillis() });
+                }
+            }
+        } catch (Throwable e) {
+            LOG.log(Level.INFO, "Unable to list " + dir, e);
+        } finally {
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private static BasicFileAttributes readAttributes(Path path) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private Dir update(File dir, long mtime, Map<String, long[]> files, Set<String> subdirs) {
+        Dir d = dirs.get(dir);
+        if (d == null) {
+            d = new Dir(dir);
+            dirs.put(dir, d);
+        }
+
+        d.mtime = mtime;
+
+        Iterator<Map.Entry<String, Integer>> it = d.files.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Integer> e = it.next();
+            long[] attrs = files.remove(e.getKey());
+            if (attrs == null) {
+                entries.set(e.getValue(), null);
+                deadEntries++;
+                it.remove();
+            } else {
+                Entry entry = entries.get(e.getValue());
+                entry.size = attrs[0];
+                entry.mtime = attrs[1];
+            }
+        }
+
+        for (Map.Entry<String, long[]> e : files.entrySet()) {
+            add(d, e.getKey(), e.getValue()[0], e.getValue()[1]);
+        }
+
+        for (String name : d.subdirs) {
+            if (!subdirs.contains(name)) {
+                Dir sub = dirs.get(new File(dir, name));
+                if (sub != null) {
+                    for (Dir r : subtree(sub)) {
+                        removeDir(r);
+                    }
+                }
+            }
+        }
+
+        d.subdirs = subdirs;
+
+        dirty = true;
+
+        return d;
+    }
+
+    private void add(Dir d, String name, long size, long mtime) {
+        int id = entries.size();
+
+        entries.add(new Entry(d, name, size, mtime));
+        d.files.put(name, id);
+
+        for (String token : tokenize(name)) {
+            IntList ids = tokens.get(token);
+            if (ids == null) {
+                ids = new IntList();
+                tokens.put(token, ids);
+            }
+            ids.add(id);
+        }
+    }
+
+    private void removeDir(Dir d) {
+        if (dirs.remove(d.file) == null) {
+            return;
+        }
+
+        for (Integer id : d.files.values()) {
+            entries.set(id, null);
+            deadEntries++;
+        }
+        d.files.clear();
+
+        if (d.key != null) {
+            d.key.cancel();
+            watchKeys.remove(d.key);
+            d.key = null;
+        }
+
+        dirty = true;
+    }
+
+    /**
+     * Renumbers the entries to drop the removed ones from the token lists.
+     */
+    private void compact() {
+        List<Entry> live = new ArrayList<Entry>(entries.size() - deadEntries);
+        for (Entry e : entries) {
+            if (e != null) {
+                live.add(e);
+            }
+        }
+
+        entries.clear();
+        tokens.clear();
+        deadEntries = 0;
+
+        for (Dir d : dirs.values()) {
+            d.files.clear();
+        }
+
+        for (Entry e : live) {
+            add(e.dir, e.name, e.size, e.mtime);
+        }
+    }
+
+    private void register(Dir d) {
+        WatchService w;
+
+        synchronized (this) {
+            w = watcher;
+            if (w == null || d.key != null || watchLimitReached || dirs.get(d.file) != d) {
+                return;
+            }
+        }
+
+        try {
+            WatchKey key = d.file.toPath().register(w, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+            synchronized (this) {
+                d.key = key;
+                watchKeys.put(key, d);
+            }
+        } catch (ClosedWatchServiceException e) {
+            // stopping
+        } catch (IOException e) {
+            // usually the limit of watches of the OS
+            synchronized (this) {
+                watchLimitReached = true;
+            }
+            LOG.log(Level.INFO, "Unable to watch more library folders, using the periodic reconcile for the rest", e);
+        }
+    }
+
+    /**
+     * The JDK fallback when the OS has no file notifications, it lists every watched
+     * directory every few seconds.
+     */
+    private static boolean isPolling(WatchService w) {
+        return w.getClass().getName().equals("sun.nio.fs.PollingWatchService");
+    }
+
+    private void watch() {
+        WatchService w;
+
+        synchronized (this) {
+            w = watcher;
+        }
+
+        try {
+            while (true) {
+                WatchKey key = w.take();
+
+                boolean overflow = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        overflow = true;
+                    }
+                }
+
+                key.reset();
+
+                Dir d;
+                synchronized (this) {
+                    d = watchKeys.get(key);
+                }
+
+                if (overflow || d == null) {
+                    refresh();
+                } else {
+                    rescan(d.file);
+                }
+            }
+        } catch (InterruptedException e) {
+            // stopping
+        } catch (ClosedWatchServiceException e) {
+            // stopping
+        }
+    }
+
+    private synchronized void rescan(final File dir) {
+        if (exec == null || !pendingRescans.add(dir)) {
+            return;
+        }
+
+        exec.schedule(new Runnable() {
+            public void run() {
+                synchronized (LibraryFileIndex.this) {
+                    pendingRescans.remove(dir);
+                }
+
+                try {
+                    Set<File> excluded = new HashSet<File>(LibrarySettings.DIRECTORIES_NOT_TO_INCLUDE.getValue());
+                    scan(dir, excluded, new HashSet<File>(), false);
+                } catch (Throwable e) {
+                    LOG.log(Level.WARNING, "Error updating the library file index", e);
+                }
+            }
+        }, RESCAN_DELAY_MILLISECONDS, TimeUnit.MILLISECONDS);
+    }
+
+    private void load() {
+        if (!dataFile.exists()) {
+            return;
+        }
+
+        DataInputStream in = null;
+
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(dataFile)));
+
+            if (in.readInt() != VERSION) {
+                return;
+            }
+
+            synchronized (this) {
+                int numDirs = in.readInt();
+                for (int i = 0; i < numDirs; i++) {
+                    Dir d = new Dir(new File(in.readUTF()));
+                    d.mtime = in.readLong();
+
+                    int numFiles = in.readInt();
+                    for (int j = 0; j < numFiles; j++) {
+                        add(d, in.readUTF(), in.readLong(), in.readLong());
+                    }
+
+                    int numSubdirs = in.readInt();
+                    for (int j = 0; j < numSubdirs; j++) {
+                        d.subdirs.add(in.readUTF());
+                    }
+
+                    dirs.put(d.file, d);
+                }
+
+                ready = true;
+            }
+        } catch (Throwable e) {
+            LOG.log(Level.WARNING, "Error loading the library file index, rebuilding it", e);
+
+            synchronized (this) {
+                dirs.clear();
+                entries.clear();
+                tokens.clear();
+                deadEntries = 0;
+            }
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private synchronized void save() {
+        if (!dirty) {
+            return;
+        }
+
+        File temp = new File(dataFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+
+            out.writeInt(VERSION);
+            out.writeInt(dirs.size());
+
+            for (Dir d : dirs.values()) {
+                out.writeUTF(d.file.getPath());
+                out.writeLong(d.mtime);
+
+                out.writeInt(d.files.size());
+                for (Integer id : d.files.values()) {
+                    Entry e = entries.get(id);
+                    out.writeUTF(e.name);
+                    out.writeLong(e.size);
+                    out.writeLong(e.mtime);
+                }
+
+                out.writeInt(d.subdirs.size());
+                for (String name : d.subdirs) {
+                    out.writeUTF(name);
+                }
+            }
+
+            out.close();
+            out = null;
+
+            if (dataFile.exists() && !dataFile.delete()) {
+                throw new IOException("Unable to replace " + dataFile);
+            }
+            if (!temp.renameTo(dataFile)) {
+                throw new IOException("Unable to rename " + temp);
+            }
+
+            dirty = false;
+        } catch (Throwable e) {
+            LOG.log(Level.WARNING, "Error saving the library file index", e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private static final class Dir {
+
+        public final File file;
+        public final String path;
+
+        public long mtime;
+        public Map<String, Integer> files;
+        public Set<String> subdirs;
+        public WatchKey key;
+
+        public Dir(File file) {
+            this.file = file;
+            this.path = normalize(file.getPath());
+            this.files = new HashMap<String, Integer>();
+            this.subdirs = new HashSet<String>();
+        }
+    }
+
+    private static final class Entry {
+
+        public final Dir dir;
+        public final String name;
+
+        public long size;
+        public long mtime;
+
+        public Entry(Dir dir, String name, long size, long mtime) {
+            this.dir = dir;
+            this.name = name;
+            this.size = size;
+            this.mtime = mtime;
+        }
+    }
+
+    private static final class IntList {
+
+        private int[] values = new int[2];
+        private int size;
+
+        public void add(int value) {
+            if (size == values.length) {
+                int[] a = new int[size * 2];
+                System.arraycopy(values, 0, a, 0, size);
+                values = a;
+            }
+            values[size++] = value;
+        }
+
+        public void setAll(BitSet bits) {
+            for (int i = 0; i < size; i++) {
+                bits.set(values[i]);
+            }
+        }
+    }
+}
@@ -196,6 +196,7 @@ final class LibraryFilesTransferHandler extends TransferHandler {
                                 LibrarySettings.DIRECTORIES_NOT_TO_INCLUDE.remove(f);
                             }
                             
+                            LibraryFileIndex.instance().refresh();
                             LibraryMediator.instance().clearDirectoryHolderCaches();
                             
                             //show tools -> library option pane
@@ -132,6 +132,8 @@ public class LibraryMediator {
         MAIN_PANEL.add(splitPane);
         
         clerk = new DeviceDiscoveryClerk();
+
+        LibraryFileIndex.instance().start();
     }
 
     public DeviceDiscoveryClerk getDeviceDiscoveryClerk() {
@@ -276,6 +278,12 @@ public class LibraryMediator {
         LibraryPlaylistsTableMediator.instance().updateTableItems(playlist);
     }
 
+    public void refreshTableItems(Playlist playlist) {
+        clearLibraryTable();
+        showView(PLAYLISTS_TABLE_KEY);
+        LibraryPlaylistsTableMediator.instance().refreshTableItems(playlist);
+    }
+
     public void showInternetRadioStations(List<InternetRadioStation> internetRadioStations) {
         clearLibraryTable();
         showView(INTERNET_RADIO_TABLE_KEY);
@@ -312,8 +312,7 @@ public class LibraryPlaylists extends AbstractLibraryListPanel {
         Playlist playlist = cell.getPlaylist();
 
         if (playlist != null) {
-            playlist.refresh();
-            LibraryMediator.instance().updateTableItems(playlist);
+            LibraryMediator.instance().refreshTableItems(playlist);
             String status = LibraryUtils.getPlaylistDurationInDDHHMMSS(playlist) + ", " + playlist.getItems().size() + " " + I18n.tr("tracks");
             LibraryMediator.instance().getLibrarySearch().setStatus(status);
         }
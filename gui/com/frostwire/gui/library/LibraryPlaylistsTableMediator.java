@@ -402,6 +402,34 @@ final class LibraryPlaylistsTableMediator extends AbstractLibraryTableMediator<L
         forceResort();
     }
 
+    /**
+     * Reloads the playlist from the database in pages, adding each page to
+     * the table as soon as it's loaded instead of waiting for all the items.
+     */
+    void refreshTableItems(Playlist playlist) {
+        if (playlist == null) {
+            return;
+        }
+
+        currentPlaylist = playlist;
+
+        clearTable();
+        playlist.refresh(new Playlist.PageListener() {
+            @Override
+            public void onPage(final List<PlaylistItem> items) {
+                GUIMediator.safeInvokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (PlaylistItem item : items) {
+                            addUnsorted(item);
+                        }
+                    }
+                });
+            }
+        });
+        forceResort();
+    }
+
     /**
      * Returns the <tt>File</tt> stored at the specified row in the list.
      *
@@ -478,20 +506,27 @@ final class LibraryPlaylistsTableMediator extends AbstractLibraryTableMediator<L
 
         LibraryPlaylistsTableDataLine[] lines = getSelectedLibraryLines();
 
+        List<PlaylistItem> playlistItems = new ArrayList<PlaylistItem>(lines.length);
+        for (LibraryPlaylistsTableDataLine line : lines) {
+            playlistItems.add(line.getInitializeObject());
+        }
+
         if (currentPlaylist != null && currentPlaylist.getId() == LibraryDatabase.STARRED_PLAYLIST_ID) {
-            for (LibraryPlaylistsTableDataLine line : lines) {
-                PlaylistItem playlistItem = line.getInitializeObject();
+            for (PlaylistItem playlistItem : playlistItems) {
                 playlistItem.setStarred(false);
-                playlistItem.save();
             }
+            currentPlaylist.saveItems(playlistItems);
 
             LibraryMediator.instance().getLibraryExplorer().refreshSelection();
 
         } else {
 
-            for (LibraryPlaylistsTableDataLine line : lines) {
-                PlaylistItem playlistItem = line.getInitializeObject();
-                playlistItem.delete();
+            if (currentPlaylist != null) {
+                currentPlaylist.deleteItems(playlistItems);
+            } else {
+                for (PlaylistItem playlistItem : playlistItems) {
+                    playlistItem.delete();
+                }
             }
 
             LibraryMediator.instance().getLibraryPlaylists().reselectPlaylist();
@@ -47,7 +47,9 @@ import com.frostwire.alexandria.InternetRadioStation;
 import com.frostwire.alexandria.Playlist;
 import com.frostwire.alexandria.PlaylistItem;
 import com.frostwire.alexandria.db.InternetRadioStationDB;
+import com.frostwire.alexandria.db.LibraryDatabase;
 import com.frostwire.alexandria.db.PlaylistItemDB;
+import com.frostwire.alexandria.db.RowHandler;
 import com.frostwire.gui.bittorrent.TorrentUtil;
 import com.frostwire.gui.searchfield.SearchField;
 import com.frostwire.gui.searchfield.JXSearchField.SearchMode;
@@ -314,6 +316,12 @@ public class LibrarySearch extends JPanel {
                     }
                 });
 
+                List<File> indexed = LibraryFileIndex.instance().search(_query, directoryHolder);
+                if (indexed != null) {
+                    send(indexed);
+                    return;
+                }
+
                 if (directoryHolder instanceof MediaTypeSavedFilesDirectoryHolder) {
                     List<File> cache = new ArrayList<File>(((MediaTypeSavedFilesDirectoryHolder) directoryHolder).getCache());
                     if (cache.size() > 0) {
@@ -428,6 +436,35 @@ public class LibrarySearch extends JPanel {
             }
         }
 
+        /**
+         * Sends the results of the index to the library table in batches.
+         */
+        private void send(List<File> files) {
+            for (int i = 0; i < files.size(); i += 100) {
+                if (canceled) {
+                    return;
+                }
+
+                //Stop if the user selected another item in the library tree
+                DirectoryHolder currentDirectoryHolder = LibraryMediator.instance().getLibraryExplorer().getSelectedDirectoryHolder();
+                if (!directoryHolder.equals(currentDirectoryHolder)) {
+                    return;
+                }
+
+                final List<File> batch = new ArrayList<File>(files.subList(i, Math.min(i + 100, files.size())));
+
+                GUIMediator.safeInvokeLater(new Runnable() {
+                    public void run() {
+                        LibraryMediator.instance().addFilesToLibraryTable(batch);
+
+                        if (directoryHolder instanceof SavedFilesDirectoryHolder) {
+                            LibraryFilesTableMediator.instance().resetAudioPlayerFileView();
+                        }
+                    }
+                });
+            }
+        }
+
         private void search(List<File> cache) {
             if (canceled) {
                 return;
@@ -557,7 +594,7 @@ public class LibrarySearch extends JPanel {
             }
 
             String sql = null;
-            List<List<Object>> rows = null;
+            Object[] args = null;
 
             //Show everything
             if (StringUtils.isNullOrEmpty(query, true) || query.equals(".")) {
@@ -572,52 +609,70 @@ public class LibrarySearch extends JPanel {
                 //Full text search
                 if (!playlist.isStarred()) {
                     sql = "SELECT T.playlistItemId, T.filePath, T.fileName, T.fileSize, T.fileExtension, T.trackTitle, T.trackDurationInSecs, T.trackArtist, T.trackAlbum, T.coverArtPath, T.trackBitrate, T.trackComment, T.trackGenre, T.trackNumber, T.trackYear, T.starred, T.sortIndex FROM FTL_SEARCH_DATA(?, 0, 0) FT, PLAYLISTITEMS T WHERE FT.TABLE='PLAYLISTITEMS' AND T.playlistItemId = FT.KEYS[0] AND T.playlistId = ?";
-                    rows = LibraryMediator.getLibrary().getLibraryDatabase().query(sql, luceneQuery, playlist.getId());
+                    args = new Object[] { luceneQuery, playlist.getId() };
                 }
                 //Starred playlist search
                 else {
                     sql = "SELECT T.playlistItemId, T.filePath, T.fileName, T.fileSize, T.fileExtension, T.trackTitle, T.trackDurationInSecs, T.trackArtist, T.trackAlbum, T.coverArtPath, T.trackBitrate, T.trackComment, T.trackGenre, T.trackNumber, T.trackYear, T.starred FROM FTL_SEARCH_DATA(?, 0, 0) FT, PLAYLISTITEMS T WHERE FT.TABLE='PLAYLISTITEMS' AND T.playlistItemId = FT.KEYS[0] AND T.starred = TRUE";
-                    rows = LibraryMediator.getLibrary().getLibraryDatabase().query(sql, luceneQuery);
+                    args = new Object[] { luceneQuery };
                 }
 
             }
 
-            final List<PlaylistItem> results = new ArrayList<PlaylistItem>();
+            Playlist currentPlaylist = LibraryMediator.instance().getLibraryPlaylists().getSelectedPlaylist();
+
+            PlaylistItemsHandler handler = new PlaylistItemsHandler();
+
+            LibraryMediator.getLibrary().getLibraryDatabase().query(PlaylistItemDB.rowMapper(currentPlaylist), handler, sql, args);
+
+            if (!handler.stopped) {
+                handler.flush();
+            }
+        }
+
+        /**
+         * Sends the items to the library table in batches, as they are read.
+         */
+        private final class PlaylistItemsHandler implements RowHandler<PlaylistItem> {
+
+            private List<PlaylistItem> results = new ArrayList<PlaylistItem>();
+            private boolean stopped;
 
-            for (List<Object> row : rows) {
+            @Override
+            public boolean onRow(PlaylistItem item) {
                 if (canceled) {
-                    return;
+                    stopped = true;
+                    return false;
                 }
 
                 /////
                 //Stop search if the user selected another item in the playlist list
                 Playlist currentPlaylist = LibraryMediator.instance().getLibraryPlaylists().getSelectedPlaylist();
                 if (!playlist.isStarred() && !playlist.equals(currentPlaylist)) {
-                    return;
+                    stopped = true;
+                    return false;
                 }
                 /////
 
-                PlaylistItem item = new PlaylistItem(currentPlaylist);
-                PlaylistItemDB.fill(row, item);
                 results.add(item);
 
                 if (results.size() > 100) {
-                    Runnable r = new Runnable() {
-                        public void run() {
-                            LibraryMediator.instance().addItemsToLibraryTable(results);
-                            results.clear();
-                        }
-                    };
-                    GUIMediator.safeInvokeLater(r);
+                    flush();
                 }
+
+                return true;
             }
 
-            Runnable r = new Runnable() {
-                public void run() {
-                    LibraryMediator.instance().addItemsToLibraryTable(results);
-                }
-            };
-            GUIMediator.safeInvokeLater(r);
+            public void flush() {
+                final List<PlaylistItem> batch = results;
+                results = new ArrayList<PlaylistItem>();
+
+                GUIMediator.safeInvokeLater(new Runnable() {
+                    public void run() {
+                        LibraryMediator.instance().addItemsToLibraryTable(batch);
+                    }
+                });
+            }
         }
     }
 
@@ -653,7 +708,7 @@ public class LibrarySearch extends JPanel {
             }
 
             String sql = null;
-            List<List<Object>> rows = null;
+            Object[] args = null;
 
             //Show everything
             if (StringUtils.isNullOrEmpty(query, true) || query.equals(".")) {
@@ -665,45 +720,54 @@ public class LibrarySearch extends JPanel {
                 String luceneQuery = com.frostwire.alexandria.LibraryUtils.wildcardLuceneQuery(query);
                 //Full text search
                 sql = "SELECT T.internetRadioStationId, T.name, T.description, T.url, T.bitrate, T.type, T.website, T.genre, T.pls, T.bookmarked FROM FTL_SEARCH_DATA(?, 0, 0) FT, INTERNETRADIOSTATIONS T WHERE FT.TABLE='INTERNETRADIOSTATIONS' AND T.internetRadioStationId = FT.KEYS[0]";
-                rows = LibraryMediator.getLibrary().getLibraryDatabase().query(sql, luceneQuery);
+                args = new Object[] { luceneQuery };
             }
 
-            final List<InternetRadioStation> results = new ArrayList<InternetRadioStation>();
+            LibraryDatabase db = LibraryMediator.getLibrary().getLibraryDatabase();
 
-            for (List<Object> row : rows) {
+            InternetRadioStationsHandler handler = new InternetRadioStationsHandler();
+
+            db.query(InternetRadioStationDB.rowMapper(db), handler, sql, args);
+
+            if (!handler.stopped) {
+                handler.flush();
+            }
+        }
+
+        /**
+         * Sends the stations to the library table in batches, as they are read.
+         */
+        private final class InternetRadioStationsHandler implements RowHandler<InternetRadioStation> {
+
+            private List<InternetRadioStation> results = new ArrayList<InternetRadioStation>();
+            private boolean stopped;
+
+            @Override
+            public boolean onRow(InternetRadioStation item) {
                 if (canceled) {
-                    return;
+                    stopped = true;
+                    return false;
                 }
 
-                /////
-                //Stop search if the user selected another item in the playlist list
-                //                Playlist currentPlaylist = LibraryMediator.instance().getLibraryPlaylists().getSelectedPlaylist();
-                //                if (!playlist.equals(currentPlaylist)) {
-                //                    return;
-                //                }
-                /////
-
-                InternetRadioStation item = new InternetRadioStation(LibraryMediator.getLibrary().getLibraryDatabase());
-                InternetRadioStationDB.fill(row, item);
                 results.add(item);
 
                 if (results.size() > 100) {
-                    Runnable r = new Runnable() {
-                        public void run() {
-                            LibraryMediator.instance().addInternetRadioStationsToLibraryTable(results);
-                            results.clear(); // TODO: Fix this error, check for thread issues
-                        }
-                    };
-                    GUIMediator.safeInvokeLater(r);
+                    flush();
                 }
+
+                return true;
             }
 
-            Runnable r = new Runnable() {
-                public void run() {
-                    LibraryMediator.instance().addInternetRadioStationsToLibraryTable(results);
-                }
-            };
-            GUIMediator.safeInvokeLater(r);
+            public void flush() {
+                final List<InternetRadioStation> batch = results;
+                results = new ArrayList<InternetRadioStation>();
+
+                GUIMediator.safeInvokeLater(new Runnable() {
+                    public void run() {
+                        LibraryMediator.instance().addInternetRadioStationsToLibraryTable(batch);
+                    }
+                });
+            }
         }
     }
 
@@ -26,6 +26,8 @@ import java.io.InputStreamReader;
 import java.net.URL;
 import java.net.URLConnection;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
@@ -51,6 +53,7 @@ import com.frostwire.gui.bittorrent.TorrentUtil;
 import com.frostwire.gui.library.LibraryPlaylistsTableTransferable.Item;
 import com.frostwire.gui.library.tags.TagsData;
 import com.frostwire.gui.library.tags.TagsReader;
+import com.frostwire.gui.library.tags.TagsService;
 import com.frostwire.gui.player.MediaPlayer;
 import com.frostwire.gui.theme.ThemeMediator;
 import com.frostwire.uxstats.UXAction;
@@ -83,42 +86,55 @@ public class LibraryUtils {
         executor = ExecutorsHelper.newProcessingQueue("LibraryUtils-Executor");
     }
 
-    private static void addPlaylistItem(Playlist playlist, File file, boolean starred) {
-        addPlaylistItem(playlist, file, starred, -1);
-    }
-
-    private static void addPlaylistItem(Playlist playlist, File file, boolean starred, int index) {
+    private static PlaylistItem newPlaylistItem(Playlist playlist, File file, boolean starred) {
         try {
             LibraryMediator.instance().getLibrarySearch().pushStatus(I18n.tr("Importing") + " " + file.getName());
             TagsData mt = new TagsReader(file).parse();
-            PlaylistItem item = playlist.newItem(file.getAbsolutePath(), file.getName(), file.length(), FileUtils.getFileExtension(file), mt.getTitle(), mt.getDuration(), mt.getArtist(), mt.getAlbum(), "",// TODO: cover art path
+            return playlist.newItem(file.getAbsolutePath(), file.getName(), file.length(), FileUtils.getFileExtension(file), mt.getTitle(), mt.getDuration(), mt.getArtist(), mt.getAlbum(), "",// TODO: cover art path
                     mt.getBitrate(), mt.getComment(), mt.getGenre(), mt.getTrack(), mt.getYear(), starred);
+        } finally {
+            LibraryMediator.instance().getLibrarySearch().revertStatus();
+        }
+    }
 
-            List<PlaylistItem> items = playlist.getItems();
-            if (index != -1 && index < items.size()) {
+    /**
+     * Inserts the new items at the index, or at the end if the index is -1, saving
+     * them and the sort indexes they displace in a single transaction.
+     */
+    private static void addPlaylistItems(Playlist playlist, List<PlaylistItem> added, int index) {
+        if (added.isEmpty() || playlist.isDeleted()) {
+            return;
+        }
 
-                // insert item
-                items.add(index, item);
+        List<PlaylistItem> items = playlist.getItems();
+        List<PlaylistItem> moved;
+        if (index != -1 && index < items.size()) {
 
-                // update all sort indexes from insertion point onwards
-                for (int i = index; i < items.size(); i++) {
-                    PlaylistItem cur_item = items.get(i);
-                    cur_item.setSortIndex(i + 1); //set index 1-based
-                    cur_item.save();
-                }
+            // insert items
+            items.addAll(index, added);
 
-            } else {
+            // update all sort indexes from insertion point onwards
+            for (int i = index; i < items.size(); i++) {
+                PlaylistItem cur_item = items.get(i);
+                cur_item.setSortIndex(i + 1); //set index 1-based
+            }
+
+            moved = new ArrayList<PlaylistItem>(items.subList(index + added.size(), items.size()));
+
+        } else {
+            for (PlaylistItem item : added) {
                 items.add(item);
                 item.setSortIndex(items.size()); // set sort index to 1-based size
-                item.save();
             }
 
-            if (isPlaylistSelected(playlist)) {
-                // refresh UI
-                LibraryMediator.instance().getLibraryPlaylists().refreshSelection();
-            }
-        } finally {
-            LibraryMediator.instance().getLibrarySearch().revertStatus();
+            moved = Collections.emptyList();
+        }
+
+        playlist.addItems(added, moved);
+
+        if (isPlaylistSelected(playlist)) {
+            // refresh UI
+            LibraryMediator.instance().getLibraryPlaylists().refreshSelection();
         }
     }
 
@@ -182,7 +198,6 @@ public class LibraryUtils {
             Thread t = new Thread(new Runnable() {
                 public void run() {
                     addToPlaylist(playlist, lines);
-                    playlist.save();
                     asyncAddToPlaylistFinalizer(playlist);
                 }
             }, "createNewPlaylist");
@@ -232,7 +247,6 @@ public class LibraryUtils {
                     try {
                         Set<File> ignore = TorrentUtil.getIgnorableFiles();
                         addToPlaylist(playlist, files, starred, ignore);
-                        playlist.save();
                     } finally {
                         asyncAddToPlaylistFinalizer(playlist);
                     }
@@ -342,7 +356,6 @@ public class LibraryUtils {
                 try {
                     Set<File> ignore = TorrentUtil.getIgnorableFiles();
                     addToPlaylist(playlist, files, false, index, ignore);
-                    playlist.save();
                 } finally {
                     asyncAddToPlaylistFinalizer(playlist);
                 }
@@ -449,30 +462,68 @@ public class LibraryUtils {
     }
 
     private static void addToPlaylist(Playlist playlist, List<? extends AbstractLibraryTableDataLine<?>> lines) {
+        List<File> files = new ArrayList<File>(lines.size());
+        for (AbstractLibraryTableDataLine<?> line : lines) {
+            files.add(line.getFile());
+        }
+        prefetchTags(files.toArray(new File[0]), Collections.<File> emptySet());
+
+        List<PlaylistItem> added = new ArrayList<PlaylistItem>(lines.size());
         for (int i = 0; i < lines.size() && !playlist.isDeleted(); i++) {
             AbstractLibraryTableDataLine<?> line = lines.get(i);
             if (MediaPlayer.isPlayableFile(line.getFile())) {
-                LibraryUtils.addPlaylistItem(playlist, line.getFile(), false);
+                added.add(newPlaylistItem(playlist, line.getFile(), false));
             }
         }
+
+        addPlaylistItems(playlist, added, -1);
     }
 
-    private static int addToPlaylist(Playlist playlist, File[] files, boolean starred, Set<File> ignore) {
-        return addToPlaylist(playlist, files, starred, -1, ignore);
+    private static void addToPlaylist(Playlist playlist, File[] files, boolean starred, Set<File> ignore) {
+        addToPlaylist(playlist, files, starred, -1, ignore);
     }
 
-    private static int addToPlaylist(Playlist playlist, File[] files, boolean starred, int index, Set<File> ignore) {
-        int count = 0;
+    private static void addToPlaylist(Playlist playlist, File[] files, boolean starred, int index, Set<File> ignore) {
+        List<PlaylistItem> added = new ArrayList<PlaylistItem>();
+        collectPlaylistItems(playlist, files, starred, ignore, added);
+        addPlaylistItems(playlist, added, index);
+    }
+
+    private static void collectPlaylistItems(Playlist playlist, File[] files, boolean starred, Set<File> ignore, List<PlaylistItem> added) {
+        if (files == null) {
+            return;
+        }
+
+        prefetchTags(files, ignore);
+
         for (int i = 0; i < files.length && !playlist.isDeleted(); i++) {
             if (MediaPlayer.isPlayableFile(files[i]) && !ignore.contains(files[i])) {
-                LibraryUtils.addPlaylistItem(playlist, files[i], starred, index + count);
-                count++;
+                added.add(newPlaylistItem(playlist, files[i], starred));
             } else if (files[i].isDirectory()) {
-                count += addToPlaylist(playlist, files[i].listFiles(), starred, index + count, ignore);
+                collectPlaylistItems(playlist, files[i].listFiles(), starred, ignore, added);
             }
         }
+    }
+
+    /**
+     * Parses the tags of the playable files in parallel, so they are cached when the items
+     * are created one by one.
+     */
+    private static void prefetchTags(File[] files, Set<File> ignore) {
+        if (files == null) {
+            return;
+        }
 
-        return count;
+        List<File> playableFiles = new ArrayList<File>();
+        for (File f : files) {
+            if (MediaPlayer.isPlayableFile(f) && !ignore.contains(f)) {
+                playableFiles.add(f);
+            }
+        }
+
+        if (playableFiles.size() > 1) {
+            TagsService.instance().parse(playableFiles);
+        }
     }
 
     private static void addToPlaylist(Playlist playlist, PlaylistItem[] playlistItems) {
@@ -494,7 +545,6 @@ public class LibraryUtils {
                 items.add(index + i, playlistItems[i]);
                 if (starred) {
                     playlistItems[i].setStarred(starred);
-                    playlistItems[i].save();
                 }
             }
             for (int i = 0; i < toRemove.size() && !playlist.isDeleted(); i++) {
@@ -512,10 +562,14 @@ public class LibraryUtils {
             for (int i = 0; i < items.size(); i++) {
                 PlaylistItem item = items.get(i);
                 item.setSortIndex(i + 1); // set index 1-based
-                item.save();
+            }
+
+            if (!playlist.isDeleted()) {
+                playlist.saveItems(new ArrayList<PlaylistItem>(items));
             }
 
         } else {
+            List<PlaylistItem> added = new ArrayList<PlaylistItem>(playlistItems.length);
             for (int i = 0; i < playlistItems.length && !playlist.isDeleted(); i++) {
 
                 playlistItems[i].setPlaylist(playlist);
@@ -526,8 +580,10 @@ public class LibraryUtils {
                     playlistItems[i].setStarred(starred);
                 }
 
-                playlistItems[i].save();
+                added.add(playlistItems[i]);
             }
+
+            playlist.saveItems(added);
         }
     }
 
@@ -593,15 +649,19 @@ public class LibraryUtils {
         HistoHashMap<String> albumNames = new HistoHashMap<String>();
         HistoHashMap<String> genres = new HistoHashMap<String>();
         
+        List<File> playableFiles = new ArrayList<File>();
         for (File mf : mediaFiles) {
             if (MediaPlayer.isPlayableFile(mf)) {
-                TagsData mt = new TagsReader(mf).parse();
-                artistNames.update(mt.getArtist());
-                artistsAlbums.update(mt.getArtist() + " - " + mt.getAlbum());
-                albumNames.update(mt.getAlbum());
-                genres.update("(" + mt.getGenre() + ")");
+                playableFiles.add(mf);
             }
         }
+
+        for (TagsData mt : TagsService.instance().parse(playableFiles).values()) {
+            artistNames.update(mt.getArtist());
+            artistsAlbums.update(mt.getArtist() + " - " + mt.getAlbum());
+            albumNames.update(mt.getAlbum());
+            genres.update("(" + mt.getGenre() + ")");
+        }
         
         Entry<String, Integer>[] histogramArtistNames = artistNames.histogram();
         Entry<String, Integer>[] histogramArtistsAlbums = artistsAlbums.histogram();
@@ -657,11 +717,13 @@ public class LibraryUtils {
             return;
         }
         try {
+            List<PlaylistItem> missing = new ArrayList<PlaylistItem>();
             for (PlaylistItem item : playlist.getItems()) {
                 if (!new File(item.getFilePath()).exists()) {
-                    item.delete();
+                    missing.add(item);
                 }
             }
+            playlist.deleteItems(missing);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -674,41 +736,62 @@ public class LibraryUtils {
     public static void refreshID3Tags(final Playlist playlist, final List<PlaylistItem> items) {
         executor.execute(new Runnable() {
             public void run() {
+                Set<String> paths = new LinkedHashSet<String>();
                 for (PlaylistItem item : items) {
-                    try {
-                        LibraryMediator.instance().getLibrarySearch().pushStatus(I18n.tr("Refreshing") + " " + item.getTrackAlbum() + " - " + item.getTrackTitle());
-                        File file = new File(item.getFilePath());
-                        if (file.exists()) {
-                            TagsData mt = new TagsReader(file).parse();
-                            LibraryMediator.getLibrary().updatePlaylistItemProperties(item.getFilePath(), mt.getTitle(), mt.getArtist(), mt.getAlbum(), mt.getComment(), mt.getGenre(), mt.getTrack(), mt.getYear());
-                        }
-                    } catch (Exception e) {
-                        // ignore, skip
-                    } finally {
-                        LibraryMediator.instance().getLibrarySearch().revertStatus();
+                    paths.add(item.getFilePath());
+                }
+
+                List<File> files = new ArrayList<File>(paths.size());
+                for (String path : paths) {
+                    File file = new File(path);
+                    if (file.exists()) {
+                        files.add(file);
                     }
                 }
-                GUIMediator.safeInvokeLater(new Runnable() {
-                    public void run() {
-                        if (playlist != null) {
-                            if (playlist.getId() == LibraryDatabase.STARRED_PLAYLIST_ID) {
-                                DirectoryHolder dh = LibraryMediator.instance().getLibraryExplorer().getSelectedDirectoryHolder();
-                                if (dh instanceof StarredDirectoryHolder) {
-                                    LibraryMediator.instance().getLibraryExplorer().refreshSelection();
-                                }
-                            } else {
-                                Playlist selectedPlaylist = LibraryMediator.instance().getLibraryPlaylists().getSelectedPlaylist();
-                                if (selectedPlaylist != null && selectedPlaylist.equals(playlist)) {
-                                    LibraryMediator.instance().getLibraryPlaylists().refreshSelection();
-                                }
-                            }
+
+                TagsService.instance().parse(files, new TagsService.Listener() {
+
+                    public void onTags(File file, TagsData mt) {
+                        try {
+                            LibraryMediator.getLibrary().updatePlaylistItemProperties(file.getPath(), mt.getTitle(), mt.getArtist(), mt.getAlbum(), mt.getComment(), mt.getGenre(), mt.getTrack(), mt.getYear());
+                        } catch (Exception e) {
+                            // ignore, skip
                         }
                     }
+
+                    public void onProgress(int done, int total) {
+                        LibraryMediator.instance().getLibrarySearch().pushStatus(I18n.tr("Refreshing") + " " + done + " / " + total);
+                    }
+
+                    public void onFinished(boolean canceled) {
+                        LibraryMediator.instance().getLibrarySearch().revertStatus();
+                        refreshPlaylistSelection(playlist);
+                    }
                 });
             }
         });
     }
 
+    private static void refreshPlaylistSelection(final Playlist playlist) {
+        GUIMediator.safeInvokeLater(new Runnable() {
+            public void run() {
+                if (playlist != null) {
+                    if (playlist.getId() == LibraryDatabase.STARRED_PLAYLIST_ID) {
+                        DirectoryHolder dh = LibraryMediator.instance().getLibraryExplorer().getSelectedDirectoryHolder();
+                        if (dh instanceof StarredDirectoryHolder) {
+                            LibraryMediator.instance().getLibraryExplorer().refreshSelection();
+                        }
+                    } else {
+                        Playlist selectedPlaylist = LibraryMediator.instance().getLibraryPlaylists().getSelectedPlaylist();
+                        if (selectedPlaylist != null && selectedPlaylist.equals(playlist)) {
+                            LibraryMediator.instance().getLibraryPlaylists().refreshSelection();
+                        }
+                    }
+                }
+            }
+        });
+    }
+
     private static boolean isPlaylistSelected(Playlist playlist) {
         Playlist selectedPlaylist = LibraryMediator.instance().getLibraryPlaylists().getSelectedPlaylist();
         return selectedPlaylist != null && selectedPlaylist.equals(playlist);
@@ -860,9 +943,10 @@ public class LibraryUtils {
         for (int i = 0; i < items.size(); i++) {
             PlaylistItem item = items.get(i);
             item.setSortIndex(i + 1); // set index (1-based)
-            item.save();
         }
 
+        playlist.saveSortIndexes(items);
+
         // initiate UI refresh
         GUIMediator.safeInvokeLater(new Runnable() {
             public void run() {
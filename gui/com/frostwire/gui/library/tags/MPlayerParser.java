@@ -19,6 +19,9 @@ package com.frostwire.gui.library.tags;
 
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.logging.Log;
@@ -47,29 +50,67 @@ class MPlayerParser extends AbstractTagParser {
             MPlayer mplayer = new MPlayer();
 
             try {
-                Map<String, String> properties = mplayer.getProperties(file.getAbsolutePath());
+                data = parse(mplayer.getProperties(file.getAbsolutePath()));
+            } finally {
+                mplayer.dispose();
+            }
+        } catch (Exception e) {
+            LOG.warn("Unable to parse file with mplayer: " + file, e);
+        }
 
-                int duration = parseDuration(properties.get("ID_LENGTH"));
-                String bitrate = parseBitrate(properties.get("ID_AUDIO_BITRATE"));
+        return data;
+    }
 
-                String title = properties.get("Title");
-                String artist = properties.get("Artist");
-                String album = properties.get("Album");
-                String comment = properties.get("Comment");
-                String genre = properties.get("Genre");
-                String track = properties.get("Track");
-                String year = properties.get("Year");
+    /**
+     * Parses all the files with a single mplayer process.
+     * 
+     * @return the tags of the files, missing the ones that failed or mplayer didn't report
+     */
+    public static Map<File, TagsData> parse(List<File> files) {
+        Map<File, TagsData> result = new HashMap<File, TagsData>();
 
-                data = sanitize(duration, bitrate, title, artist, album, comment, genre, track, year);
+        try {
+            List<String> paths = new ArrayList<String>(files.size());
+            for (File f : files) {
+                paths.add(f.getAbsolutePath());
+            }
 
+            MPlayer mplayer = new MPlayer();
+
+            try {
+                Map<String, Map<String, String>> properties = mplayer.getProperties(paths);
+
+                for (int i = 0; i < files.size(); i++) {
+                    File f = files.get(i);
+                    Map<String, String> fileProperties = properties.get(paths.get(i));
+                    // not reported by mplayer, e.g. it timed out, left out so it is parsed again next time
+                    if (fileProperties != null) {
+                        result.put(f, new MPlayerParser(f).parse(fileProperties));
+                    }
+                }
             } finally {
                 mplayer.dispose();
             }
         } catch (Exception e) {
-            LOG.warn("Unable to parse file with mplayer: " + file, e);
+            LOG.warn("Unable to parse " + files.size() + " files with mplayer", e);
         }
 
-        return data;
+        return result;
+    }
+
+    private TagsData parse(Map<String, String> properties) {
+        int duration = parseDuration(properties.get("ID_LENGTH"));
+        String bitrate = parseBitrate(properties.get("ID_AUDIO_BITRATE"));
+
+        String title = properties.get("Title");
+        String artist = properties.get("Artist");
+        String album = properties.get("Album");
+        String comment = properties.get("Comment");
+        String genre = properties.get("Genre");
+        String track = properties.get("Track");
+        String year = properties.get("Year");
+
+        return sanitize(duration, bitrate, title, artist, album, comment, genre, track, year);
     }
 
     @Override
@@ -38,23 +38,11 @@ public class TagsReader {
         this.file = file;
     }
 
+    /**
+     * @see TagsService#parse(File)
+     */
     public TagsData parse() {
-        TagsData data = null;
-
-        TagsParser parser = new TagsParserFactory().getInstance(file);
-
-        if (parser != null) {
-            data = parser.parse();
-
-            // aldenml: fallback to mplayer parsing, refactor this logic (remove it)
-            if (data == null || isEmpty(data)) {
-                data = new MPlayerParser(file).parse();
-            }
-        } else {
-            LOG.warn("Unable to create tags parser for file: " + file);
-        }
-
-        return data;
+        return TagsService.instance().parse(file);
     }
 
     public BufferedImage getArtwork() {
@@ -69,8 +57,4 @@ public class TagsReader {
 
         return image;
     }
-
-    private boolean isEmpty(TagsData data) {
-        return false; // default behavior for now
-    }
 }
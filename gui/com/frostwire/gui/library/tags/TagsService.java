@@ -0,0 +1,483 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.gui.library.tags;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.limewire.concurrent.ExecutorsHelper;
+import org.limewire.util.CommonUtils;
+
+/**
+ * Extracts the tags of many files in parallel, with a persistent cache of the results.
+ * <p>
+ * The cache is keyed by path and only used while the size and the modification time of
+ * the file don't change. The files the regular parsers can't handle are probed in batches
+ * with a single mplayer process per batch.
+ *
+ * @author aldenml
+ *
+ */
+public final class TagsService {
+
+    private static final Log LOG = LogFactory.getLog(TagsService.class);
+
+    private static final int VERSION = 1;
+
+    private static final String CACHE_FILE_NAME = "tags.dat";
+
+    private static final int MAX_CACHE_SIZE = 50000;
+
+    private static final int MPLAYER_BATCH_SIZE = 50;
+
+    /**
+     * To keep every record under the limit of {@link DataOutputStream#writeUTF(String)}.
+     */
+    private static final int MAX_STRING_LENGTH = 4096;
+
+    private static TagsService INSTANCE;
+
+    public synchronized static TagsService instance() {
+        if (INSTANCE == null) {
+            INSTANCE = new TagsService(new File(CommonUtils.getUserSettingsDir(), CACHE_FILE_NAME));
+        }
+        return INSTANCE;
+    }
+
+    private final File cacheFile;
+    private final ExecutorService tasks;
+    private final ExecutorService workers;
+    private final Map<String, CachedTags> cache;
+
+    private boolean loaded;
+    private boolean dirty;
+
+    private TagsService(File cacheFile) {
+        this.cacheFile = cacheFile;
+
+        int numWorkers = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+        this.tasks = ExecutorsHelper.newThreadPool("TagsService-Tasks");
+        this.workers = ExecutorsHelper.newFixedSizeThreadPool(numWorkers, "TagsService-Worker");
+
+        this.cache = new LinkedHashMap<String, CachedTags>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = -3306402735064738519L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedTags> eldest) {
+                return size() > MAX_CACHE_SIZE;
+            }
+        };
+    }
+
+    /**
+     * Parses a single file in the calling thread, unless it's in the cache.
+     */
+    public TagsData parse(File file) {
+        TagsData data = getCached(file);
+
+        if (data == null) {
+            TagsParser parser = new TagsParserFactory().getInstance(file);
+
+            data = parser.parse();
+
+            // aldenml: fallback to mplayer parsing, refactor this logic (remove it)
+            if (data == null && !(parser instanceof MPlayerParser)) {
+                data = new MPlayerParser(file).parse();
+            }
+
+            putCached(file, data);
+        }
+
+        return data;
+    }
+
+    /**
+     * Parses the files in the background. The listener is called from a single thread, in
+     * the order the files are parsed.
+     */
+    public Task parse(final List<File> files, final Listener listener) {
+        final Task task = new Task();
+
+        tasks.execute(new Runnable() {
+            public void run() {
+                try {
+                    process(files, listener, task);
+                } catch (Throwable e) {
+                    LOG.error("Error parsing tags", e);
+                } finally {
+                    listener.onFinished(task.isCanceled());
+                    save();
+                }
+            }
+        });
+
+        return task;
+    }
+
+    /**
+     * Parses the files in parallel and waits for the results.
+     *
+     * @return the tags of the files, missing the ones that failed
+     */
+    public Map<File, TagsData> parse(List<File> files) {
+        final Map<File, TagsData> result = new HashMap<File, TagsData>();
+
+        try {
+            process(files, new Listener() {
+                public void onTags(File file, TagsData data) {
+                    result.put(file, data);
+                }
+
+                public void onProgress(int done, int total) {
+                }
+
+                public void onFinished(boolean canceled) {
+                }
+            }, new Task());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        return result;
+    }
+
+    /**
+     * Saves the cache, if there are changes.
+     */
+    public synchronized void save() {
+        if (!dirty) {
+            return;
+        }
+
+        File temp = new File(cacheFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+
+            out.writeInt(VERSION);
+            out.writeInt(cache.size());
+
+            for (Map.Entry<String, CachedTags> e : cache.entrySet()) {
+                CachedTags c = e.getValue();
+                TagsData d = c.data;
+
+                writeString(out, e.getKey());
+                out.writeLong(c.size);
+                out.writeLong(c.lastModified);
+
+                out.writeInt(d.getDuration());
+                writeString(out, d.getBitrate());
+                writeString(out, d.getTitle());
+                writeString(out, d.getArtist());
+                writeString(out, d.getAlbum());
+                writeString(out, d.getComment());
+                writeString(out, d.getGenre());
+                writeString(out, d.getTrack());
+                writeString(out, d.getYear());
+            }
+
+            out.close();
+            out = null;
+
+            if (cacheFile.exists() && !cacheFile.delete()) {
+                throw new IOException("Unable to replace " + cacheFile);
+            }
+            if (!temp.renameTo(cacheFile)) {
+                throw new IOException("Unable to rename " + temp);
+            }
+
+            dirty = false;
+        } catch (Throwable e) {
+            LOG.warn("Error saving tags cache", e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private void process(List<File> files, Listener listener, final Task task) throws InterruptedException {
+        int total = files.size();
+        int done = 0;
+
+        ExecutorCompletionService<ParseResult> completion = new ExecutorCompletionService<ParseResult>(workers);
+
+        for (final File file : files) {
+            completion.submit(new Callable<ParseResult>() {
+                public ParseResult call() {
+                    return parseWithoutMPlayer(file, task);
+                }
+            });
+        }
+
+        List<File> pending = new ArrayList<File>();
+
+        for (int i = 0; i < total; i++) {
+            ParseResult r = take(completion);
+
+            if (task.isCanceled()) {
+                continue;
+            }
+
+            if (r.data != null) {
+                listener.onTags(r.file, r.data);
+                listener.onProgress(++done, total);
+            } else if (r.mplayer) {
+                pending.add(r.file);
+            } else {
+                listener.onProgress(++done, total);
+            }
+        }
+
+        if (task.isCanceled() || pending.isEmpty()) {
+            return;
+        }
+
+        ExecutorCompletionService<Map<File, TagsData>> batches = new ExecutorCompletionService<Map<File, TagsData>>(workers);
+
+        int numBatches = 0;
+        for (int i = 0; i < pending.size(); i += MPLAYER_BATCH_SIZE) {
+            final List<File> batch = pending.subList(i, Math.min(i + MPLAYER_BATCH_SIZE, pending.size()));
+
+            batches.submit(new Callable<Map<File, TagsData>>() {
+                public Map<File, TagsData> call() {
+                    if (task.isCanceled()) {
+                        return new HashMap<File, TagsData>();
+                    }
+
+                    Map<File, TagsData> result = MPlayerParser.parse(batch);
+                    for (Map.Entry<File, TagsData> e : result.entrySet()) {
+                        putCached(e.getKey(), e.getValue());
+                    }
+                    return result;
+                }
+            });
+            numBatches++;
+        }
+
+        for (int i = 0; i < numBatches; i++) {
+            Map<File, TagsData> result = take(batches);
+
+            if (task.isCanceled()) {
+                continue;
+            }
+
+            for (Map.Entry<File, TagsData> e : result.entrySet()) {
+                if (e.getValue() != null) {
+                    listener.onTags(e.getKey(), e.getValue());
+                }
+            }
+
+            done += Math.min(MPLAYER_BATCH_SIZE, pending.size() - i * MPLAYER_BATCH_SIZE);
+            listener.onProgress(done, total);
+        }
+    }
+
+    private ParseResult parseWithoutMPlayer(File file, Task task) {
+        if (task.isCanceled()) {
+            return new ParseResult(file, null, false);
+        }
+
+        try {
+            TagsData data = getCached(file);
+
+            if (data == null) {
+                TagsParser parser = new TagsParserFactory().getInstance(file);
+
+                if (parser instanceof MPlayerParser) {
+                    return new ParseResult(file, null, true);
+                }
+
+                data = parser.parse();
+                if (data == null) {
+                    return new ParseResult(file, null, true);
+                }
+
+                putCached(file, data);
+            }
+
+            return new ParseResult(file, data, false);
+        } catch (Throwable e) {
+            LOG.warn("Unable to parse tags of file: " + file, e);
+            return new ParseResult(file, null, false);
+        }
+    }
+
+    private static <T> T take(ExecutorCompletionService<T> completion) throws InterruptedException {
+        try {
+            return completion.take().get();
+        } catch (ExecutionException e) {
+            // the jobs don't throw
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private TagsData getCached(File file) {
+        long size = file.length();
+        long lastModified = file.lastModified();
+
+        synchronized (this) {
+            ensureLoaded();
+
+            CachedTags c = cache.get(file.getAbsolutePath());
+
+            return c != null && c.size == size && c.lastModified == lastModified ? c.data : null;
+        }
+    }
+
+    private void putCached(File file, TagsData data) {
+        if (data == null) {
+            return;
+        }
+
+        long size = file.length();
+        long lastModified = file.lastModified();
+
+        synchronized (this) {
+            ensureLoaded();
+
+            cache.put(file.getAbsolutePath(), new CachedTags(size, lastModified, data));
+            dirty = true;
+        }
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+
+        loaded = true;
+
+        if (!cacheFile.exists()) {
+            return;
+        }
+
+        DataInputStream in = null;
+
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+
+            if (in.readInt() != VERSION) {
+                return;
+            }
+
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                String path = in.readUTF();
+                long size = in.readLong();
+                long lastModified = in.readLong();
+
+                TagsData data = new TagsData(in.readInt(), in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF());
+
+                cache.put(path, new CachedTags(size, lastModified, data));
+            }
+        } catch (Throwable e) {
+            LOG.warn("Error loading tags cache", e);
+            cache.clear();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            s = "";
+        } else if (s.length() > MAX_STRING_LENGTH) {
+            s = s.substring(0, MAX_STRING_LENGTH);
+        }
+        out.writeUTF(s);
+    }
+
+    public interface Listener {
+
+        public void onTags(File file, TagsData data);
+
+        public void onProgress(int done, int total);
+
+        public void onFinished(boolean canceled);
+    }
+
+    public static final class Task {
+
+        private volatile boolean canceled;
+
+        public void cancel() {
+            canceled = true;
+        }
+
+        public boolean isCanceled() {
+            return canceled;
+        }
+    }
+
+    private static final class CachedTags {
+
+        public final long size;
+        public final long lastModified;
+        public final TagsData data;
+
+        public CachedTags(long size, long lastModified, TagsData data) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.data = data;
+        }
+    }
+
+    private static final class ParseResult {
+
+        public final File file;
+        public final TagsData data;
+        public final boolean mplayer;
+
+        public ParseResult(File file, TagsData data, boolean mplayer) {
+            this.file = file;
+            this.data = data;
+            this.mplayer = mplayer;
+        }
+    }
+}
@@ -21,9 +21,11 @@ package com.frostwire.gui.mplayer;
 import java.awt.Dimension;
 import java.io.File;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -726,4 +728,53 @@ public class MPlayer extends BaseMediaPlayer {
 				});
 		return properties;
 	}
+
+	/**
+	 * Same as {@link #getProperties(String)} for many files, using a single mplayer process.
+	 *
+	 * @return the properties of each file mplayer reported, by file name. The files
+	 * mplayer didn't get to, for instance because it timed out, are not in the map.
+	 */
+	public Map<String, Map<String, String>> getProperties(List<String> filesOrUrls) {
+		MPlayerInstance instance = new MPlayerInstance(null);
+		final Set<String> requested = new HashSet<String>(filesOrUrls);
+		final Map<String, Map<String, String>> result = new HashMap<String, Map<String, String>>();
+
+		instance.doGetProperties(filesOrUrls,
+				new MPlayerInstance.OutputConsumer() {
+					private Map<String, String> properties = null;
+					private String lastKey = null;
+
+					public void consume(String line) {
+						if (line.startsWith("ID_FILENAME=")) {
+							String fileOrUrl = line.substring("ID_FILENAME=".length());
+							properties = result.get(fileOrUrl);
+							if (properties == null && requested.contains(fileOrUrl)) {
+								properties = new HashMap<String, String>();
+								result.put(fileOrUrl, properties);
+							}
+							lastKey = null;
+							return;
+						}
+
+						if (properties == null || line.split("=").length < 2) {
+							return;
+						}
+
+						if (line.startsWith("ID_CLIP_INFO_NAME")) {
+							lastKey = line.split("=")[1];
+						} else if (line.startsWith("ID_CLIP_INFO_VALUE")) {
+
+							if (lastKey != null) {
+								properties.put(lastKey, line.split("=")[1]);
+								lastKey = null;
+							}
+						} else if (line.startsWith("ID_")) {
+							String[] kv = line.split("=");
+							properties.put(kv[0], kv[1]);
+						}
+					}
+				});
+		return result;
+	}
 }
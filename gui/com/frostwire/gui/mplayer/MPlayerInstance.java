@@ -987,6 +987,14 @@ MPlayerInstance
 	}
 
     public void doGetProperties(String fileOrUrl, final OutputConsumer _outputConsumer) {
+        doGetProperties(Arrays.asList(fileOrUrl), _outputConsumer);
+    }
+
+    /**
+     * Identifies all the files with a single mplayer process, the output of each file
+     * starts with its ID_FILENAME line.
+     */
+    public void doGetProperties(List<String> filesOrUrls, final OutputConsumer _outputConsumer) {
         final OutputConsumer output_consumer = new OutputConsumer() {
             public void consume(String output) {
                 _outputConsumer.consume(output);
@@ -1014,7 +1022,7 @@ MPlayerInstance
             cmdList.add("-frames");
             cmdList.add("0");
 
-            cmdList.add(fileOrUrl);
+            cmdList.addAll(filesOrUrls);
 
             String[] cmd = cmdList.toArray(new String[cmdList.size()]);
 
@@ -1045,7 +1053,7 @@ MPlayerInstance
                 stdOutReader.setDaemon(true);
                 stdOutReader.start();
                 
-                signal.await(5, TimeUnit.SECONDS);
+                signal.await(5L * filesOrUrls.size(), TimeUnit.SECONDS);
 
             } catch (Throwable e) {
 
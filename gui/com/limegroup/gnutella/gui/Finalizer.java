@@ -1,6 +1,8 @@
 package com.limegroup.gnutella.gui;
 
+import com.frostwire.gui.library.LibraryFileIndex;
 import com.frostwire.gui.library.LibraryMediator;
+import com.frostwire.gui.library.tags.TagsService;
 import com.frostwire.gui.player.MediaPlayer;
 import com.frostwire.uxstats.UXStats;
 import com.limegroup.gnutella.gui.bugs.BugManager;
@@ -60,6 +62,8 @@ final class Finalizer {
         UXStats.instance().flush();
 
         LibraryMediator.instance().getDeviceDiscoveryClerk().stop();
+        LibraryFileIndex.instance().stop();
+        TagsService.instance().save();
         SearchMediator.instance().shutdown();
 
         MediaPlayer.instance().stop();
@@ -20,6 +20,7 @@ import org.limewire.util.FileUtils;
 
 import com.frostwire.gui.Librarian;
 import com.frostwire.gui.library.AddLibraryDirectoryAction;
+import com.frostwire.gui.library.LibraryFileIndex;
 import com.frostwire.gui.library.LibraryMediator;
 import com.frostwire.gui.library.RecursiveLibraryDirectoryPanel;
 import com.frostwire.gui.library.RemoveLibraryDirectoryAction;
@@ -183,6 +184,7 @@ public final class LibraryFoldersPaneItem extends AbstractPaneItem {
 	        updateSharedTable();
 	    }
 	    
+	    LibraryFileIndex.instance().refresh();
 	    LibraryMediator.instance().clearDirectoryHolderCaches();
         return false;
 	}
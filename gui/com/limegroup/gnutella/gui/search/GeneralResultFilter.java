@@ -18,6 +18,9 @@
 
 package com.limegroup.gnutella.gui.search;
 
+import java.util.Arrays;
+
+import com.frostwire.gui.filters.KeywordMatcher;
 import com.frostwire.gui.filters.TableLineFilter;
 import com.limegroup.gnutella.gui.GUIUtils;
 import com.limegroup.gnutella.gui.LabeledTextField;
@@ -45,6 +48,7 @@ public final class GeneralResultFilter implements TableLineFilter<SearchResultDa
     private int _maxSize;
 
     private String _keywords;
+    private KeywordMatcher _keywordMatcher;
 
     public GeneralResultFilter(SearchResultMediator rp, LabeledRangeSlider rangeSliderSeeds, LabeledRangeSlider rangeSliderSize, LabeledTextField keywordTextField) {
         _rp = rp;
@@ -137,30 +141,12 @@ public final class GeneralResultFilter implements TableLineFilter<SearchResultDa
         return inSeedRange && inSizeRange && hasKeywords;
     }
 
+    /**
+     * All the keywords must be in the file name.
+     */
     private boolean hasKeywords(String filename) {
-
-        String keywordText = _keywords;
-
-        if (keywordText == null || keywordText.trim().length() == 0) {
-            return true;
-        }
-
-        //if it's just one keyword.
-        String[] keywords = keywordText.split(" ");
-
-        if (keywords.length == 1) {
-            return filename.toLowerCase().contains(keywordText.toLowerCase());
-        } else {
-            String fname = filename.toLowerCase();
-            //all keywords must be in the file name.
-            for (String k : keywords) {
-                if (!fname.contains(k.toLowerCase())) {
-                    return false;
-                }
-            }
-        }
-
-        return true;
+        KeywordMatcher matcher = _keywordMatcher;
+        return matcher == null || matcher.matchesAll(filename);
     }
 
     public int getMinResultsSeeds() {
@@ -209,6 +195,7 @@ public final class GeneralResultFilter implements TableLineFilter<SearchResultDa
 
     public void updateKeywordFiltering(String text) {
         _keywords = new String(text);
+        _keywordMatcher = text.trim().length() == 0 ? null : new KeywordMatcher(Arrays.asList(text.split(" ")), false);
         _rp.filterChanged(this, 1);
     }
 
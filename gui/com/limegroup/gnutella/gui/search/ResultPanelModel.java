@@ -16,8 +16,12 @@
 package com.limegroup.gnutella.gui.search;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+import org.limewire.collection.IndexedTreeList;
+
+import com.frostwire.search.SearchResultKeys;
 import com.limegroup.gnutella.gui.tables.AbstractTableMediator;
 import com.limegroup.gnutella.gui.tables.BasicDataLineModel;
 import com.limegroup.gnutella.gui.tables.LimeTableColumn;
@@ -29,6 +33,12 @@ import com.limegroup.gnutella.settings.SearchSettings;
  * Ensures that if new lines are added and they are similiar to old lines,
  * that the new lines are added as extra information to the existing lines,
  * instead of as brand new lines.
+ *
+ * The lines are kept in an {@link IndexedTreeList}, so sorted inserts, removals
+ * and finding the row of a line are O(log n) even with thousands of results.
+ *
+ * A result is the same as an old one if they have the same key, see
+ * {@link SearchResultKeys}, e.g. the same torrent found by several engines.
  */
 class ResultPanelModel extends BasicDataLineModel<SearchResultDataLine, UISearchResult> {
 
@@ -43,17 +53,25 @@ class ResultPanelModel extends BasicDataLineModel<SearchResultDataLine, UISearch
     protected final SearchTableColumns COLUMNS = new SearchTableColumns();
 
     /**
-     * HashMap for quick access to indexes based on SHA1 info.
+     * The same list as _list, with the tree operations.
      */
-    private final Map<String, Integer> _indexes = new HashMap<String, Integer>();
+    private final IndexedTreeList<SearchResultDataLine> _lines;
 
     private int _numResults;
 
+    /**
+     * The lines by the key of their result, including the filtered out lines.
+     */
+    private final Map<String, SearchResultDataLine> _keys;
+
     /**
      * Constructs a new ResultPanelModel with the given MetadataModel.
      */
     ResultPanelModel() {
         super(SearchResultDataLine.class);
+        _lines = new IndexedTreeList<SearchResultDataLine>();
+        _list = _lines;
+        _keys = new HashMap<String, SearchResultDataLine>();
     }
 
     /**
@@ -99,17 +117,17 @@ class ResultPanelModel extends BasicDataLineModel<SearchResultDataLine, UISearch
     }
 
     /** 
-     * Overrides the default remove to remove the index from the hashmap.
+     * Overrides the default remove to keep the count of results.
      *
      * @param row  the index of the row to remove.
      */
     public void remove(int row) {
-        String sha1 = getHash(row);
-        if (sha1 != null)
-            _indexes.remove(sha1);
+        String key = key(_lines.get(row).getSearchResult());
+        if (key != null) {
+            _keys.remove(key);
+        }
         super.remove(row);
         _numResults -= 1;
-        remapIndexes(row);
     }
 
     /**
@@ -119,6 +137,32 @@ class ResultPanelModel extends BasicDataLineModel<SearchResultDataLine, UISearch
         return add(o, getRowCount());
     }
 
+    /**
+     * Merges the result into the line of the same result, if there is one.
+     */
+    public int add(UISearchResult o, int row) {
+        boolean sorted = isSorted();
+        SearchResultDataLine line = merge(o, sorted);
+        if (line != null) {
+            int merged = _lines.identityIndexOf(line);
+            if (merged != -1) {
+                if (sorted) {
+                    fireTableDataChanged();
+                } else {
+                    fireTableRowsUpdated(merged, merged);
+                }
+            }
+            return merged;
+        }
+
+        SearchResultDataLine dl = getNewDataLine(o);
+        if (dl == null) {
+            return -1;
+        }
+        register(o, dl);
+        return add(dl, row);
+    }
+
     /**
      * Override to fix compile error on OSX.
      */
@@ -135,83 +179,180 @@ class ResultPanelModel extends BasicDataLineModel<SearchResultDataLine, UISearch
     }
 
     /**
-     * Maintains the indexes HashMap & MetadataModel.
+     * Maintains the count of results.
      */
     public int add(SearchResultDataLine tl, int row) {
         _numResults += 1;
-        String sha1 = tl.getHash();
-        if (sha1 != null)
-            _indexes.put(sha1, new Integer(row));
-        int addedAt = super.add(tl, row);
-        remapIndexes(addedAt + 1);
-        return addedAt;
+        return super.add(tl, row);
     }
 
     /**
-     * Gets the row this DataLine is at.
+     * Adds the lines accepted by {@link #accept(SearchResultDataLine)} with a single table
+     * event, appended or, if sorted, inserted in their sorted positions. The results
+     * already in the table are merged into their lines instead.
+     * 
+     * @param added the results that got a line of their own are added here
+     * @return true if the lines were inserted between the previous rows, which are no
+     *         longer valid
      */
-    public int getRow(SearchResultDataLine tl) {
-        String sha1 = tl.getHash();
-        if (sha1 != null)
-            return fastMatch(sha1);
-        else
-            return super.getRow(tl);
+    boolean addAll(List<UISearchResult> results, boolean sorted, List<UISearchResult> added) {
+        int start = getRowCount();
+        // rows of the merged lines, they don't move unless sorted
+        int firstMerged = Integer.MAX_VALUE;
+        int lastMerged = -1;
+
+        for (UISearchResult o : results) {
+            SearchResultDataLine line = merge(o, sorted);
+            if (line != null) {
+                int row = _lines.identityIndexOf(line);
+                if (row != -1) {
+                    firstMerged = Math.min(firstMerged, row);
+                    lastMerged = Math.max(lastMerged, row);
+                }
+                continue;
+            }
+
+            SearchResultDataLine dl = getNewDataLine(o);
+            if (dl != null) {
+                register(o, dl);
+                added.add(o);
+                if (accept(dl)) {
+                    _lines.add(sorted ? getSortedPosition(dl) : _lines.size(), dl);
+                    _numResults += 1;
+                }
+            }
+        }
+
+        int end = getRowCount();
+        if (end == start && lastMerged == -1) {
+            return false;
+        }
+
+        if (sorted) {
+            fireTableDataChanged();
+            return true;
+        }
+
+        if (lastMerged != -1) {
+            fireTableRowsUpdated(firstMerged, lastMerged);
+        }
+        if (end > start) {
+            fireTableRowsInserted(start, end - 1);
+        }
+        return false;
     }
 
-    /** 
-     * Overrides the default sort to maintain the indexes HashMap,
-     * according to the current sort column and order.
+    /**
+     * Merges the result into the line of the same result from another engine, moving
+     * the line if sorted, since it may have more seeds now.
+     * 
+     * @return the line, or null if there is no line of the same result
      */
-    protected void doResort() {
-        super.doResort();
-        _indexes.clear(); // it's easier & quicker to just clear & re-input
-        remapIndexes(0);
+    private SearchResultDataLine merge(UISearchResult o, boolean sorted) {
+        String key = key(o);
+        SearchResultDataLine line = key != null ? _keys.get(key) : null;
+        if (line == null) {
+            return null;
+        }
+
+        int row = _lines.identityIndexOf(line);
+        if (row != -1 && sorted) {
+            _lines.remove(row);
+            line.addOtherResult(o);
+            _lines.add(getSortedPosition(line), line);
+        } else {
+            line.addOtherResult(o);
+        }
+
+        return line;
+    }
+
+    private void register(UISearchResult o, SearchResultDataLine line) {
+        String key = key(o);
+        if (key != null) {
+            _keys.put(key, line);
+        }
+    }
+
+    private static String key(UISearchResult o) {
+        return SearchResultKeys.key(o.getSearchResult());
     }
 
     /**
-     * Does nothing -- lines need no cleanup.
+     * Checks the lines in the table again with {@link #accept(SearchResultDataLine)}, and
+     * adds the given lines it accepts. Only the lines that change state are moved, the
+     * caller must fire the table event.
      */
-    protected void cleanup() {
+    protected void refilter(List<SearchResultDataLine> lines, boolean sorted) {
+        // backwards, so the removals don't move the rows still to check
+        for (int i = _lines.size() - 1; i >= 0; i--) {
+            if (!accept(_lines.get(i))) {
+                _lines.remove(i);
+                _numResults -= 1;
+            }
+        }
+
+        if (sorted) {
+            // already in order unless the sort itself changed
+            doResort();
+        }
+
+        for (SearchResultDataLine tl : lines) {
+            if (accept(tl)) {
+                _lines.add(sorted ? getSortedPosition(tl) : _lines.size(), tl);
+                _numResults += 1;
+            }
+        }
     }
 
     /**
-     * Simple clear -- clears the number of sources & cached SHA1 indexes.
-     * Calls super.clear to erase the stored lines.
+     * Finds the position in the tree, after the equal lines.
      */
-    protected void simpleClear() {
-        _numResults = 0;
-        _indexes.clear();
-        super.clear();
+    public int getSortedPosition(SearchResultDataLine dl) {
+        return _lines.insertionPoint(dl, this);
     }
 
     /**
-     * Remaps the indexes, starting at 'start' and going to the end of
-     * the list.  This is needed for when rows are added to the middle of
-     * the list to maintain the correct rows per objects.
+     * Determines whether or not the line should be in the table, all lines are by default.
      */
-    private void remapIndexes(int start) {
-        remapIndexes(start, getRowCount());
+    protected boolean accept(SearchResultDataLine line) {
+        return true;
     }
 
     /**
-     * Remaps the indexes, starting at 'start' and going to 'end'.
-     * This is useful for when we move a row from end to start or vice versa.
+     * Gets the row this DataLine is at, from its node in the tree.
      */
-    private void remapIndexes(int start, int end) {
-        for (int i = start; i < end; i++) {
-            String sha1 = getHash(i);
-            if (sha1 != null)
-                _indexes.put(sha1, new Integer(i));
-        }
+    public int getRow(SearchResultDataLine tl) {
+        return _lines.indexOf(tl);
+    }
+
+    /** 
+     * Sorts the tree in place, according to the current sort column and order.
+     */
+    protected void doResort() {
+        _lines.sort(this);
     }
 
     /**
-     * Gets the SHA1 URN for a row.
+     * Does nothing -- lines need no cleanup.
      */
-    private String getHash(int idx) {
-        if (idx >= getRowCount())
-            return null;
-        return get(idx).getHash();
+    protected void cleanup() {
+    }
+
+    /**
+     * Simple clear -- clears the number of sources.
+     * Calls super.clear to erase the stored lines.
+     */
+    protected void simpleClear() {
+        _numResults = 0;
+        _keys.clear();
+        super.clear();
+    }
+
+    @Override
+    public void clear() {
+        _keys.clear();
+        super.clear();
     }
 
     /** Compares the spam difference between the two rows. */
@@ -245,17 +386,6 @@ class ResultPanelModel extends BasicDataLineModel<SearchResultDataLine, UISearch
         return (c1 - c2) * _ascending;
     }
 
-    /**
-     * Fast match -- lookup in the table.
-     */
-    private int fastMatch(String sha1) {
-        Integer idx = _indexes.get(sha1);
-        if (idx == null)
-            return -1;
-        else
-            return idx.intValue();
-    }
-
     public int getTotalResults() {
         return _numResults;
     }
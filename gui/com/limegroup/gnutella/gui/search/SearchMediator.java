@@ -16,16 +16,10 @@
 package com.limegroup.gnutella.gui.search;
 
 import java.io.File;
-import java.text.Normalizer;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Locale;
-import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import javax.swing.JComponent;
 import javax.swing.SwingUtilities;
@@ -37,19 +31,20 @@ import org.limewire.util.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.frostwire.gui.filters.SearchFilter;
 import com.frostwire.gui.filters.SearchFilterFactory;
 import com.frostwire.gui.filters.SearchFilterFactoryImpl;
+import com.frostwire.search.AdaptiveTimeouts;
 import com.frostwire.search.CrawlPagedWebSearchPerformer;
 import com.frostwire.search.CrawledSearchResult;
 import com.frostwire.search.DatabaseCrawlCache;
-import com.frostwire.search.FileSearchResult;
 import com.frostwire.search.SearchManager;
 import com.frostwire.search.SearchManagerImpl;
+import com.frostwire.search.TieredCrawlCache;
 import com.frostwire.search.SearchManagerListener;
 import com.frostwire.search.SearchPerformer;
 import com.frostwire.search.SearchResult;
 import com.frostwire.search.VuzeMagnetDownloader;
+import com.frostwire.search.WebSearchPerformer;
 import com.frostwire.search.archiveorg.ArchiveorgCrawledSearchResult;
 import com.frostwire.search.soundcloud.SoundcloudSearchResult;
 import com.frostwire.search.torrent.TorrentSearchResult;
@@ -111,8 +106,22 @@ public final class SearchMediator {
 
     private static final int SEARCH_MANAGER_NUM_THREADS = 6;
 
+    private static final long CRAWL_CACHE_MEMORY_BYTES = 16 * 1024 * 1024; // 16MB
+
+    private static final long CRAWL_CACHE_DATABASE_BYTES = 512 * 1024 * 1024; // 512MB
+
+    private static final long CRAWL_CACHE_MAX_AGE = 30 * 24 * 60 * 60; // 30 days, in seconds
+
+    private static final long SEARCH_DEADLINE = 120; // 2 minutes, in seconds
+
+    private static final int SEARCH_MAX_RESULTS = 5000;
+
     private final SearchManager manager;
 
+    private final SearchResultsDispatcher dispatcher;
+
+    private DatabaseCrawlCache databaseCache;
+
     /**
      * This instance handles the display of all search results.
      * TODO: Changed to package-protected for testing to add special results
@@ -148,14 +157,20 @@ public final class SearchMediator {
         });
 
         try {
-            CrawlPagedWebSearchPerformer.setCache(new DatabaseCrawlCache());
+            databaseCache = new DatabaseCrawlCache(CRAWL_CACHE_DATABASE_BYTES, CRAWL_CACHE_MAX_AGE);
+            CrawlPagedWebSearchPerformer.setCache(new TieredCrawlCache(databaseCache, CRAWL_CACHE_MEMORY_BYTES));
         } catch (Throwable t) {
             LOG.error("could not set database crawl cache", t);
         }
 
         CrawlPagedWebSearchPerformer.setMagnetDownloader(new VuzeMagnetDownloader());
+        WebSearchPerformer.setAdaptiveTimeouts(new AdaptiveTimeouts());
+
+        SearchManagerImpl managerImpl = new SearchManagerImpl(SEARCH_MANAGER_NUM_THREADS);
+        managerImpl.setSearchLimits(SEARCH_DEADLINE, TimeUnit.SECONDS, SEARCH_MAX_RESULTS);
 
-        this.manager = new SearchManagerImpl(SEARCH_MANAGER_NUM_THREADS);
+        this.manager = managerImpl;
+        this.dispatcher = new SearchResultsDispatcher();
         this.manager.registerListener(new ManagerListener());
     }
 
@@ -266,20 +281,20 @@ public final class SearchMediator {
         }
     }
 
-    private List<SearchResult> filter(SearchPerformer performer, List<SearchResult> results, List<String> searchTokens) {
+    private List<SearchResult> filter(SearchPerformer performer, List<SearchResult> results, SearchQueryMatcher matcher) {
         List<SearchResult> list;
 
-        if (searchTokens == null || searchTokens.isEmpty()) {
+        if (matcher == null || matcher.isEmpty()) {
             list = Collections.emptyList();
         } else {
-            list = filter(results, searchTokens);
+            list = filter(results, matcher);
         }
 
         return list;
     }
 
-    private List<SearchResult> filter(List<? extends SearchResult> results, List<String> searchTokens) {
-        List<SearchResult> list = new LinkedList<SearchResult>();
+    private List<SearchResult> filter(List<? extends SearchResult> results, SearchQueryMatcher matcher) {
+        List<SearchResult> list = new ArrayList<SearchResult>(results.size());
 
         try {
             for (SearchResult sr : results) {
@@ -287,7 +302,7 @@ public final class SearchMediator {
                     // special case for youtube
                     if (sr instanceof YouTubeCrawledSearchResult) {
                         list.add(sr);
-                    } else if (filter(new LinkedList<String>(searchTokens), sr)) {
+                    } else if (matcher.matches(sr)) {
                         list.add(sr);
                     }
                 } else {
@@ -302,73 +317,6 @@ public final class SearchMediator {
         return list;
     }
 
-    private boolean filter(List<String> tokens, SearchResult sr) {
-        StringBuilder sb = new StringBuilder();
-
-        sb.append(sr.getDisplayName());
-        if (sr instanceof CrawledSearchResult) {
-            sb.append(((CrawledSearchResult) sr).getParent().getDisplayName());
-        }
-
-        if (sr instanceof FileSearchResult) {
-            sb.append(((FileSearchResult) sr).getFilename());
-        }
-
-        String str = sanitize(sb.toString());
-        str = normalize(str);
-
-        Iterator<String> it = tokens.iterator();
-        while (it.hasNext()) {
-            String token = it.next();
-            if (str.contains(token)) {
-                it.remove();
-            }
-        }
-
-        return tokens.isEmpty();
-    }
-
-    private static String stripHtml(String str) {
-        str = str.replaceAll("\\<.*?>", "");
-        str = str.replaceAll("\\&.*?\\;", "");
-        return str;
-    }
-
-    private String sanitize(String str) {
-        str = stripHtml(str);
-        str = str.replaceAll("\\.torrent|www\\.|\\.com|\\.net|[\\\\\\/%_;\\-\\.\\(\\)\\[\\]\\n\\rÐ&~{}\\*@\\^'=!,¡|#ÀÁ]", " ");
-        str = StringUtils.removeDoubleSpaces(str);
-
-        return str.trim();
-    }
-
-    private List<String> tokenize(String keywords) {
-        keywords = sanitize(keywords);
-
-        Set<String> tokens = new HashSet<String>(Arrays.asList(keywords.toLowerCase(Locale.US).split(" ")));
-
-        return new ArrayList<String>(normalizeTokens(tokens));
-    }
-
-    private Set<String> normalizeTokens(Set<String> tokens) {
-        Set<String> normalizedTokens = new HashSet<String>();
-
-        for (String token : tokens) {
-            String norm = normalize(token);
-            normalizedTokens.add(norm);
-        }
-
-        return normalizedTokens;
-    }
-
-    private String normalize(String token) {
-        String norm = Normalizer.normalize(token, Normalizer.Form.NFKD);
-        norm = norm.replaceAll("\\p{InCombiningDiacriticalMarks}+", "");
-        norm = norm.toLowerCase(Locale.US);
-
-        return norm;
-    }
-
     private static void updateSearchIcon(final long token, final boolean active) {
         GUIMediator.safeInvokeAndWait(new Runnable() {
             public void run() {
@@ -411,8 +359,8 @@ public final class SearchMediator {
      * standard query string, and XML query string.
      */
     private static SearchResultMediator addResultTab(long token, SearchInformation info) {
-        List<String> searchTokens = instance().tokenize(info.getQuery());
-        return getSearchResultDisplayer().addResultTab(token, searchTokens, info);
+        SearchQueryMatcher matcher = new SearchQueryMatcher(info.getQuery());
+        return getSearchResultDisplayer().addResultTab(token, matcher, info);
     }
 
     /**
@@ -495,10 +443,15 @@ public final class SearchMediator {
 
     void stopSearch(long token) {
         manager.stop(token);
+        dispatcher.remove(token);
     }
 
     public void shutdown() {
         manager.stop();
+
+        if (databaseCache != null) {
+            databaseCache.close();
+        }
     }
 
     /**
@@ -539,8 +492,10 @@ public final class SearchMediator {
 
     private void onFinished(long token) {
         SearchResultMediator rp = getResultPanelForGUID(token);
-        updateSearchIcon(token, false);
-        rp.setToken(0); // to identify that the search is stopped (needs refactor)
+        if (rp != null) {
+            updateSearchIcon(token, false);
+            rp.setToken(0); // to identify that the search is stopped (needs refactor)
+        }
     }
 
     private final class ManagerListener implements SearchManagerListener {
@@ -555,41 +510,33 @@ public final class SearchMediator {
 
                 if (rp != null && !rp.isStopped()) {
                     @SuppressWarnings("unchecked")
-                    List<SearchResult> filtered = filter(performer, (List<SearchResult>) results, rp.getSearchTokens());
+                    List<SearchResult> filtered = filter(performer, (List<SearchResult>) results, rp.getQueryMatcher());
 
                     if (filtered != null && !filtered.isEmpty()) {
+                        performer.getStats().recordFilteredResults(filtered.size());
 
                         SearchEngine se = SearchEngine.getSearchEngineByName(filtered.get(0).getSource());
                         if (se == null) {
                             return;
                         }
 
-                        final List<UISearchResult> uiResults = convertResults(filtered, se, rp.getQuery());
-
-                        GUIMediator.safeInvokeAndWait(new Runnable() {
-                            public void run() {
-                                try {
-                                    SearchFilter filter = getSearchFilterFactory().createFilter();
-                                    for (UISearchResult sr : uiResults) {
-                                        if (filter.allow(sr)) {
-                                            getSearchResultDisplayer().addQueryResult(token, sr, rp);
-                                        }
-                                    }
-                                } catch (Exception e) {
-                                    e.printStackTrace();
-                                }
-                            }
-
-                        });
+                        List<UISearchResult> uiResults = convertResults(filtered, se, rp.getQuery());
+
+                        // never wait for the UI here, the results are added in batches
+                        dispatcher.offer(token, rp, uiResults);
                     }
                 }
             }
         }
 
         @Override
-        public void onFinished(long token) {
+        public void onFinished(final long token) {
             //System.out.println("Finished: " + token);
-            SearchMediator.this.onFinished(token);
+            dispatcher.finish(token, new Runnable() {
+                public void run() {
+                    SearchMediator.this.onFinished(token);
+                }
+            });
         }
     }
 
@@ -0,0 +1,181 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.limegroup.gnutella.gui.search;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.limewire.util.StringUtils;
+
+import com.frostwire.gui.filters.KeywordMatcher;
+import com.frostwire.search.CrawledSearchResult;
+import com.frostwire.search.FileSearchResult;
+import com.frostwire.search.SearchResult;
+
+/**
+ * Decides if a search result is relevant to the query, that is, if the text of the
+ * result contains all the (sanitized and normalized) tokens of the query.
+ * <p>
+ * The query is tokenized and compiled into a {@link KeywordMatcher} once per search, so
+ * all the tokens are looked for in a single pass. The result text is cleaned in a single pass
+ * over its characters, the regular expressions are compiled once and only used when the
+ * text has HTML markup, and the unicode normalization is skipped for plain ASCII text.
+ * <p>
+ * Instances are immutable and can be shared by the search threads.
+ */
+final class SearchQueryMatcher {
+
+    private static final Pattern HTML_TAG_PATTERN = Pattern.compile("\\<.*?>");
+    private static final Pattern HTML_ENTITY_PATTERN = Pattern.compile("\\&.*?\\;");
+    private static final Pattern DIACRITICAL_MARKS_PATTERN = Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
+
+    /**
+     * Sequences replaced by a space, tried in order before the single characters.
+     */
+    private static final String[] SEPARATOR_SEQUENCES = { ".torrent", "www.", ".com", ".net" };
+
+    /**
+     * Characters replaced by a space.
+     */
+    private static final String SEPARATOR_CHARS = "\\/%_;-.()[]\n\r\u00D0&~{}*@^'=!,\u00A1|#\u00C0\u00C1";
+
+    private static final boolean[] SEPARATORS = new boolean[256];
+
+    static {
+        for (int i = 0; i < SEPARATOR_CHARS.length(); i++) {
+            SEPARATORS[SEPARATOR_CHARS.charAt(i)] = true;
+        }
+    }
+
+    private final String[] tokens;
+    private final KeywordMatcher matcher;
+
+    public SearchQueryMatcher(String query) {
+        String str = StringUtils.removeDoubleSpaces(clean(stripHtml(query))).trim();
+
+        Set<String> set = new LinkedHashSet<String>();
+        for (String token : str.split(" ")) {
+            set.add(normalize(token));
+        }
+
+        this.tokens = set.toArray(new String[set.size()]);
+        this.matcher = new KeywordMatcher(set, false);
+    }
+
+    public boolean isEmpty() {
+        return tokens.length == 0;
+    }
+
+    public boolean matches(SearchResult sr) {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append(sr.getDisplayName());
+        if (sr instanceof CrawledSearchResult) {
+            sb.append(((CrawledSearchResult) sr).getParent().getDisplayName());
+        }
+
+        if (sr instanceof FileSearchResult) {
+            sb.append(((FileSearchResult) sr).getFilename());
+        }
+
+        return matches(sb.toString());
+    }
+
+    public boolean matches(String text) {
+        String str = clean(stripHtml(text));
+
+        return matcher.matchesAll(str);
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(tokens);
+    }
+
+    private static String stripHtml(String str) {
+        if (str.indexOf('<') != -1) {
+            str = HTML_TAG_PATTERN.matcher(str).replaceAll("");
+        }
+        if (str.indexOf('&') != -1) {
+            str = HTML_ENTITY_PATTERN.matcher(str).replaceAll("");
+        }
+        return str;
+    }
+
+    /**
+     * Replaces the separators by spaces and lower cases the text, normalizing it only
+     * if there are non ASCII characters.
+     */
+    private static String clean(String str) {
+        int length = str.length();
+        char[] chars = new char[length];
+        int n = 0;
+        boolean ascii = true;
+
+        int i = 0;
+        while (i < length) {
+            char c = str.charAt(i);
+
+            int sequenceLength = separatorSequenceLength(str, i);
+            if (sequenceLength > 0) {
+                chars[n++] = ' ';
+                i += sequenceLength;
+                continue;
+            }
+
+            if (c < 256 && SEPARATORS[c]) {
+                chars[n++] = ' ';
+            } else if (c < 128) {
+                chars[n++] = (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+            } else {
+                chars[n++] = c;
+                ascii = false;
+            }
+            i++;
+        }
+
+        String cleaned = new String(chars, 0, n);
+
+        return ascii ? cleaned : normalize(cleaned);
+    }
+
+    private static int separatorSequenceLength(String str, int offset) {
+        char c = str.charAt(offset);
+        if (c != '.' && c != 'w') {
+            return 0;
+        }
+
+        for (String sequence : SEPARATOR_SEQUENCES) {
+            if (str.startsWith(sequence, offset)) {
+                return sequence.length();
+            }
+        }
+
+        return 0;
+    }
+
+    private static String normalize(String str) {
+        String norm = Normalizer.normalize(str, Normalizer.Form.NFKD);
+        norm = DIACRITICAL_MARKS_PATTERN.matcher(norm).replaceAll("");
+        norm = norm.toLowerCase(Locale.US);
+
+        return norm;
+    }
+}
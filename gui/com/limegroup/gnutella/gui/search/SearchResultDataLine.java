@@ -15,6 +15,7 @@
 
 package com.limegroup.gnutella.gui.search;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
@@ -61,6 +62,7 @@ public final class SearchResultDataLine extends AbstractDataLine<UISearchResult>
     private SearchResultActionsHolder actionsHolder;
     private SearchResultNameHolder name;
     private String seeds;
+    private int maxSeeds;
     private Icon icon;
     private SizeHolder size;
     private SourceHolder source;
@@ -80,7 +82,8 @@ public final class SearchResultDataLine extends AbstractDataLine<UISearchResult>
         addedOn = sr.getCreationTime() > 0 ? new Date(sr.getCreationTime()) : null;
         actionsHolder = new SearchResultActionsHolder(sr);
         name = new SearchResultNameHolder(sr);
-        seeds = RESULT.getSeeds() <= 0 || !(RESULT instanceof TorrentUISearchResult) ? "" : String.valueOf(RESULT.getSeeds());
+        maxSeeds = RESULT.getSeeds();
+        seeds = maxSeeds <= 0 || !(RESULT instanceof TorrentUISearchResult) ? "" : String.valueOf(maxSeeds);
         icon = getIcon();
         size = new SizeHolder(getSize());
         source = new SourceHolder(RESULT);
@@ -123,6 +126,26 @@ public final class SearchResultDataLine extends AbstractDataLine<UISearchResult>
         }
     }
 
+    /**
+     * Merges the same result found by another engine into this line, the line shows
+     * the most seeds of all of them and the number of other sources.
+     */
+    void addOtherResult(UISearchResult sr) {
+        if (_otherResults == null) {
+            _otherResults = new ArrayList<UISearchResult>(2);
+        }
+        _otherResults.add(sr);
+
+        if (sr.getSeeds() > maxSeeds) {
+            maxSeeds = sr.getSeeds();
+            if (RESULT instanceof TorrentUISearchResult) {
+                seeds = String.valueOf(maxSeeds);
+            }
+        }
+
+        source = new SourceHolder(RESULT, _otherResults.size());
+    }
+
     /**
      * Determines if this line is launchable.
      */
@@ -281,7 +304,7 @@ public final class SearchResultDataLine extends AbstractDataLine<UISearchResult>
     }
 
     public int getSeeds() {
-        return RESULT.getSeeds();
+        return maxSeeds;
     }
 
     public String getHash() {
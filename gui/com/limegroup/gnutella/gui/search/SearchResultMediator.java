@@ -23,6 +23,7 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
@@ -103,7 +104,7 @@ public final class SearchResultMediator extends AbstractTableMediator<TableRowFi
      */
     private long token;
 
-    private final List<String> searchTokens;
+    private final SearchQueryMatcher queryMatcher;
 
     /**
      * The CompositeFilter for this ResultPanel.
@@ -150,7 +151,7 @@ public final class SearchResultMediator extends AbstractTableMediator<TableRowFi
         SEARCH_INFO = SearchInformation.createKeywordSearch("", null, MediaType.getAnyTypeMediaType());
         FILTER = null;
         this.token = 0;
-        this.searchTokens = null;
+        this.queryMatcher = null;
         setButtonEnabled(SearchButtons.TORRENT_DETAILS_BUTTON_INDEX, false);
         // disable dnd for overlay panel
         TABLE.setDragEnabled(false);
@@ -165,11 +166,11 @@ public final class SearchResultMediator extends AbstractTableMediator<TableRowFi
      * @param guid the guid of the query.  Used to match results.
      * @param info the info of the search
      */
-    SearchResultMediator(long token, List<String> searchTokens, SearchInformation info) {
+    SearchResultMediator(long token, SearchQueryMatcher queryMatcher, SearchInformation info) {
         super(SEARCH_TABLE);
         SEARCH_INFO = info;
         this.token = token;
-        this.searchTokens = searchTokens;
+        this.queryMatcher = queryMatcher;
         setupRealTable();
         resetFilters();
     }
@@ -864,8 +865,8 @@ public final class SearchResultMediator extends AbstractTableMediator<TableRowFi
         setButtonEnabled(SearchButtons.STOP_SEARCH_BUTTON_INDEX, active);
     }
 
-    List<String> getSearchTokens() {
-        return searchTokens;
+    SearchQueryMatcher getQueryMatcher() {
+        return queryMatcher;
     }
 
     public void updateFiltersPanel() {
@@ -879,6 +880,52 @@ public final class SearchResultMediator extends AbstractTableMediator<TableRowFi
         searchOptionsPanel.updateFiltersPanel();
     }
 
+    /**
+     * Adds the results with a single table event, in their sorted positions if the
+     * table is sorted in real time, keeping the selection.
+     */
+    void addAll(List<UISearchResult> results) {
+        if (TABLE.isEditing()) {
+            TABLE.getCellEditor().cancelCellEditing();
+        }
+
+        boolean sorted = SETTINGS.REAL_TIME_SORT.getValue() && DATA_MODEL.isSorted();
+
+        // store the currently selected lines, a sorted insert invalidates the rows
+        int[] rows = TABLE.getSelectedRows();
+        SearchResultDataLine[] dls = new SearchResultDataLine[rows.length];
+        SearchResultDataLine inView = null;
+        for (int i = 0; i < rows.length; i++) {
+            dls[i] = DATA_MODEL.get(rows[i]);
+            if (inView == null && TABLE.isRowVisible(rows[i]))
+                inView = dls[i];
+        }
+
+        int start = DATA_MODEL.getRowCount();
+
+        List<UISearchResult> added = new ArrayList<UISearchResult>(results.size());
+
+        if (DATA_MODEL.addAll(results, sorted, added)) {
+            for (int i = 0; i < dls.length; i++) {
+                int sel = DATA_MODEL.getRow(dls[i]);
+                if (sel != -1) {
+                    TABLE.addRowSelectionInterval(sel, sel);
+                    if (inView == dls[i]) {
+                        TABLE.ensureRowVisible(sel);
+                    }
+                }
+            }
+        } else if (DATA_MODEL.getRowCount() > start) {
+            // the new rows must not inherit the selection
+            TABLE.removeRowSelectionInterval(start, DATA_MODEL.getRowCount() - 1);
+        }
+
+        // the merged results are not counted again
+        for (UISearchResult o : added) {
+            schemaBox.updateCounters(o);
+        }
+    }
+
     @Override
     public void add(UISearchResult o, int index) {
         super.add(o, index);
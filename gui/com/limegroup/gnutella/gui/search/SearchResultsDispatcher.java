@@ -0,0 +1,215 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.limegroup.gnutella.gui.search;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.swing.Timer;
+
+import com.frostwire.gui.filters.SearchFilter;
+import com.limegroup.gnutella.gui.GUIMediator;
+
+/**
+ * Hands the results from the search threads to the Swing thread.
+ * <p>
+ * The search threads only append to a queue per search and never wait for the UI. The
+ * Swing thread drains the queues a frame after the first pending results arrive, so
+ * everything received in the meantime is added to the table at once, with a single
+ * table event per search.
+ * <p>
+ * The end of a search is delivered after its pending results. A search stopped or closed
+ * by the user is removed right away, along with the results not yet in the table.
+ */
+final class SearchResultsDispatcher {
+
+    /**
+     * Milliseconds the results are coalesced before they are added to the table.
+     */
+    private static final int FRAME_DELAY = 30;
+
+    /**
+     * Results added to the tables in a single frame, the rest wait for the next one.
+     */
+    private static final int MAX_RESULTS_PER_FRAME = 2000;
+
+    private final ConcurrentMap<Long, Entry> entries;
+    private final AtomicBoolean scheduled;
+    private final Timer timer;
+
+    public SearchResultsDispatcher() {
+        this.entries = new ConcurrentHashMap<Long, Entry>();
+        this.scheduled = new AtomicBoolean();
+        this.timer = new Timer(FRAME_DELAY, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                drain();
+            }
+        });
+        timer.setRepeats(false);
+    }
+
+    /**
+     * Queues the results of a search, can be called from any thread.
+     */
+    public void offer(long token, SearchResultMediator rp, List<UISearchResult> results) {
+        Entry entry = entries.get(token);
+        if (entry == null) {
+            Entry newEntry = new Entry(rp);
+            entry = entries.putIfAbsent(token, newEntry);
+            if (entry == null) {
+                entry = newEntry;
+            }
+        }
+
+        entry.queue.addAll(results);
+
+        schedule();
+    }
+
+    /**
+     * Runs the task in the Swing thread once the pending results of the search are
+     * in the table.
+     */
+    public void finish(long token, Runnable task) {
+        Entry entry = entries.get(token);
+        if (entry == null) {
+            GUIMediator.safeInvokeLater(task);
+            return;
+        }
+
+        entry.finished.set(task);
+
+        if (entries.get(token) != entry) {
+            // removed meanwhile, nothing else is going to run it
+            runFinished(entry);
+        } else {
+            schedule();
+        }
+    }
+
+    /**
+     * Drops the pending results of a search stopped or closed by the user, can be called
+     * from any thread. The end of the search, if already received, is still delivered.
+     */
+    public void remove(long token) {
+        Entry entry = entries.remove(token);
+        if (entry != null) {
+            entry.queue.clear();
+            runFinished(entry);
+        }
+    }
+
+    private void runFinished(Entry entry) {
+        Runnable task = entry.finished.getAndSet(null);
+        if (task != null) {
+            GUIMediator.safeInvokeLater(task);
+        }
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            GUIMediator.safeInvokeLater(new Runnable() {
+                public void run() {
+                    timer.restart();
+                }
+            });
+        }
+    }
+
+    /**
+     * Runs in the Swing thread.
+     */
+    private void drain() {
+        // results arriving from now on need another frame
+        scheduled.set(false);
+
+        SearchFilter filter = SearchMediator.getSearchFilterFactory().createFilter();
+        int budget = MAX_RESULTS_PER_FRAME;
+        boolean pending = false;
+
+        for (Map.Entry<Long, Entry> e : entries.entrySet()) {
+            Entry entry = e.getValue();
+
+            // stopped, or repeated with a new token
+            boolean stale = entry.rp.isStopped() || !entry.rp.matches(e.getKey());
+
+            if (stale) {
+                entry.queue.clear();
+            } else {
+                List<UISearchResult> results = new ArrayList<UISearchResult>();
+
+                UISearchResult sr;
+                while (budget > 0 && (sr = entry.queue.poll()) != null) {
+                    budget--;
+                    if (filter.allow(sr)) {
+                        results.add(sr);
+                    }
+                }
+
+                if (!results.isEmpty()) {
+                    try {
+                        SearchMediator.getSearchResultDisplayer().addQueryResults(results, entry.rp);
+                    } catch (Exception ex) {
+                        ex.printStackTrace();
+                    }
+                }
+            }
+
+            if (!entry.queue.isEmpty()) {
+                pending = true;
+            } else if (entry.finished.get() != null) {
+                entries.remove(e.getKey(), entry);
+                Runnable task = entry.finished.getAndSet(null);
+                if (task != null) {
+                    try {
+                        task.run();
+                    } catch (Exception ex) {
+                        ex.printStackTrace();
+                    }
+                }
+            } else if (stale) {
+                entries.remove(e.getKey(), entry);
+            }
+        }
+
+        if (pending) {
+            schedule();
+        }
+    }
+
+    private static final class Entry {
+
+        public final SearchResultMediator rp;
+        public final Queue<UISearchResult> queue;
+
+        public final AtomicReference<Runnable> finished;
+
+        public Entry(SearchResultMediator rp) {
+            this.rp = rp;
+            this.queue = new ConcurrentLinkedQueue<UISearchResult>();
+            this.finished = new AtomicReference<Runnable>();
+        }
+    }
+}
@@ -15,9 +15,17 @@ public class SourceHolder implements Comparable<SourceHolder> {
     private final String sourceURL;
     
     public SourceHolder(UISearchResult uiSearchResult) {
+        this(uiSearchResult, 0);
+    }
+
+    /**
+     * @param uiSearchResult
+     * @param otherSources number of other engines that found the same result, shown after the link
+     */
+    public SourceHolder(UISearchResult uiSearchResult, int otherSources) {
         this.uiSearchResult = uiSearchResult;
         this.sourceName = uiSearchResult.getSource();
-        this.sourceNameHTML = "<html><div width=\"1000000px\"><nobr><a href=\"#\">" + sourceName + "</a></nobr></div></html>";
+        this.sourceNameHTML = "<html><div width=\"1000000px\"><nobr><a href=\"#\">" + sourceName + "</a>" + (otherSources > 0 ? " +" + otherSources : "") + "</nobr></div></html>";
         this.sourceURL  = uiSearchResult.getSearchResult().getDetailsUrl();
     }
 